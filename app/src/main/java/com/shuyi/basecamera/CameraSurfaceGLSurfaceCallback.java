@@ -26,7 +26,8 @@ public class CameraSurfaceGLSurfaceCallback extends CameraPreviewCallback implem
     @Override
     CameraConfigCreator generateCameraConfig(int rotation, int width, int height) {
         CameraConfigCreator cameraConfigCreator = super.generateCameraConfig(rotation, width, height);
-        cameraConfigCreator.setPreviewCallback(this);
+        cameraConfigCreator.setPreviewCallback(this)
+                .setDirectFrameDelivery(true);
         return cameraConfigCreator;
     }
 
@@ -37,7 +38,12 @@ public class CameraSurfaceGLSurfaceCallback extends CameraPreviewCallback implem
 
     @Override
     public void onPreviewCallback(CameraData cameraData) {
-        if (mGLSurfaceRender != null) {
+        if (mGLSurfaceRender == null) {
+            return;
+        }
+        if (cameraData.directFrame != null) {
+            mGLSurfaceRender.updateYuvData(cameraData.directFrame);
+        } else {
             mGLSurfaceRender.updateYuvData(cameraData.config.previewWidth, cameraData.config.previewHeight, cameraData.frameBuffer);
         }
     }
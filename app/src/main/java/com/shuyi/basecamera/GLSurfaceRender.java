@@ -6,6 +6,8 @@ import android.opengl.GLSurfaceView;
 import android.opengl.Matrix;
 import android.util.Log;
 
+import com.shuyi.camera_module.frame.DirectFrame;
+
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
@@ -54,9 +56,10 @@ public class GLSurfaceRender implements GLSurfaceView.Renderer {
 
     private int[] mYUVTextureId;
 
-    private byte[] mYData;
-
-    private byte[] mUVData;
+    /**
+     * 通过直接内存接收的最新一帧;持有一次引用,收到下一帧时释放
+     */
+    private DirectFrame mDirectFrame;
 
     private ByteBuffer mYBuffer;
 
@@ -129,31 +132,57 @@ public class GLSurfaceRender implements GLSurfaceView.Renderer {
     public void updateYuvData(int width, int height, byte[] yuvData) {
         if (yuvData == null
                 || width <= 0
-                || height <= 0) {
+                || height <= 0
+                || yuvData.length < width * height * 3 / 2) {
             return;
         }
+        DirectFrame previous;
         synchronized (this) {
+            previous = mDirectFrame;
+            mDirectFrame = null;
             if (width != mYUVWidth
                     || height != mYUVHeight
-                    || mYData == null) {
+                    || previous != null
+                    || mYBuffer == null) {
                 mYUVWidth = width;
                 mYUVHeight = height;
-                mYData = new byte[mYUVWidth * mYUVHeight];
-                mYBuffer = ByteBuffer.allocateDirect(yuvData.length)
+                mYBuffer = ByteBuffer.allocateDirect(width * height)
                         .order(ByteOrder.nativeOrder());
-
-                mUVData = new byte[mYUVWidth * mYUVHeight / 2];
-                mUVBuffer = ByteBuffer.allocate(yuvData.length)
+                mUVBuffer = ByteBuffer.allocateDirect(width * height / 2)
                         .order(ByteOrder.nativeOrder());
             }
 
-            System.arraycopy(yuvData, 0, mYData, 0, mYData.length);
-            mYBuffer.position(0);
-            mYBuffer.put(mYData);
+            mYBuffer.clear();
+            mYBuffer.put(yuvData, 0, mYBuffer.capacity());
 
-            System.arraycopy(yuvData, mYData.length, mUVData, 0, mUVData.length);
-            mUVBuffer.position(0);
-            mUVBuffer.put(mUVData);
+            mUVBuffer.clear();
+            mUVBuffer.put(yuvData, mYBuffer.capacity(), mUVBuffer.capacity());
+        }
+        if (previous != null) {
+            previous.release();
+        }
+    }
+
+    /**
+     * 直接使用直接内存中的亮度与色度数据更新纹理,不再拷贝;<br/>
+     * 持有该帧的引用,直到收到下一帧
+     */
+    public void updateYuvData(DirectFrame directFrame) {
+        if (directFrame == null) {
+            return;
+        }
+        directFrame.acquire();
+        DirectFrame previous;
+        synchronized (this) {
+            previous = mDirectFrame;
+            mDirectFrame = directFrame;
+            mYUVWidth = directFrame.getWidth();
+            mYUVHeight = directFrame.getHeight();
+            mYBuffer = directFrame.getYPlane();
+            mUVBuffer = directFrame.getUVPlane();
+        }
+        if (previous != null) {
+            previous.release();
         }
     }
 
@@ -172,10 +201,8 @@ public class GLSurfaceRender implements GLSurfaceView.Renderer {
 
             // 4. 更新yuv纹理
             synchronized (this) {
-                if (mYData == null
-                        || mUVData == null
-                        || mYBuffer == null
-                        || mUVData == null) {
+                if (mYBuffer == null
+                        || mUVBuffer == null) {
                     return;
                 }
                 // 更新y纹理
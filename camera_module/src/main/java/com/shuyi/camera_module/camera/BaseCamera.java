@@ -2,7 +2,6 @@ package com.shuyi.camera_module.camera;
 
 import android.Manifest;
 import android.content.Context;
-import android.graphics.Bitmap;
 import android.graphics.SurfaceTexture;
 import android.hardware.Camera;
 import android.os.Handler;
@@ -19,9 +18,9 @@ import com.shuyi.camera_module.common.IConstants;
 import com.shuyi.camera_module.common.permission.PermissionUtil;
 import com.shuyi.camera_module.common.Result;
 import com.shuyi.camera_module.common.ResultCode;
-import com.shuyi.camera_module.common.Utils;
+import com.shuyi.camera_module.frame.FramePool;
+import com.shuyi.camera_module.image.YuvFormats;
 
-import java.io.File;
 import java.util.List;
 
 /**
@@ -40,6 +39,8 @@ public class BaseCamera implements Camera.PreviewCallback, Camera.AutoFocusCallb
 
     private static final int RELEASE_CAMERA = 4;
 
+    private static final int OPEN_FRAME_SOURCE = 5;
+
     private static final float PREVIEW_SIZE_RATIO_DELTA = 0.001f;
     private static final float PHOTO_RATIO = 0.75f;
     private static final float NORMAL_RATIO = 0.5625f;
@@ -57,10 +58,13 @@ public class BaseCamera implements Camera.PreviewCallback, Camera.AutoFocusCallb
      */
     private Handler mCameraHandler;
 
-    private byte[] mCachedPreviewBuffer;
-
     private Context mContext;
 
+    /**
+     * 预览帧的处理流程:裁剪、格式转换以及向订阅者分发
+     */
+    private final FramePipeline mFramePipeline = new FramePipeline();
+
     /**
      * 该属性只会在camera线程中被读写;所以线程安全
      */
@@ -80,6 +84,12 @@ public class BaseCamera implements Camera.PreviewCallback, Camera.AutoFocusCallb
 
     private boolean mCanUseAutoFocus;
 
+    /**
+     * 通过{@link #openFrameSource(CameraConfig, FrameSource, Callback)}打开的帧来源;打开相机时为空;<br/>
+     * 该值只会在camera线程中被读写;所以线程安全
+     */
+    private FrameSource mFrameSource;
+
     public BaseCamera(Context context) {
         mContext = context;
         mCameraThread = new HandlerThread("camera_worker");
@@ -146,6 +156,39 @@ public class BaseCamera implements Camera.PreviewCallback, Camera.AutoFocusCallb
         }
     }
 
+    /**
+     * 打开相机之外的帧来源,例如录制文件的回放或者测试图案;<br/>
+     * 与{@link #openCamera(CameraConfig, Callback)}使用相同的配置,帧经过与相机预览相同的裁剪、格式转换与分发,
+     * 通过{@link #subscribe(IPreviewCallback, SubscriberOptions)}订阅;<br/>
+     * 不需要相机权限,也不需要预览界面,打开之后立即开始输出帧;
+     * {@link #stopPreview()}停止输出,再次调用该方法重新开始;{@link #releaseCamera(Callback)}释放;<br/>
+     * 已经打开相机时返回{@link ResultCode#FRAME_SOURCE_CONFLICT_ERROR};
+     *
+     * @param cameraConfig   相机配置;surface尺寸用于计算裁剪区域
+     * @param frameSource    帧来源
+     * @param resultCallback 异步回调接口;PS:执行该回调的线程不确定
+     */
+    public void openFrameSource(CameraConfig cameraConfig, FrameSource frameSource, Callback resultCallback) {
+        try {
+            if (cameraConfig == null) {
+                Result.callbackResult(false, ResultCode.CAMERA_CONFIG_EMPTY_ERROR, resultCallback);
+                return;
+            }
+            if (frameSource == null) {
+                Result.callbackResult(false, ResultCode.OPEN_CAMERA_PARAM_ERROR, resultCallback);
+                return;
+            }
+            Object[] objects = new Object[3];
+            objects[0] = cameraConfig;
+            objects[1] = resultCallback;
+            objects[2] = frameSource;
+            Message message = mCameraHandler.obtainMessage(OPEN_FRAME_SOURCE, objects);
+            message.sendToTarget();
+        } catch (NullPointerException exception) {
+            Result.callbackResult(false, ResultCode.OPEN_CAMERA_NULL_THREAD_ERROR, resultCallback);
+        }
+    }
+
     private void requestCameraPermission(final Runnable grantedRunnable, final Runnable deniedRunnable) {
         String requestCameraPermissionTip = mContext.getResources().getString(R.string.request_camera_permission_tip);
         String[] permissions =
@@ -199,6 +242,12 @@ public class BaseCamera implements Camera.PreviewCallback, Camera.AutoFocusCallb
                 return;
             }
 
+            // 已经打开了帧来源
+            if (mFrameSource != null) {
+                Result.callbackResult(false, ResultCode.FRAME_SOURCE_CONFLICT_ERROR, callback);
+                return;
+            }
+
             // 检测相机配置对象
             if (objects[0] == null
                     || !(objects[0] instanceof OpenCameraConfig)) {
@@ -257,6 +306,62 @@ public class BaseCamera implements Camera.PreviewCallback, Camera.AutoFocusCallb
         }
     }
 
+    // 在相机线程之中执行
+    private void realOpenFrameSource(Message message) {
+        Callback callback = null;
+        Object[] objects;
+        try {
+            if (message == null
+                    || message.what != OPEN_FRAME_SOURCE
+                    || !(message.obj instanceof Object[])
+                    || (objects = (Object[]) message.obj) == null
+                    || objects.length < 3
+                    || Looper.myLooper() != mCameraThread.getLooper()) {
+                // 此处分支无法拿到回调对象，所以直接返回
+                Log.e(TAG, "because of bad params, open frame source failed...");
+                return;
+            }
+
+            if (objects[1] != null
+                    && objects[1] instanceof Callback) {
+                callback = (Callback) objects[1];
+            }
+
+            if (isOpened()
+                    || (mFrameSource != null && mFrameSource != objects[2])) {
+                Result.callbackResult(false, ResultCode.FRAME_SOURCE_CONFLICT_ERROR, callback);
+                return;
+            }
+
+            // 已经在输出帧了
+            if (mPreviewing) {
+                Result.callbackResult(true, callback);
+                return;
+            }
+
+            if (!(objects[0] instanceof OpenCameraConfig)
+                    || !(objects[2] instanceof FrameSource)) {
+                Result.callbackResult(false, ResultCode.OPEN_CAMERA_PARAM_ERROR, callback);
+                return;
+            }
+
+            FrameSource frameSource = (FrameSource) objects[2];
+            if (!mFramePipeline.start((OpenCameraConfig) objects[0], frameSource)) {
+                Result.callbackResult(false, ResultCode.OPEN_CAMERA_PARAM_ERROR, callback);
+                return;
+            }
+            mCameraData = new CameraData();
+            mCameraData.config = (OpenCameraConfig) objects[0];
+            mFrameSource = frameSource;
+            mPreviewing = true;
+
+            Result.callbackResult(true, callback);
+        } catch (Throwable throwable) {
+            Log.e(TAG, "failed to open frame source...", throwable);
+            Result.callbackResult(false, ResultCode.OPEN_CAMERA_EXCEPTION, callback);
+        }
+    }
+
     /**
      * 开启预览;<br/>
      * 该方法被执行之前，必须调用{@link #openCamera(CameraConfig, Callback)}方法;<br/>
@@ -426,9 +531,14 @@ public class BaseCamera implements Camera.PreviewCallback, Camera.AutoFocusCallb
             }
 
             // 设置预览回调
-            mCachedPreviewBuffer = new byte[openCameraConfig.originPreviewWidth * openCameraConfig.originPreviewHeight * 3 / 2];
             mCamera.setPreviewCallbackWithBuffer(this);
-            mCamera.addCallbackBuffer(mCachedPreviewBuffer);
+            final Camera camera = mCamera;
+            mFramePipeline.start(openCameraConfig, mCameraData.format, new PreviewBufferRing.BufferQueue() {
+                @Override
+                public void queueBuffer(byte[] buffer) {
+                    camera.addCallbackBuffer(buffer);
+                }
+            });
 
             // 开始预览
             mCamera.startPreview();
@@ -473,22 +583,14 @@ public class BaseCamera implements Camera.PreviewCallback, Camera.AutoFocusCallb
         }
 
         // 计算剪切后的预览帧图片
-        computeCroppedPreviewSize(openCameraConfig);
+        openCameraConfig.computeCroppedPreviewSize();
 
-        // 预览格式
-        mCameraData.format = openCameraConfig.mPreviewFormat;
-        List<Integer> supportedPreviewFormat = parameters.getSupportedPreviewFormats();
-        boolean isSupported = false;
-        for (Integer integer : supportedPreviewFormat) {
-            if (integer == mCameraData.format) {
-                isSupported = true;
-                break;
-            }
-        }
-        if (!isSupported) {
-            mCameraData.format = IConstants.DEFAULT_PREVIEW_FORMAT;
-        }
-        parameters.setPreviewFormat(mCameraData.format);
+        // 预览格式;相机始终输出NV21(所有设备都支持),
+        // 其他格式在裁剪的同时完成转换,避免使用者再转换一次
+        mCameraData.format = YuvFormats.isSupported(openCameraConfig.mPreviewFormat)
+                ? openCameraConfig.mPreviewFormat
+                : IConstants.DEFAULT_PREVIEW_FORMAT;
+        parameters.setPreviewFormat(FramePipeline.CAPTURE_FORMAT);
 
         // 自动聚焦
         if (openCameraConfig.isAutoFocus) {
@@ -571,44 +673,6 @@ public class BaseCamera implements Camera.PreviewCallback, Camera.AutoFocusCallb
         return Math.abs(heightAndWidthRatio - correctRatio) < PREVIEW_SIZE_RATIO_DELTA;
     }
 
-    private void computeCroppedPreviewSize(OpenCameraConfig openCameraConfig) {
-        if (openCameraConfig.isForbidCrop
-                || openCameraConfig.surfaceWidth == 0
-                || openCameraConfig.surfaceHeight == 0) {
-            // 不剪切
-            openCameraConfig.isCropped = false;
-            openCameraConfig.previewWidth = openCameraConfig.originPreviewWidth;
-            openCameraConfig.previewHeight = openCameraConfig.originPreviewHeight;
-            Log.i(TAG, String.format("force no crop!!! the origin preview size[%d, %d]; the surface size[%d, %d]; the cropped size[%d, %d]",
-                    openCameraConfig.originPreviewWidth, openCameraConfig.originPreviewHeight,
-                    openCameraConfig.surfaceWidth, openCameraConfig.surfaceHeight,
-                    openCameraConfig.previewWidth, openCameraConfig.previewHeight));
-            return;
-        }
-
-        float surfaceRatio = (float) openCameraConfig.surfaceWidth / (float) openCameraConfig.surfaceHeight;
-        float previewRatio = (float) openCameraConfig.originPreviewWidth / (float) openCameraConfig.originPreviewHeight;
-        if (surfaceRatio >= previewRatio) {
-            openCameraConfig.previewWidth = openCameraConfig.originPreviewWidth;
-            openCameraConfig.previewHeight = (int) (openCameraConfig.originPreviewWidth / surfaceRatio);
-        } else {
-            openCameraConfig.previewWidth = (int) (openCameraConfig.originPreviewHeight * surfaceRatio);
-            openCameraConfig.previewHeight = openCameraConfig.originPreviewHeight;
-        }
-        openCameraConfig.isCropped = openCameraConfig.previewWidth != openCameraConfig.originPreviewWidth;
-        openCameraConfig.isCropped |= openCameraConfig.previewHeight != openCameraConfig.originPreviewHeight;
-        if (openCameraConfig.isCropped) {
-            // 避免预览尺寸的宽高是奇数的情况，以便裁剪
-            // todo 玩美SDK底层需要要预览帧宽度必须与4对齐
-            openCameraConfig.previewWidth = openCameraConfig.previewWidth / 4 * 4;
-            openCameraConfig.previewHeight = openCameraConfig.previewHeight / 4 * 4;
-        }
-        Log.i(TAG, String.format("the origin preview size[%d, %d]; the surface size[%d, %d]; the cropped size[%d, %d]",
-                openCameraConfig.originPreviewWidth, openCameraConfig.originPreviewHeight,
-                openCameraConfig.surfaceWidth, openCameraConfig.surfaceHeight,
-                openCameraConfig.previewWidth, openCameraConfig.previewHeight));
-    }
-
     @Override
     public void onAutoFocus(boolean success, Camera camera) {
 //        ALog.i("auto focus %b", success);
@@ -619,40 +683,70 @@ public class BaseCamera implements Camera.PreviewCallback, Camera.AutoFocusCallb
         }
     }
 
-    @Override
-    public void onPreviewFrame(byte[] data, Camera camera) {
-        try {
-            if (!isOpened()
-                    || !mPreviewing) {
-                return;
-            }
+    /**
+     * 获取预览帧的处理流程
+     */
+    public FramePipeline getFramePipeline() {
+        return mFramePipeline;
+    }
 
-            Bitmap bitmap = Utils.saveNV21ToBitmap(data, 1280, 720);
-            Utils.saveBitmap(Bitmap.CompressFormat.JPEG, bitmap, new File("/sdcard/shuyi.jpg"));
-
-            mCamera.addCallbackBuffer(mCachedPreviewBuffer);
-
-            OpenCameraConfig cameraConfig = (OpenCameraConfig) mCameraData.config;
-            if (cameraConfig.externalPreviewCallback != null) {
-                // 进行裁剪
-                if (cameraConfig.isCropped) {
-                    int startX = (cameraConfig.originPreviewWidth - cameraConfig.previewWidth) / 2;
-                    int startY = (cameraConfig.originPreviewHeight - cameraConfig.previewHeight) / 2;
-                    // TODO: 2019/5/16 目前支持NV21格式的裁剪
-                    // Utils.clipNV21方法平均在4毫秒左右(720P)
-                    mCameraData.frameBuffer = Utils.clipNV21(data, cameraConfig.originPreviewWidth,
-                            cameraConfig.originPreviewHeight, startX, startY,
-                            cameraConfig.previewWidth, cameraConfig.previewHeight);
-                } else {
-                    // TODO: 2019/5/16 preview byte array同步的问题
-                    mCameraData.frameBuffer = data;
-                }
+    /**
+     * 获取预览帧回调缓存环,用于查看缓存的使用情况以及缓存饥饿次数;<br/>
+     * 开始预览之前为空
+     */
+    public PreviewBufferRing getPreviewBufferRing() {
+        return mFramePipeline.getPreviewBufferRing();
+    }
 
-                cameraConfig.externalPreviewCallback.onPreviewCallback(mCameraData);
-            }
-        } catch (Throwable throwable) {
-            Log.e(TAG, "failed to invoke preview callback...", throwable);
-        }
+    /**
+     * 获取裁剪后预览帧的缓存池,用于查看内存分配情况
+     */
+    public FramePool getFramePool() {
+        return mFramePipeline.getFramePool();
+    }
+
+    /**
+     * 订阅预览帧;见{@link FramePipeline#subscribe(IPreviewCallback, SubscriberOptions)}
+     *
+     * @param callback 预览帧回调接口
+     * @param options  订阅者配置;为空时使用默认配置
+     * @return 是否订阅成功
+     */
+    public boolean subscribe(IPreviewCallback callback, SubscriberOptions options) {
+        return mFramePipeline.subscribe(callback, options);
+    }
+
+    /**
+     * 取消订阅预览帧;见{@link FramePipeline#unsubscribe(IPreviewCallback)}
+     *
+     * @param callback 预览帧回调接口
+     * @return 是否取消成功
+     */
+    public boolean unsubscribe(IPreviewCallback callback) {
+        return mFramePipeline.unsubscribe(callback);
+    }
+
+    /**
+     * 获取订阅者的分发器,用于查看分发队列的深度以及丢帧情况;
+     *
+     * @param callback 预览帧回调接口
+     * @return 未订阅时为空
+     */
+    public FrameDispatcher getFrameDispatcher(IPreviewCallback callback) {
+        return mFramePipeline.getFrameDispatcher(callback);
+    }
+
+    /**
+     * 获取预览帧快照服务,用于查看快照的写入与丢弃情况;<br/>
+     * 未开启快照或者未开始预览时为空
+     */
+    public FrameSnapshotService getSnapshotService() {
+        return mFramePipeline.getSnapshotService();
+    }
+
+    @Override
+    public void onPreviewFrame(byte[] data, Camera camera) {
+        mFramePipeline.onFrame(data);
     }
 
     public void stopPreview() {
@@ -662,6 +756,8 @@ public class BaseCamera implements Camera.PreviewCallback, Camera.AutoFocusCallb
 
     private void stopPreview(boolean isNeedReleaseCamera, Callback callback) {
         try {
+            // 立即停止分发,避免相机线程因为等待分发队列而无法及时处理停止预览的消息
+            stopDispatching();
             Message message = mCameraHandler.obtainMessage(STOP_PREVIEW);
             message.arg1 = isNeedReleaseCamera ? 1 : 0;
             message.obj = callback;
@@ -704,6 +800,9 @@ public class BaseCamera implements Camera.PreviewCallback, Camera.AutoFocusCallb
                 }
             }
 
+            // 订阅关系在停止预览之后仍然保留,只丢弃尚未分发的帧
+            mFramePipeline.stop();
+
             boolean releaseCamera = message.arg1 == 1 ? true : false;
             if (releaseCamera) {
                 message = mCameraHandler.obtainMessage(RELEASE_CAMERA);
@@ -724,6 +823,7 @@ public class BaseCamera implements Camera.PreviewCallback, Camera.AutoFocusCallb
      */
     public void releaseCamera(Callback callback) {
         try {
+            stopDispatching();
             Message message = mCameraHandler.obtainMessage(RELEASE_CAMERA);
             message.obj = callback;
             message.sendToTarget();
@@ -732,6 +832,13 @@ public class BaseCamera implements Camera.PreviewCallback, Camera.AutoFocusCallb
         }
     }
 
+    /**
+     * 该方法可以在任意线程中调用
+     */
+    private void stopDispatching() {
+        mFramePipeline.stopDispatching();
+    }
+
     private void realReleaseCamera(Message message) {
         if (message == null
                 || message.what != RELEASE_CAMERA
@@ -764,11 +871,11 @@ public class BaseCamera implements Camera.PreviewCallback, Camera.AutoFocusCallb
                 mCamera.release();
                 mCamera = null;
                 mCameraData.config = null;
-                mCameraData.frameBuffer = null;
             }
 
             mCameraData = null;
-            mCachedPreviewBuffer = null;
+            mFrameSource = null;
+            mFramePipeline.release();
             Result.callbackResult(true, callback);
         } catch (Throwable throwable) {
             Log.e(TAG, "failed to release camera...", throwable);
@@ -797,6 +904,9 @@ public class BaseCamera implements Camera.PreviewCallback, Camera.AutoFocusCallb
                     case RELEASE_CAMERA:
                         realReleaseCamera(message);
                         break;
+                    case OPEN_FRAME_SOURCE:
+                        realOpenFrameSource(message);
+                        break;
                     default:
                         break;
                 }
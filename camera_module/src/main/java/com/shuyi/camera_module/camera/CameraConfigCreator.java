@@ -2,6 +2,11 @@ package com.shuyi.camera_module.camera;
 
 import android.hardware.Camera;
 
+import com.shuyi.camera_module.image.FrameStatsCalculator;
+import com.shuyi.camera_module.image.YuvFormats;
+
+import java.io.File;
+
 /**
  * 创建一个{@link OpenCameraConfig}对象;
  * <ul>
@@ -25,11 +30,44 @@ import android.hardware.Camera;
  * 默认为空;
  * </li>
  * <li>
+ * 调用{@link #setDirectFrameDelivery(boolean)}设置预览帧回调是否通过直接内存接收预览帧,默认为false;
+ * </li>
+ * <li>
+ * 调用{@link #addPreviewSubscriber(IPreviewCallback, SubscriberOptions)}增加其他的预览帧订阅者,
+ * 例如接收缩小之后的预览帧的分析类使用者,默认为空;
+ * </li>
+ * <li>
+ * 调用{@link #setUprightFrame(boolean)}设置预览帧回调是否接收与屏幕预览方向相同的预览帧,默认为false;
+ * </li>
+ * <li>
  * 调用{@link #setSurfaceWidth(int)}设置surface的宽度
  * </li>
  * <li>
  * 调用{@link #setSurfaceHeight(int)}设置surface的高度
  * </li>
+ * <li>
+ * 调用{@link #setCropMode(CropMode)}设置预览帧的裁剪方式,默认为{@link CropMode#COPY};
+ * </li>
+ * <li>
+ * 调用{@link #setPreviewFormat(int)}设置提供给使用者的预览帧格式,默认为{@link YuvFormats#NV21};
+ * </li>
+ * <li>
+ * 调用{@link #setPreviewBufferCount(int)}设置预览帧回调缓存的数量,
+ * 默认为{@link OpenCameraConfig#DEFAULT_PREVIEW_BUFFER_COUNT};
+ * </li>
+ * <li>
+ * 调用{@link #enableFrameSnapshot(File, int)}开启预览帧快照,默认不开启;
+ * </li>
+ * <li>
+ * 调用{@link #setFrameDispatchPolicy(FrameDispatcher.OverflowPolicy, int)}设置预览帧分发队列,
+ * 默认为{@link FrameDispatcher.OverflowPolicy#DROP_OLDEST},容量为{@link FrameDispatcher#DEFAULT_QUEUE_CAPACITY};
+ * </li>
+ * <li>
+ * 调用{@link #enableFrameStats(FrameStatsCalculator)}开启预览帧的3A统计,默认不开启;
+ * </li>
+ * <li>
+ * 调用{@link #enableMotionGate(MotionGate)}开启运动门限,跳过场景没有变化的帧,默认不开启;
+ * </li>
  * </ul>
  */
 public class CameraConfigCreator {
@@ -73,6 +111,20 @@ public class CameraConfigCreator {
         return this;
     }
 
+    /**
+     * 设置预览帧的裁剪方式;<br/>
+     * 能够处理行跨度的使用者(例如GL纹理上传、缩放、编码器)可以使用{@link CropMode#VIEW},省去裁剪时的拷贝;
+     *
+     * @param cropMode 为空时会被忽略
+     * @return
+     */
+    public CameraConfigCreator setCropMode(CropMode cropMode) {
+        if (cropMode != null) {
+            openCameraConfig.cropMode = cropMode;
+        }
+        return this;
+    }
+
     public CameraConfigCreator setDisplayRotation(int displayRotation) {
         if (BaseCamera.isValidDisplayRotation(displayRotation)) {
             openCameraConfig.displayOrientation = displayRotation;
@@ -80,11 +132,46 @@ public class CameraConfigCreator {
         return this;
     }
 
+    /**
+     * 设置预览帧回调;<br/>
+     * 回调在独立的分发线程中执行,不会阻塞相机线程;
+     */
     public CameraConfigCreator setPreviewCallback(IPreviewCallback previewCallback) {
         openCameraConfig.externalPreviewCallback = previewCallback;
         return this;
     }
 
+    /**
+     * 设置预览帧回调是否通过直接内存接收预览帧;见{@link SubscriberOptions#setDirectBuffer(boolean)}
+     */
+    public CameraConfigCreator setDirectFrameDelivery(boolean directFrameDelivery) {
+        openCameraConfig.directFrameDelivery = directFrameDelivery;
+        return this;
+    }
+
+    /**
+     * 设置预览帧回调是否接收与屏幕预览方向相同的预览帧;见{@link SubscriberOptions#setUpright(boolean)}
+     */
+    public CameraConfigCreator setUprightFrame(boolean uprightFrame) {
+        openCameraConfig.uprightFrame = uprightFrame;
+        return this;
+    }
+
+    /**
+     * 增加一个预览帧订阅者,开始预览时订阅;<br/>
+     * 与{@link #setPreviewCallback(IPreviewCallback)}相互独立,例如可以同时为显示提供原始帧,
+     * 通过{@link SubscriberOptions#setOutputSize(int, int)}为检测模型提供缩小之后的帧
+     *
+     * @param previewCallback 预览帧回调接口
+     * @param options         订阅者配置;为空时使用默认配置
+     */
+    public CameraConfigCreator addPreviewSubscriber(IPreviewCallback previewCallback, SubscriberOptions options) {
+        if (previewCallback != null) {
+            openCameraConfig.previewSubscribers.put(previewCallback, options == null ? new SubscriberOptions() : options);
+        }
+        return this;
+    }
+
     public CameraConfigCreator setSurfaceWidth(int surfaceWidth) {
         openCameraConfig.surfaceWidth = surfaceWidth;
         return this;
@@ -100,11 +187,109 @@ public class CameraConfigCreator {
         return this;
     }
 
-    // 因为涉及到裁剪，所以目前暂时只支持NV21
-//    public CameraConfigCreator setPreviewFormat(int previewFormat) {
-//        openCameraConfig.mPreviewFormat = previewFormat;
-//        return this;
-//    }
+    /**
+     * 设置预览帧回调缓存的数量;<br/>
+     * 缓存越多,相机在使用者处理较慢时越不容易丢帧,但是占用的内存也越多;
+     *
+     * @param bufferCount 取值范围为[1, {@link OpenCameraConfig#MAX_PREVIEW_BUFFER_COUNT}],超出范围的值会被忽略
+     * @return
+     */
+    public CameraConfigCreator setPreviewBufferCount(int bufferCount) {
+        if (bufferCount > 0
+                && bufferCount <= OpenCameraConfig.MAX_PREVIEW_BUFFER_COUNT) {
+            openCameraConfig.previewBufferCount = bufferCount;
+        }
+        return this;
+    }
+
+    /**
+     * 设置预览帧分发队列;<br/>
+     * 未裁剪的预览帧在队列中会占用相机缓存,
+     * 所以队列容量加上正在处理的一帧不宜超过{@link #setPreviewBufferCount(int)}设置的缓存数量;
+     *
+     * @param overflowPolicy 队列已满时的处理策略;为空时会被忽略
+     * @param queueCapacity  队列容量;必须大于0,否则会被忽略
+     * @return
+     */
+    public CameraConfigCreator setFrameDispatchPolicy(FrameDispatcher.OverflowPolicy overflowPolicy, int queueCapacity) {
+        if (overflowPolicy != null) {
+            openCameraConfig.dispatchOverflowPolicy = overflowPolicy;
+        }
+        if (queueCapacity > 0) {
+            openCameraConfig.dispatchQueueCapacity = queueCapacity;
+        }
+        return this;
+    }
+
+    /**
+     * 开启预览帧快照;<br/>
+     * 按照指定的时间间隔对原始预览帧进行采样,在后台线程中编码为JPEG后写入指定文件(覆盖写入);<br/>
+     * 后台线程处理不过来时,新的快照会被丢弃,不会阻塞相机线程;
+     *
+     * @param file       快照文件;为空表示关闭快照
+     * @param intervalMs 两次快照之间的最小时间间隔,单位毫秒
+     * @return
+     */
+    public CameraConfigCreator enableFrameSnapshot(File file, int intervalMs) {
+        openCameraConfig.snapshotFile = file;
+        if (intervalMs >= 0) {
+            openCameraConfig.snapshotIntervalMs = intervalMs;
+        }
+        return this;
+    }
+
+    /**
+     * 开启预览帧的3A统计;<br/>
+     * 相机线程在分发之前统计每一个需要分发的帧,结果通过{@link CameraData#stats}提供给使用者;
+     * 采样步长与统计区域通过calculator配置
+     *
+     * @param calculator 为空表示不开启
+     * @return
+     */
+    public CameraConfigCreator enableFrameStats(FrameStatsCalculator calculator) {
+        openCameraConfig.frameStatsCalculator = calculator;
+        return this;
+    }
+
+    /**
+     * 开启运动门限;<br/>
+     * 相机线程在裁剪之前比较每一个需要分发的帧与上一个分发帧,场景没有变化时不再裁剪与分发,
+     * 适用于固定机位的监控类场景;门限与强制放行间隔通过gate配置,跳帧比例也通过gate获取
+     *
+     * @param gate 为空表示不开启
+     * @return
+     */
+    public CameraConfigCreator enableMotionGate(MotionGate gate) {
+        openCameraConfig.motionGate = gate;
+        return this;
+    }
+
+    /**
+     * 设置最多同时等待写入的预览帧快照数量;
+     *
+     * @param capacity 必须大于0,否则会被忽略
+     * @return
+     */
+    public CameraConfigCreator setSnapshotQueueCapacity(int capacity) {
+        if (capacity > 0) {
+            openCameraConfig.snapshotQueueCapacity = capacity;
+        }
+        return this;
+    }
+
+    /**
+     * 设置提供给使用者的预览帧格式;<br/>
+     * 相机始终输出NV21,其他格式在裁剪的同时完成转换,不需要额外的遍历;
+     * 旋转、缩放以及{@link CropMode#VIEW}目前只支持NV21,其他格式下会被忽略
+     *
+     * @param previewFormat {@link YuvFormats}中的格式,不支持的格式会被忽略
+     */
+    public CameraConfigCreator setPreviewFormat(int previewFormat) {
+        if (YuvFormats.isSupported(previewFormat)) {
+            openCameraConfig.mPreviewFormat = previewFormat;
+        }
+        return this;
+    }
 
     public CameraConfig create() {
         return openCameraConfig;
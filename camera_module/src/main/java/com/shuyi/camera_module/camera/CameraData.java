@@ -1,9 +1,13 @@
 package com.shuyi.camera_module.camera;
 
 import com.shuyi.camera_module.common.IConstants;
+import com.shuyi.camera_module.frame.DirectFrame;
+import com.shuyi.camera_module.frame.Frame;
+import com.shuyi.camera_module.frame.FrameStats;
 
 /**
- * 提供给外部模块使用的相机相关的数据;
+ * 提供给外部模块使用的相机相关的数据;<br/>
+ * 每一帧都会创建新的对象,不会复用;
  */
 public class CameraData {
 
@@ -13,10 +17,89 @@ public class CameraData {
     public CameraConfig config;
 
     /**
-     * 相机帧数据
+     * 相机帧数据;与{@link Frame#getData()}相同;<br/>
+     * {@link CropMode#VIEW}模式下是完整的相机缓存,需要结合{@link #frame}的偏移与行跨度访问
      */
     public byte[] frameBuffer;
 
+    /**
+     * 相机帧句柄;<br/>
+     * 如果需要在{@link IPreviewCallback#onPreviewCallback(CameraData)}返回之后继续使用该帧,
+     * 需要先调用{@link Frame#acquire()},使用完成后再调用{@link Frame#release()}
+     */
+    public Frame frame;
+
+    /**
+     * 保存在直接内存中的紧凑帧数据;只有订阅时设置了{@link SubscriberOptions#setDirectBuffer(boolean)}才不为空;<br/>
+     * 如果需要在回调返回之后继续使用,需要先调用{@link DirectFrame#acquire()},使用完成后再调用{@link DirectFrame#release()}
+     */
+    public DirectFrame directFrame;
+
+    /**
+     * 将该帧顺时针旋转该角度之后,与屏幕预览的方向一致;取值为0、90、180、270;<br/>
+     * 订阅时设置了{@link SubscriberOptions#setUpright(boolean)}的使用者拿到的帧已经转换过,该值为0
+     */
+    public int rotation;
+
+    /**
+     * 旋转之前是否需要水平镜像;前置摄像头的屏幕预览是镜像的;<br/>
+     * 订阅时设置了{@link SubscriberOptions#setUpright(boolean)}的使用者拿到的帧已经转换过,该值为false
+     */
+    public boolean mirror;
+
+    /**
+     * 该帧的3A统计;只有开启了{@link CameraConfigCreator#enableFrameStats}才不为空;<br/>
+     * 统计的是相机线程分发的帧,不受订阅者旋转与缩放的影响;
+     * 与帧一起回收,如果需要在回调返回之后继续使用,需要拷贝或者持有{@link #frame}的引用
+     */
+    public FrameStats stats;
+
+    /**
+     * 该帧相对于上一个分发帧的运动分数,取值范围为[0, 255];
+     * 没有开启{@link CameraConfigCreator#enableMotionGate(MotionGate)}或者没有比较基准时为-1
+     */
+    public float motionScore = -1;
+
+    /**
+     * 感兴趣区域的帧,与{@link SubscriberOptions#addRegion(RegionOfInterest)}的顺序相同;
+     * 没有设置区域时为空,某个区域提取失败时对应的位置为空;<br/>
+     * 如果需要在回调返回之后继续使用,需要先调用{@link Frame#acquire()},使用完成后再调用{@link Frame#release()}
+     */
+    public Frame[] regions;
+
+    /**
+     * 帧序号;从0开始单调递增,每个相机帧加一,序号不连续说明中间的帧没有交给该使用者
+     */
+    public long sequence;
+
+    /**
+     * 该使用者应当收到的帧的序号;从0开始,每个按照期望帧率需要分发给该使用者的帧加一;<br/>
+     * 与{@link #sequence}不同,被期望帧率主动跳过的帧、运动门限跳过的帧都不会占用序号,
+     * 序号不连续说明分发队列溢出或者分发线程处理失败,丢弃了中间的帧
+     */
+    public long dispatchSequence;
+
+    /**
+     * 帧到达{@link android.hardware.Camera.PreviewCallback#onPreviewFrame(byte[], android.hardware.Camera)}的时间;<br/>
+     * 本类中所有的时间都来源于{@link System#nanoTime()},单位纳秒
+     */
+    public long arrivalTimeNs;
+
+    /**
+     * 裁剪完成的时间;不需要裁剪时为帧句柄创建完成的时间
+     */
+    public long cropDoneTimeNs;
+
+    /**
+     * 进入该使用者分发队列的时间
+     */
+    public long dispatchTimeNs;
+
+    /**
+     * 分发线程开始调用该使用者回调的时间
+     */
+    public long deliverTimeNs;
+
     /**
      * 预览帧格式;默认为{@link IConstants#DEFAULT_PREVIEW_FORMAT}
      */
@@ -0,0 +1,20 @@
+package com.shuyi.camera_module.camera;
+
+/**
+ * 预览帧的裁剪方式;
+ */
+public enum CropMode {
+    /**
+     * 将裁剪区域拷贝到缓存池中的紧凑数组;
+     * {@link CameraData#frameBuffer}就是裁剪后的完整数据
+     */
+    COPY,
+    /**
+     * 不拷贝数据,直接将裁剪区域作为原始相机缓存上的视图交给使用者;<br/>
+     * {@link CameraData#frameBuffer}是完整的相机缓存,
+     * 使用者需要根据{@link com.shuyi.camera_module.frame.Frame}的偏移与行跨度访问裁剪区域,
+     * 或者通过{@link com.shuyi.camera_module.frame.Frame#copyTo(byte[])}拷贝出紧凑的数据;<br/>
+     * 视图会一直占用相机缓存,直到最后一个持有者释放该帧
+     */
+    VIEW
+}
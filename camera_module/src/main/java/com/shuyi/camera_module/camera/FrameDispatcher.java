@@ -0,0 +1,625 @@
+package com.shuyi.camera_module.camera;
+
+import android.graphics.ImageFormat;
+import android.util.Log;
+
+import com.shuyi.camera_module.frame.DirectBufferPool;
+import com.shuyi.camera_module.frame.DirectFrame;
+import com.shuyi.camera_module.frame.Frame;
+import com.shuyi.camera_module.frame.FramePool;
+import com.shuyi.camera_module.image.FrameTransform;
+import com.shuyi.camera_module.image.NV21Rotator;
+
+import java.util.ArrayDeque;
+
+/**
+ * 预览帧分发器;每个订阅者对应一个分发器;<br/>
+ * 相机线程只负责将预览帧放入有界队列,由分发器自己的工作线程调用{@link IPreviewCallback};
+ * 使用者处理较慢时,既不会阻塞相机出帧,也不会阻塞打开、预览、停止等相机控制消息,也不会影响其他订阅者;<br/>
+ * 队列已满时的处理方式由{@link OverflowPolicy}决定;
+ * 设置了期望帧率时,会均匀地跳过部分帧;<br/>
+ * 所有订阅者共享同一个{@link com.shuyi.camera_module.frame.Frame},
+ * 队列中的每一帧都持有一次引用,回调返回或者被丢弃时释放;<br/>
+ * 每一帧的各阶段耗时与丢帧情况记录在{@link #getLatencyTracker()}中;<br/>
+ * 订阅者要求旋转或者缩放时,转换在分发线程中进行,不占用相机线程;
+ */
+public class FrameDispatcher {
+    private static final String TAG = "FrameDispatcher";
+
+    static final int DEFAULT_QUEUE_CAPACITY = 1;
+
+    /**
+     * {@link OverflowPolicy#BLOCK}策略下,相机线程最长的等待时间;
+     * 超时后该帧会被丢弃,保证相机控制消息能够及时得到处理
+     */
+    static final long DEFAULT_MAX_BLOCK_MS = 33;
+
+    /**
+     * 队列已满时的处理策略
+     */
+    public enum OverflowPolicy {
+        /**
+         * 丢弃队列中最旧的帧,放入最新的帧;使用者总是拿到最新的帧
+         */
+        DROP_OLDEST,
+        /**
+         * 丢弃最新的帧;使用者按顺序处理已经入队的帧
+         */
+        DROP_NEWEST,
+        /**
+         * 相机线程等待队列空出位置,最多等待{@link SubscriberOptions#setMaxBlockMs(long)}毫秒,超时后丢弃最新的帧
+         */
+        BLOCK
+    }
+
+    private final IPreviewCallback mCallback;
+
+    private final int mQueueCapacity;
+
+    private final OverflowPolicy mOverflowPolicy;
+
+    private final long mMaxBlockMs;
+
+    /**
+     * 直接内存缓存池;没有设置{@link SubscriberOptions#setDirectBuffer(boolean)}时为空
+     */
+    private final DirectBufferPool mDirectBufferPool;
+
+    /**
+     * 是否在回调之前将预览帧转换为与屏幕预览相同的方向
+     */
+    private final boolean mUpright;
+
+    /**
+     * 回调拿到的帧的宽高;小于等于0表示不缩放
+     */
+    private final int mOutputWidth;
+
+    private final int mOutputHeight;
+
+    /**
+     * 转换之后的预览帧的缓存池;只会在分发线程中使用
+     */
+    private final FramePool mFramePool = new FramePool();
+
+    /**
+     * 最近一次使用的帧变换,以及对应的源帧尺寸、旋转角度与镜像;参数不变时复用,只会在分发线程中使用
+     */
+    private FrameTransform mTransform;
+
+    private int mTransformWidth;
+
+    private int mTransformHeight;
+
+    private int mTransformRotation;
+
+    private boolean mTransformMirror;
+
+    /**
+     * 感兴趣区域的提取状态;只会在分发线程中使用
+     */
+    private final RegionState[] mRegions;
+
+    /**
+     * 两次分发之间的时间间隔,单位纳秒;0表示不限制帧率
+     */
+    private final long mFrameIntervalNs;
+
+    private final LatencyTracker mLatencyTracker = new LatencyTracker();
+
+    /**
+     * 下一帧的期望分发时间,单位纳秒;-1表示尚未分发过;只会在相机线程中读写
+     */
+    private long mNextDueNs = -1;
+
+    /**
+     * 等待分发的帧;由this保护
+     */
+    private final ArrayDeque<CameraData> mQueue;
+
+    /**
+     * 是否接收新的帧;由this保护
+     */
+    private boolean mAccepting = true;
+
+    /**
+     * 由this保护
+     */
+    private boolean mRunning = true;
+
+    private int mMaxQueueDepth;
+
+    private long mDispatchedCount;
+
+    private long mDeliveredCount;
+
+    private long mDroppedCount;
+
+    private long mDecimatedCount;
+
+    /**
+     * 下一个需要分发给该使用者的帧的序号;只会在相机线程中读写
+     */
+    private long mDispatchSequence;
+
+    private long mBlockedCount;
+
+    private long mBlockedTimeNs;
+
+    /**
+     * @param callback 预览帧回调接口
+     * @param options  订阅者配置
+     */
+    FrameDispatcher(IPreviewCallback callback, SubscriberOptions options) {
+        if (callback == null) {
+            throw new IllegalArgumentException("the preview callback can not be null...");
+        }
+        if (options == null) {
+            options = new SubscriberOptions();
+        }
+        mCallback = callback;
+        mQueueCapacity = options.queueCapacity <= 0 ? DEFAULT_QUEUE_CAPACITY : options.queueCapacity;
+        mOverflowPolicy = options.overflowPolicy == null ? OverflowPolicy.DROP_OLDEST : options.overflowPolicy;
+        mMaxBlockMs = options.maxBlockMs < 0 ? DEFAULT_MAX_BLOCK_MS : options.maxBlockMs;
+        mFrameIntervalNs = options.targetFps > 0 ? 1000000000L / options.targetFps : 0;
+        mQueue = new ArrayDeque<>(mQueueCapacity);
+        mDirectBufferPool = options.directBuffer ? new DirectBufferPool() : null;
+        mUpright = options.upright;
+        mOutputWidth = options.outputWidth;
+        mOutputHeight = options.outputHeight;
+        mRegions = new RegionState[options.regions.size()];
+        for (int i = 0; i < mRegions.length; i++) {
+            mRegions[i] = new RegionState(options.regions.get(i));
+        }
+        Thread workerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loop();
+            }
+        }, "camera_dispatch_" + options.name);
+        workerThread.start();
+    }
+
+    /**
+     * 该订阅者是否需要紧凑排列的帧;<br/>
+     * 需要在分发线程中转换的订阅者可以直接从相机缓存上的视图读取,不需要相机线程先拷贝一次;
+     * 只关心感兴趣区域的订阅者同样会收到完整的帧,{@link CropMode#COPY}模式下{@link CameraData#frameBuffer}仍然需要是紧凑的裁剪数据
+     */
+    boolean needsCompactFrame() {
+        return !mUpright
+                && mOutputWidth <= 0;
+    }
+
+    /**
+     * 按照期望帧率,该时间的帧是否需要分发;只会在相机线程中调用
+     *
+     * @param timestampNs 帧时间,单位纳秒
+     */
+    boolean isDue(long timestampNs) {
+        // 允许四分之一间隔的抖动,相机帧时间并不是严格均匀的
+        return mFrameIntervalNs <= 0
+                || mNextDueNs < 0
+                || timestampNs >= mNextDueNs - mFrameIntervalNs / 4;
+    }
+
+    /**
+     * 提交一帧;只会在相机线程中调用;<br/>
+     * 每个订阅者拿到的{@link CameraData}都是独立的对象,但是共享同一个帧;
+     * 提交成功时会增加一次帧引用,调用者仍然需要释放自己持有的引用;
+     *
+     * @param template 该帧的相机数据
+     * @return 该帧是否进入了队列
+     */
+    boolean dispatch(CameraData template) {
+        if (template == null
+                || template.frame == null) {
+            return false;
+        }
+        long timestampNs = template.frame.getTimestampNs();
+        if (!isDue(timestampNs)) {
+            synchronized (this) {
+                mDecimatedCount++;
+            }
+            return false;
+        }
+        if (mFrameIntervalNs > 0) {
+            // 按照固定间隔推进,保证长期的平均帧率等于期望帧率;落后太多时重新对齐
+            mNextDueNs = mNextDueNs < 0 || timestampNs - mNextDueNs > mFrameIntervalNs
+                    ? timestampNs + mFrameIntervalNs
+                    : mNextDueNs + mFrameIntervalNs;
+        }
+        CameraData cameraData = new CameraData();
+        cameraData.config = template.config;
+        cameraData.format = template.format;
+        cameraData.frame = template.frame;
+        cameraData.frameBuffer = template.frameBuffer;
+        cameraData.sequence = template.sequence;
+        cameraData.dispatchSequence = mDispatchSequence++;
+        cameraData.arrivalTimeNs = template.arrivalTimeNs;
+        cameraData.cropDoneTimeNs = template.cropDoneTimeNs;
+        cameraData.rotation = template.rotation;
+        cameraData.mirror = template.mirror;
+        cameraData.stats = template.stats;
+        cameraData.motionScore = template.motionScore;
+        CameraData dropped = null;
+        boolean accepted = false;
+        synchronized (this) {
+            if (!mAccepting) {
+                return false;
+            }
+            if (mQueue.size() >= mQueueCapacity) {
+                switch (mOverflowPolicy) {
+                    case DROP_OLDEST:
+                        dropped = mQueue.pollFirst();
+                        mDroppedCount++;
+                        break;
+                    case BLOCK:
+                        waitForSpace();
+                        if (mQueue.size() >= mQueueCapacity) {
+                            mDroppedCount++;
+                        }
+                        break;
+                    case DROP_NEWEST:
+                    default:
+                        mDroppedCount++;
+                        break;
+                }
+            }
+            if (mAccepting
+                    && mQueue.size() < mQueueCapacity) {
+                cameraData.frame.acquire();
+                cameraData.dispatchTimeNs = System.nanoTime();
+                mQueue.addLast(cameraData);
+                mDispatchedCount++;
+                mMaxQueueDepth = Math.max(mMaxQueueDepth, mQueue.size());
+                accepted = true;
+                notifyAll();
+            }
+        }
+        if (dropped != null) {
+            dropped.frame.release();
+        }
+        return accepted;
+    }
+
+    /**
+     * 在持有锁的情况下等待队列空出位置
+     */
+    private void waitForSpace() {
+        long startNs = System.nanoTime();
+        long deadlineNs = startNs + mMaxBlockMs * 1000000L;
+        mBlockedCount++;
+        try {
+            while (mAccepting
+                    && mQueue.size() >= mQueueCapacity) {
+                long remainingNs = deadlineNs - System.nanoTime();
+                if (remainingNs <= 0) {
+                    break;
+                }
+                wait(remainingNs / 1000000L, (int) (remainingNs % 1000000L));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            mBlockedTimeNs += System.nanoTime() - startNs;
+        }
+    }
+
+    /**
+     * 设置是否接收新的帧;<br/>
+     * 设置为false时,会立即唤醒因为{@link OverflowPolicy#BLOCK}而等待的相机线程;<br/>
+     * 该方法可以在任意线程中调用;
+     */
+    synchronized void setAccepting(boolean accepting) {
+        mAccepting = accepting;
+        notifyAll();
+    }
+
+    /**
+     * 丢弃队列中所有尚未分发的帧
+     */
+    void clear() {
+        ArrayDeque<CameraData> pending;
+        synchronized (this) {
+            pending = new ArrayDeque<>(mQueue);
+            mQueue.clear();
+            notifyAll();
+        }
+        for (CameraData cameraData : pending) {
+            cameraData.frame.release();
+        }
+    }
+
+    /**
+     * 停止工作线程并丢弃尚未分发的帧;正在执行的回调不会被打断
+     */
+    void shutdown() {
+        synchronized (this) {
+            mAccepting = false;
+            mRunning = false;
+            notifyAll();
+        }
+        clear();
+    }
+
+    private void loop() {
+        while (true) {
+            CameraData cameraData;
+            synchronized (this) {
+                while (mRunning && mQueue.isEmpty()) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        // 只通过mRunning退出
+                    }
+                }
+                if (!mRunning) {
+                    return;
+                }
+                cameraData = mQueue.pollFirst();
+                // 唤醒等待队列空间的相机线程
+                notifyAll();
+            }
+            Frame sourceFrame = cameraData.frame;
+            Frame transformedFrame = null;
+            try {
+                if (mRegions.length > 0) {
+                    // 区域相对于相机帧换算,在整帧变换之前提取
+                    cameraData.regions = extractRegions(cameraData);
+                }
+                if (mUpright
+                        || mOutputWidth > 0) {
+                    transformedFrame = transform(cameraData);
+                    if (transformedFrame == null) {
+                        Log.e(TAG, "failed to transform the preview frame...");
+                        continue;
+                    }
+                }
+                if (mDirectBufferPool != null) {
+                    cameraData.directFrame = DirectFrame.copyOf(cameraData.frame, mDirectBufferPool);
+                }
+                cameraData.deliverTimeNs = System.nanoTime();
+                mCallback.onPreviewCallback(cameraData);
+                mLatencyTracker.record(cameraData, System.nanoTime());
+            } catch (Throwable throwable) {
+                Log.e(TAG, "failed to invoke preview callback...", throwable);
+            } finally {
+                if (cameraData.directFrame != null) {
+                    cameraData.directFrame.release();
+                }
+                if (transformedFrame != null) {
+                    transformedFrame.release();
+                }
+                if (cameraData.regions != null) {
+                    for (Frame region : cameraData.regions) {
+                        if (region != null) {
+                            region.release();
+                        }
+                    }
+                }
+                sourceFrame.release();
+            }
+            synchronized (this) {
+                mDeliveredCount++;
+            }
+        }
+    }
+
+    /**
+     * 一次遍历完成旋转、镜像与缩放,结果写入缓存池;帧是相机缓存上的视图时,同时完成裁剪;<br/>
+     * 需要缩放时先按照输出宽高比居中裁剪,裁剪不产生拷贝;<br/>
+     * 成功时替换cameraData中的帧,并返回新的帧
+     */
+    private Frame transform(CameraData cameraData) {
+        Frame source = cameraData.frame;
+        if (cameraData.format != ImageFormat.NV21) {
+            return null;
+        }
+        int rotation = mUpright ? cameraData.rotation : 0;
+        boolean mirror = mUpright && cameraData.mirror;
+        if (!NV21Rotator.isValidRotation(rotation)) {
+            return null;
+        }
+        int width = source.getWidth();
+        int height = source.getHeight();
+        if (mTransform == null
+                || mTransformWidth != width
+                || mTransformHeight != height
+                || mTransformRotation != rotation
+                || mTransformMirror != mirror) {
+            mTransform = newTransform(width, height, rotation, mirror);
+            mTransformWidth = width;
+            mTransformHeight = height;
+            mTransformRotation = rotation;
+            mTransformMirror = mirror;
+        }
+        Frame frame = mTransform.apply(source, mFramePool);
+        if (frame == null) {
+            return null;
+        }
+        cameraData.frame = frame;
+        cameraData.frameBuffer = frame.getData();
+        if (mUpright) {
+            cameraData.rotation = 0;
+            cameraData.mirror = false;
+        }
+        return frame;
+    }
+
+    private FrameTransform newTransform(int width, int height, int rotation, boolean mirror) {
+        FrameTransform.Builder builder = FrameTransform.newBuilder()
+                .setRotation(rotation)
+                .setMirror(mirror);
+        if (mOutputWidth > 0) {
+            // 输出宽高比是旋转之后的,换算到源帧上居中裁剪;居中的区域经过镜像与旋转之后仍然居中
+            int rotatedW = NV21Rotator.getRotatedWidth(width, height, rotation);
+            int rotatedH = NV21Rotator.getRotatedHeight(width, height, rotation);
+            int clipW = rotatedW;
+            int clipH = rotatedH;
+            if ((long) rotatedW * mOutputHeight > (long) rotatedH * mOutputWidth) {
+                clipW = (int) ((long) rotatedH * mOutputWidth / mOutputHeight) / 2 * 2;
+            } else {
+                clipH = (int) ((long) rotatedW * mOutputHeight / mOutputWidth) / 2 * 2;
+            }
+            int cropW = rotation % 180 == 0 ? clipW : clipH;
+            int cropH = rotation % 180 == 0 ? clipH : clipW;
+            builder.setCrop((width - cropW) / 4 * 2, (height - cropH) / 4 * 2, cropW, cropH)
+                    .setOutputSize(mOutputWidth, mOutputHeight);
+        }
+        return builder.build();
+    }
+
+    /**
+     * 提取所有的感兴趣区域;某个区域提取失败时对应的位置为空
+     */
+    private Frame[] extractRegions(CameraData cameraData) {
+        Frame[] regions = new Frame[mRegions.length];
+        final Frame source = cameraData.frame;
+        if (cameraData.format != ImageFormat.NV21) {
+            return regions;
+        }
+        for (int i = 0; i < mRegions.length; i++) {
+            RegionState state = mRegions[i];
+            state.prepare(source.getWidth(), source.getHeight(), cameraData.rotation, cameraData.mirror);
+            if (state.rect == null) {
+                continue;
+            }
+            if (state.region.isView()) {
+                // 直接提供相机缓存上的视图;视图持有源帧的一次引用,视图被释放时归还
+                source.acquire();
+                regions[i] = new Frame(source.getData(), source.getSequence(), source.getTimestampNs(),
+                        state.rect[2], state.rect[3], source.getStride(),
+                        source.getLeft() + state.rect[0], source.getTop() + state.rect[1],
+                        source.getBufferHeight(), source.getFormat(), new Frame.Recycler() {
+                    @Override
+                    public void recycle(byte[] buffer) {
+                        source.release();
+                    }
+                });
+            } else {
+                regions[i] = state.transform.apply(source, mFramePool);
+                if (regions[i] == null) {
+                    Log.e(TAG, "failed to extract the region " + state.region.getName() + "...");
+                }
+            }
+        }
+        return regions;
+    }
+
+    public IPreviewCallback getCallback() {
+        return mCallback;
+    }
+
+    /**
+     * 该订阅者的延迟统计;只统计回调正常返回的帧
+     */
+    public LatencyTracker getLatencyTracker() {
+        return mLatencyTracker;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return mOverflowPolicy;
+    }
+
+    /**
+     * 直接内存缓存池;没有设置{@link SubscriberOptions#setDirectBuffer(boolean)}时为空
+     */
+    public DirectBufferPool getDirectBufferPool() {
+        return mDirectBufferPool;
+    }
+
+    public int getQueueCapacity() {
+        return mQueueCapacity;
+    }
+
+    /**
+     * 当前队列中等待分发的帧数量
+     */
+    public synchronized int getQueueDepth() {
+        return mQueue.size();
+    }
+
+    /**
+     * 队列曾经达到的最大深度
+     */
+    public synchronized int getMaxQueueDepth() {
+        return mMaxQueueDepth;
+    }
+
+    /**
+     * 进入队列的帧数量
+     */
+    public synchronized long getDispatchedCount() {
+        return mDispatchedCount;
+    }
+
+    /**
+     * 已经交给回调接口处理完成的帧数量
+     */
+    public synchronized long getDeliveredCount() {
+        return mDeliveredCount;
+    }
+
+    /**
+     * 因为队列已满而被丢弃的帧数量
+     */
+    public synchronized long getDroppedCount() {
+        return mDroppedCount;
+    }
+
+    /**
+     * 因为期望帧率而被跳过的帧数量
+     */
+    public synchronized long getDecimatedCount() {
+        return mDecimatedCount;
+    }
+
+    /**
+     * {@link OverflowPolicy#BLOCK}策略下相机线程等待的次数
+     */
+    public synchronized long getBlockedCount() {
+        return mBlockedCount;
+    }
+
+    /**
+     * {@link OverflowPolicy#BLOCK}策略下相机线程等待的总时间,单位纳秒
+     */
+    public synchronized long getBlockedTimeNs() {
+        return mBlockedTimeNs;
+    }
+
+    /**
+     * 感兴趣区域换算之后的矩形与帧变换;源帧尺寸与方向不变时复用
+     */
+    private static class RegionState {
+        final RegionOfInterest region;
+        int width;
+        int height;
+        int rotation;
+        boolean mirror;
+        boolean prepared;
+        int[] rect;
+        FrameTransform transform;
+
+        RegionState(RegionOfInterest region) {
+            this.region = region;
+        }
+
+        void prepare(int width, int height, int rotation, boolean mirror) {
+            if (prepared
+                    && this.width == width
+                    && this.height == height
+                    && this.rotation == rotation
+                    && this.mirror == mirror) {
+                return;
+            }
+            this.width = width;
+            this.height = height;
+            this.rotation = rotation;
+            this.mirror = mirror;
+            this.prepared = true;
+            rect = region.mapToFrame(width, height, rotation, mirror);
+            transform = rect == null || region.isView() ? null : region.newTransform(width, height, rotation, mirror);
+        }
+    }
+}
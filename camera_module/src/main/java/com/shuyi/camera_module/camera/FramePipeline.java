@@ -0,0 +1,477 @@
+package com.shuyi.camera_module.camera;
+
+import android.graphics.ImageFormat;
+import android.util.Log;
+
+import com.shuyi.camera_module.common.IConstants;
+import com.shuyi.camera_module.common.Utils;
+import com.shuyi.camera_module.frame.Frame;
+import com.shuyi.camera_module.frame.FramePool;
+import com.shuyi.camera_module.image.RowBandExecutor;
+import com.shuyi.camera_module.image.YuvConverter;
+import com.shuyi.camera_module.image.YuvFormats;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 预览帧到达之后的处理流程:缓存环、快照、运动门限、裁剪与格式转换、3A统计以及向所有订阅者分发;<br/>
+ * 与帧的来源无关:{@link BaseCamera}在相机线程中把Camera1的预览帧交给该类,
+ * 其他的{@link FrameSource}(例如录制文件的回放)通过{@link BaseCamera#openFrameSource(CameraConfig, FrameSource, com.shuyi.camera_module.common.Callback)}
+ * 或者{@link #start(CameraConfig, FrameSource)}接入,
+ * 经过完全相同的处理之后到达{@link IPreviewCallback};<br/>
+ * 该类不依赖相机与界面,可以直接在JVM的单元测试中运行;<br/>
+ * {@link #onFrame(byte[])}只能在一个线程中调用(相机线程或者帧来源的线程),订阅与取消订阅可以在任意线程中调用;
+ */
+public class FramePipeline {
+
+    private static final String TAG = "FramePipeline";
+
+    /**
+     * 帧来源实际输出的格式;{@link CameraConfigCreator#setPreviewFormat(int)}设置的是提供给使用者的格式
+     */
+    static final int CAPTURE_FORMAT = ImageFormat.NV21;
+
+    /**
+     * 预览帧回调缓存环;<br/>
+     * 只会在开始与停止时被赋值;缓存的归还可以在任意线程中进行
+     */
+    private volatile PreviewBufferRing mPreviewBufferRing;
+
+    /**
+     * 裁剪后预览帧的缓存池
+     */
+    private final FramePool mFramePool = new FramePool();
+
+    /**
+     * 将未裁剪预览帧的缓存归还给当前的缓存环
+     */
+    private final Frame.Recycler mPreviewBufferRecycler = new Frame.Recycler() {
+        @Override
+        public void recycle(byte[] buffer) {
+            PreviewBufferRing previewBufferRing = mPreviewBufferRing;
+            if (previewBufferRing != null) {
+                previewBufferRing.recycle(buffer);
+            }
+        }
+    };
+
+    /**
+     * 所有预览帧订阅者的分发器;可以在任意线程中订阅或者取消订阅
+     */
+    private final CopyOnWriteArrayList<FrameDispatcher> mFrameDispatchers = new CopyOnWriteArrayList<>();
+
+    /**
+     * 下一帧的序号;<br/>
+     * 该值只会在调用{@link #onFrame(byte[])}的线程中被读写;所以线程安全
+     */
+    private long mFrameSequence;
+
+    /**
+     * 预览帧快照服务;未开启快照时为空
+     */
+    private volatile FrameSnapshotService mSnapshotService;
+
+    private volatile OpenCameraConfig mConfig;
+
+    /**
+     * 提供给使用者的预览格式
+     */
+    private volatile int mFormat = IConstants.DEFAULT_PREVIEW_FORMAT;
+
+    /**
+     * 通过{@link #start(CameraConfig, FrameSource)}接入的帧来源;相机预览时为空
+     */
+    private FrameSource mFrameSource;
+
+    private volatile boolean mRunning;
+
+    /**
+     * 开始处理帧来源输出的帧;<br/>
+     * 帧来源的尺寸、旋转角度与镜像会写入配置,并按照配置中的surface尺寸计算裁剪区域,与打开相机时相同;
+     * 配置中的订阅者会在这里订阅;
+     *
+     * @param cameraConfig 通过{@link CameraConfigCreator#create()}创建的配置
+     * @param source       帧来源
+     * @return 参数不合法或者已经开始时返回false
+     */
+    public synchronized boolean start(CameraConfig cameraConfig, final FrameSource source) {
+        if (!(cameraConfig instanceof OpenCameraConfig)
+                || source == null
+                || mRunning) {
+            return false;
+        }
+        OpenCameraConfig openCameraConfig = (OpenCameraConfig) cameraConfig;
+        openCameraConfig.originPreviewWidth = source.getWidth();
+        openCameraConfig.originPreviewHeight = source.getHeight();
+        openCameraConfig.displayOrientation = source.getRotation();
+        openCameraConfig.isFrontCamera = source.isMirror();
+        // 与打开相机时相同,按照旋转之前的方向计算裁剪区域;计算之后恢复,同一个配置可以再次开始
+        boolean isRotated = openCameraConfig.displayOrientation == 90
+                || openCameraConfig.displayOrientation == 270;
+        int surfaceWidth = openCameraConfig.surfaceWidth;
+        int surfaceHeight = openCameraConfig.surfaceHeight;
+        if (isRotated) {
+            openCameraConfig.surfaceWidth = surfaceHeight;
+            openCameraConfig.surfaceHeight = surfaceWidth;
+        }
+        openCameraConfig.computeCroppedPreviewSize();
+        openCameraConfig.surfaceWidth = surfaceWidth;
+        openCameraConfig.surfaceHeight = surfaceHeight;
+        int format = YuvFormats.isSupported(openCameraConfig.mPreviewFormat)
+                ? openCameraConfig.mPreviewFormat
+                : IConstants.DEFAULT_PREVIEW_FORMAT;
+        mFrameSource = source;
+        start(openCameraConfig, format, new PreviewBufferRing.BufferQueue() {
+            @Override
+            public void queueBuffer(byte[] buffer) {
+                source.addBuffer(buffer);
+            }
+        });
+        source.start(this);
+        return true;
+    }
+
+    /**
+     * 开始处理帧;缓存环中的空闲缓存会交给bufferQueue
+     *
+     * @param format 提供给使用者的预览格式
+     */
+    synchronized void start(OpenCameraConfig openCameraConfig, int format, PreviewBufferRing.BufferQueue bufferQueue) {
+        mConfig = openCameraConfig;
+        mFormat = format;
+        int previewBufferSize = openCameraConfig.originPreviewWidth * openCameraConfig.originPreviewHeight * 3 / 2;
+        if (mPreviewBufferRing == null
+                || !mPreviewBufferRing.isCompatible(openCameraConfig.previewBufferCount, previewBufferSize)) {
+            mPreviewBufferRing = new PreviewBufferRing(openCameraConfig.previewBufferCount, previewBufferSize);
+        }
+        if (openCameraConfig.snapshotFile != null) {
+            mSnapshotService = new FrameSnapshotService(openCameraConfig.snapshotFile,
+                    openCameraConfig.originPreviewWidth, openCameraConfig.originPreviewHeight,
+                    openCameraConfig.snapshotIntervalMs, openCameraConfig.snapshotQueueCapacity,
+                    FrameSnapshotService.DEFAULT_JPEG_QUALITY);
+        }
+        if (openCameraConfig.motionGate != null) {
+            openCameraConfig.motionGate.reset();
+        }
+        // 通过相机配置设置的预览帧回调,作为一个普通的订阅者
+        if (openCameraConfig.externalPreviewCallback != null) {
+            subscribe(openCameraConfig.externalPreviewCallback, new SubscriberOptions()
+                    .setName("preview")
+                    .setQueueCapacity(openCameraConfig.dispatchQueueCapacity)
+                    .setOverflowPolicy(openCameraConfig.dispatchOverflowPolicy)
+                    .setDirectBuffer(openCameraConfig.directFrameDelivery)
+                    .setUpright(openCameraConfig.uprightFrame));
+        }
+        for (java.util.Map.Entry<IPreviewCallback, SubscriberOptions> entry : openCameraConfig.previewSubscribers.entrySet()) {
+            subscribe(entry.getKey(), entry.getValue());
+        }
+        for (FrameDispatcher frameDispatcher : mFrameDispatchers) {
+            frameDispatcher.setAccepting(true);
+        }
+        mRunning = true;
+        mPreviewBufferRing.attach(bufferQueue);
+    }
+
+    /**
+     * 停止处理帧;订阅关系仍然保留,只丢弃尚未分发的帧;<br/>
+     * 通过{@link #start(CameraConfig, FrameSource)}接入的帧来源会被停止
+     */
+    public void stop() {
+        FrameSource frameSource;
+        synchronized (this) {
+            mRunning = false;
+            stopDispatching();
+            frameSource = mFrameSource;
+            mFrameSource = null;
+        }
+        // 先停止分发,帧来源的线程不会阻塞在分发队列上;在锁之外等待帧来源的线程结束,该线程可能正在调用onFrame
+        if (frameSource != null) {
+            frameSource.stop();
+        }
+        synchronized (this) {
+            for (FrameDispatcher frameDispatcher : mFrameDispatchers) {
+                frameDispatcher.setAccepting(false);
+                frameDispatcher.clear();
+            }
+            if (mSnapshotService != null) {
+                mSnapshotService.stop();
+                mSnapshotService = null;
+            }
+            if (mPreviewBufferRing != null) {
+                mPreviewBufferRing.detach();
+            }
+        }
+    }
+
+    /**
+     * 立即停止分发;可以在任意线程中调用
+     */
+    void stopDispatching() {
+        for (FrameDispatcher frameDispatcher : mFrameDispatchers) {
+            frameDispatcher.setAccepting(false);
+        }
+    }
+
+    /**
+     * 停止并关闭所有订阅者的分发线程;之后不能再使用
+     */
+    public void release() {
+        stop();
+        synchronized (mFrameDispatchers) {
+            for (FrameDispatcher frameDispatcher : mFrameDispatchers) {
+                frameDispatcher.shutdown();
+            }
+            mFrameDispatchers.clear();
+        }
+        synchronized (this) {
+            mPreviewBufferRing = null;
+            mConfig = null;
+        }
+    }
+
+    public boolean isRunning() {
+        return mRunning;
+    }
+
+    /**
+     * 订阅预览帧;<br/>
+     * 每个订阅者都有自己的分发线程、队列、丢帧策略以及期望帧率,处理较慢的订阅者不会影响其他订阅者;<br/>
+     * 所有订阅者共享同一份帧数据,不会为每个订阅者拷贝;<br/>
+     * 可以在任意线程中调用;重复订阅同一个回调接口不会生效;
+     *
+     * @param callback 预览帧回调接口
+     * @param options  订阅者配置;为空时使用默认配置
+     * @return 是否订阅成功
+     */
+    public boolean subscribe(IPreviewCallback callback, SubscriberOptions options) {
+        if (callback == null) {
+            return false;
+        }
+        synchronized (mFrameDispatchers) {
+            if (getFrameDispatcher(callback) != null) {
+                return false;
+            }
+            mFrameDispatchers.add(new FrameDispatcher(callback, options));
+        }
+        return true;
+    }
+
+    /**
+     * 取消订阅预览帧;<br/>
+     * 尚未分发的帧会被丢弃,正在执行的回调不会被打断;可以在任意线程中调用;
+     *
+     * @param callback 预览帧回调接口
+     * @return 是否取消成功
+     */
+    public boolean unsubscribe(IPreviewCallback callback) {
+        FrameDispatcher frameDispatcher;
+        synchronized (mFrameDispatchers) {
+            frameDispatcher = getFrameDispatcher(callback);
+            if (frameDispatcher == null) {
+                return false;
+            }
+            mFrameDispatchers.remove(frameDispatcher);
+        }
+        frameDispatcher.shutdown();
+        return true;
+    }
+
+    /**
+     * 获取订阅者的分发器,用于查看分发队列的深度以及丢帧情况;
+     *
+     * @param callback 预览帧回调接口
+     * @return 未订阅时为空
+     */
+    public FrameDispatcher getFrameDispatcher(IPreviewCallback callback) {
+        if (callback == null) {
+            return null;
+        }
+        for (FrameDispatcher frameDispatcher : mFrameDispatchers) {
+            if (frameDispatcher.getCallback() == callback) {
+                return frameDispatcher;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 获取预览帧回调缓存环,用于查看缓存的使用情况以及缓存饥饿次数;<br/>
+     * 开始之前为空
+     */
+    public PreviewBufferRing getPreviewBufferRing() {
+        return mPreviewBufferRing;
+    }
+
+    /**
+     * 获取裁剪后预览帧的缓存池,用于查看内存分配情况
+     */
+    public FramePool getFramePool() {
+        return mFramePool;
+    }
+
+    /**
+     * 获取预览帧快照服务,用于查看快照的写入与丢弃情况;<br/>
+     * 未开启快照或者未开始时为空
+     */
+    public FrameSnapshotService getSnapshotService() {
+        return mSnapshotService;
+    }
+
+    /**
+     * 帧来源输出了一帧;与{@link android.hardware.Camera.PreviewCallback#onPreviewFrame(byte[], android.hardware.Camera)}相同;<br/>
+     * data一般是缓存环交给帧来源的缓存,处理完成之后会通过{@link PreviewBufferRing.BufferQueue}交还给帧来源;
+     * 不属于缓存环的数据在该方法返回之后不再被引用
+     *
+     * @param data 紧凑排列的NV21数据
+     */
+    public void onFrame(byte[] data) {
+        PreviewBufferRing previewBufferRing = mPreviewBufferRing;
+        boolean isRingBuffer = previewBufferRing != null && previewBufferRing.onFrameArrived(data);
+        Frame frame = null;
+        try {
+            OpenCameraConfig cameraConfig = mConfig;
+            if (!mRunning
+                    || cameraConfig == null) {
+                return;
+            }
+
+            long timestampNs = System.nanoTime();
+            long sequence = mFrameSequence++;
+            if (mSnapshotService != null) {
+                mSnapshotService.offer(data, cameraConfig.originPreviewWidth, cameraConfig.originPreviewHeight,
+                        CAPTURE_FORMAT, timestampNs / 1000000);
+            }
+            if (isAnySubscriberDue(timestampNs)) {
+                int startX = (cameraConfig.originPreviewWidth - cameraConfig.previewWidth) / 2;
+                int startY = (cameraConfig.originPreviewHeight - cameraConfig.previewHeight) / 2;
+                MotionGate motionGate = cameraConfig.motionGate;
+                if (motionGate != null) {
+                    // 在裁剪之前判断,场景没有变化时跳过裁剪与分发;相机缓存在finally中归还
+                    boolean accepted = cameraConfig.isCropped
+                            ? motionGate.accept(data, startY / 2 * 2 * cameraConfig.originPreviewWidth + startX / 2 * 2,
+                            cameraConfig.originPreviewWidth, cameraConfig.previewWidth / 2 * 2,
+                            cameraConfig.previewHeight / 2 * 2, timestampNs)
+                            : motionGate.accept(data, 0, cameraConfig.originPreviewWidth,
+                            cameraConfig.originPreviewWidth, cameraConfig.originPreviewHeight, timestampNs);
+                    if (!accepted) {
+                        return;
+                    }
+                }
+                int format = mFormat;
+                if (format != CAPTURE_FORMAT) {
+                    // 裁剪的同时转换为使用者需要的格式,只遍历一次
+                    int left = cameraConfig.isCropped ? startX / 2 * 2 : 0;
+                    int top = cameraConfig.isCropped ? startY / 2 * 2 : 0;
+                    int width = cameraConfig.isCropped ? cameraConfig.previewWidth / 2 * 2 : cameraConfig.originPreviewWidth;
+                    int height = cameraConfig.isCropped ? cameraConfig.previewHeight / 2 * 2 : cameraConfig.originPreviewHeight;
+                    byte[] convertedBuffer = mFramePool.obtain(YuvFormats.getFrameSize(width, height));
+                    if (!YuvConverter.convert(data, CAPTURE_FORMAT, cameraConfig.originPreviewWidth,
+                            cameraConfig.originPreviewHeight, left, top, width, height,
+                            convertedBuffer, format)) {
+                        mFramePool.recycle(convertedBuffer);
+                        Log.e(TAG, "failed to convert the preview frame...");
+                        return;
+                    }
+                    frame = new Frame(convertedBuffer, sequence, timestampNs, width, height, width,
+                            format, mFramePool);
+                    if (isRingBuffer) {
+                        previewBufferRing.recycle(data);
+                        isRingBuffer = false;
+                    }
+                } else if (cameraConfig.isCropped
+                        && (cameraConfig.cropMode == CropMode.VIEW || !isCompactFrameRequired(timestampNs))) {
+                    // 不拷贝,直接将裁剪区域作为相机缓存上的视图;最后一个持有者释放之后,相机缓存才会被归还;
+                    // 所有订阅者都会在分发线程中转换该帧时,也不需要在这里拷贝
+                    frame = new Frame(data, sequence, timestampNs,
+                            cameraConfig.previewWidth / 2 * 2, cameraConfig.previewHeight / 2 * 2,
+                            cameraConfig.originPreviewWidth, startX / 2 * 2, startY / 2 * 2,
+                            cameraConfig.originPreviewHeight, format, mPreviewBufferRecycler);
+                    isRingBuffer = false;
+                } else if (cameraConfig.isCropped) {
+                    // 进行裁剪
+                    // TODO: 2019/5/16 目前支持NV21格式的裁剪
+                    // Utils.clipNV21方法平均在4毫秒左右(720P);大图按行分带并行拷贝
+                    byte[] croppedBuffer = mFramePool.obtain(Utils.getClippedNV21Size(cameraConfig.previewWidth, cameraConfig.previewHeight));
+                    if (!Utils.clipNV21Into(data, cameraConfig.originPreviewWidth,
+                            cameraConfig.originPreviewHeight, startX, startY,
+                            cameraConfig.previewWidth, cameraConfig.previewHeight, croppedBuffer,
+                            RowBandExecutor.getDefault())) {
+                        mFramePool.recycle(croppedBuffer);
+                        Log.e(TAG, "failed to clip the preview frame...");
+                        return;
+                    }
+                    frame = new Frame(croppedBuffer, sequence, timestampNs,
+                            cameraConfig.previewWidth / 2 * 2, cameraConfig.previewHeight / 2 * 2,
+                            cameraConfig.previewWidth / 2 * 2, format, mFramePool);
+                    // 裁剪后的数据与相机缓存无关,可以提前归还缓存
+                    if (isRingBuffer) {
+                        previewBufferRing.recycle(data);
+                        isRingBuffer = false;
+                    }
+                } else {
+                    // 最后一个持有者释放该帧之后,相机缓存才会被归还
+                    frame = new Frame(data, sequence, timestampNs,
+                            cameraConfig.originPreviewWidth, cameraConfig.originPreviewHeight,
+                            cameraConfig.originPreviewWidth, format, mPreviewBufferRecycler);
+                    isRingBuffer = false;
+                }
+
+                long cropDoneTimeNs = System.nanoTime();
+                if (cameraConfig.frameStatsCalculator != null) {
+                    frame.attachStats(cameraConfig.frameStatsCalculator.compute(frame));
+                }
+
+                CameraData cameraData = new CameraData();
+                cameraData.config = cameraConfig;
+                cameraData.format = format;
+                cameraData.frame = frame;
+                cameraData.frameBuffer = frame.getData();
+                cameraData.sequence = sequence;
+                cameraData.arrivalTimeNs = timestampNs;
+                cameraData.cropDoneTimeNs = cropDoneTimeNs;
+                cameraData.rotation = cameraConfig.displayOrientation;
+                cameraData.mirror = cameraConfig.isFrontCamera;
+                cameraData.stats = frame.getStats();
+                cameraData.motionScore = motionGate == null ? -1 : motionGate.getLastScore();
+                for (FrameDispatcher frameDispatcher : mFrameDispatchers) {
+                    frameDispatcher.dispatch(cameraData);
+                }
+            }
+        } catch (Throwable throwable) {
+            Log.e(TAG, "failed to invoke preview callback...", throwable);
+        } finally {
+            // 没有交给帧句柄管理的缓存,直接归还
+            if (isRingBuffer) {
+                previewBufferRing.recycle(data);
+            }
+            if (frame != null) {
+                frame.release();
+            }
+        }
+    }
+
+    /**
+     * 是否有订阅者需要该时间的帧;没有时可以跳过裁剪等处理
+     */
+    private boolean isAnySubscriberDue(long timestampNs) {
+        for (FrameDispatcher frameDispatcher : mFrameDispatchers) {
+            if (frameDispatcher.isDue(timestampNs)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 是否有需要紧凑帧的订阅者需要该帧
+     */
+    private boolean isCompactFrameRequired(long timestampNs) {
+        for (FrameDispatcher frameDispatcher : mFrameDispatchers) {
+            if (frameDispatcher.needsCompactFrame()
+                    && frameDispatcher.isDue(timestampNs)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,246 @@
+package com.shuyi.camera_module.camera;
+
+import android.graphics.ImageFormat;
+import android.util.Log;
+
+import com.shuyi.camera_module.image.JpegEncoder;
+import com.shuyi.camera_module.io.ImageWriter;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * 预览帧快照服务;<br/>
+ * 按照指定的最小时间间隔对预览帧进行采样,将采样到的帧拷贝到有界队列中,
+ * 由后台线程通过{@link JpegEncoder}直接从NV21编码为JPEG并写入文件;<br/>
+ * 快照缓存在创建时按照预览帧大小一次性分配,相机线程只做一次内存拷贝,不会因为分配内存、编码或者文件IO而阻塞;
+ * 如果后台线程处理不过来,新的快照会被直接丢弃;
+ */
+public class FrameSnapshotService {
+    private static final String TAG = "FrameSnapshotService";
+
+    static final int DEFAULT_INTERVAL_MS = 1000;
+    static final int DEFAULT_QUEUE_CAPACITY = 2;
+    static final int DEFAULT_JPEG_QUALITY = 80;
+
+    /**
+     * 快照文件,每次快照都会覆盖该文件
+     */
+    private final File mFile;
+
+    /**
+     * 两次快照之间的最小时间间隔,单位毫秒
+     */
+    private final long mIntervalMs;
+
+    /**
+     * 每个快照缓存的大小,即创建时预览帧的大小
+     */
+    private final int mFrameSize;
+
+    private final JpegEncoder mEncoder;
+
+    /**
+     * 编码结果的缓存,只会在后台线程中使用
+     */
+    private final ImageWriter.EncodeBuffer mEncodeBuffer = new ImageWriter.EncodeBuffer();
+
+    /**
+     * 空闲的快照缓存
+     */
+    private final BlockingQueue<Snapshot> mFreeSnapshots;
+
+    /**
+     * 等待写入的快照
+     */
+    private final BlockingQueue<Snapshot> mPendingSnapshots;
+
+    private final Thread mWorkerThread;
+
+    private volatile boolean mRunning = true;
+
+    /**
+     * 上一次被采样的时间,只会在提交快照的线程中读写
+     */
+    private long mLastSampledTimeMs = -1;
+
+    private volatile long mSubmittedCount;
+    private volatile long mDroppedCount;
+    private volatile long mWrittenCount;
+    private volatile long mFailedCount;
+
+    /**
+     * @param file          快照文件,每次快照都会覆盖该文件
+     * @param width         预览帧宽度
+     * @param height        预览帧高度
+     * @param intervalMs    两次快照之间的最小时间间隔,单位毫秒
+     * @param queueCapacity 最多同时等待写入的快照数量
+     * @param jpegQuality   JPEG压缩质量,取值范围为[0, 100]
+     */
+    FrameSnapshotService(File file, int width, int height, long intervalMs, int queueCapacity, int jpegQuality) {
+        if (file == null) {
+            throw new IllegalArgumentException("the snapshot file can not be null...");
+        }
+        if (width <= 0
+                || height <= 0) {
+            throw new IllegalArgumentException("invalid snapshot size: " + width + "x" + height);
+        }
+        mFile = file;
+        mFrameSize = width * height * 3 / 2;
+        mIntervalMs = intervalMs < 0 ? 0 : intervalMs;
+        // 后台线程的优先级很低,串行编码,不与相机线程争抢CPU
+        mEncoder = new JpegEncoder(jpegQuality < 0 || jpegQuality > 100 ? DEFAULT_JPEG_QUALITY : jpegQuality, null);
+        int capacity = queueCapacity <= 0 ? DEFAULT_QUEUE_CAPACITY : queueCapacity;
+        mFreeSnapshots = new ArrayBlockingQueue<>(capacity);
+        mPendingSnapshots = new ArrayBlockingQueue<>(capacity);
+        for (int i = 0; i < capacity; i++) {
+            mFreeSnapshots.offer(new Snapshot(mFrameSize));
+        }
+        mWorkerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loop();
+            }
+        }, "camera_snapshot");
+        mWorkerThread.setPriority(Thread.MIN_PRIORITY);
+        mWorkerThread.start();
+    }
+
+    /**
+     * 提交一帧;该方法不会阻塞,也不会分配内存;超过快照缓存大小的帧不会被接受;
+     *
+     * @param data        预览帧数据,方法返回后调用者可以继续复用
+     * @param width       预览帧宽度
+     * @param height      预览帧高度
+     * @param format      预览帧格式,目前只支持{@link ImageFormat#NV21}
+     * @param timestampMs 帧时间,单位毫秒
+     * @return 该帧是否被接受
+     */
+    boolean offer(byte[] data, int width, int height, int format, long timestampMs) {
+        if (!mRunning
+                || data == null
+                || format != ImageFormat.NV21
+                || width <= 0
+                || height <= 0) {
+            return false;
+        }
+        int size = width * height * 3 / 2;
+        if (size > mFrameSize
+                || data.length < size) {
+            return false;
+        }
+        if (mLastSampledTimeMs >= 0
+                && timestampMs - mLastSampledTimeMs < mIntervalMs) {
+            return false;
+        }
+        mLastSampledTimeMs = timestampMs;
+
+        Snapshot snapshot = mFreeSnapshots.poll();
+        if (snapshot == null) {
+            // 后台线程处理不过来,丢弃本次快照
+            mDroppedCount++;
+            return false;
+        }
+        System.arraycopy(data, 0, snapshot.data, 0, size);
+        snapshot.width = width;
+        snapshot.height = height;
+        mPendingSnapshots.offer(snapshot);
+        mSubmittedCount++;
+        return true;
+    }
+
+    /**
+     * 停止后台线程;尚未写入的快照会被丢弃
+     */
+    void stop() {
+        mRunning = false;
+        mWorkerThread.interrupt();
+    }
+
+    /**
+     * 等待后台线程结束
+     *
+     * @return 超时之前结束时返回true
+     */
+    boolean awaitTermination(long timeoutMs) throws InterruptedException {
+        mWorkerThread.join(Math.max(1, timeoutMs));
+        return !mWorkerThread.isAlive();
+    }
+
+    private void loop() {
+        while (mRunning) {
+            Snapshot snapshot;
+            try {
+                snapshot = mPendingSnapshots.take();
+            } catch (InterruptedException e) {
+                break;
+            }
+            try {
+                if (write(snapshot)) {
+                    mWrittenCount++;
+                } else {
+                    mFailedCount++;
+                }
+            } finally {
+                mFreeSnapshots.offer(snapshot);
+            }
+        }
+        mPendingSnapshots.clear();
+    }
+
+    /**
+     * 编码到可以重复使用的缓存,再通过{@link ImageWriter#writeAtomically(ByteBuffer, File, ImageWriter.FsyncPolicy)}
+     * 写入临时文件并重命名为快照文件;避免读取者读到写了一半的文件;只会在后台线程中调用
+     */
+    private boolean write(Snapshot snapshot) {
+        mEncodeBuffer.reset();
+        try {
+            mEncoder.encode(snapshot.data, ImageFormat.NV21, snapshot.width, snapshot.height, mEncodeBuffer);
+            ImageWriter.writeAtomically(mEncodeBuffer.asByteBuffer(), mFile, ImageWriter.FsyncPolicy.DATA);
+            return true;
+        } catch (Throwable throwable) {
+            Log.e(TAG, String.format("failed to write snapshot to file[%s]", mFile.getAbsolutePath()), throwable);
+            return false;
+        }
+    }
+
+    /**
+     * 被接受并等待写入的快照总数
+     */
+    public long getSubmittedCount() {
+        return mSubmittedCount;
+    }
+
+    /**
+     * 因为后台线程处理不过来而被丢弃的快照数量
+     */
+    public long getDroppedCount() {
+        return mDroppedCount;
+    }
+
+    /**
+     * 成功写入文件的快照数量
+     */
+    public long getWrittenCount() {
+        return mWrittenCount;
+    }
+
+    /**
+     * 写入失败的快照数量
+     */
+    public long getFailedCount() {
+        return mFailedCount;
+    }
+
+    private static class Snapshot {
+        final byte[] data;
+        int width;
+        int height;
+
+        Snapshot(int size) {
+            data = new byte[size];
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.shuyi.camera_module.camera;
+
+/**
+ * 预览帧的来源;与Camera1的预览回调方式相同:
+ * {@link FramePipeline}通过{@link #addBuffer(byte[])}提供空闲的缓存,帧来源将一帧NV21数据写入缓存之后
+ * 调用{@link FramePipeline#onFrame(byte[])},处理完成的缓存会再次通过{@link #addBuffer(byte[])}交还;<br/>
+ * 相机之外的帧来源(例如录制文件的回放)通过{@link BaseCamera#openFrameSource(CameraConfig, FrameSource, com.shuyi.camera_module.common.Callback)}打开,
+ * 与相机共用配置、订阅以及停止与释放的流程;不需要相机线程时也可以直接通过{@link FramePipeline#start(CameraConfig, FrameSource)}接入;<br/>
+ * 两种方式都经过与相机预览相同的裁剪与分发;
+ */
+public interface FrameSource {
+
+    /**
+     * 输出帧的宽度
+     */
+    int getWidth();
+
+    /**
+     * 输出帧的高度
+     */
+    int getHeight();
+
+    /**
+     * 帧顺时针旋转该角度之后与屏幕预览一致;与{@link CameraConfigCreator#setDisplayRotation(int)}相同
+     */
+    int getRotation();
+
+    /**
+     * 旋转之前是否需要水平镜像,与前置摄像头相同
+     */
+    boolean isMirror();
+
+    /**
+     * 开始输出帧;在自己的线程中依次调用{@link FramePipeline#onFrame(byte[])},不能阻塞调用者
+     */
+    void start(FramePipeline pipeline);
+
+    /**
+     * 提供一个空闲的缓存,与{@link android.hardware.Camera#addCallbackBuffer(byte[])}相同;
+     * 可以在任意线程中调用
+     *
+     * @param buffer 长度为width * height * 3 / 2
+     */
+    void addBuffer(byte[] buffer);
+
+    /**
+     * 停止输出帧;返回之后不会再调用{@link FramePipeline#onFrame(byte[])}
+     */
+    void stop();
+}
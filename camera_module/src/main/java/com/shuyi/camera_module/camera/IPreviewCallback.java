@@ -1,6 +1,14 @@
 package com.shuyi.camera_module.camera;
 
-
+/**
+ * 预览帧回调接口;
+ */
 public interface IPreviewCallback {
+    /**
+     * 预览帧回调;<br/>
+     * {@link CameraData#frameBuffer}来自于相机缓存或者缓存池,只在该方法执行期间有效;
+     * 如果需要在方法返回之后继续使用,请调用{@link CameraData#frame}的{@link com.shuyi.camera_module.frame.Frame#acquire()},
+     * 使用完成后再调用{@link com.shuyi.camera_module.frame.Frame#release()};
+     */
     void onPreviewCallback(CameraData cameraData);
 }
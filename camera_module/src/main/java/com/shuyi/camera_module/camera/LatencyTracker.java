@@ -0,0 +1,196 @@
+package com.shuyi.camera_module.camera;
+
+import java.util.Arrays;
+
+/**
+ * 预览帧的延迟统计;<br/>
+ * 每一帧记录到达、裁剪完成、进入分发队列、开始回调、回调完成五个时间点,
+ * 按照{@link Stage}分阶段保存最近{@link #getWindowSize()}帧的耗时,用于计算百分位数;<br/>
+ * 同时根据帧序号统计丢帧:序号不连续时,中间缺失的帧都记为丢帧;
+ * 分发器使用{@link CameraData#dispatchSequence},期望帧率与运动门限主动跳过的帧不会记为丢帧;<br/>
+ * 该类是线程安全的;
+ */
+public class LatencyTracker {
+
+    public static final int DEFAULT_WINDOW_SIZE = 512;
+
+    /**
+     * 统计的阶段
+     */
+    public enum Stage {
+        /**
+         * 从帧到达到裁剪完成
+         */
+        CROP,
+        /**
+         * 从裁剪完成到进入分发队列
+         */
+        DISPATCH,
+        /**
+         * 在分发队列中等待,以及分发线程预处理(例如旋转、拷贝到直接内存)的时间
+         */
+        QUEUE,
+        /**
+         * 回调执行的时间
+         */
+        CALLBACK,
+        /**
+         * 从帧到达到回调完成的总时间
+         */
+        TOTAL
+    }
+
+    private final int mWindowSize;
+
+    /**
+     * 每个阶段最近的耗时,环形存储,单位纳秒
+     */
+    private final long[][] mSamples;
+
+    /**
+     * 下一个样本的写入位置
+     */
+    private int mSampleIndex;
+
+    private int mSampleCount;
+
+    private long mFrameCount;
+
+    private long mDroppedCount;
+
+    private long mLastSequence = -1;
+
+    public LatencyTracker() {
+        this(DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * @param windowSize 计算百分位数时使用的最近帧数
+     */
+    public LatencyTracker(int windowSize) {
+        mWindowSize = windowSize <= 0 ? DEFAULT_WINDOW_SIZE : windowSize;
+        mSamples = new long[Stage.values().length][mWindowSize];
+    }
+
+    /**
+     * 记录一帧;五个时间点都来源于{@link System#nanoTime()}
+     *
+     * @param sequence   帧序号,单调递增
+     * @param arrivalNs  帧到达时间
+     * @param cropDoneNs 裁剪完成时间
+     * @param dispatchNs 进入分发队列的时间
+     * @param deliverNs  开始回调的时间
+     * @param completeNs 回调完成的时间
+     */
+    public synchronized void record(long sequence, long arrivalNs, long cropDoneNs, long dispatchNs,
+                                    long deliverNs, long completeNs) {
+        if (mLastSequence >= 0
+                && sequence > mLastSequence + 1) {
+            mDroppedCount += sequence - mLastSequence - 1;
+        }
+        if (sequence > mLastSequence) {
+            mLastSequence = sequence;
+        }
+        mFrameCount++;
+        mSamples[Stage.CROP.ordinal()][mSampleIndex] = cropDoneNs - arrivalNs;
+        mSamples[Stage.DISPATCH.ordinal()][mSampleIndex] = dispatchNs - cropDoneNs;
+        mSamples[Stage.QUEUE.ordinal()][mSampleIndex] = deliverNs - dispatchNs;
+        mSamples[Stage.CALLBACK.ordinal()][mSampleIndex] = completeNs - deliverNs;
+        mSamples[Stage.TOTAL.ordinal()][mSampleIndex] = completeNs - arrivalNs;
+        mSampleIndex = (mSampleIndex + 1) % mWindowSize;
+        if (mSampleCount < mWindowSize) {
+            mSampleCount++;
+        }
+    }
+
+    /**
+     * 记录一帧;回调完成时间为completeNs;<br/>
+     * 使用{@link CameraData#dispatchSequence}统计丢帧,只有应当分发给该使用者却没有送达的帧才记为丢帧
+     */
+    public void record(CameraData cameraData, long completeNs) {
+        record(cameraData.dispatchSequence, cameraData.arrivalTimeNs, cameraData.cropDoneTimeNs,
+                cameraData.dispatchTimeNs, cameraData.deliverTimeNs, completeNs);
+    }
+
+    /**
+     * 某个阶段最近若干帧耗时的百分位数(最近秩法)
+     *
+     * @param stage      阶段
+     * @param percentile 取值范围为[0, 100]
+     * @return 单位纳秒;没有样本时返回-1
+     */
+    public synchronized long getPercentileNs(Stage stage, double percentile) {
+        if (mSampleCount <= 0) {
+            return -1;
+        }
+        long[] sorted = Arrays.copyOf(mSamples[stage.ordinal()], mSampleCount);
+        Arrays.sort(sorted);
+        return sorted[rank(percentile, mSampleCount)];
+    }
+
+    static int rank(double percentile, int count) {
+        if (percentile <= 0) {
+            return 0;
+        }
+        if (percentile >= 100) {
+            return count - 1;
+        }
+        int rank = (int) Math.ceil(percentile / 100 * count) - 1;
+        return rank < 0 ? 0 : rank;
+    }
+
+    /**
+     * 计算百分位数时使用的最近帧数
+     */
+    public int getWindowSize() {
+        return mWindowSize;
+    }
+
+    /**
+     * 当前窗口中的样本数量
+     */
+    public synchronized int getSampleCount() {
+        return mSampleCount;
+    }
+
+    /**
+     * 记录过的帧数量
+     */
+    public synchronized long getFrameCount() {
+        return mFrameCount;
+    }
+
+    /**
+     * 根据帧序号的间隔统计出的丢帧数量
+     */
+    public synchronized long getDroppedCount() {
+        return mDroppedCount;
+    }
+
+    public synchronized void reset() {
+        mSampleIndex = 0;
+        mSampleCount = 0;
+        mFrameCount = 0;
+        mDroppedCount = 0;
+        mLastSequence = -1;
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder builder = new StringBuilder("LatencyTracker[frames=")
+                .append(mFrameCount)
+                .append(", dropped=")
+                .append(mDroppedCount);
+        for (Stage stage : Stage.values()) {
+            builder.append(", ")
+                    .append(stage.name().toLowerCase())
+                    .append("(p50/p90/p99 us)=")
+                    .append(getPercentileNs(stage, 50) / 1000)
+                    .append('/')
+                    .append(getPercentileNs(stage, 90) / 1000)
+                    .append('/')
+                    .append(getPercentileNs(stage, 99) / 1000);
+        }
+        return builder.append(']').toString();
+    }
+}
@@ -0,0 +1,267 @@
+package com.shuyi.camera_module.camera;
+
+import java.util.Arrays;
+
+/**
+ * 运动/场景变化门限;<br/>
+ * 将每一帧的亮度缩小为固定大小的网格签名(每个格子取若干采样点的和),
+ * 与上一个放行帧的签名逐格比较,平均绝对差即为该帧的运动分数,取值范围为[0, 255];
+ * 分数低于门限的帧被认为与上一个放行帧相同,不再裁剪与分发;<br/>
+ * 与上一个放行帧比较而不是与上一帧比较,所以缓慢的变化也会累积到门限;
+ * 另外每隔{@link #setKeyframeIntervalMs(long)}强制放行一帧,保证静止的场景也会定期更新;<br/>
+ * 签名的计算量只与网格大小有关,与预览尺寸无关;<br/>
+ * 配置方法需要在开始预览之前调用;{@link #accept(byte[], int, int, int, int, long)}只能在相机线程中调用,
+ * 统计方法可以在任意线程中调用;
+ */
+public class MotionGate {
+
+    public static final int DEFAULT_GRID_WIDTH = 32;
+
+    public static final int DEFAULT_GRID_HEIGHT = 18;
+
+    public static final float DEFAULT_THRESHOLD = 3f;
+
+    public static final long DEFAULT_KEYFRAME_INTERVAL_MS = 1000;
+
+    /**
+     * 每个格子在每个方向上的采样点数量
+     */
+    static final int SAMPLES_PER_CELL = 4;
+
+    private int mGridWidth = DEFAULT_GRID_WIDTH;
+
+    private int mGridHeight = DEFAULT_GRID_HEIGHT;
+
+    private float mThreshold = DEFAULT_THRESHOLD;
+
+    private long mKeyframeIntervalNs = DEFAULT_KEYFRAME_INTERVAL_MS * 1000000L;
+
+    /**
+     * 采样点相对于窗口的列与行;只有窗口尺寸变化时才重新计算
+     */
+    private int[] mSampleColumns;
+
+    private int[] mSampleRows;
+
+    private int mWidth;
+
+    private int mHeight;
+
+    private int[] mSignature;
+
+    /**
+     * 上一个放行帧的签名
+     */
+    private int[] mReference;
+
+    private boolean mHasReference;
+
+    private long mLastDeliveredTimeNs;
+
+    private volatile float mLastScore = -1;
+
+    private volatile long mEvaluatedCount;
+
+    private volatile long mSkippedCount;
+
+    private volatile long mKeyframeCount;
+
+    /**
+     * 设置运动分数的门限;分数低于该值的帧会被跳过
+     *
+     * @param threshold 取值范围为[0, 255],超出范围时会被忽略;0表示只跳过完全相同的帧
+     * @return
+     */
+    public MotionGate setThreshold(float threshold) {
+        if (threshold >= 0
+                && threshold <= 255) {
+            mThreshold = threshold;
+        }
+        return this;
+    }
+
+    /**
+     * 设置强制放行的时间间隔;距离上一个放行帧超过该时间之后,无论场景是否变化都会放行
+     *
+     * @param keyframeIntervalMs 单位毫秒;小于等于0表示不强制放行
+     * @return
+     */
+    public MotionGate setKeyframeIntervalMs(long keyframeIntervalMs) {
+        mKeyframeIntervalNs = keyframeIntervalMs <= 0 ? 0 : keyframeIntervalMs * 1000000L;
+        return this;
+    }
+
+    /**
+     * 设置签名网格的大小;网格越大,对小物体的运动越敏感,计算量也越大
+     *
+     * @return
+     */
+    public MotionGate setGridSize(int gridWidth, int gridHeight) {
+        if (gridWidth > 0
+                && gridHeight > 0) {
+            mGridWidth = gridWidth;
+            mGridHeight = gridHeight;
+            mWidth = 0;
+            mHeight = 0;
+            mHasReference = false;
+        }
+        return this;
+    }
+
+    /**
+     * 判断该帧是否需要分发;需要分发时会将该帧作为新的比较基准
+     *
+     * @param data        帧数据
+     * @param yOffset     窗口第一个亮度数据的位置
+     * @param stride      每行亮度数据的字节数
+     * @param width       窗口宽度
+     * @param height      窗口高度
+     * @param timestampNs 帧时间,单位纳秒
+     * @return 是否需要分发
+     */
+    public boolean accept(byte[] data, int yOffset, int stride, int width, int height, long timestampNs) {
+        if (data == null
+                || width <= 0
+                || height <= 0
+                || yOffset < 0
+                || yOffset + (height - 1) * stride + width > data.length) {
+            return true;
+        }
+        if (width != mWidth
+                || height != mHeight) {
+            prepare(width, height);
+        }
+        computeSignature(data, yOffset, stride);
+        mEvaluatedCount++;
+
+        boolean accepted;
+        if (!mHasReference) {
+            mLastScore = -1;
+            accepted = true;
+        } else {
+            float score = computeScore();
+            mLastScore = score;
+            accepted = score >= mThreshold;
+            if (!accepted
+                    && mKeyframeIntervalNs > 0
+                    && timestampNs - mLastDeliveredTimeNs >= mKeyframeIntervalNs) {
+                mKeyframeCount++;
+                accepted = true;
+            }
+        }
+        if (accepted) {
+            int[] reference = mReference;
+            mReference = mSignature;
+            mSignature = reference;
+            mHasReference = true;
+            mLastDeliveredTimeNs = timestampNs;
+        } else {
+            mSkippedCount++;
+        }
+        return accepted;
+    }
+
+    /**
+     * 清除比较基准,下一帧一定会被放行;统计数据不会被清除
+     */
+    public void reset() {
+        mHasReference = false;
+        mLastScore = -1;
+    }
+
+    private void prepare(int width, int height) {
+        mWidth = width;
+        mHeight = height;
+        mSampleColumns = sampleCoordinates(width, mGridWidth);
+        mSampleRows = sampleCoordinates(height, mGridHeight);
+        mSignature = new int[mGridWidth * mGridHeight];
+        mReference = new int[mGridWidth * mGridHeight];
+        mHasReference = false;
+    }
+
+    /**
+     * 将长度为length的边均分为cells个格子,每个格子内均匀取{@link #SAMPLES_PER_CELL}个采样点
+     */
+    private static int[] sampleCoordinates(int length, int cells) {
+        int[] coordinates = new int[cells * SAMPLES_PER_CELL];
+        int total = cells * SAMPLES_PER_CELL;
+        for (int i = 0; i < total; i++) {
+            coordinates[i] = (int) ((2L * i + 1) * length / (2L * total));
+        }
+        return coordinates;
+    }
+
+    private void computeSignature(byte[] data, int yOffset, int stride) {
+        int[] signature = mSignature;
+        int[] columns = mSampleColumns;
+        int[] rows = mSampleRows;
+        Arrays.fill(signature, 0);
+        for (int gy = 0; gy < mGridHeight; gy++) {
+            int cellRow = gy * mGridWidth;
+            for (int sy = 0; sy < SAMPLES_PER_CELL; sy++) {
+                int rowStart = yOffset + rows[gy * SAMPLES_PER_CELL + sy] * stride;
+                int column = 0;
+                for (int gx = 0; gx < mGridWidth; gx++) {
+                    int sum = 0;
+                    for (int sx = 0; sx < SAMPLES_PER_CELL; sx++) {
+                        sum += data[rowStart + columns[column++]] & 0xFF;
+                    }
+                    signature[cellRow + gx] += sum;
+                }
+            }
+        }
+    }
+
+    private float computeScore() {
+        int[] signature = mSignature;
+        int[] reference = mReference;
+        long difference = 0;
+        for (int i = 0; i < signature.length; i++) {
+            int delta = signature[i] - reference[i];
+            difference += delta < 0 ? -delta : delta;
+        }
+        return (float) difference / (signature.length * SAMPLES_PER_CELL * SAMPLES_PER_CELL);
+    }
+
+    /**
+     * 最近一帧的运动分数;没有比较基准时为-1
+     */
+    public float getLastScore() {
+        return mLastScore;
+    }
+
+    /**
+     * 经过门限判断的帧数
+     */
+    public long getEvaluatedCount() {
+        return mEvaluatedCount;
+    }
+
+    /**
+     * 因为场景没有变化而被跳过的帧数
+     */
+    public long getSkippedCount() {
+        return mSkippedCount;
+    }
+
+    /**
+     * 场景没有变化,但是因为超过强制放行间隔而被放行的帧数
+     */
+    public long getKeyframeCount() {
+        return mKeyframeCount;
+    }
+
+    /**
+     * 被跳过的帧数占经过门限判断的帧数的比例
+     */
+    public double getSkipRate() {
+        long evaluated = mEvaluatedCount;
+        return evaluated == 0 ? 0 : (double) mSkippedCount / evaluated;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("MotionGate[evaluated=%d, skipped=%d, keyframes=%d, lastScore=%.2f]",
+                mEvaluatedCount, mSkippedCount, mKeyframeCount, mLastScore);
+    }
+}
@@ -2,17 +2,27 @@ package com.shuyi.camera_module.camera;
 
 import android.graphics.ImageFormat;
 import android.hardware.Camera;
+import android.util.Log;
 import android.view.SurfaceHolder;
 
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 import com.shuyi.camera_module.common.IConstants;
+import com.shuyi.camera_module.image.FrameStatsCalculator;
 
 class OpenCameraConfig extends CameraConfig {
+    private static final String TAG = "OpenCameraConfig";
+
     static final int HIGH_PREVIEW_WIDTH = 1920;
     static final int HIGH_PREVIEW_HEIGHT = 1080;
     static final int PHOTO_PREVIEW_WIDTH = 1280;
     static final int PHOTO_PREVIEW_HEIGHT = 960;
     static final int MEDIUM_PREVIEW_WIDTH = 1280;
     static final int MEDIUM_PREVIEW_HEIGHT = 720;
+    static final int DEFAULT_PREVIEW_BUFFER_COUNT = 3;
+    static final int MAX_PREVIEW_BUFFER_COUNT = 8;
 
     OpenCameraConfig() {
 
@@ -28,7 +38,7 @@ class OpenCameraConfig extends CameraConfig {
     String autoFoucusMode = Camera.Parameters.FOCUS_MODE_AUTO;
 
     /**
-     * 预览格式
+     * 提供给使用者的预览格式;见{@link com.shuyi.camera_module.image.YuvFormats}
      */
     int mPreviewFormat = ImageFormat.NV21;
 
@@ -50,6 +60,62 @@ class OpenCameraConfig extends CameraConfig {
 
     CameraPresetLevel cameraPresetLevel = CameraPresetLevel.MEDIUM;
 
+    /**
+     * 预览帧回调缓存的数量;<br/>
+     * 取值范围为[1, {@link #MAX_PREVIEW_BUFFER_COUNT}],默认为{@link #DEFAULT_PREVIEW_BUFFER_COUNT}
+     */
+    int previewBufferCount = DEFAULT_PREVIEW_BUFFER_COUNT;
+
+    /**
+     * 预览帧快照文件;为空表示不开启快照,默认不开启
+     */
+    File snapshotFile;
+
+    /**
+     * 两次预览帧快照之间的最小时间间隔,单位毫秒
+     */
+    int snapshotIntervalMs = FrameSnapshotService.DEFAULT_INTERVAL_MS;
+
+    /**
+     * 最多同时等待写入的预览帧快照数量;超出时新的快照会被丢弃
+     */
+    int snapshotQueueCapacity = FrameSnapshotService.DEFAULT_QUEUE_CAPACITY;
+
+    /**
+     * 预览帧分发队列的容量
+     */
+    int dispatchQueueCapacity = FrameDispatcher.DEFAULT_QUEUE_CAPACITY;
+
+    /**
+     * 预览帧分发队列已满时的处理策略
+     */
+    FrameDispatcher.OverflowPolicy dispatchOverflowPolicy = FrameDispatcher.OverflowPolicy.DROP_OLDEST;
+
+    /**
+     * 外部预览帧回调是否通过直接内存接收预览帧
+     */
+    boolean directFrameDelivery = false;
+
+    /**
+     * 外部预览帧回调是否接收与屏幕预览方向相同的预览帧
+     */
+    boolean uprightFrame = false;
+
+    /**
+     * 除了{@link #externalPreviewCallback}之外的预览帧订阅者,例如只需要小图的分析类使用者;开始预览时订阅
+     */
+    final Map<IPreviewCallback, SubscriberOptions> previewSubscribers = new LinkedHashMap<>();
+
+    /**
+     * 预览帧的3A统计;为空表示不统计
+     */
+    FrameStatsCalculator frameStatsCalculator;
+
+    /**
+     * 运动/场景变化门限;为空表示分发所有的帧
+     */
+    MotionGate motionGate;
+
     /**
      * 外部预览帧回调接口
      */
@@ -89,6 +155,11 @@ class OpenCameraConfig extends CameraConfig {
      */
     boolean isForbidCrop = false;
 
+    /**
+     * 预览帧的裁剪方式;默认为{@link CropMode#COPY}
+     */
+    CropMode cropMode = CropMode.COPY;
+
     /**
      * 显示界面旋转角度
      */
@@ -114,4 +185,45 @@ class OpenCameraConfig extends CameraConfig {
         }
         return result;
     }
+
+    /**
+     * 按照surface的宽高比计算裁剪后的预览尺寸;需要先确定原始预览尺寸与surface尺寸
+     */
+    void computeCroppedPreviewSize() {
+        if (isForbidCrop
+                || surfaceWidth == 0
+                || surfaceHeight == 0) {
+            // 不剪切
+            isCropped = false;
+            previewWidth = originPreviewWidth;
+            previewHeight = originPreviewHeight;
+            Log.i(TAG, String.format("force no crop!!! the origin preview size[%d, %d]; the surface size[%d, %d]; the cropped size[%d, %d]",
+                    originPreviewWidth, originPreviewHeight,
+                    surfaceWidth, surfaceHeight,
+                    previewWidth, previewHeight));
+            return;
+        }
+
+        float surfaceRatio = (float) surfaceWidth / (float) surfaceHeight;
+        float previewRatio = (float) originPreviewWidth / (float) originPreviewHeight;
+        if (surfaceRatio >= previewRatio) {
+            previewWidth = originPreviewWidth;
+            previewHeight = (int) (originPreviewWidth / surfaceRatio);
+        } else {
+            previewWidth = (int) (originPreviewHeight * surfaceRatio);
+            previewHeight = originPreviewHeight;
+        }
+        isCropped = previewWidth != originPreviewWidth;
+        isCropped |= previewHeight != originPreviewHeight;
+        if (isCropped) {
+            // 避免预览尺寸的宽高是奇数的情况，以便裁剪
+            // todo 玩美SDK底层需要要预览帧宽度必须与4对齐
+            previewWidth = previewWidth / 4 * 4;
+            previewHeight = previewHeight / 4 * 4;
+        }
+        Log.i(TAG, String.format("the origin preview size[%d, %d]; the surface size[%d, %d]; the cropped size[%d, %d]",
+                originPreviewWidth, originPreviewHeight,
+                surfaceWidth, surfaceHeight,
+                previewWidth, previewHeight));
+    }
 }
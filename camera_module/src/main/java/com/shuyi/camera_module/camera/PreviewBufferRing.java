@@ -0,0 +1,205 @@
+package com.shuyi.camera_module.camera;
+
+/**
+ * 预览帧回调缓存环;<br/>
+ * 预先分配N个相同大小的预览帧缓存,开始预览时全部交给相机;<br/>
+ * 相机每输出一帧就占用其中一个缓存,直到使用者处理完成后通过{@link #recycle(byte[])}显式归还;<br/>
+ * 只要环中还有已交给相机的缓存,相机就能继续输出预览帧,而不会因为某一帧处理较慢而丢帧;<br/>
+ * 如果某一帧到达时相机手中已经没有缓存,则记为一次缓存饥饿,此时相机会丢弃后续的帧,直到有缓存被归还;
+ */
+public class PreviewBufferRing {
+
+    /**
+     * 缓存已交给相机
+     */
+    private static final int STATE_QUEUED = 0;
+
+    /**
+     * 缓存正在被使用者处理
+     */
+    private static final int STATE_IN_FLIGHT = 1;
+
+    /**
+     * 缓存空闲;未交给相机，也没有被使用
+     */
+    private static final int STATE_IDLE = 2;
+
+    /**
+     * 接收预览帧缓存的一方,一般是{@link android.hardware.Camera#addCallbackBuffer(byte[])}
+     */
+    interface BufferQueue {
+        void queueBuffer(byte[] buffer);
+    }
+
+    private final byte[][] mBuffers;
+
+    private final int[] mStates;
+
+    private final int mBufferSize;
+
+    /**
+     * 为空表示当前没有与相机关联
+     */
+    private BufferQueue mBufferQueue;
+
+    private int mQueuedCount;
+
+    private long mArrivedCount;
+
+    private long mStarvationCount;
+
+    PreviewBufferRing(int bufferCount, int bufferSize) {
+        if (bufferCount <= 0 || bufferSize <= 0) {
+            throw new IllegalArgumentException("bad buffer count or buffer size...");
+        }
+        mBufferSize = bufferSize;
+        mBuffers = new byte[bufferCount][];
+        mStates = new int[bufferCount];
+        for (int i = 0; i < bufferCount; i++) {
+            mBuffers[i] = new byte[bufferSize];
+            mStates[i] = STATE_IDLE;
+        }
+    }
+
+    /**
+     * 是否可以直接复用于指定的缓存数量与大小
+     */
+    boolean isCompatible(int bufferCount, int bufferSize) {
+        return mBuffers.length == bufferCount && mBufferSize == bufferSize;
+    }
+
+    /**
+     * 与相机关联,并将所有空闲缓存交给相机;<br/>
+     * 仍在使用者手中的缓存,会在归还时再交给相机;
+     */
+    synchronized void attach(BufferQueue bufferQueue) {
+        mBufferQueue = bufferQueue;
+        if (bufferQueue == null) {
+            return;
+        }
+        for (int i = 0; i < mBuffers.length; i++) {
+            if (mStates[i] == STATE_IDLE) {
+                mStates[i] = STATE_QUEUED;
+                mQueuedCount++;
+                bufferQueue.queueBuffer(mBuffers[i]);
+            }
+        }
+    }
+
+    /**
+     * 与相机解除关联;<br/>
+     * 调用者需要保证相机已经不再持有这些缓存(例如已经停止预览);
+     */
+    synchronized void detach() {
+        mBufferQueue = null;
+        for (int i = 0; i < mBuffers.length; i++) {
+            if (mStates[i] == STATE_QUEUED) {
+                mStates[i] = STATE_IDLE;
+            }
+        }
+        mQueuedCount = 0;
+    }
+
+    /**
+     * 相机输出了一帧;
+     *
+     * @param buffer 预览帧缓存
+     * @return 该缓存是否属于当前缓存环;只有属于当前缓存环的缓存才需要调用{@link #recycle(byte[])}
+     */
+    synchronized boolean onFrameArrived(byte[] buffer) {
+        int index = indexOf(buffer);
+        if (index < 0) {
+            return false;
+        }
+        if (mStates[index] == STATE_QUEUED) {
+            mQueuedCount--;
+        }
+        mStates[index] = STATE_IN_FLIGHT;
+        mArrivedCount++;
+        if (mBufferQueue != null && mQueuedCount <= 0) {
+            mStarvationCount++;
+        }
+        return true;
+    }
+
+    /**
+     * 使用者处理完成,归还缓存;<br/>
+     * 多次归还同一个缓存是安全的,只有第一次归还生效;<br/>
+     * 该方法可以在任意线程中调用;
+     */
+    synchronized void recycle(byte[] buffer) {
+        int index = indexOf(buffer);
+        if (index < 0
+                || mStates[index] != STATE_IN_FLIGHT) {
+            return;
+        }
+        if (mBufferQueue == null) {
+            mStates[index] = STATE_IDLE;
+            return;
+        }
+        mStates[index] = STATE_QUEUED;
+        mQueuedCount++;
+        mBufferQueue.queueBuffer(buffer);
+    }
+
+    private int indexOf(byte[] buffer) {
+        if (buffer == null) {
+            return -1;
+        }
+        for (int i = 0; i < mBuffers.length; i++) {
+            if (mBuffers[i] == buffer) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 缓存总数
+     */
+    public int getBufferCount() {
+        return mBuffers.length;
+    }
+
+    /**
+     * 单个缓存的字节数
+     */
+    public int getBufferSize() {
+        return mBufferSize;
+    }
+
+    /**
+     * 当前交给相机、可用于接收下一帧的缓存数量
+     */
+    public synchronized int getQueuedCount() {
+        return mQueuedCount;
+    }
+
+    /**
+     * 当前仍在使用者手中、尚未归还的缓存数量
+     */
+    public synchronized int getInFlightCount() {
+        int count = 0;
+        for (int state : mStates) {
+            if (state == STATE_IN_FLIGHT) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 从缓存环中输出的预览帧总数
+     */
+    public synchronized long getArrivedCount() {
+        return mArrivedCount;
+    }
+
+    /**
+     * 缓存饥饿的次数;<br/>
+     * 即某一帧到达时,相机手中已经没有可以接收下一帧的缓存;
+     */
+    public synchronized long getStarvationCount() {
+        return mStarvationCount;
+    }
+}
@@ -0,0 +1,219 @@
+package com.shuyi.camera_module.camera;
+
+import com.shuyi.camera_module.image.FrameTransform;
+import com.shuyi.camera_module.image.NV21Rotator;
+import com.shuyi.camera_module.image.YuvFormats;
+
+/**
+ * 预览帧中的感兴趣区域,例如文档区域或者扫码框;<br/>
+ * 区域的坐标是相对于屏幕预览画面的比例,取值范围为[0, 1],与屏幕上看到的方向一致;
+ * 分发线程会按照{@link CameraData#rotation}与{@link CameraData#mirror}将其换算到裁剪之后的预览帧中;<br/>
+ * 每一帧都会单独提取该区域:不需要旋转、缩放与格式转换时直接提供相机缓存上的视图,不拷贝;
+ * 否则通过{@link FrameTransform}一次遍历写入缓存池;处理的代价只与区域的面积有关;<br/>
+ * 通过{@link SubscriberOptions#addRegion(RegionOfInterest)}注册,结果通过{@link CameraData#regions}提供;
+ */
+public class RegionOfInterest {
+
+    private final String mName;
+
+    private final float mLeft;
+
+    private final float mTop;
+
+    private final float mRight;
+
+    private final float mBottom;
+
+    private boolean mUpright = false;
+
+    private int mOutputWidth = 0;
+
+    private int mOutputHeight = 0;
+
+    private int mOutputFormat = YuvFormats.NV21;
+
+    /**
+     * @param name   区域的名字,用于区分多个区域
+     * @param left   左边界相对于屏幕预览宽度的比例
+     * @param top    上边界相对于屏幕预览高度的比例
+     * @param right  右边界相对于屏幕预览宽度的比例
+     * @param bottom 下边界相对于屏幕预览高度的比例
+     * @throws IllegalArgumentException 区域为空
+     */
+    public RegionOfInterest(String name, float left, float top, float right, float bottom) {
+        left = clamp(left);
+        top = clamp(top);
+        right = clamp(right);
+        bottom = clamp(bottom);
+        if (left >= right
+                || top >= bottom) {
+            throw new IllegalArgumentException("the region of interest can not be empty...");
+        }
+        mName = name;
+        mLeft = left;
+        mTop = top;
+        mRight = right;
+        mBottom = bottom;
+    }
+
+    /**
+     * 设置是否提供与屏幕预览方向相同的区域;默认为false,即与相机帧的方向相同
+     *
+     * @return
+     */
+    public RegionOfInterest setUpright(boolean upright) {
+        mUpright = upright;
+        return this;
+    }
+
+    /**
+     * 设置区域缩放之后的尺寸;同时设置了{@link #setUpright(boolean)}时为旋转之后的尺寸
+     *
+     * @param outputWidth  会向下对齐到偶数;小于等于0表示不缩放
+     * @param outputHeight 会向下对齐到偶数;小于等于0表示不缩放
+     * @return
+     */
+    public RegionOfInterest setOutputSize(int outputWidth, int outputHeight) {
+        outputWidth = outputWidth / 2 * 2;
+        outputHeight = outputHeight / 2 * 2;
+        if (outputWidth <= 0
+                || outputHeight <= 0) {
+            mOutputWidth = 0;
+            mOutputHeight = 0;
+        } else {
+            mOutputWidth = outputWidth;
+            mOutputHeight = outputHeight;
+        }
+        return this;
+    }
+
+    /**
+     * 设置区域的输出格式,默认为{@link YuvFormats#NV21}
+     *
+     * @param outputFormat {@link YuvFormats}中的格式或者{@link FrameTransform#FORMAT_GRAY};不支持的格式会被忽略
+     * @return
+     */
+    public RegionOfInterest setOutputFormat(int outputFormat) {
+        if (YuvFormats.isSupported(outputFormat)
+                || outputFormat == FrameTransform.FORMAT_GRAY) {
+            mOutputFormat = outputFormat;
+        }
+        return this;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public boolean isUpright() {
+        return mUpright;
+    }
+
+    public int getOutputFormat() {
+        return mOutputFormat;
+    }
+
+    /**
+     * 是否可以直接提供相机缓存上的视图
+     */
+    boolean isView() {
+        return !mUpright
+                && mOutputWidth <= 0
+                && mOutputFormat == YuvFormats.NV21;
+    }
+
+    /**
+     * 将区域换算为预览帧中的矩形;边界都对齐到偶数,至少为2x2
+     *
+     * @param width    预览帧的宽度
+     * @param height   预览帧的高度
+     * @param rotation 预览帧顺时针旋转该角度之后与屏幕预览一致
+     * @param mirror   旋转之前是否水平镜像
+     * @return left、top、width、height;区域在帧之外时为空
+     */
+    int[] mapToFrame(int width, int height, int rotation, boolean mirror) {
+        if (!NV21Rotator.isValidRotation(rotation)
+                || width < 2
+                || height < 2) {
+            return null;
+        }
+        // 屏幕预览中的坐标(u, v)按照旋转的逆变换换算为镜像之后的帧中的坐标(x, y)
+        float x0;
+        float y0;
+        float x1;
+        float y1;
+        switch (rotation) {
+            case 90:
+                x0 = mTop;
+                x1 = mBottom;
+                y0 = 1 - mRight;
+                y1 = 1 - mLeft;
+                break;
+            case 180:
+                x0 = 1 - mRight;
+                x1 = 1 - mLeft;
+                y0 = 1 - mBottom;
+                y1 = 1 - mTop;
+                break;
+            case 270:
+                x0 = 1 - mBottom;
+                x1 = 1 - mTop;
+                y0 = mLeft;
+                y1 = mRight;
+                break;
+            default:
+                x0 = mLeft;
+                x1 = mRight;
+                y0 = mTop;
+                y1 = mBottom;
+                break;
+        }
+        if (mirror) {
+            float x = x0;
+            x0 = 1 - x1;
+            x1 = 1 - x;
+        }
+        int left = (int) (x0 * width) / 2 * 2;
+        int top = (int) (y0 * height) / 2 * 2;
+        int right = Math.min(width / 2 * 2, ((int) Math.ceil(x1 * width) + 1) / 2 * 2);
+        int bottom = Math.min(height / 2 * 2, ((int) Math.ceil(y1 * height) + 1) / 2 * 2);
+        if (right <= left) {
+            left = right - 2;
+        }
+        if (bottom <= top) {
+            top = bottom - 2;
+        }
+        if (left < 0
+                || top < 0) {
+            return null;
+        }
+        return new int[]{left, top, right - left, bottom - top};
+    }
+
+    /**
+     * 创建提取该区域的帧变换
+     */
+    FrameTransform newTransform(int width, int height, int rotation, boolean mirror) {
+        int[] rect = mapToFrame(width, height, rotation, mirror);
+        if (rect == null) {
+            return null;
+        }
+        FrameTransform.Builder builder = FrameTransform.newBuilder()
+                .setCrop(rect[0], rect[1], rect[2], rect[3])
+                .setOutputSize(mOutputWidth, mOutputHeight)
+                .setOutputFormat(mOutputFormat);
+        if (mUpright) {
+            builder.setRotation(rotation).setMirror(mirror);
+        }
+        return builder.build();
+    }
+
+    private static float clamp(float value) {
+        return value < 0 ? 0 : (value > 1 ? 1 : value);
+    }
+
+    @Override
+    public String toString() {
+        return "RegionOfInterest[" + mName + ", (" + mLeft + ", " + mTop + ", " + mRight + ", " + mBottom + ")]";
+    }
+}
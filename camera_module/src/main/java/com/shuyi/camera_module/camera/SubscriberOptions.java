@@ -0,0 +1,189 @@
+package com.shuyi.camera_module.camera;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 预览帧订阅者的配置;
+ * <ul>
+ * <li>
+ * 调用{@link #setTargetFps(int)}设置订阅者期望的帧率,默认为0,即接收所有的帧;
+ * </li>
+ * <li>
+ * 调用{@link #setQueueCapacity(int)}设置订阅者分发队列的容量,默认为{@link FrameDispatcher#DEFAULT_QUEUE_CAPACITY};
+ * </li>
+ * <li>
+ * 调用{@link #setOverflowPolicy(FrameDispatcher.OverflowPolicy)}设置分发队列已满时的处理策略,
+ * 默认为{@link FrameDispatcher.OverflowPolicy#DROP_OLDEST};
+ * </li>
+ * <li>
+ * 调用{@link #setMaxBlockMs(long)}设置{@link FrameDispatcher.OverflowPolicy#BLOCK}策略下相机线程的最长等待时间,
+ * 默认为{@link FrameDispatcher#DEFAULT_MAX_BLOCK_MS}毫秒;
+ * </li>
+ * <li>
+ * 调用{@link #setName(String)}设置订阅者的名字,用于命名分发线程;
+ * </li>
+ * <li>
+ * 调用{@link #setDirectBuffer(boolean)}设置是否通过直接内存提供预览帧,默认为false;
+ * </li>
+ * <li>
+ * 调用{@link #setUpright(boolean)}设置是否提供与屏幕预览方向相同的预览帧,默认为false;
+ * </li>
+ * <li>
+ * 调用{@link #setOutputSize(int, int)}设置预览帧缩小之后的尺寸,默认不缩放;
+ * </li>
+ * <li>
+ * 调用{@link #addRegion(RegionOfInterest)}增加感兴趣区域,默认为空;
+ * </li>
+ * </ul>
+ * 每个订阅者都有自己的分发线程与队列,处理较慢的订阅者不会影响其他订阅者;
+ */
+public class SubscriberOptions {
+
+    int targetFps = 0;
+
+    int queueCapacity = FrameDispatcher.DEFAULT_QUEUE_CAPACITY;
+
+    FrameDispatcher.OverflowPolicy overflowPolicy = FrameDispatcher.OverflowPolicy.DROP_OLDEST;
+
+    long maxBlockMs = FrameDispatcher.DEFAULT_MAX_BLOCK_MS;
+
+    String name = "subscriber";
+
+    boolean directBuffer = false;
+
+    boolean upright = false;
+
+    int outputWidth = 0;
+
+    int outputHeight = 0;
+
+    final List<RegionOfInterest> regions = new ArrayList<>();
+
+    /**
+     * 设置订阅者期望的帧率;相机帧率高于该值时,会均匀地跳过部分帧
+     *
+     * @param targetFps 小于等于0表示接收所有的帧
+     * @return
+     */
+    public SubscriberOptions setTargetFps(int targetFps) {
+        this.targetFps = targetFps < 0 ? 0 : targetFps;
+        return this;
+    }
+
+    /**
+     * @param queueCapacity 必须大于0,否则会被忽略
+     * @return
+     */
+    public SubscriberOptions setQueueCapacity(int queueCapacity) {
+        if (queueCapacity > 0) {
+            this.queueCapacity = queueCapacity;
+        }
+        return this;
+    }
+
+    /**
+     * @param overflowPolicy 为空时会被忽略
+     * @return
+     */
+    public SubscriberOptions setOverflowPolicy(FrameDispatcher.OverflowPolicy overflowPolicy) {
+        if (overflowPolicy != null) {
+            this.overflowPolicy = overflowPolicy;
+        }
+        return this;
+    }
+
+    /**
+     * 设置{@link FrameDispatcher.OverflowPolicy#BLOCK}策略下相机线程的最长等待时间;
+     * 等待期间相机线程无法处理其他消息,不宜过长
+     *
+     * @param maxBlockMs 单位毫秒,小于0时会被忽略
+     * @return
+     */
+    public SubscriberOptions setMaxBlockMs(long maxBlockMs) {
+        if (maxBlockMs >= 0) {
+            this.maxBlockMs = maxBlockMs;
+        }
+        return this;
+    }
+
+    /**
+     * @param name 为空时会被忽略
+     * @return
+     */
+    public SubscriberOptions setName(String name) {
+        if (name != null
+                && name.length() > 0) {
+            this.name = name;
+        }
+        return this;
+    }
+
+    /**
+     * 设置是否通过直接内存提供预览帧;<br/>
+     * 设置为true时,分发线程会在回调之前将预览帧拷贝到缓存池中的直接内存,
+     * 通过{@link CameraData#directFrame}提供给回调;拷贝在分发线程中进行,不会占用相机线程
+     *
+     * @param directBuffer
+     * @return
+     */
+    public SubscriberOptions setDirectBuffer(boolean directBuffer) {
+        this.directBuffer = directBuffer;
+        return this;
+    }
+
+    /**
+     * 设置是否提供与屏幕预览方向相同的预览帧;<br/>
+     * 设置为true时,分发线程会按照{@link CameraData#rotation}与{@link CameraData#mirror}
+     * 在一次遍历中完成裁剪、镜像与旋转,回调拿到的帧不再需要旋转;
+     * 此时帧的宽高以{@link com.shuyi.camera_module.frame.Frame#getWidth()}与
+     * {@link com.shuyi.camera_module.frame.Frame#getHeight()}为准,可能与{@link CameraConfig#previewWidth}不同
+     *
+     * @param upright
+     * @return
+     */
+    public SubscriberOptions setUpright(boolean upright) {
+        this.upright = upright;
+        return this;
+    }
+
+    /**
+     * 设置回调拿到的预览帧的尺寸,用于只需要小图的分析类使用者;<br/>
+     * 分发线程先按照该尺寸的宽高比居中裁剪,再缩放到该尺寸;恰好是2倍或者4倍时使用盒式滤波,否则使用双线性插值;
+     * 同时设置了{@link #setUpright(boolean)}时,该尺寸是旋转之后的尺寸,旋转与缩放通过
+     * {@link com.shuyi.camera_module.image.FrameTransform}在一次遍历中完成,使用双线性插值
+     *
+     * @param outputWidth  会向下对齐到偶数;小于等于0表示不缩放
+     * @param outputHeight 会向下对齐到偶数;小于等于0表示不缩放
+     * @return
+     */
+    public SubscriberOptions setOutputSize(int outputWidth, int outputHeight) {
+        outputWidth = outputWidth / 2 * 2;
+        outputHeight = outputHeight / 2 * 2;
+        if (outputWidth <= 0
+                || outputHeight <= 0) {
+            this.outputWidth = 0;
+            this.outputHeight = 0;
+        } else {
+            this.outputWidth = outputWidth;
+            this.outputHeight = outputHeight;
+        }
+        return this;
+    }
+
+    /**
+     * 增加一个感兴趣区域;分发线程每一帧都会提取该区域,按照增加的顺序通过{@link CameraData#regions}提供;<br/>
+     * 设置了区域之后,相机线程不再为该订阅者拷贝紧凑的帧,
+     * 没有设置{@link #setUpright(boolean)}与{@link #setOutputSize(int, int)}时,
+     * {@link CameraData#frame}可能是{@link com.shuyi.camera_module.frame.Frame#isCompact()}为false的视图
+     *
+     * @param region 为空时会被忽略
+     * @return
+     */
+    public SubscriberOptions addRegion(RegionOfInterest region) {
+        if (region != null) {
+            regions.add(region);
+        }
+        return this;
+    }
+}
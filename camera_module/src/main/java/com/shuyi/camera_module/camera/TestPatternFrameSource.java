@@ -0,0 +1,505 @@
+package com.shuyi.camera_module.camera;
+
+import android.util.Log;
+
+import com.shuyi.camera_module.image.YuvFormats;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 生成测试图案的帧来源,不需要相机就可以对裁剪、分发以及使用者的处理进行压力测试;<br/>
+ * 图案是确定的:同一个配置的第n帧总是相同,见{@link Pattern};每一帧的左上角可以打上帧号的二进制标记,
+ * 通过{@link #readStamp(byte[], int, int)}读取,用于在使用者一侧检查丢帧与乱序;<br/>
+ * 按照固定的帧率调度,与相机传感器相同,不会因为处理流程跟不上而等待:
+ * <ul>
+ * <li>调度时间已经过去整整一个周期的帧直接跳过,计入丢帧;</li>
+ * <li>调度时间到达时处理流程还持有所有的缓存,丢弃该帧;</li>
+ * <li>交给处理流程的时间晚于调度时间半个周期以上,计入迟到;</li>
+ * </ul>
+ * 帧率为0时不调度,以最快的速度生成,等待空闲的缓存,用于测量处理流程的吞吐上限;<br/>
+ * 每帧只有按行的数组拷贝,图案在开始之前生成一次;支持最高4K分辨率与240帧每秒;
+ */
+public class TestPatternFrameSource implements FrameSource {
+    private static final String TAG = "TestPatternFrameSource";
+
+    public static final int MAX_WIDTH = 4096;
+
+    public static final int MAX_HEIGHT = 2160;
+
+    public static final int MAX_FPS = 240;
+
+    /**
+     * 帧号标记的位数
+     */
+    static final int STAMP_BITS = 32;
+
+    /**
+     * 帧号标记中每一位的方块边长
+     */
+    static final int STAMP_BLOCK_SIZE = 8;
+
+    private static final byte STAMP_ONE = (byte) 235;
+
+    private static final byte STAMP_ZERO = (byte) 16;
+
+    /**
+     * 等待时每次检查是否停止的间隔
+     */
+    private static final long WAIT_SLICE_NS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    /**
+     * 移动渐变每帧平移的像素数
+     */
+    private static final int GRADIENT_SPEED = 4;
+
+    /**
+     * 渐变的周期;移动渐变的亮度在一个周期内由暗到亮再到暗
+     */
+    private static final int GRADIENT_PERIOD = 512;
+
+    /**
+     * 噪声图案每帧的偏移量,与噪声缓存的额外长度互质
+     */
+    private static final int NOISE_STEP = 7919;
+
+    private static final int NOISE_EXTRA = 1 << 16;
+
+    /**
+     * 75%的彩条,BT.601有限范围:白、黄、青、绿、品红、红、蓝、黑,每一项为{Y, U, V}
+     */
+    private static final int[][] COLOR_BARS = {
+            {180, 128, 128}, {162, 44, 142}, {131, 156, 44}, {112, 72, 58},
+            {84, 184, 198}, {65, 100, 212}, {35, 212, 114}, {16, 128, 128}
+    };
+
+    public enum Pattern {
+        /**
+         * 斜向移动的亮度渐变,色度水平移动;每一帧都不相同,适合运动检测等需要画面变化的场景
+         */
+        MOVING_GRADIENT,
+        /**
+         * 静止的彩条;适合检查裁剪与格式转换的颜色与位置
+         */
+        COLOR_BARS,
+        /**
+         * 每一帧不同的伪随机噪声;编码等处理的最坏情况
+         */
+        NOISE
+    }
+
+    private final int mWidth;
+
+    private final int mHeight;
+
+    private final int mFrameSize;
+
+    private int mFps = 30;
+
+    private Pattern mPattern = Pattern.MOVING_GRADIENT;
+
+    private boolean mStampEnabled = true;
+
+    private long mFrameLimit;
+
+    private int mRotation;
+
+    private boolean mMirror;
+
+    /**
+     * 开始时生成的图案;移动渐变为一行亮度与一行色度,彩条为一整帧,噪声为一整帧加上{@link #NOISE_EXTRA}
+     */
+    private byte[] mLumaSource;
+
+    private byte[] mChromaSource;
+
+    private final LinkedBlockingQueue<byte[]> mFreeBuffers = new LinkedBlockingQueue<>();
+
+    /**
+     * 本次运行结束时计数;每次开始时重新创建
+     */
+    private volatile CountDownLatch mCompletion = new CountDownLatch(1);
+
+    private Thread mThread;
+
+    private volatile boolean mStopped;
+
+    private volatile long mDeliveredCount;
+
+    private volatile long mDroppedCount;
+
+    private volatile long mLateCount;
+
+    private volatile long mMaxLatenessNs;
+
+    /**
+     * @param width  偶数,不超过{@link #MAX_WIDTH}
+     * @param height 偶数,不超过{@link #MAX_HEIGHT}
+     */
+    public TestPatternFrameSource(int width, int height) {
+        if (width <= 0
+                || height <= 0
+                || width > MAX_WIDTH
+                || height > MAX_HEIGHT
+                || width % 2 != 0
+                || height % 2 != 0) {
+            throw new IllegalArgumentException("invalid pattern size: " + width + "x" + height);
+        }
+        mWidth = width;
+        mHeight = height;
+        mFrameSize = YuvFormats.getFrameSize(width, height);
+    }
+
+    /**
+     * 帧率,0到{@link #MAX_FPS};默认为30;0表示不调度,以最快的速度生成
+     */
+    public TestPatternFrameSource setFps(int fps) {
+        if (fps < 0
+                || fps > MAX_FPS) {
+            throw new IllegalArgumentException("invalid fps: " + fps);
+        }
+        mFps = fps;
+        return this;
+    }
+
+    /**
+     * 图案;默认为{@link Pattern#MOVING_GRADIENT}
+     */
+    public TestPatternFrameSource setPattern(Pattern pattern) {
+        if (pattern != null) {
+            mPattern = pattern;
+        }
+        return this;
+    }
+
+    /**
+     * 是否在左上角打上帧号标记;默认为true;宽度不足以放下标记时不会打上
+     */
+    public TestPatternFrameSource setStampEnabled(boolean stampEnabled) {
+        mStampEnabled = stampEnabled;
+        return this;
+    }
+
+    /**
+     * 调度的总帧数,包括丢弃的帧;默认为0,一直生成直到停止
+     */
+    public TestPatternFrameSource setFrameLimit(long frameLimit) {
+        mFrameLimit = Math.max(0, frameLimit);
+        return this;
+    }
+
+    /**
+     * 模拟的显示旋转角度与镜像
+     */
+    public TestPatternFrameSource setOrientation(int rotation, boolean mirror) {
+        mRotation = rotation;
+        mMirror = mirror;
+        return this;
+    }
+
+    @Override
+    public int getWidth() {
+        return mWidth;
+    }
+
+    @Override
+    public int getHeight() {
+        return mHeight;
+    }
+
+    @Override
+    public int getRotation() {
+        return mRotation;
+    }
+
+    @Override
+    public boolean isMirror() {
+        return mMirror;
+    }
+
+    @Override
+    public void addBuffer(byte[] buffer) {
+        if (buffer != null
+                && buffer.length >= mFrameSize) {
+            mFreeBuffers.offer(buffer);
+        }
+    }
+
+    @Override
+    public synchronized void start(final FramePipeline pipeline) {
+        if (mThread != null) {
+            return;
+        }
+        // 停止之后可以重新开始;统计数据只记录本次运行
+        mStopped = false;
+        mDeliveredCount = 0;
+        mDroppedCount = 0;
+        mLateCount = 0;
+        mMaxLatenessNs = 0;
+        final CountDownLatch completion = new CountDownLatch(1);
+        mCompletion = completion;
+        prepare();
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    generate(pipeline);
+                } catch (Throwable throwable) {
+                    Log.e(TAG, "failed to generate the test pattern...", throwable);
+                } finally {
+                    completion.countDown();
+                }
+            }
+        }, "camera_test_pattern");
+        mThread.start();
+    }
+
+    private void generate(FramePipeline pipeline) throws InterruptedException {
+        int fps = mFps;
+        long frameLimit = mFrameLimit;
+        long periodNs = fps > 0 ? TimeUnit.SECONDS.toNanos(1) / fps : 0;
+        long startNs = System.nanoTime();
+        long frameNumber = 0;
+        while (!mStopped
+                && (frameLimit == 0 || frameNumber < frameLimit)) {
+            byte[] buffer;
+            long scheduledNs = 0;
+            if (fps > 0) {
+                scheduledNs = startNs + frameNumber * periodNs;
+                long nowNs = System.nanoTime();
+                if (nowNs - scheduledNs >= periodNs) {
+                    // 已经错过的调度直接跳过,与传感器一样不会补发
+                    long missed = (nowNs - scheduledNs) / periodNs;
+                    if (frameLimit > 0) {
+                        missed = Math.min(missed, frameLimit - frameNumber);
+                    }
+                    mDroppedCount += missed;
+                    frameNumber += missed;
+                    continue;
+                }
+                waitUntil(scheduledNs);
+                buffer = mFreeBuffers.poll();
+                if (buffer == null) {
+                    mDroppedCount++;
+                    frameNumber++;
+                    continue;
+                }
+            } else {
+                buffer = takeBuffer();
+            }
+            if (mStopped) {
+                break;
+            }
+            fill(buffer, frameNumber);
+            if (fps > 0) {
+                long latenessNs = System.nanoTime() - scheduledNs;
+                if (latenessNs > periodNs / 2) {
+                    mLateCount++;
+                }
+                if (latenessNs > mMaxLatenessNs) {
+                    mMaxLatenessNs = latenessNs;
+                }
+            }
+            pipeline.onFrame(buffer);
+            mDeliveredCount++;
+            frameNumber++;
+        }
+    }
+
+    private void waitUntil(long deadlineNs) {
+        long remainingNs;
+        while ((remainingNs = deadlineNs - System.nanoTime()) > 0
+                && !mStopped) {
+            LockSupport.parkNanos(Math.min(remainingNs, WAIT_SLICE_NS));
+        }
+    }
+
+    /**
+     * 等待空闲的缓存;停止时返回空
+     */
+    private byte[] takeBuffer() throws InterruptedException {
+        byte[] buffer = null;
+        while (buffer == null
+                && !mStopped) {
+            buffer = mFreeBuffers.poll(WAIT_SLICE_NS, TimeUnit.NANOSECONDS);
+        }
+        return buffer;
+    }
+
+    /**
+     * 生成图案的源数据;只在开始时执行一次
+     */
+    private void prepare() {
+        if (mPattern == Pattern.MOVING_GRADIENT) {
+            // 第y行第n帧的亮度从mLumaSource的(y + n * GRADIENT_SPEED) % GRADIENT_PERIOD开始;
+            // 色度行的偏移只与帧号有关,呈现水平移动
+            mLumaSource = new byte[mWidth + GRADIENT_PERIOD];
+            for (int i = 0; i < mLumaSource.length; i++) {
+                int phase = i % GRADIENT_PERIOD;
+                int triangle = phase < GRADIENT_PERIOD / 2 ? phase : GRADIENT_PERIOD - 1 - phase;
+                mLumaSource[i] = (byte) (16 + triangle * 219 / (GRADIENT_PERIOD / 2 - 1));
+            }
+            mChromaSource = new byte[mWidth + GRADIENT_PERIOD];
+            for (int i = 0; i < mChromaSource.length / 2; i++) {
+                double angle = 2 * Math.PI * (i * 2 % GRADIENT_PERIOD) / GRADIENT_PERIOD;
+                mChromaSource[i * 2] = (byte) (128 + 80 * Math.sin(angle));
+                mChromaSource[i * 2 + 1] = (byte) (128 + 80 * Math.cos(angle));
+            }
+        } else if (mPattern == Pattern.COLOR_BARS) {
+            mLumaSource = new byte[mFrameSize];
+            int uvOffset = mWidth * mHeight;
+            for (int x = 0; x < mWidth; x++) {
+                int[] bar = COLOR_BARS[x * COLOR_BARS.length / mWidth];
+                mLumaSource[x] = (byte) bar[0];
+                if (x % 2 == 0) {
+                    // NV21为VU交错
+                    mLumaSource[uvOffset + x] = (byte) bar[2];
+                    mLumaSource[uvOffset + x + 1] = (byte) bar[1];
+                }
+            }
+            for (int y = 1; y < mHeight; y++) {
+                System.arraycopy(mLumaSource, 0, mLumaSource, y * mWidth, mWidth);
+            }
+            for (int y = 1; y < mHeight / 2; y++) {
+                System.arraycopy(mLumaSource, uvOffset, mLumaSource, uvOffset + y * mWidth, mWidth);
+            }
+        } else {
+            mLumaSource = new byte[mFrameSize + NOISE_EXTRA];
+            // xorshift,固定的种子保证图案确定
+            int seed = 0x9E3779B9;
+            for (int i = 0; i < mLumaSource.length; i++) {
+                seed ^= seed << 13;
+                seed ^= seed >>> 17;
+                seed ^= seed << 5;
+                mLumaSource[i] = (byte) seed;
+            }
+        }
+    }
+
+    /**
+     * 写入第frameNumber帧;只有按行的数组拷贝
+     */
+    private void fill(byte[] buffer, long frameNumber) {
+        if (mPattern == Pattern.MOVING_GRADIENT) {
+            int shift = (int) (frameNumber * GRADIENT_SPEED % GRADIENT_PERIOD);
+            for (int y = 0; y < mHeight; y++) {
+                System.arraycopy(mLumaSource, (y + shift) % GRADIENT_PERIOD, buffer, y * mWidth, mWidth);
+            }
+            int uvOffset = mWidth * mHeight;
+            int chromaShift = shift / 2 * 2;
+            for (int y = 0; y < mHeight / 2; y++) {
+                System.arraycopy(mChromaSource, chromaShift, buffer, uvOffset + y * mWidth, mWidth);
+            }
+        } else if (mPattern == Pattern.COLOR_BARS) {
+            System.arraycopy(mLumaSource, 0, buffer, 0, mFrameSize);
+        } else {
+            int offset = (int) (frameNumber * NOISE_STEP % NOISE_EXTRA);
+            System.arraycopy(mLumaSource, offset, buffer, 0, mFrameSize);
+        }
+        if (mStampEnabled) {
+            stamp(buffer, mWidth, mHeight, frameNumber);
+        }
+    }
+
+    /**
+     * 在亮度平面的左上角写入帧号的低32位,高位在前,每一位是一个{@link #STAMP_BLOCK_SIZE}边长的方块
+     */
+    static void stamp(byte[] nv21, int width, int height, long frameNumber) {
+        if (width < STAMP_BITS * STAMP_BLOCK_SIZE
+                || height < STAMP_BLOCK_SIZE) {
+            return;
+        }
+        for (int bit = 0; bit < STAMP_BITS; bit++) {
+            byte value = ((frameNumber >>> (STAMP_BITS - 1 - bit)) & 1) != 0 ? STAMP_ONE : STAMP_ZERO;
+            for (int y = 0; y < STAMP_BLOCK_SIZE; y++) {
+                int start = y * width + bit * STAMP_BLOCK_SIZE;
+                for (int x = 0; x < STAMP_BLOCK_SIZE; x++) {
+                    nv21[start + x] = value;
+                }
+            }
+        }
+    }
+
+    /**
+     * 读取{@link #setStampEnabled(boolean)}写入的帧号;只能读取未裁剪、未缩放的帧,
+     * 或者裁剪区域包含左上角标记的帧
+     *
+     * @param nv21  紧凑排列的亮度平面
+     * @param width 帧宽度
+     * @return 帧号的低32位;宽高不足以放下标记时返回-1
+     */
+    public static long readStamp(byte[] nv21, int width, int height) {
+        if (nv21 == null
+                || width < STAMP_BITS * STAMP_BLOCK_SIZE
+                || height < STAMP_BLOCK_SIZE) {
+            return -1;
+        }
+        long frameNumber = 0;
+        int center = STAMP_BLOCK_SIZE / 2 * width + STAMP_BLOCK_SIZE / 2;
+        for (int bit = 0; bit < STAMP_BITS; bit++) {
+            int value = nv21[center + bit * STAMP_BLOCK_SIZE] & 0xFF;
+            frameNumber = (frameNumber << 1) | (value > 128 ? 1 : 0);
+        }
+        return frameNumber;
+    }
+
+    /**
+     * 等待{@link #setFrameLimit(long)}的帧全部调度完成
+     *
+     * @return 超时之前完成时返回true
+     */
+    public boolean awaitCompletion(long timeout, TimeUnit unit) throws InterruptedException {
+        // 等待的是最近一次开始的运行,需要在开始之后调用
+        return mCompletion.await(timeout, unit);
+    }
+
+    /**
+     * 已经交给处理流程的帧数
+     */
+    public long getDeliveredCount() {
+        return mDeliveredCount;
+    }
+
+    /**
+     * 因为错过调度时间或者没有空闲缓存而丢弃的帧数
+     */
+    public long getDroppedCount() {
+        return mDroppedCount;
+    }
+
+    /**
+     * 交给处理流程的时间晚于调度时间半个周期以上的帧数
+     */
+    public long getLateCount() {
+        return mLateCount;
+    }
+
+    /**
+     * 交给处理流程的时间与调度时间的最大差值
+     */
+    public long getMaxLatenessNs() {
+        return mMaxLatenessNs;
+    }
+
+    /**
+     * 停止输出帧并等待线程结束;之后可以再次调用{@link #start(FramePipeline)}重新开始;<br/>
+     * 持有的空闲缓存会被清空,重新开始时由{@link FramePipeline}再次提供
+     */
+    @Override
+    public synchronized void stop() {
+        Thread thread = mThread;
+        mStopped = true;
+        mThread = null;
+        if (thread != null
+                && thread != Thread.currentThread()) {
+            try {
+                thread.join();
+            } catch (InterruptedException exception) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        mFreeBuffers.clear();
+    }
+}
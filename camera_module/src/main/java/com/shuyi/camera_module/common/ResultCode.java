@@ -26,6 +26,12 @@ public enum ResultCode {
     OPEN_CAMERA_NULL_THREAD_ERROR,    // 打开相机时空线程错误
     PREVIEW_NULL_THREAD_ERROR,        // 开始预览是空线程错误
     CAMERA_PERMISSION_ERROR,          // 相机权限被拒绝错误
+    FRAME_SOURCE_CONFLICT_ERROR,      // 相机与帧来源不能同时打开
+
+    /* 图片写入相关的错误码 */
+    IMAGE_WRITER_REJECTED,            // 写入队列已满或者已经关闭
+    IMAGE_ENCODE_ERROR,               // 图片编码失败
+    IMAGE_WRITE_ERROR,                // 图片写入文件失败
 
     FAILURE_UNKNOWN,                // 未知錯誤類型
 
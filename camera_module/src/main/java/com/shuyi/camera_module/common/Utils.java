@@ -2,12 +2,7 @@ package com.shuyi.camera_module.common;
 
 import android.app.Activity;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
-import android.graphics.Color;
-import android.graphics.ImageFormat;
-import android.graphics.Rect;
-import android.graphics.YuvImage;
 import android.hardware.Camera;
 import android.os.Looper;
 import android.text.TextUtils;
@@ -17,11 +12,17 @@ import android.view.Surface;
 
 import androidx.annotation.FloatRange;
 
+import com.shuyi.camera_module.image.NV21ToArgbConverter;
+import com.shuyi.camera_module.image.RgbBitmapConverter;
+import com.shuyi.camera_module.image.RowBandExecutor;
+import com.shuyi.camera_module.image.YuvColorSpace;
+import com.shuyi.camera_module.io.BitmapEncoder;
+import com.shuyi.camera_module.io.ImageWriter;
+
 import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.File;
-import java.io.FileOutputStream;
-import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Collection;
 import java.util.Map;
 
@@ -50,7 +51,8 @@ public class Utils {
     }
 
     /**
-     * NV21裁剪  算法效率 3ms
+     * NV21裁剪  算法效率 3ms;<br/>
+     * 每次调用都会分配新的数组,频繁调用时请使用{@link #clipNV21Into(byte[], int, int, int, int, int, int, byte[])}
      *
      * @param src    源数据
      * @param width  源宽
@@ -65,37 +67,104 @@ public class Utils {
         if (left > width || top > height) {
             return null;
         }
-        //取偶
-        int x = left / 2 * 2, y = top / 2 * 2;
+        byte[] nData = new byte[getClippedNV21Size(clip_w, clip_h)];
+        return clipNV21Into(src, width, height, left, top, clip_w, clip_h, nData) ? nData : null;
+    }
+
+    /**
+     * 裁剪后NV21数据的字节数;裁剪尺寸会向下取偶
+     */
+    public static int getClippedNV21Size(int clip_w, int clip_h) {
         int w = clip_w / 2 * 2, h = clip_h / 2 * 2;
+        return w * h * 3 / 2;
+    }
+
+    /**
+     * NV21裁剪,结果写入调用者提供的数组,不分配任何内存;
+     *
+     * @param src    源数据
+     * @param width  源宽
+     * @param height 源高
+     * @param left   顶点坐标
+     * @param top    顶点坐标
+     * @param clip_w 裁剪后的宽
+     * @param clip_h 裁剪后的高
+     * @param dst    裁剪结果,长度不能小于{@link #getClippedNV21Size(int, int)}
+     * @return 是否裁剪成功
+     */
+    public static boolean clipNV21Into(byte[] src, int width, int height, int left, int top, int clip_w, int clip_h, byte[] dst) {
+        return clipNV21Into(src, width, height, left, top, clip_w, clip_h, dst, null);
+    }
+
+    /**
+     * NV21裁剪,结果写入调用者提供的数组;按照2行对齐分带并行拷贝
+     *
+     * @param executor 为空时在调用线程中串行执行
+     * @see #clipNV21Into(byte[], int, int, int, int, int, int, byte[])
+     */
+    public static boolean clipNV21Into(final byte[] src, final int width, final int height, int left, int top,
+                                       int clip_w, int clip_h, final byte[] dst, RowBandExecutor executor) {
+        if (src == null
+                || dst == null
+                || left > width
+                || top > height) {
+            return false;
+        }
+        //取偶
+        final int x = left / 2 * 2, y = top / 2 * 2;
+        final int w = clip_w / 2 * 2, h = clip_h / 2 * 2;
         int y_unit = w * h;
         int uv_unit = y_unit / 2;
-        byte[] nData = new byte[y_unit + uv_unit];
-        int ySrcPos = y * width;
-        int yDestPos = 0;
-        int uvSrcPos = width * height + (y * width) / 2;
-        int uvDestPos = w * h;
-        for (int i = y; i < y + h; i++) {
-            //y内存块复制
-            System.arraycopy(src, ySrcPos + x, nData, yDestPos, w);
+        if (x + w > width
+                || y + h > height
+                || dst.length < y_unit + uv_unit
+                || src.length < width * height * 3 / 2) {
+            return false;
+        }
+        if (executor == null) {
+            clipNV21Rows(src, width, height, x, y, w, h, dst, 0, h);
+            return true;
+        }
+        executor.execute(w, h, 2, new RowBandExecutor.RowKernel() {
+            @Override
+            public void run(int startRow, int endRow) {
+                clipNV21Rows(src, width, height, x, y, w, h, dst, startRow, endRow);
+            }
+        });
+        return true;
+    }
+
+    /**
+     * 拷贝裁剪区域中[startRow, endRow)之间的亮度行,以及对应的色度行;startRow与endRow必须是偶数
+     */
+    private static void clipNV21Rows(byte[] src, int width, int height, int x, int y, int w, int h,
+                                     byte[] dst, int startRow, int endRow) {
+        //y内存块复制
+        int ySrcPos = (y + startRow) * width + x;
+        int yDestPos = startRow * w;
+        for (int i = startRow; i < endRow; i++) {
+            System.arraycopy(src, ySrcPos, dst, yDestPos, w);
             ySrcPos += width;
             yDestPos += w;
-            //uv内存块复制
-            if (((i - y) & 1) == 0) {
-                System.arraycopy(src, uvSrcPos + x, nData, uvDestPos, w);
-                uvSrcPos += width;
-                uvDestPos += w;
-            }
         }
-        return nData;
+        //uv内存块复制
+        int uvSrcPos = width * height + (y + startRow) / 2 * width + x;
+        int uvDestPos = w * h + startRow / 2 * w;
+        for (int i = startRow / 2; i < endRow / 2; i++) {
+            System.arraycopy(src, uvSrcPos, dst, uvDestPos, w);
+            uvSrcPos += width;
+            uvDestPos += w;
+        }
     }
 
     /**
-     * 保存bitmap到指定的File
+     * 保存bitmap到指定的File;在调用线程中编码与写入,会阻塞调用线程,
+     * 不需要等待结果时使用{@link #saveBitmapAsync(Bitmap.CompressFormat, Bitmap, File, Callback)};<br/>
+     * 先写入同目录下的临时文件再重命名,失败时不会破坏已经存在的文件
      *
      * @param format 默认为{@link Bitmap.CompressFormat#PNG}
      * @param bitmap
-     * @param file   指定保存bitmap的file，不允许为空，不允许不存在,不允许为文件夹;
+     * @param file   指定保存bitmap的file，不允许为空;已经存在时会被替换
      */
     public static boolean saveBitmap(Bitmap.CompressFormat format, Bitmap bitmap, File file) {
         if (bitmap == null
@@ -103,84 +172,56 @@ public class Utils {
                 || file == null) {
             return false;
         }
-        if (!file.isFile()) {
-            file.delete();
-        }
-
-        if (!file.exists()) {
-            try {
-                file.createNewFile();
-            } catch (IOException e) {
-                e.printStackTrace();
-                return false;
-            }
-        }
-
-        boolean result = true;
-        FileOutputStream fileOutputStream = null;
         try {
-            fileOutputStream = new FileOutputStream(file);
-            if (format == null) {
-                format = Bitmap.CompressFormat.PNG;
-            }
-            bitmap.compress(format, BITMAP_COMPRESS_QUALITY, fileOutputStream);
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            new BitmapEncoder(format, BITMAP_COMPRESS_QUALITY).encode(bitmap, outputStream);
+            ImageWriter.writeAtomically(ByteBuffer.wrap(outputStream.toByteArray()), file, ImageWriter.FsyncPolicy.NONE);
         } catch (Throwable throwable) {
             Log.e(TAG, String.format("failed to save bitmap to file[%s]", file.getAbsolutePath()), throwable);
-            result = false;
-        } finally {
-            closeSafe(fileOutputStream);
+            return false;
         }
-        return result;
+        return true;
     }
 
-    public static Bitmap readBitmapFromRGBData(int width, int height, byte[] rgbData) {
-        if (rgbData == null
-                || rgbData.length <= 0
-                || rgbData.length != width * height * 3) {
-            return null;
+    /**
+     * 通过{@link ImageWriter#getDefault()}异步保存bitmap到指定的File,不会阻塞调用线程;<br/>
+     * 在回调之前不能回收bitmap
+     *
+     * @param format   默认为{@link Bitmap.CompressFormat#PNG}
+     * @param bitmap
+     * @param file     指定保存bitmap的file，不允许为空;已经存在时会被替换
+     * @param callback 完成之后在编码线程中回调,可以为空
+     * @return 是否被写入队列接受
+     */
+    public static boolean saveBitmapAsync(Bitmap.CompressFormat format, Bitmap bitmap, File file,
+                                          Callback<ImageWriter.WriteInfo> callback) {
+        if (bitmap == null
+                || bitmap.isRecycled()
+                || file == null) {
+            Result.callbackResult(false, ResultCode.FAILURE_INTERNAL, callback);
+            return false;
         }
-        try {
-            int[] colors = new int[width * height];
+        return ImageWriter.getDefault().submit(bitmap, new BitmapEncoder(format, BITMAP_COMPRESS_QUALITY), file, callback);
+    }
 
-            //Read in the pixels
-            for (int y = 0; y < height; y++) {
-                for (int x = 0; x < width; x++) {
-                    int start = y * width + x;
-                    int r = rgbData[start * 3 + 0] >= 0 ? rgbData[start * 3 + 0] : rgbData[start * 3 + 0] + 255;
-                    int g = rgbData[start * 3 + 1] >= 0 ? rgbData[start * 3 + 1] : rgbData[start * 3 + 1] + 255;
-                    int b = rgbData[start * 3 + 2] >= 0 ? rgbData[start * 3 + 2] : rgbData[start * 3 + 2] + 255;
-                    int color = Color.rgb(r, g, b);
-                    colors[start] = color;
-                }
-            }
-            Bitmap bitmap = Bitmap.createBitmap(colors, width, height, Bitmap.Config.ARGB_8888);
-            return bitmap;
+    /**
+     * 将RGB888数据转换为新的Bitmap;需要连续转换时使用{@link RgbBitmapConverter},可以复用像素数组与Bitmap
+     */
+    public static Bitmap readBitmapFromRGBData(int width, int height, byte[] rgbData) {
+        try {
+            return new RgbBitmapConverter(RowBandExecutor.getDefault()).rgbToBitmap(rgbData, width, height, null);
         } catch (Throwable throwable) {
             Log.e(TAG, "failed to read bitmap from ppm file...");
         }
         return null;
     }
 
+    /**
+     * 将8位灰度数据转换为新的Bitmap;需要连续转换时使用{@link RgbBitmapConverter},可以复用像素数组与Bitmap
+     */
     public static Bitmap readGrayBitmapFromData(int width, int height, byte[] grayData) {
-        if (grayData == null
-                || grayData.length <= 0
-                || grayData.length != width * height) {
-            return null;
-        }
         try {
-            int[] colors = new int[width * height];
-
-            //Read in the pixels
-            for (int y = 0; y < height; y++) {
-                for (int x = 0; x < width; x++) {
-                    int start = y * width + x;
-                    byte byteGray = grayData[start];
-                    int value = (int) (byteGray >= 0 ? byteGray : byteGray + 255);
-                    colors[start] = value * 256 * 256 + value * 256 + value + 0xFF000000;
-                }
-            }
-            Bitmap bitmap = Bitmap.createBitmap(colors, width, height, Bitmap.Config.ARGB_8888);
-            return bitmap;
+            return new RgbBitmapConverter(RowBandExecutor.getDefault()).grayToBitmap(grayData, width, height, null);
         } catch (Throwable throwable) {
             Log.e(TAG, "failed to read bitmap from ppm file...");
         }
@@ -232,7 +273,9 @@ public class Utils {
     }
 
     /**
-     * 将nv21保存为bitmap
+     * 将nv21保存为bitmap;<br/>
+     * 直接在Java中完成颜色空间转换({@link YuvColorSpace#BT601_FULL}),
+     * 不再经过JPEG压缩与解码,没有画质损失;宽高为奇数时,最后一行或者一列会被丢弃
      *
      * @param data
      * @param width
@@ -242,23 +285,23 @@ public class Utils {
     public static Bitmap saveNV21ToBitmap(byte[] data, int width, int height) {
         if (data == null
                 || data.length <= 0
-                || width <= 0
-                || height <= 0) {
+                || width <= 1
+                || height <= 1) {
             return null;
         }
-        Bitmap bitmap = null;
-        ByteArrayOutputStream stream = null;
         try {
-            YuvImage image = new YuvImage(data, ImageFormat.NV21, width, height, null);
-            stream = new ByteArrayOutputStream();
-            image.compressToJpeg(new Rect(0, 0, width, height), 80, stream);
-            bitmap = BitmapFactory.decodeByteArray(stream.toByteArray(), 0, stream.size());
+            int evenWidth = width / 2 * 2;
+            int evenHeight = height / 2 * 2;
+            int[] colors = new int[evenWidth * evenHeight];
+            if (!NV21ToArgbConverter.convert(data, 0, width * height, width, evenWidth, evenHeight,
+                    YuvColorSpace.BT601_FULL, colors, 0, evenWidth, RowBandExecutor.getDefault())) {
+                return null;
+            }
+            return Bitmap.createBitmap(colors, evenWidth, evenHeight, Bitmap.Config.ARGB_8888);
         } catch (Throwable throwable) {
             Log.e(TAG, "failed to save nv21 to bitmap...", throwable);
-        } finally {
-            closeSafe(stream);
         }
-        return bitmap;
+        return null;
     }
 
     public static void closeSafe(Closeable closeable) {
@@ -0,0 +1,131 @@
+package com.shuyi.camera_module.frame;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 按照容量分组的直接内存({@link ByteBuffer#allocateDirect(int)})缓存池;<br/>
+ * 直接内存的分配与回收代价都比较高,所以和{@link FramePool}一样,稳定运行时所有的缓存都来自于池中;
+ * 可以通过{@link #getAllocationCount()}确认是否还在分配新的内存;<br/>
+ * 该类是线程安全的;
+ */
+public class DirectBufferPool implements DirectFrame.Recycler {
+
+    public static final int DEFAULT_MAX_POOLED_PER_SIZE = 4;
+
+    /**
+     * 每种容量最多缓存的数量
+     */
+    private final int mMaxPooledPerSize;
+
+    /**
+     * 一般只有少数几种容量,所以直接线性查找,避免装箱
+     */
+    private final List<Bucket> mBuckets = new ArrayList<>();
+
+    private long mAllocationCount;
+
+    private long mObtainCount;
+
+    private long mRecycleCount;
+
+    public DirectBufferPool() {
+        this(DEFAULT_MAX_POOLED_PER_SIZE);
+    }
+
+    public DirectBufferPool(int maxPooledPerSize) {
+        mMaxPooledPerSize = maxPooledPerSize <= 0 ? DEFAULT_MAX_POOLED_PER_SIZE : maxPooledPerSize;
+    }
+
+    /**
+     * 获取一个容量恰好为capacity的直接内存;池中没有时才分配新的内存;<br/>
+     * 返回时position为0,limit为capacity,字节序为{@link ByteOrder#nativeOrder()},其中的数据是不确定的;
+     */
+    public synchronized ByteBuffer obtain(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("bad buffer capacity: " + capacity);
+        }
+        mObtainCount++;
+        Bucket bucket = findBucket(capacity);
+        ByteBuffer buffer = bucket == null ? null : bucket.buffers.pollLast();
+        if (buffer == null) {
+            mAllocationCount++;
+            buffer = ByteBuffer.allocateDirect(capacity).order(ByteOrder.nativeOrder());
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * 归还直接内存;<br/>
+     * 归还之后调用者不能再使用该缓存;同一个缓存不能重复归还;非直接内存会被忽略
+     */
+    @Override
+    public synchronized void recycle(ByteBuffer buffer) {
+        if (buffer == null
+                || !buffer.isDirect()
+                || buffer.capacity() <= 0) {
+            return;
+        }
+        mRecycleCount++;
+        Bucket bucket = findBucket(buffer.capacity());
+        if (bucket == null) {
+            bucket = new Bucket(buffer.capacity(), mMaxPooledPerSize);
+            mBuckets.add(bucket);
+        }
+        if (bucket.buffers.size() < mMaxPooledPerSize) {
+            bucket.buffers.addLast(buffer);
+        }
+    }
+
+    private Bucket findBucket(int capacity) {
+        for (int i = 0, count = mBuckets.size(); i < count; i++) {
+            Bucket bucket = mBuckets.get(i);
+            if (bucket.capacity == capacity) {
+                return bucket;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 清空池中的缓存;已经借出的缓存仍然可以归还
+     */
+    public synchronized void clear() {
+        mBuckets.clear();
+    }
+
+    /**
+     * 因为池中没有可用缓存而新分配直接内存的次数
+     */
+    public synchronized long getAllocationCount() {
+        return mAllocationCount;
+    }
+
+    /**
+     * {@link #obtain(int)}被调用的次数
+     */
+    public synchronized long getObtainCount() {
+        return mObtainCount;
+    }
+
+    /**
+     * {@link #recycle(ByteBuffer)}被调用的次数
+     */
+    public synchronized long getRecycleCount() {
+        return mRecycleCount;
+    }
+
+    private static class Bucket {
+        final int capacity;
+        final ArrayDeque<ByteBuffer> buffers;
+
+        Bucket(int capacity, int count) {
+            this.capacity = capacity;
+            this.buffers = new ArrayDeque<>(count);
+        }
+    }
+}
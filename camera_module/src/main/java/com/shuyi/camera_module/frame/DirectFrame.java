@@ -0,0 +1,208 @@
+package com.shuyi.camera_module.frame;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 保存在直接内存中的单帧NV21数据;<br/>
+ * 亮度与色度数据紧凑排列在同一块直接内存中,分别通过{@link #getYPlane()}与{@link #getUVPlane()}访问,
+ * 可以直接交给glTexImage2D或者JNI代码使用,不需要再拷贝到中间数组;<br/>
+ * 引用计数的用法与{@link Frame}相同:创建时引用计数为1,由创建者持有;
+ * 需要在回调返回之后继续使用时先调用{@link #acquire()},使用完成后调用{@link #release()};
+ * 最后一个持有者释放之后,直接内存会通过{@link Recycler}归还给缓存池;
+ */
+public final class DirectFrame {
+
+    /**
+     * 直接内存的回收者;例如{@link DirectBufferPool}
+     */
+    public interface Recycler {
+        void recycle(ByteBuffer buffer);
+    }
+
+    private final ByteBuffer mBuffer;
+
+    private final ByteBuffer mYPlane;
+
+    private final ByteBuffer mUVPlane;
+
+    private final long mSequence;
+
+    private final long mTimestampNs;
+
+    private final int mWidth;
+
+    private final int mHeight;
+
+    private final int mFormat;
+
+    private final Recycler mRecycler;
+
+    private final AtomicInteger mRefCount = new AtomicInteger(1);
+
+    /**
+     * @param buffer      直接内存,容量不能小于width * height * 3 / 2;数据从0开始紧凑排列
+     * @param sequence    帧序号
+     * @param timestampNs 帧到达时间,单位纳秒
+     * @param width       帧宽度
+     * @param height      帧高度
+     * @param format      帧格式
+     * @param recycler    最后一个持有者释放之后,用于回收直接内存;可以为空
+     */
+    public DirectFrame(ByteBuffer buffer, long sequence, long timestampNs, int width, int height, int format, Recycler recycler) {
+        if (buffer == null
+                || !buffer.isDirect()) {
+            throw new IllegalArgumentException("the frame buffer must be a direct buffer...");
+        }
+        int ySize = width * height;
+        if (buffer.capacity() < ySize * 3 / 2) {
+            throw new IllegalArgumentException("the frame buffer is too small: " + buffer.capacity());
+        }
+        mBuffer = buffer;
+        mSequence = sequence;
+        mTimestampNs = timestampNs;
+        mWidth = width;
+        mHeight = height;
+        mFormat = format;
+        mRecycler = recycler;
+
+        ByteBuffer yPlane = buffer.duplicate();
+        yPlane.clear();
+        yPlane.limit(ySize);
+        mYPlane = yPlane.slice();
+        ByteBuffer uvPlane = buffer.duplicate();
+        uvPlane.clear();
+        uvPlane.position(ySize);
+        uvPlane.limit(ySize * 3 / 2);
+        mUVPlane = uvPlane.slice();
+    }
+
+    /**
+     * 将帧中的NV21数据拷贝到缓存池中的直接内存;帧可以是{@link Frame#isCompact()}为false的视图
+     *
+     * @param frame 调用期间调用者需要持有该帧的引用
+     * @param pool  直接内存缓存池
+     * @return 新创建的帧,引用计数为1
+     */
+    public static DirectFrame copyOf(Frame frame, DirectBufferPool pool) {
+        byte[] src = frame.getData();
+        int width = frame.getWidth();
+        int height = frame.getHeight();
+        ByteBuffer buffer = pool.obtain(frame.getCompactSize());
+        if (frame.isCompact()) {
+            buffer.put(src, 0, frame.getCompactSize());
+        } else {
+            int stride = frame.getStride();
+            int srcPos = frame.getYOffset();
+            for (int row = 0; row < height; row++) {
+                buffer.put(src, srcPos, width);
+                srcPos += stride;
+            }
+            srcPos = frame.getUVOffset();
+            for (int row = 0; row < height / 2; row++) {
+                buffer.put(src, srcPos, width);
+                srcPos += stride;
+            }
+        }
+        buffer.clear();
+        return new DirectFrame(buffer, frame.getSequence(), frame.getTimestampNs(), width, height, frame.getFormat(), pool);
+    }
+
+    /**
+     * 增加一次引用
+     *
+     * @return 当前帧
+     * @throws IllegalStateException 该帧已经被释放
+     */
+    public DirectFrame acquire() {
+        for (; ; ) {
+            int count = mRefCount.get();
+            if (count <= 0) {
+                throw new IllegalStateException("the direct frame[" + mSequence + "] has been released...");
+            }
+            if (mRefCount.compareAndSet(count, count + 1)) {
+                return this;
+            }
+        }
+    }
+
+    /**
+     * 释放一次引用;引用计数归零时回收直接内存
+     *
+     * @throws IllegalStateException 释放次数多于引用次数
+     */
+    public void release() {
+        int count = mRefCount.decrementAndGet();
+        if (count == 0) {
+            if (mRecycler != null) {
+                mRecycler.recycle(mBuffer);
+            }
+        } else if (count < 0) {
+            mRefCount.set(0);
+            throw new IllegalStateException("the direct frame[" + mSequence + "] has been released too many times...");
+        }
+    }
+
+    public boolean isReleased() {
+        return mRefCount.get() <= 0;
+    }
+
+    public int getRefCount() {
+        int count = mRefCount.get();
+        return count < 0 ? 0 : count;
+    }
+
+    /**
+     * 亮度数据,共width * height个字节;<br/>
+     * 每次调用都返回新的视图,position为0,调用者可以随意修改position与limit;
+     *
+     * @throws IllegalStateException 该帧已经被释放
+     */
+    public ByteBuffer getYPlane() {
+        checkNotReleased();
+        return mYPlane.duplicate();
+    }
+
+    /**
+     * NV21的VU交错数据,共width * height / 2个字节;<br/>
+     * 每次调用都返回新的视图,position为0,调用者可以随意修改position与limit;
+     *
+     * @throws IllegalStateException 该帧已经被释放
+     */
+    public ByteBuffer getUVPlane() {
+        checkNotReleased();
+        return mUVPlane.duplicate();
+    }
+
+    private void checkNotReleased() {
+        if (isReleased()) {
+            throw new IllegalStateException("the direct frame[" + mSequence + "] has been released...");
+        }
+    }
+
+    public long getSequence() {
+        return mSequence;
+    }
+
+    public long getTimestampNs() {
+        return mTimestampNs;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public int getFormat() {
+        return mFormat;
+    }
+
+    @Override
+    public String toString() {
+        return "DirectFrame[" + mSequence + ", " + mWidth + "x" + mHeight + ", format=" + mFormat
+                + ", refCount=" + getRefCount() + "]";
+    }
+}
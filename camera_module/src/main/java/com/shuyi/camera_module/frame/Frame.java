@@ -0,0 +1,292 @@
+package com.shuyi.camera_module.frame;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 单帧预览数据的句柄;<br/>
+ * 除了引用计数之外,其余属性在创建之后都不可修改;<br/>
+ * 帧可以是缓存中的一个窗口(视图):亮度数据从{@link #getYOffset()}开始,每行{@link #getStride()}个字节;
+ * NV21的色度数据从{@link #getUVOffset()}开始,每行同样是{@link #getStride()}个字节;
+ * {@link #isCompact()}为true时,缓存中的数据就是紧凑排列的整帧;
+ * 否则需要按照行跨度访问,或者通过{@link #copyTo(byte[])}拷贝出紧凑的数据;<br/>
+ * 创建时引用计数为1,由创建者持有;
+ * 需要跨线程或者在回调返回之后继续使用该帧时,先调用{@link #acquire()}增加引用,使用完成后调用{@link #release()};<br/>
+ * 最后一个持有者释放之后,底层缓存才会通过{@link Recycler}归还给相机或者缓存池,此后不能再访问{@link #getData()};
+ */
+public final class Frame {
+
+    /**
+     * 帧缓存的回收者;例如相机缓存环或者{@link FramePool}
+     */
+    public interface Recycler {
+        void recycle(byte[] buffer);
+    }
+
+    private final byte[] mData;
+
+    private final long mSequence;
+
+    private final long mTimestampNs;
+
+    private final int mWidth;
+
+    private final int mHeight;
+
+    private final int mStride;
+
+    private final int mLeft;
+
+    private final int mTop;
+
+    private final int mBufferHeight;
+
+    private final int mFormat;
+
+    private final Recycler mRecycler;
+
+    private final AtomicInteger mRefCount = new AtomicInteger(1);
+
+    private volatile FrameStats mStats;
+
+    /**
+     * @param data        帧数据
+     * @param sequence    帧序号,单调递增
+     * @param timestampNs 帧到达时间,单位纳秒,来源于{@link System#nanoTime()}
+     * @param width       帧宽度
+     * @param height      帧高度
+     * @param stride      每行亮度数据的字节数
+     * @param format      帧格式,例如{@link android.graphics.ImageFormat#NV21}
+     * @param recycler    最后一个持有者释放之后,用于回收帧数据;可以为空
+     */
+    public Frame(byte[] data, long sequence, long timestampNs, int width, int height, int stride, int format, Recycler recycler) {
+        this(data, sequence, timestampNs, width, height, stride, 0, 0, height, format, recycler);
+    }
+
+    /**
+     * 创建缓存中某个窗口的视图,不拷贝数据;
+     *
+     * @param data         整个缓存
+     * @param sequence     帧序号,单调递增
+     * @param timestampNs  帧到达时间,单位纳秒,来源于{@link System#nanoTime()}
+     * @param width        窗口宽度
+     * @param height       窗口高度
+     * @param stride       缓存中每行亮度数据的字节数
+     * @param left         窗口在缓存中的横向偏移;NV21格式下必须是偶数
+     * @param top          窗口在缓存中的纵向偏移;NV21格式下必须是偶数
+     * @param bufferHeight 缓存中亮度数据的行数,用于定位色度数据
+     * @param format       帧格式,例如{@link android.graphics.ImageFormat#NV21}
+     * @param recycler     最后一个持有者释放之后,用于回收帧数据;可以为空
+     */
+    public Frame(byte[] data, long sequence, long timestampNs, int width, int height, int stride,
+                 int left, int top, int bufferHeight, int format, Recycler recycler) {
+        if (data == null) {
+            throw new IllegalArgumentException("the frame data can not be null...");
+        }
+        mData = data;
+        mSequence = sequence;
+        mTimestampNs = timestampNs;
+        mWidth = width;
+        mHeight = height;
+        mStride = stride;
+        mLeft = left;
+        mTop = top;
+        mBufferHeight = bufferHeight;
+        mFormat = format;
+        mRecycler = recycler;
+    }
+
+    /**
+     * 增加一次引用
+     *
+     * @return 当前帧
+     * @throws IllegalStateException 该帧已经被释放
+     */
+    public Frame acquire() {
+        for (; ; ) {
+            int count = mRefCount.get();
+            if (count <= 0) {
+                throw new IllegalStateException("the frame[" + mSequence + "] has been released...");
+            }
+            if (mRefCount.compareAndSet(count, count + 1)) {
+                return this;
+            }
+        }
+    }
+
+    /**
+     * 释放一次引用;引用计数归零时回收帧数据
+     *
+     * @throws IllegalStateException 释放次数多于引用次数
+     */
+    public void release() {
+        int count = mRefCount.decrementAndGet();
+        if (count == 0) {
+            FrameStats stats = mStats;
+            if (stats != null) {
+                stats.recycle();
+            }
+            if (mRecycler != null) {
+                mRecycler.recycle(mData);
+            }
+        } else if (count < 0) {
+            mRefCount.set(0);
+            throw new IllegalStateException("the frame[" + mSequence + "] has been released too many times...");
+        }
+    }
+
+    /**
+     * 是否已经被最后一个持有者释放
+     */
+    public boolean isReleased() {
+        return mRefCount.get() <= 0;
+    }
+
+    /**
+     * 当前的引用计数
+     */
+    public int getRefCount() {
+        int count = mRefCount.get();
+        return count < 0 ? 0 : count;
+    }
+
+    /**
+     * 帧数据;只有在持有引用期间才能访问
+     *
+     * @throws IllegalStateException 该帧已经被释放
+     */
+    public byte[] getData() {
+        if (isReleased()) {
+            throw new IllegalStateException("the frame[" + mSequence + "] has been released...");
+        }
+        return mData;
+    }
+
+    /**
+     * 附加该帧的统计;只能由帧的创建者在分发之前调用;统计对象随帧一起回收
+     */
+    public void attachStats(FrameStats stats) {
+        mStats = stats;
+    }
+
+    /**
+     * 该帧的统计;没有开启统计时为空
+     */
+    public FrameStats getStats() {
+        return mStats;
+    }
+
+    public long getSequence() {
+        return mSequence;
+    }
+
+    public long getTimestampNs() {
+        return mTimestampNs;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public int getStride() {
+        return mStride;
+    }
+
+    public int getFormat() {
+        return mFormat;
+    }
+
+    /**
+     * 窗口在缓存中的横向偏移
+     */
+    public int getLeft() {
+        return mLeft;
+    }
+
+    /**
+     * 窗口在缓存中的纵向偏移
+     */
+    public int getTop() {
+        return mTop;
+    }
+
+    /**
+     * 缓存中亮度数据的行数
+     */
+    public int getBufferHeight() {
+        return mBufferHeight;
+    }
+
+    /**
+     * 窗口第一个亮度数据在缓存中的位置
+     */
+    public int getYOffset() {
+        return mTop * mStride + mLeft;
+    }
+
+    /**
+     * 窗口第一个色度数据在缓存中的位置(NV21)
+     */
+    public int getUVOffset() {
+        return mStride * mBufferHeight + (mTop / 2) * mStride + mLeft;
+    }
+
+    /**
+     * 缓存中的数据是否就是紧凑排列的整帧
+     */
+    public boolean isCompact() {
+        return mLeft == 0
+                && mTop == 0
+                && mStride == mWidth
+                && mBufferHeight == mHeight;
+    }
+
+    /**
+     * 紧凑排列时NV21数据的字节数
+     */
+    public int getCompactSize() {
+        return mWidth * mHeight * 3 / 2;
+    }
+
+    /**
+     * 将窗口中的NV21数据紧凑地拷贝到指定数组;用于无法处理行跨度的使用者
+     *
+     * @param dst 长度不能小于{@link #getCompactSize()}
+     * @return 是否拷贝成功
+     * @throws IllegalStateException 该帧已经被释放
+     */
+    public boolean copyTo(byte[] dst) {
+        byte[] src = getData();
+        if (dst == null
+                || dst.length < getCompactSize()) {
+            return false;
+        }
+        if (isCompact()) {
+            System.arraycopy(src, 0, dst, 0, getCompactSize());
+            return true;
+        }
+        int srcPos = getYOffset();
+        int dstPos = 0;
+        for (int row = 0; row < mHeight; row++) {
+            System.arraycopy(src, srcPos, dst, dstPos, mWidth);
+            srcPos += mStride;
+            dstPos += mWidth;
+        }
+        srcPos = getUVOffset();
+        for (int row = 0; row < mHeight / 2; row++) {
+            System.arraycopy(src, srcPos, dst, dstPos, mWidth);
+            srcPos += mStride;
+            dstPos += mWidth;
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "Frame[" + mSequence + ", " + mWidth + "x" + mHeight + ", stride=" + mStride
+                + ", offset=(" + mLeft + ", " + mTop + "), format=" + mFormat + ", refCount=" + getRefCount() + "]";
+    }
+}
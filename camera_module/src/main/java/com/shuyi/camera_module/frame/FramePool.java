@@ -0,0 +1,128 @@
+package com.shuyi.camera_module.frame;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 按照字节数分组的帧缓存池;<br/>
+ * 通过{@link #obtain(int)}获取指定大小的缓存,使用完成后通过{@link #recycle(byte[])}归还;<br/>
+ * 稳定运行时,所有的缓存都来自于池中,不会再分配新的内存;
+ * 可以通过{@link #getAllocationCount()}确认是否还在分配新的内存;<br/>
+ * 该类是线程安全的;
+ */
+public class FramePool implements Frame.Recycler {
+
+    public static final int DEFAULT_MAX_POOLED_PER_SIZE = 4;
+
+    /**
+     * 每种字节数最多缓存的数组数量
+     */
+    private final int mMaxPooledPerSize;
+
+    /**
+     * 一般只有少数几种字节数,所以直接线性查找,避免装箱
+     */
+    private final List<Bucket> mBuckets = new ArrayList<>();
+
+    private long mAllocationCount;
+
+    private long mObtainCount;
+
+    private long mRecycleCount;
+
+    public FramePool() {
+        this(DEFAULT_MAX_POOLED_PER_SIZE);
+    }
+
+    public FramePool(int maxPooledPerSize) {
+        mMaxPooledPerSize = maxPooledPerSize <= 0 ? DEFAULT_MAX_POOLED_PER_SIZE : maxPooledPerSize;
+    }
+
+    /**
+     * 获取一个长度恰好为size的缓存;池中没有时才分配新的内存;<br/>
+     * 缓存中的数据是不确定的;
+     */
+    public synchronized byte[] obtain(int size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("bad buffer size: " + size);
+        }
+        mObtainCount++;
+        Bucket bucket = findBucket(size);
+        byte[] buffer = bucket == null ? null : bucket.buffers.pollLast();
+        if (buffer == null) {
+            mAllocationCount++;
+            buffer = new byte[size];
+        }
+        return buffer;
+    }
+
+    /**
+     * 归还缓存;<br/>
+     * 归还之后调用者不能再使用该缓存;同一个缓存不能重复归还;
+     */
+    @Override
+    public synchronized void recycle(byte[] buffer) {
+        if (buffer == null
+                || buffer.length <= 0) {
+            return;
+        }
+        mRecycleCount++;
+        Bucket bucket = findBucket(buffer.length);
+        if (bucket == null) {
+            bucket = new Bucket(buffer.length, mMaxPooledPerSize);
+            mBuckets.add(bucket);
+        }
+        if (bucket.buffers.size() < mMaxPooledPerSize) {
+            bucket.buffers.addLast(buffer);
+        }
+    }
+
+    private Bucket findBucket(int size) {
+        for (int i = 0, count = mBuckets.size(); i < count; i++) {
+            Bucket bucket = mBuckets.get(i);
+            if (bucket.size == size) {
+                return bucket;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 清空池中的缓存;已经借出的缓存仍然可以归还
+     */
+    public synchronized void clear() {
+        mBuckets.clear();
+    }
+
+    /**
+     * 因为池中没有可用缓存而新分配内存的次数
+     */
+    public synchronized long getAllocationCount() {
+        return mAllocationCount;
+    }
+
+    /**
+     * {@link #obtain(int)}被调用的次数
+     */
+    public synchronized long getObtainCount() {
+        return mObtainCount;
+    }
+
+    /**
+     * {@link #recycle(byte[])}被调用的次数
+     */
+    public synchronized long getRecycleCount() {
+        return mRecycleCount;
+    }
+
+    private static class Bucket {
+        final int size;
+        final ArrayDeque<byte[]> buffers;
+
+        Bucket(int size, int capacity) {
+            this.size = size;
+            this.buffers = new ArrayDeque<>(capacity);
+        }
+    }
+}
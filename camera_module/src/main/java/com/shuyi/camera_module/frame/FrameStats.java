@@ -0,0 +1,256 @@
+package com.shuyi.camera_module.frame;
+
+import java.util.Arrays;
+
+/**
+ * 单帧的亮度与色度统计,用于曝光与白平衡判断;<br/>
+ * 统计是增量累加的:调用{@link #reset(int, int)}之后,逐个加入采样点的亮度与色度,
+ * 直方图、均值与裁剪比例随之更新,不需要保存采样数据;<br/>
+ * 该对象可以复用;附加在{@link Frame}上时,随帧一起回收,帧被释放之后不能再访问;
+ * 需要保留时通过{@link #copyFrom(FrameStats)}拷贝;
+ */
+public class FrameStats {
+
+    public static final int HISTOGRAM_BINS = 256;
+
+    /**
+     * 默认的欠曝阈值;亮度小于等于该值的采样点计为欠曝
+     */
+    public static final int DEFAULT_DARK_THRESHOLD = 5;
+
+    /**
+     * 默认的过曝阈值;亮度大于等于该值的采样点计为过曝
+     */
+    public static final int DEFAULT_BRIGHT_THRESHOLD = 250;
+
+    /**
+     * 统计对象的回收者
+     */
+    public interface Recycler {
+        void recycle(FrameStats stats);
+    }
+
+    private final Recycler mRecycler;
+
+    private final int[] mHistogram = new int[HISTOGRAM_BINS];
+
+    private int mDarkThreshold = DEFAULT_DARK_THRESHOLD;
+
+    private int mBrightThreshold = DEFAULT_BRIGHT_THRESHOLD;
+
+    private int mLumaCount;
+
+    private long mLumaSum;
+
+    private int mDarkCount;
+
+    private int mBrightCount;
+
+    private int mChromaCount;
+
+    private long mUSum;
+
+    private long mVSum;
+
+    public FrameStats() {
+        this(null);
+    }
+
+    /**
+     * @param recycler 附加的帧被释放之后,用于回收该对象;可以为空
+     */
+    public FrameStats(Recycler recycler) {
+        mRecycler = recycler;
+    }
+
+    /**
+     * 清空统计,开始新的一帧
+     *
+     * @param darkThreshold   欠曝阈值
+     * @param brightThreshold 过曝阈值
+     */
+    public void reset(int darkThreshold, int brightThreshold) {
+        Arrays.fill(mHistogram, 0);
+        mDarkThreshold = darkThreshold;
+        mBrightThreshold = brightThreshold;
+        mLumaCount = 0;
+        mLumaSum = 0;
+        mDarkCount = 0;
+        mBrightCount = 0;
+        mChromaCount = 0;
+        mUSum = 0;
+        mVSum = 0;
+    }
+
+    /**
+     * 加入一个亮度采样点
+     *
+     * @param luma 取值范围为[0, 255]
+     */
+    public void addLuma(int luma) {
+        mHistogram[luma]++;
+        mLumaCount++;
+        mLumaSum += luma;
+        if (luma <= mDarkThreshold) {
+            mDarkCount++;
+        } else if (luma >= mBrightThreshold) {
+            mBrightCount++;
+        }
+    }
+
+    /**
+     * 加入一个色度采样点
+     *
+     * @param u 取值范围为[0, 255]
+     * @param v 取值范围为[0, 255]
+     */
+    public void addChroma(int u, int v) {
+        mChromaCount++;
+        mUSum += u;
+        mVSum += v;
+    }
+
+    public void copyFrom(FrameStats other) {
+        System.arraycopy(other.mHistogram, 0, mHistogram, 0, HISTOGRAM_BINS);
+        mDarkThreshold = other.mDarkThreshold;
+        mBrightThreshold = other.mBrightThreshold;
+        mLumaCount = other.mLumaCount;
+        mLumaSum = other.mLumaSum;
+        mDarkCount = other.mDarkCount;
+        mBrightCount = other.mBrightCount;
+        mChromaCount = other.mChromaCount;
+        mUSum = other.mUSum;
+        mVSum = other.mVSum;
+    }
+
+    /**
+     * 由附加的帧在最后一个持有者释放时调用
+     */
+    void recycle() {
+        if (mRecycler != null) {
+            mRecycler.recycle(this);
+        }
+    }
+
+    /**
+     * 亮度直方图;返回内部数组,只能读取
+     */
+    public int[] getHistogram() {
+        return mHistogram;
+    }
+
+    /**
+     * 亮度采样点的数量
+     */
+    public int getSampleCount() {
+        return mLumaCount;
+    }
+
+    /**
+     * 平均亮度;没有采样点时为0
+     */
+    public double getMeanLuma() {
+        return mLumaCount == 0 ? 0 : (double) mLumaSum / mLumaCount;
+    }
+
+    /**
+     * 亮度的百分位数(最近秩法)
+     *
+     * @param percentile 取值范围为[0, 100]
+     * @return 没有采样点时为0
+     */
+    public int getLumaPercentile(double percentile) {
+        if (mLumaCount == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(percentile / 100 * mLumaCount);
+        rank = rank < 1 ? 1 : (rank > mLumaCount ? mLumaCount : rank);
+        long accumulated = 0;
+        for (int i = 0; i < HISTOGRAM_BINS; i++) {
+            accumulated += mHistogram[i];
+            if (accumulated >= rank) {
+                return i;
+            }
+        }
+        return HISTOGRAM_BINS - 1;
+    }
+
+    /**
+     * 欠曝采样点的比例
+     */
+    public double getDarkClipRatio() {
+        return mLumaCount == 0 ? 0 : (double) mDarkCount / mLumaCount;
+    }
+
+    /**
+     * 过曝采样点的比例
+     */
+    public double getBrightClipRatio() {
+        return mLumaCount == 0 ? 0 : (double) mBrightCount / mLumaCount;
+    }
+
+    /**
+     * 色度采样点的数量
+     */
+    public int getChromaSampleCount() {
+        return mChromaCount;
+    }
+
+    /**
+     * U的平均值;没有采样点时为128
+     */
+    public double getMeanU() {
+        return mChromaCount == 0 ? 128 : (double) mUSum / mChromaCount;
+    }
+
+    /**
+     * V的平均值;没有采样点时为128
+     */
+    public double getMeanV() {
+        return mChromaCount == 0 ? 128 : (double) mVSum / mChromaCount;
+    }
+
+    /**
+     * 按照BT.601全范围,由平均亮度与平均色度换算的平均红色分量
+     */
+    public double getMeanRed() {
+        return getMeanLuma() + 1.402 * (getMeanV() - 128);
+    }
+
+    /**
+     * 按照BT.601全范围,由平均亮度与平均色度换算的平均绿色分量
+     */
+    public double getMeanGreen() {
+        return getMeanLuma() - 0.344136 * (getMeanU() - 128) - 0.714136 * (getMeanV() - 128);
+    }
+
+    /**
+     * 按照BT.601全范围,由平均亮度与平均色度换算的平均蓝色分量
+     */
+    public double getMeanBlue() {
+        return getMeanLuma() + 1.772 * (getMeanU() - 128);
+    }
+
+    /**
+     * 灰度世界假设下的红色增益,即平均绿色与平均红色之比;无法计算时为1
+     */
+    public double getRedGain() {
+        double red = getMeanRed();
+        return red <= 0 ? 1 : getMeanGreen() / red;
+    }
+
+    /**
+     * 灰度世界假设下的蓝色增益,即平均绿色与平均蓝色之比;无法计算时为1
+     */
+    public double getBlueGain() {
+        double blue = getMeanBlue();
+        return blue <= 0 ? 1 : getMeanGreen() / blue;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("FrameStats[samples=%d, mean=%.1f, p50=%d, p95=%d, dark=%.3f, bright=%.3f, u=%.1f, v=%.1f]",
+                mLumaCount, getMeanLuma(), getLumaPercentile(50), getLumaPercentile(95),
+                getDarkClipRatio(), getBrightClipRatio(), getMeanU(), getMeanV());
+    }
+}
@@ -0,0 +1,191 @@
+package com.shuyi.camera_module.image;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * 色度平面的SWAR内核:拆分、交错、交换VU与求平均;<br/>
+ * 通过小端序的{@link ByteBuffer}视图每次读写8个字节,在long中用掩码与移位同时处理8个字节;
+ * 剩余不足8个字节的部分使用逐字节的实现;<br/>
+ * 每个内核都有对应的逐字节实现(以Scalar结尾),结果完全相同,用于校验与对比;<br/>
+ * 每个内核都有接收{@link #view(byte[])}视图的版本,逐行处理同一个平面时只需要创建一次视图;
+ * 接收数组的版本每次调用都会创建视图;<br/>
+ * 所有方法都写入调用者提供的数组,除了数组的视图之外不分配内存;<br/>
+ * 在HotSpot上逐字节的交错会被自动向量化,比SWAR的{@link #interleave}更快,
+ * 因此{@link YuvConverter}的平面到交错转换使用{@link #interleaveScalar};
+ */
+public final class ChromaKernels {
+
+    /**
+     * 每个16位中的低字节
+     */
+    private static final long LOW_BYTES = 0x00FF00FF00FF00FFL;
+
+    /**
+     * 每个32位中的低16位
+     */
+    private static final long LOW_SHORTS = 0x0000FFFF0000FFFFL;
+
+    private static final long LOW_INT = 0x00000000FFFFFFFFL;
+
+    /**
+     * 每个字节的高7位
+     */
+    private static final long HIGH_BITS = 0xFEFEFEFEFEFEFEFEL;
+
+    private ChromaKernels() {
+    }
+
+    /**
+     * 创建内核使用的小端序视图;同一个数组的视图可以在多次调用之间重复使用
+     */
+    public static ByteBuffer view(byte[] array) {
+        return ByteBuffer.wrap(array).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * 将交错排列的count对字节拆分到两个平面:偶数位置写入first,奇数位置写入second;
+     * 例如NV21的VU平面中,first为V,second为U
+     */
+    public static void deinterleave(byte[] src, int srcOffset, byte[] first, int firstOffset,
+                                    byte[] second, int secondOffset, int count) {
+        ByteBuffer outFirst = view(first);
+        deinterleave(view(src), srcOffset, outFirst, firstOffset,
+                first == second ? outFirst : view(second), secondOffset, count);
+    }
+
+    public static void deinterleave(ByteBuffer src, int srcOffset, ByteBuffer first, int firstOffset,
+                                    ByteBuffer second, int secondOffset, int count) {
+        int words = count / 8;
+        for (int i = 0; i < words; i++) {
+            long lo = src.getLong(srcOffset);
+            long hi = src.getLong(srcOffset + 8);
+            first.putLong(firstOffset, compact(lo & LOW_BYTES) | (compact(hi & LOW_BYTES) << 32));
+            second.putLong(secondOffset, compact((lo >>> 8) & LOW_BYTES) | (compact((hi >>> 8) & LOW_BYTES) << 32));
+            srcOffset += 16;
+            firstOffset += 8;
+            secondOffset += 8;
+        }
+        deinterleaveScalar(src.array(), srcOffset, first.array(), firstOffset, second.array(), secondOffset,
+                count - words * 8);
+    }
+
+    public static void deinterleaveScalar(byte[] src, int srcOffset, byte[] first, int firstOffset,
+                                          byte[] second, int secondOffset, int count) {
+        for (int i = 0; i < count; i++) {
+            first[firstOffset + i] = src[srcOffset];
+            second[secondOffset + i] = src[srcOffset + 1];
+            srcOffset += 2;
+        }
+    }
+
+    /**
+     * 将两个平面的count个字节交错写入dst:first写入偶数位置,second写入奇数位置
+     */
+    public static void interleave(byte[] first, int firstOffset, byte[] second, int secondOffset,
+                                  byte[] dst, int dstOffset, int count) {
+        ByteBuffer inFirst = view(first);
+        interleave(inFirst, firstOffset, first == second ? inFirst : view(second), secondOffset,
+                view(dst), dstOffset, count);
+    }
+
+    public static void interleave(ByteBuffer first, int firstOffset, ByteBuffer second, int secondOffset,
+                                  ByteBuffer dst, int dstOffset, int count) {
+        int words = count / 8;
+        for (int i = 0; i < words; i++) {
+            long a = first.getLong(firstOffset);
+            long b = second.getLong(secondOffset);
+            dst.putLong(dstOffset, spread(a & LOW_INT) | (spread(b & LOW_INT) << 8));
+            dst.putLong(dstOffset + 8, spread(a >>> 32) | (spread(b >>> 32) << 8));
+            firstOffset += 8;
+            secondOffset += 8;
+            dstOffset += 16;
+        }
+        interleaveScalar(first.array(), firstOffset, second.array(), secondOffset, dst.array(), dstOffset,
+                count - words * 8);
+    }
+
+    public static void interleaveScalar(byte[] first, int firstOffset, byte[] second, int secondOffset,
+                                        byte[] dst, int dstOffset, int count) {
+        for (int i = 0; i < count; i++) {
+            dst[dstOffset] = first[firstOffset + i];
+            dst[dstOffset + 1] = second[secondOffset + i];
+            dstOffset += 2;
+        }
+    }
+
+    /**
+     * 交换count对字节中的两个字节,即VU与UV之间的转换;src与dst可以是同一个位置
+     */
+    public static void swapPairs(byte[] src, int srcOffset, byte[] dst, int dstOffset, int count) {
+        ByteBuffer in = view(src);
+        swapPairs(in, srcOffset, src == dst ? in : view(dst), dstOffset, count);
+    }
+
+    public static void swapPairs(ByteBuffer src, int srcOffset, ByteBuffer dst, int dstOffset, int count) {
+        int words = count / 4;
+        for (int i = 0; i < words; i++) {
+            long x = src.getLong(srcOffset);
+            dst.putLong(dstOffset, ((x & LOW_BYTES) << 8) | ((x >>> 8) & LOW_BYTES));
+            srcOffset += 8;
+            dstOffset += 8;
+        }
+        swapPairsScalar(src.array(), srcOffset, dst.array(), dstOffset, count - words * 4);
+    }
+
+    public static void swapPairsScalar(byte[] src, int srcOffset, byte[] dst, int dstOffset, int count) {
+        for (int i = 0; i < count; i++) {
+            byte first = src[srcOffset];
+            dst[dstOffset] = src[srcOffset + 1];
+            dst[dstOffset + 1] = first;
+            srcOffset += 2;
+            dstOffset += 2;
+        }
+    }
+
+    /**
+     * 逐字节求两行的平均值(a + b + 1) / 2,例如将两行色度合并为一行;dst可以与a或者b是同一个位置
+     */
+    public static void average(byte[] a, int aOffset, byte[] b, int bOffset, byte[] dst, int dstOffset, int count) {
+        ByteBuffer inA = view(a);
+        ByteBuffer inB = a == b ? inA : view(b);
+        average(inA, aOffset, inB, bOffset, dst == a ? inA : (dst == b ? inB : view(dst)), dstOffset, count);
+    }
+
+    public static void average(ByteBuffer a, int aOffset, ByteBuffer b, int bOffset, ByteBuffer dst, int dstOffset,
+                               int count) {
+        int words = count / 8;
+        for (int i = 0; i < words; i++) {
+            long x = a.getLong(aOffset);
+            long y = b.getLong(bOffset);
+            // 向上取整的字节平均值,不会产生跨字节的进位
+            dst.putLong(dstOffset, (x | y) - (((x ^ y) & HIGH_BITS) >>> 1));
+            aOffset += 8;
+            bOffset += 8;
+            dstOffset += 8;
+        }
+        averageScalar(a.array(), aOffset, b.array(), bOffset, dst.array(), dstOffset, count - words * 8);
+    }
+
+    public static void averageScalar(byte[] a, int aOffset, byte[] b, int bOffset, byte[] dst, int dstOffset, int count) {
+        for (int i = 0; i < count; i++) {
+            dst[dstOffset + i] = (byte) (((a[aOffset + i] & 0xFF) + (b[bOffset + i] & 0xFF) + 1) >> 1);
+        }
+    }
+
+    /**
+     * 将每个16位中的低字节(其余位为0)紧凑到低32位
+     */
+    private static long compact(long x) {
+        x = (x | (x >>> 8)) & LOW_SHORTS;
+        return (x | (x >>> 16)) & LOW_INT;
+    }
+
+    /**
+     * {@link #compact(long)}的逆操作:将低32位的4个字节分散到每个16位的低字节
+     */
+    private static long spread(long x) {
+        x = (x | (x << 16)) & LOW_SHORTS;
+        return (x | (x << 8)) & LOW_BYTES;
+    }
+}
@@ -0,0 +1,233 @@
+package com.shuyi.camera_module.image;
+
+import com.shuyi.camera_module.frame.Frame;
+import com.shuyi.camera_module.frame.FrameStats;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 预览帧的3A统计;<br/>
+ * 按照固定步长在亮度平面上隔行隔列采样,累加亮度直方图、平均亮度与过曝/欠曝比例;
+ * 色度平面按照一半的步长采样,累加U、V的平均值,用于灰度世界白平衡;
+ * 默认统计整帧,也可以通过{@link #addRegion(float, float, float, float)}限定在若干区域之内(例如测光区域);<br/>
+ * 统计结果保存在可复用的{@link FrameStats}中;通过{@link #compute(Frame)}获取的统计对象来自内部的缓存池,
+ * 附加到帧上之后随帧一起回收,稳定运行时不分配内存;<br/>
+ * 配置方法需要在开始统计之前调用;统计方法只能在一个线程中调用;
+ */
+public class FrameStatsCalculator implements FrameStats.Recycler {
+
+    public static final int DEFAULT_GRID_STEP = 4;
+
+    public static final int DEFAULT_MAX_POOLED_STATS = 8;
+
+    private int mGridStep = DEFAULT_GRID_STEP;
+
+    private int mDarkThreshold = FrameStats.DEFAULT_DARK_THRESHOLD;
+
+    private int mBrightThreshold = FrameStats.DEFAULT_BRIGHT_THRESHOLD;
+
+    /**
+     * 归一化的统计区域,每个元素依次为left、top、right、bottom
+     */
+    private final List<float[]> mRegions = new ArrayList<>();
+
+    private final ArrayDeque<FrameStats> mFreeStats = new ArrayDeque<>();
+
+    private long mAllocationCount;
+
+    /**
+     * 设置采样步长;步长越大,统计越快,结果越粗糙
+     *
+     * @param gridStep 小于等于0时会被忽略;1表示统计所有像素
+     * @return
+     */
+    public FrameStatsCalculator setGridStep(int gridStep) {
+        if (gridStep > 0) {
+            mGridStep = gridStep;
+        }
+        return this;
+    }
+
+    /**
+     * 设置欠曝与过曝的阈值
+     *
+     * @param darkThreshold   亮度小于等于该值时计为欠曝
+     * @param brightThreshold 亮度大于等于该值时计为过曝,必须大于darkThreshold,否则会被忽略
+     * @return
+     */
+    public FrameStatsCalculator setClipThresholds(int darkThreshold, int brightThreshold) {
+        if (darkThreshold >= 0
+                && brightThreshold <= 255
+                && darkThreshold < brightThreshold) {
+            mDarkThreshold = darkThreshold;
+            mBrightThreshold = brightThreshold;
+        }
+        return this;
+    }
+
+    /**
+     * 增加一个统计区域;坐标是相对于帧宽高的比例,取值范围为[0, 1];
+     * 设置了区域之后只统计区域之内的像素,多个区域重叠的部分会被重复统计
+     *
+     * @return
+     */
+    public FrameStatsCalculator addRegion(float left, float top, float right, float bottom) {
+        left = clamp(left);
+        top = clamp(top);
+        right = clamp(right);
+        bottom = clamp(bottom);
+        if (left < right
+                && top < bottom) {
+            mRegions.add(new float[]{left, top, right, bottom});
+        }
+        return this;
+    }
+
+    /**
+     * 清除所有统计区域,恢复为统计整帧
+     *
+     * @return
+     */
+    public FrameStatsCalculator clearRegions() {
+        mRegions.clear();
+        return this;
+    }
+
+    public int getGridStep() {
+        return mGridStep;
+    }
+
+    /**
+     * 从缓存池中获取一个统计对象并统计该帧
+     *
+     * @return 统计失败(例如不支持的格式)时为空
+     */
+    public FrameStats compute(Frame frame) {
+        FrameStats stats = obtain();
+        if (!compute(frame, stats)) {
+            recycle(stats);
+            return null;
+        }
+        return stats;
+    }
+
+    /**
+     * 统计该帧,结果写入调用者提供的统计对象
+     *
+     * @return 是否统计成功;平面格式的帧必须是紧凑排列的
+     */
+    public boolean compute(Frame frame, FrameStats stats) {
+        if (frame == null
+                || stats == null) {
+            return false;
+        }
+        int format = frame.getFormat();
+        if (!YuvFormats.isSupported(format)
+                || (!YuvFormats.isSemiPlanar(format) && !frame.isCompact())) {
+            return false;
+        }
+        int width = frame.getWidth();
+        int height = frame.getHeight();
+        if (width < 2
+                || height < 2) {
+            return false;
+        }
+        byte[] data = frame.getData();
+        stats.reset(mDarkThreshold, mBrightThreshold);
+        if (mRegions.isEmpty()) {
+            accumulate(data, frame, 0, 0, width, height, stats);
+        } else {
+            for (int i = 0, count = mRegions.size(); i < count; i++) {
+                float[] region = mRegions.get(i);
+                int left = (int) (region[0] * width) / 2 * 2;
+                int top = (int) (region[1] * height) / 2 * 2;
+                int right = Math.min(width, ((int) Math.ceil(region[2] * width) + 1) / 2 * 2);
+                int bottom = Math.min(height, ((int) Math.ceil(region[3] * height) + 1) / 2 * 2);
+                if (left < right
+                        && top < bottom) {
+                    accumulate(data, frame, left, top, right, bottom, stats);
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 统计窗口中[left, right) x [top, bottom)的区域;边界都是偶数
+     */
+    private void accumulate(byte[] data, Frame frame, int left, int top, int right, int bottom, FrameStats stats) {
+        int step = mGridStep;
+        int stride = frame.getStride();
+        int yOffset = frame.getYOffset();
+        int first = step / 2;
+        for (int y = top + first; y < bottom; y += step) {
+            int rowStart = yOffset + y * stride;
+            for (int x = left + first; x < right; x += step) {
+                stats.addLuma(data[rowStart + x] & 0xFF);
+            }
+        }
+
+        int format = frame.getFormat();
+        int chromaStep = step / 2 < 1 ? 1 : step / 2;
+        int chromaFirst = chromaStep / 2;
+        int chromaLeft = left / 2;
+        int chromaRight = right / 2;
+        if (YuvFormats.isSemiPlanar(format)) {
+            int uvOffset = frame.getUVOffset();
+            int uIndex = format == YuvFormats.NV21 ? 1 : 0;
+            int vIndex = 1 - uIndex;
+            for (int cy = top / 2 + chromaFirst; cy < bottom / 2; cy += chromaStep) {
+                int rowStart = uvOffset + cy * stride;
+                for (int cx = chromaLeft + chromaFirst; cx < chromaRight; cx += chromaStep) {
+                    int pos = rowStart + cx * 2;
+                    stats.addChroma(data[pos + uIndex] & 0xFF, data[pos + vIndex] & 0xFF);
+                }
+            }
+        } else {
+            int width = frame.getWidth();
+            int height = frame.getHeight();
+            int uOffset = YuvFormats.getUOffset(format, width, height);
+            int vOffset = YuvFormats.getVOffset(format, width, height);
+            int chromaStride = YuvFormats.getChromaRowStride(format, width);
+            for (int cy = top / 2 + chromaFirst; cy < bottom / 2; cy += chromaStep) {
+                int rowStart = cy * chromaStride;
+                for (int cx = chromaLeft + chromaFirst; cx < chromaRight; cx += chromaStep) {
+                    stats.addChroma(data[uOffset + rowStart + cx] & 0xFF, data[vOffset + rowStart + cx] & 0xFF);
+                }
+            }
+        }
+    }
+
+    private synchronized FrameStats obtain() {
+        FrameStats stats = mFreeStats.pollLast();
+        if (stats == null) {
+            mAllocationCount++;
+            stats = new FrameStats(this);
+        }
+        return stats;
+    }
+
+    /**
+     * 统计对象所附加的帧被释放时调用;可能在任意线程中调用
+     */
+    @Override
+    public synchronized void recycle(FrameStats stats) {
+        if (stats != null
+                && mFreeStats.size() < DEFAULT_MAX_POOLED_STATS) {
+            mFreeStats.addLast(stats);
+        }
+    }
+
+    /**
+     * 因为缓存池中没有可用对象而新创建统计对象的次数
+     */
+    public synchronized long getAllocationCount() {
+        return mAllocationCount;
+    }
+
+    private static float clamp(float value) {
+        return value < 0 ? 0 : (value > 1 ? 1 : value);
+    }
+}
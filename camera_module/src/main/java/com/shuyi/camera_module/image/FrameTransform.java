@@ -0,0 +1,625 @@
+package com.shuyi.camera_module.image;
+
+import com.shuyi.camera_module.frame.Frame;
+import com.shuyi.camera_module.frame.FramePool;
+
+/**
+ * 声明式的帧变换:裁剪、镜像、旋转、缩放与输出格式;<br/>
+ * 通过{@link Builder}描述需要的结果,{@link #apply(Frame, FramePool)}时规划为最少的内存遍历:
+ * <ul>
+ * <li>
+ * 裁剪不产生遍历,只改变读取的起始位置与行跨度;
+ * </li>
+ * <li>
+ * 只有一种变换时使用专门的内核,例如{@link YuvConverter}、{@link NV21Rotator}、{@link NV21Scaler}与{@link NV21ToArgbConverter};
+ * </li>
+ * <li>
+ * 其余组合使用重映射内核:对每个输出像素计算源坐标,一次遍历完成镜像、旋转、双线性缩放与格式转换,不需要中间帧;
+ * </li>
+ * </ul>
+ * 因此任何组合都只读取一次源数据、写入一次输出;<br/>
+ * 变换的顺序与{@link NV21Rotator}相同:先裁剪,再水平镜像,再顺时针旋转,最后缩放到输出尺寸;
+ * 输出尺寸是旋转之后的尺寸,宽高比与裁剪区域不同时会被拉伸;<br/>
+ * 源帧必须是NV21格式,可以是{@link Frame#isCompact()}为false的视图;该类是不可变的,可以在多个线程中使用;
+ */
+public final class FrameTransform {
+
+    /**
+     * 输出格式:每个像素一个int的ARGB,见{@link #apply(Frame, int[])}
+     */
+    public static final int FORMAT_ARGB = 0x42475241;
+
+    /**
+     * 输出格式:只有亮度平面的灰度图,每个像素一个字节
+     */
+    public static final int FORMAT_GRAY = 0x59455247;
+
+    private static final int FIXED_SHIFT = 16;
+
+    private static final int FIXED_HALF = 1 << (FIXED_SHIFT - 1);
+
+    /**
+     * 执行变换的内核
+     */
+    enum Kernel {
+        /**
+         * 只有裁剪与格式转换
+         */
+        COPY,
+        /**
+         * 只有裁剪与灰度输出
+         */
+        GRAY,
+        /**
+         * 只有裁剪与ARGB输出
+         */
+        ARGB,
+        /**
+         * 只有裁剪、镜像与旋转,输出NV21
+         */
+        ROTATE,
+        /**
+         * 只有裁剪与缩放,输出NV21
+         */
+        SCALE,
+        /**
+         * 其余的组合
+         */
+        REMAP
+    }
+
+    private final int mCropLeft;
+
+    private final int mCropTop;
+
+    private final int mCropWidth;
+
+    private final int mCropHeight;
+
+    private final int mRotation;
+
+    private final boolean mMirror;
+
+    private final int mOutputWidth;
+
+    private final int mOutputHeight;
+
+    private final int mOutputFormat;
+
+    private final YuvColorSpace mColorSpace;
+
+    private final RowBandExecutor mExecutor;
+
+    /**
+     * ARGB输出时每个线程保存两行亮度与一行色度的临时缓存
+     */
+    private final ThreadLocal<byte[]> mRowBuffer = new ThreadLocal<>();
+
+    private FrameTransform(Builder builder) {
+        mCropLeft = builder.cropLeft;
+        mCropTop = builder.cropTop;
+        mCropWidth = builder.cropWidth;
+        mCropHeight = builder.cropHeight;
+        mRotation = builder.rotation;
+        mMirror = builder.mirror;
+        mOutputWidth = builder.outputWidth;
+        mOutputHeight = builder.outputHeight;
+        mOutputFormat = builder.outputFormat;
+        mColorSpace = builder.colorSpace;
+        mExecutor = builder.executor;
+    }
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    /**
+     * 裁剪区域的宽度;没有设置裁剪区域时为源帧的宽度
+     */
+    private int getCropWidth(Frame source) {
+        return mCropWidth > 0 ? mCropWidth : source.getWidth();
+    }
+
+    private int getCropHeight(Frame source) {
+        return mCropHeight > 0 ? mCropHeight : source.getHeight();
+    }
+
+    /**
+     * 对该源帧变换之后的宽度
+     */
+    public int getOutputWidth(Frame source) {
+        if (mOutputWidth > 0) {
+            return mOutputWidth;
+        }
+        return NV21Rotator.getRotatedWidth(getCropWidth(source), getCropHeight(source), mRotation);
+    }
+
+    /**
+     * 对该源帧变换之后的高度
+     */
+    public int getOutputHeight(Frame source) {
+        if (mOutputHeight > 0) {
+            return mOutputHeight;
+        }
+        return NV21Rotator.getRotatedHeight(getCropWidth(source), getCropHeight(source), mRotation);
+    }
+
+    public int getOutputFormat() {
+        return mOutputFormat;
+    }
+
+    /**
+     * 对该源帧变换之后的字节数;{@link #FORMAT_ARGB}为int的个数
+     */
+    public int getOutputSize(Frame source) {
+        int pixels = getOutputWidth(source) * getOutputHeight(source);
+        if (mOutputFormat == FORMAT_ARGB
+                || mOutputFormat == FORMAT_GRAY) {
+            return pixels;
+        }
+        return pixels * 3 / 2;
+    }
+
+    /**
+     * 变换该帧,结果写入缓存池中的缓存
+     *
+     * @param source 调用期间调用者需要持有该帧的引用
+     * @param pool   输出缓存池;返回的帧被释放之后,缓存会归还给该缓存池
+     * @return 变换之后紧凑排列的帧,格式为{@link #getOutputFormat()};变换失败时为空
+     * @throws IllegalStateException 输出格式为{@link #FORMAT_ARGB},需要使用{@link #apply(Frame, int[])}
+     */
+    public Frame apply(Frame source, FramePool pool) {
+        if (mOutputFormat == FORMAT_ARGB) {
+            throw new IllegalStateException("the argb output needs an int array...");
+        }
+        byte[] buffer = pool.obtain(getOutputSize(source));
+        if (!apply(source, buffer)) {
+            pool.recycle(buffer);
+            return null;
+        }
+        int width = getOutputWidth(source);
+        return new Frame(buffer, source.getSequence(), source.getTimestampNs(),
+                width, getOutputHeight(source), width, mOutputFormat, pool);
+    }
+
+    /**
+     * 变换该帧,结果写入调用者提供的数组
+     *
+     * @param dst 长度不能小于{@link #getOutputSize(Frame)}
+     * @return 是否变换成功;输出格式为{@link #FORMAT_ARGB}时返回false
+     */
+    public boolean apply(Frame source, byte[] dst) {
+        if (mOutputFormat == FORMAT_ARGB
+                || dst == null
+                || !checkSource(source)
+                || dst.length < getOutputSize(source)) {
+            return false;
+        }
+        return run(source, dst, null);
+    }
+
+    /**
+     * 变换该帧,结果以ARGB写入调用者提供的数组;输出格式必须是{@link #FORMAT_ARGB}
+     *
+     * @param dst 长度不能小于{@link #getOutputSize(Frame)}
+     * @return 是否变换成功
+     */
+    public boolean apply(Frame source, int[] dst) {
+        if (mOutputFormat != FORMAT_ARGB
+                || dst == null
+                || !checkSource(source)
+                || dst.length < getOutputSize(source)) {
+            return false;
+        }
+        return run(source, null, dst);
+    }
+
+    /**
+     * 规划执行的内核
+     */
+    Kernel plan(Frame source) {
+        boolean rotated = mRotation != 0 || mMirror;
+        boolean scaled = getOutputWidth(source) != NV21Rotator.getRotatedWidth(getCropWidth(source), getCropHeight(source), mRotation)
+                || getOutputHeight(source) != NV21Rotator.getRotatedHeight(getCropWidth(source), getCropHeight(source), mRotation);
+        if (!rotated && !scaled) {
+            if (mOutputFormat == FORMAT_ARGB) {
+                return Kernel.ARGB;
+            }
+            return mOutputFormat == FORMAT_GRAY ? Kernel.GRAY : Kernel.COPY;
+        }
+        if (mOutputFormat == YuvFormats.NV21) {
+            if (!scaled) {
+                return Kernel.ROTATE;
+            }
+            if (!rotated) {
+                return Kernel.SCALE;
+            }
+        }
+        return Kernel.REMAP;
+    }
+
+    private boolean checkSource(Frame source) {
+        if (source == null
+                || source.getFormat() != YuvFormats.NV21) {
+            return false;
+        }
+        int cropW = getCropWidth(source);
+        int cropH = getCropHeight(source);
+        return cropW > 0
+                && cropH > 0
+                && mCropLeft + cropW <= source.getWidth()
+                && mCropTop + cropH <= source.getHeight()
+                && ((cropW | cropH) & 1) == 0
+                && ((getOutputWidth(source) | getOutputHeight(source)) & 1) == 0;
+    }
+
+    private boolean run(Frame source, final byte[] dst, final int[] argb) {
+        final byte[] src = source.getData();
+        final int stride = source.getStride();
+        final int yOffset = source.getYOffset() + mCropTop * stride + mCropLeft;
+        final int uvOffset = source.getUVOffset() + mCropTop / 2 * stride + mCropLeft;
+        final int width = getCropWidth(source);
+        final int height = getCropHeight(source);
+        final int outW = getOutputWidth(source);
+        final int outH = getOutputHeight(source);
+        switch (plan(source)) {
+            case COPY:
+                copy(src, yOffset, uvOffset, stride, width, height, dst);
+                return true;
+            case GRAY:
+                YuvConverter.copyPlane(src, yOffset, 1, stride, dst, 0, 1, width, width, height);
+                return true;
+            case ARGB:
+                return NV21ToArgbConverter.convert(src, yOffset, uvOffset, stride, width, height,
+                        mColorSpace, argb, 0, width, mExecutor);
+            case ROTATE:
+                return NV21Rotator.rotate(src, yOffset, uvOffset, stride, width, height, mRotation, mMirror, dst);
+            case SCALE:
+                return NV21Scaler.scale(src, yOffset, uvOffset, stride, width, height, dst, outW, outH);
+            default:
+                RowBandExecutor.RowKernel kernel = new RowBandExecutor.RowKernel() {
+                    @Override
+                    public void run(int startRow, int endRow) {
+                        if (argb != null) {
+                            remapArgbRows(src, yOffset, uvOffset, stride, width, height, argb, outW, outH, startRow, endRow);
+                        } else {
+                            remapRows(src, yOffset, uvOffset, stride, width, height, dst, outW, outH, startRow, endRow);
+                        }
+                    }
+                };
+                if (mExecutor == null) {
+                    kernel.run(0, outH);
+                } else {
+                    mExecutor.execute(outW, outH, 2, kernel);
+                }
+                return true;
+        }
+    }
+
+    /**
+     * 裁剪并转换为YUV格式
+     */
+    private void copy(byte[] src, int yOffset, int uvOffset, int stride, int width, int height, byte[] dst) {
+        YuvConverter.copyPlane(src, yOffset, 1, stride, dst, 0, 1, width, width, height);
+        YuvConverter.copyChroma(src, uvOffset + 1, uvOffset, 2, stride,
+                dst, YuvFormats.getUOffset(mOutputFormat, width, height), YuvFormats.getVOffset(mOutputFormat, width, height),
+                YuvFormats.getChromaPixelStride(mOutputFormat), YuvFormats.getChromaRowStride(mOutputFormat, width),
+                width / 2, height / 2);
+    }
+
+    /**
+     * 重映射输出的[startRow, endRow)行;startRow与endRow都是偶数
+     */
+    private void remapRows(byte[] src, int yOffset, int uvOffset, int stride, int width, int height,
+                           byte[] dst, int outW, int outH, int startRow, int endRow) {
+        remapPlane(src, yOffset, stride, width, height, 1,
+                dst, 0, 0, 1, outW, outW, outH, startRow, endRow);
+        if (mOutputFormat == FORMAT_GRAY) {
+            return;
+        }
+        remapPlane(src, uvOffset, stride, width / 2, height / 2, 2,
+                dst, YuvFormats.getVOffset(mOutputFormat, outW, outH), YuvFormats.getUOffset(mOutputFormat, outW, outH),
+                YuvFormats.getChromaPixelStride(mOutputFormat), YuvFormats.getChromaRowStride(mOutputFormat, outW),
+                outW / 2, outH / 2, startRow / 2, endRow / 2);
+    }
+
+    /**
+     * 每次重映射两行亮度与一行色度到临时的NV21缓存,再转换为ARGB;数据一直留在缓存中,不需要完整的中间帧
+     */
+    private void remapArgbRows(byte[] src, int yOffset, int uvOffset, int stride, int width, int height,
+                               int[] dst, int outW, int outH, int startRow, int endRow) {
+        byte[] rows = mRowBuffer.get();
+        if (rows == null
+                || rows.length < outW * 3) {
+            rows = new byte[outW * 3];
+            mRowBuffer.set(rows);
+        }
+        for (int oy = startRow; oy < endRow; oy += 2) {
+            // 让第oy行落在临时缓存的起始位置
+            remapPlane(src, yOffset, stride, width, height, 1,
+                    rows, -oy * outW, 0, 1, outW, outW, outH, oy, oy + 2);
+            int uvBase = 2 * outW - oy / 2 * outW;
+            remapPlane(src, uvOffset, stride, width / 2, height / 2, 2,
+                    rows, uvBase, uvBase + 1, 2, outW, outW / 2, outH / 2, oy / 2, oy / 2 + 1);
+            NV21ToArgbConverter.convert(rows, 0, 2 * outW, outW, outW, 2, mColorSpace, dst, oy * outW, outW);
+        }
+    }
+
+    /**
+     * 重映射一个平面的[startRow, endRow)行;<br/>
+     * 输出像素中心对齐地映射到旋转之后的坐标,再按照镜像与旋转反算源坐标;
+     * 坐标为16.16的定点数,沿着输出行线性变化,每个像素只需要加法;
+     * 不缩放时坐标都是整数,直接取最近的像素;否则按照8位权重做双线性插值,与{@link NV21Scaler}的取整方式相同
+     *
+     * @param width     源平面的宽度(像素)
+     * @param height    源平面的高度
+     * @param pixelSize 每个像素的字节数;亮度为1,交错排列的VU为2
+     * @param dst0      第一个通道(亮度或者V)的输出位置
+     * @param dst1      第二个通道(U)的输出位置;pixelSize为1时忽略
+     */
+    private void remapPlane(byte[] src, int offset, int stride, int width, int height, int pixelSize,
+                            byte[] dst, int dst0, int dst1, int dstPixelStride, int dstRowStride,
+                            int dstWidth, int dstHeight, int startRow, int endRow) {
+        int rotatedW = NV21Rotator.getRotatedWidth(width, height, mRotation);
+        int rotatedH = NV21Rotator.getRotatedHeight(width, height, mRotation);
+        int stepX = (int) (((long) rotatedW << FIXED_SHIFT) / dstWidth);
+        int stepY = (int) (((long) rotatedH << FIXED_SHIFT) / dstHeight);
+        boolean exact = rotatedW == dstWidth && rotatedH == dstHeight;
+        int maxX = width - 1;
+        int maxY = height - 1;
+        int maxFx = maxX << FIXED_SHIFT;
+        int maxFy = maxY << FIXED_SHIFT;
+        int firstX = (stepX >> 1) - FIXED_HALF;
+        for (int oy = startRow; oy < endRow; oy++) {
+            int fy = (stepY >> 1) - FIXED_HALF + oy * stepY;
+            // 源坐标 = (sx, sy) + ox * (dx, dy)
+            int sx;
+            int sy;
+            int dx;
+            int dy;
+            switch (mRotation) {
+                case 90:
+                    sx = fy;
+                    sy = maxFy - firstX;
+                    dx = 0;
+                    dy = -stepX;
+                    break;
+                case 180:
+                    sx = maxFx - firstX;
+                    sy = maxFy - fy;
+                    dx = -stepX;
+                    dy = 0;
+                    break;
+                case 270:
+                    sx = maxFx - fy;
+                    sy = firstX;
+                    dx = 0;
+                    dy = stepX;
+                    break;
+                default:
+                    sx = firstX;
+                    sy = fy;
+                    dx = stepX;
+                    dy = 0;
+                    break;
+            }
+            if (mMirror) {
+                sx = maxFx - sx;
+                dx = -dx;
+            }
+            int out0 = dst0 + oy * dstRowStride;
+            int out1 = dst1 + oy * dstRowStride;
+            if (exact) {
+                for (int ox = 0; ox < dstWidth; ox++, sx += dx, sy += dy) {
+                    int index = offset + (sy >> FIXED_SHIFT) * stride + (sx >> FIXED_SHIFT) * pixelSize;
+                    dst[out0] = src[index];
+                    out0 += dstPixelStride;
+                    if (pixelSize == 2) {
+                        dst[out1] = src[index + 1];
+                        out1 += dstPixelStride;
+                    }
+                }
+                continue;
+            }
+            for (int ox = 0; ox < dstWidth; ox++, sx += dx, sy += dy) {
+                int x0;
+                int wx;
+                if (sx <= 0) {
+                    x0 = 0;
+                    wx = 0;
+                } else if (sx >= maxFx) {
+                    x0 = maxX;
+                    wx = 0;
+                } else {
+                    x0 = sx >> FIXED_SHIFT;
+                    wx = (sx >> 8) & 0xFF;
+                }
+                int y0;
+                int wy;
+                if (sy <= 0) {
+                    y0 = 0;
+                    wy = 0;
+                } else if (sy >= maxFy) {
+                    y0 = maxY;
+                    wy = 0;
+                } else {
+                    y0 = sy >> FIXED_SHIFT;
+                    wy = (sy >> 8) & 0xFF;
+                }
+                int i00 = offset + y0 * stride + x0 * pixelSize;
+                int i01 = wx == 0 ? i00 : i00 + pixelSize;
+                int i10 = wy == 0 ? i00 : i00 + stride;
+                int i11 = wy == 0 ? i01 : i01 + stride;
+                dst[out0] = blend(src, i00, i01, i10, i11, wx, wy);
+                out0 += dstPixelStride;
+                if (pixelSize == 2) {
+                    dst[out1] = blend(src, i00 + 1, i01 + 1, i10 + 1, i11 + 1, wx, wy);
+                    out1 += dstPixelStride;
+                }
+            }
+        }
+    }
+
+    private static byte blend(byte[] src, int i00, int i01, int i10, int i11, int wx, int wy) {
+        int p00 = src[i00] & 0xFF;
+        int p01 = src[i01] & 0xFF;
+        int p10 = src[i10] & 0xFF;
+        int p11 = src[i11] & 0xFF;
+        int top = (p00 << 8) + (p01 - p00) * wx;
+        int bottom = (p10 << 8) + (p11 - p10) * wx;
+        return (byte) (((top << 8) + (bottom - top) * wy + FIXED_HALF) >> FIXED_SHIFT);
+    }
+
+    @Override
+    public String toString() {
+        return "FrameTransform[crop=(" + mCropLeft + ", " + mCropTop + ", " + mCropWidth + "x" + mCropHeight
+                + "), rotation=" + mRotation + ", mirror=" + mMirror
+                + ", output=" + mOutputWidth + "x" + mOutputHeight + ", format=" + mOutputFormat + "]";
+    }
+
+    /**
+     * 创建一个{@link FrameTransform};
+     * <ul>
+     * <li>
+     * 调用{@link #setCrop(int, int, int, int)}设置裁剪区域,默认不裁剪;
+     * </li>
+     * <li>
+     * 调用{@link #setRotation(int)}设置顺时针旋转的角度,默认为0;
+     * </li>
+     * <li>
+     * 调用{@link #setMirror(boolean)}设置旋转之前是否水平镜像,默认为false;
+     * </li>
+     * <li>
+     * 调用{@link #setOutputSize(int, int)}设置输出尺寸,默认不缩放;
+     * </li>
+     * <li>
+     * 调用{@link #setOutputFormat(int)}设置输出格式,默认为{@link YuvFormats#NV21};
+     * </li>
+     * <li>
+     * 调用{@link #setColorSpace(YuvColorSpace)}设置ARGB输出的颜色空间,默认为{@link YuvColorSpace#BT601_FULL};
+     * </li>
+     * <li>
+     * 调用{@link #setExecutor(RowBandExecutor)}设置分带并行执行的线程池,默认在调用线程中串行执行;
+     * </li>
+     * </ul>
+     */
+    public static final class Builder {
+        int cropLeft;
+        int cropTop;
+        int cropWidth;
+        int cropHeight;
+        int rotation;
+        boolean mirror;
+        int outputWidth;
+        int outputHeight;
+        int outputFormat = YuvFormats.NV21;
+        YuvColorSpace colorSpace = YuvColorSpace.BT601_FULL;
+        RowBandExecutor executor;
+
+        private Builder() {
+        }
+
+        /**
+         * 设置源帧中的裁剪区域;所有的值都会向下对齐到偶数
+         *
+         * @param width  小于等于0表示不裁剪
+         * @param height 小于等于0表示不裁剪
+         * @return
+         */
+        public Builder setCrop(int left, int top, int width, int height) {
+            width = width / 2 * 2;
+            height = height / 2 * 2;
+            if (width <= 0
+                    || height <= 0) {
+                cropLeft = 0;
+                cropTop = 0;
+                cropWidth = 0;
+                cropHeight = 0;
+            } else {
+                cropLeft = Math.max(0, left) / 2 * 2;
+                cropTop = Math.max(0, top) / 2 * 2;
+                cropWidth = width;
+                cropHeight = height;
+            }
+            return this;
+        }
+
+        /**
+         * @param rotation 取值为0、90、180、270
+         * @return
+         * @throws IllegalArgumentException 不支持的角度
+         */
+        public Builder setRotation(int rotation) {
+            if (!NV21Rotator.isValidRotation(rotation)) {
+                throw new IllegalArgumentException("bad rotation: " + rotation);
+            }
+            this.rotation = rotation;
+            return this;
+        }
+
+        public Builder setMirror(boolean mirror) {
+            this.mirror = mirror;
+            return this;
+        }
+
+        /**
+         * 设置旋转之后缩放到的尺寸
+         *
+         * @param width  会向下对齐到偶数;小于等于0表示不缩放
+         * @param height 会向下对齐到偶数;小于等于0表示不缩放
+         * @return
+         */
+        public Builder setOutputSize(int width, int height) {
+            width = width / 2 * 2;
+            height = height / 2 * 2;
+            if (width <= 0
+                    || height <= 0) {
+                outputWidth = 0;
+                outputHeight = 0;
+            } else {
+                outputWidth = width;
+                outputHeight = height;
+            }
+            return this;
+        }
+
+        /**
+         * @param format {@link YuvFormats}中的格式,或者{@link #FORMAT_ARGB}、{@link #FORMAT_GRAY}
+         * @return
+         * @throws IllegalArgumentException 不支持的格式
+         */
+        public Builder setOutputFormat(int format) {
+            if (!YuvFormats.isSupported(format)
+                    && format != FORMAT_ARGB
+                    && format != FORMAT_GRAY) {
+                throw new IllegalArgumentException("unsupported output format: " + format);
+            }
+            outputFormat = format;
+            return this;
+        }
+
+        /**
+         * @param colorSpace 为空时会被忽略
+         * @return
+         */
+        public Builder setColorSpace(YuvColorSpace colorSpace) {
+            if (colorSpace != null) {
+                this.colorSpace = colorSpace;
+            }
+            return this;
+        }
+
+        /**
+         * @param executor 为空表示在调用线程中串行执行
+         * @return
+         */
+        public Builder setExecutor(RowBandExecutor executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        public FrameTransform build() {
+            return new FrameTransform(this);
+        }
+    }
+}
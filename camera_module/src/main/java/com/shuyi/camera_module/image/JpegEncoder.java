@@ -0,0 +1,646 @@
+package com.shuyi.camera_module.image;
+
+import com.shuyi.camera_module.frame.Frame;
+import com.shuyi.camera_module.io.ImageWriter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * 纯Java实现的基线JPEG编码器;<br/>
+ * 直接读取YUV420的亮度与色度平面,色度本身就是4:2:0采样,不需要转换为ARGB,也不需要拷贝整帧;
+ * 输出的是YCbCr 4:2:0的JFIF文件;相机输出的YUV是全范围的,与JFIF相同,数据不做范围转换,与YuvImage的结果一致;<br/>
+ * 图像按照MCU行(16行)切分为若干条带,通过{@link RowBandExecutor}并行编码,
+ * 每个条带之间插入重启标记(RST),条带的熵编码互不依赖,最后按顺序拼接;
+ * 只有一个条带时不写入重启标记;<br/>
+ * 量化表在构造时确定,之后不可修改;该类是线程安全的,多个线程可以同时编码;
+ */
+public class JpegEncoder implements ImageWriter.Encoder<Frame> {
+
+    public static final int DEFAULT_QUALITY = 80;
+
+    /**
+     * 重启间隔不能超过16位
+     */
+    private static final int MAX_RESTART_INTERVAL = 0xFFFF;
+
+    /**
+     * 之字形顺序中第k个系数在8x8块中的位置
+     */
+    static final int[] ZIGZAG = {
+            0, 1, 8, 16, 9, 2, 3, 10,
+            17, 24, 32, 25, 18, 11, 4, 5,
+            12, 19, 26, 33, 40, 48, 41, 34,
+            27, 20, 13, 6, 7, 14, 21, 28,
+            35, 42, 49, 56, 57, 50, 43, 36,
+            29, 22, 15, 23, 30, 37, 44, 51,
+            58, 59, 52, 45, 38, 31, 39, 46,
+            53, 60, 61, 54, 47, 55, 62, 63
+    };
+
+    /**
+     * JPEG标准附录K中的亮度量化表,按行排列
+     */
+    private static final int[] STD_LUMA_TABLE = {
+            16, 11, 10, 16, 24, 40, 51, 61,
+            12, 12, 14, 19, 26, 58, 60, 55,
+            14, 13, 16, 24, 40, 57, 69, 56,
+            14, 17, 22, 29, 51, 87, 80, 62,
+            18, 22, 37, 56, 68, 109, 103, 77,
+            24, 35, 55, 64, 81, 104, 113, 92,
+            49, 64, 78, 87, 103, 121, 120, 101,
+            72, 92, 95, 98, 112, 100, 103, 99
+    };
+
+    /**
+     * JPEG标准附录K中的色度量化表,按行排列
+     */
+    private static final int[] STD_CHROMA_TABLE = {
+            17, 18, 24, 47, 99, 99, 99, 99,
+            18, 21, 26, 66, 99, 99, 99, 99,
+            24, 26, 56, 99, 99, 99, 99, 99,
+            47, 66, 99, 99, 99, 99, 99, 99,
+            99, 99, 99, 99, 99, 99, 99, 99,
+            99, 99, 99, 99, 99, 99, 99, 99,
+            99, 99, 99, 99, 99, 99, 99, 99,
+            99, 99, 99, 99, 99, 99, 99, 99
+    };
+
+    /*
+     * JPEG标准附录K中的哈夫曼表:每种码长的码字数量与按码长排列的符号
+     */
+    private static final int[] DC_LUMA_BITS = {0, 1, 5, 1, 1, 1, 1, 1, 1, 0, 0, 0, 0, 0, 0, 0};
+    private static final int[] DC_LUMA_VALUES = {0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11};
+    private static final int[] DC_CHROMA_BITS = {0, 3, 1, 1, 1, 1, 1, 1, 1, 1, 1, 0, 0, 0, 0, 0};
+    private static final int[] DC_CHROMA_VALUES = {0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11};
+    private static final int[] AC_LUMA_BITS = {0, 2, 1, 3, 3, 2, 4, 3, 5, 5, 4, 4, 0, 0, 1, 0x7d};
+    private static final int[] AC_LUMA_VALUES = {
+            0x01, 0x02, 0x03, 0x00, 0x04, 0x11, 0x05, 0x12, 0x21, 0x31, 0x41, 0x06, 0x13, 0x51, 0x61, 0x07,
+            0x22, 0x71, 0x14, 0x32, 0x81, 0x91, 0xa1, 0x08, 0x23, 0x42, 0xb1, 0xc1, 0x15, 0x52, 0xd1, 0xf0,
+            0x24, 0x33, 0x62, 0x72, 0x82, 0x09, 0x0a, 0x16, 0x17, 0x18, 0x19, 0x1a, 0x25, 0x26, 0x27, 0x28,
+            0x29, 0x2a, 0x34, 0x35, 0x36, 0x37, 0x38, 0x39, 0x3a, 0x43, 0x44, 0x45, 0x46, 0x47, 0x48, 0x49,
+            0x4a, 0x53, 0x54, 0x55, 0x56, 0x57, 0x58, 0x59, 0x5a, 0x63, 0x64, 0x65, 0x66, 0x67, 0x68, 0x69,
+            0x6a, 0x73, 0x74, 0x75, 0x76, 0x77, 0x78, 0x79, 0x7a, 0x83, 0x84, 0x85, 0x86, 0x87, 0x88, 0x89,
+            0x8a, 0x92, 0x93, 0x94, 0x95, 0x96, 0x97, 0x98, 0x99, 0x9a, 0xa2, 0xa3, 0xa4, 0xa5, 0xa6, 0xa7,
+            0xa8, 0xa9, 0xaa, 0xb2, 0xb3, 0xb4, 0xb5, 0xb6, 0xb7, 0xb8, 0xb9, 0xba, 0xc2, 0xc3, 0xc4, 0xc5,
+            0xc6, 0xc7, 0xc8, 0xc9, 0xca, 0xd2, 0xd3, 0xd4, 0xd5, 0xd6, 0xd7, 0xd8, 0xd9, 0xda, 0xe1, 0xe2,
+            0xe3, 0xe4, 0xe5, 0xe6, 0xe7, 0xe8, 0xe9, 0xea, 0xf1, 0xf2, 0xf3, 0xf4, 0xf5, 0xf6, 0xf7, 0xf8,
+            0xf9, 0xfa
+    };
+    private static final int[] AC_CHROMA_BITS = {0, 2, 1, 2, 4, 4, 3, 4, 7, 5, 4, 4, 0, 1, 2, 0x77};
+    private static final int[] AC_CHROMA_VALUES = {
+            0x00, 0x01, 0x02, 0x03, 0x11, 0x04, 0x05, 0x21, 0x31, 0x06, 0x12, 0x41, 0x51, 0x07, 0x61, 0x71,
+            0x13, 0x22, 0x32, 0x81, 0x08, 0x14, 0x42, 0x91, 0xa1, 0xb1, 0xc1, 0x09, 0x23, 0x33, 0x52, 0xf0,
+            0x15, 0x62, 0x72, 0xd1, 0x0a, 0x16, 0x24, 0x34, 0xe1, 0x25, 0xf1, 0x17, 0x18, 0x19, 0x1a, 0x26,
+            0x27, 0x28, 0x29, 0x2a, 0x35, 0x36, 0x37, 0x38, 0x39, 0x3a, 0x43, 0x44, 0x45, 0x46, 0x47, 0x48,
+            0x49, 0x4a, 0x53, 0x54, 0x55, 0x56, 0x57, 0x58, 0x59, 0x5a, 0x63, 0x64, 0x65, 0x66, 0x67, 0x68,
+            0x69, 0x6a, 0x73, 0x74, 0x75, 0x76, 0x77, 0x78, 0x79, 0x7a, 0x82, 0x83, 0x84, 0x85, 0x86, 0x87,
+            0x88, 0x89, 0x8a, 0x92, 0x93, 0x94, 0x95, 0x96, 0x97, 0x98, 0x99, 0x9a, 0xa2, 0xa3, 0xa4, 0xa5,
+            0xa6, 0xa7, 0xa8, 0xa9, 0xaa, 0xb2, 0xb3, 0xb4, 0xb5, 0xb6, 0xb7, 0xb8, 0xb9, 0xba, 0xc2, 0xc3,
+            0xc4, 0xc5, 0xc6, 0xc7, 0xc8, 0xc9, 0xca, 0xd2, 0xd3, 0xd4, 0xd5, 0xd6, 0xd7, 0xd8, 0xd9, 0xda,
+            0xe2, 0xe3, 0xe4, 0xe5, 0xe6, 0xe7, 0xe8, 0xe9, 0xea, 0xf2, 0xf3, 0xf4, 0xf5, 0xf6, 0xf7, 0xf8,
+            0xf9, 0xfa
+    };
+
+    private static final HuffmanTable DC_LUMA = new HuffmanTable(DC_LUMA_BITS, DC_LUMA_VALUES);
+    private static final HuffmanTable DC_CHROMA = new HuffmanTable(DC_CHROMA_BITS, DC_CHROMA_VALUES);
+    private static final HuffmanTable AC_LUMA = new HuffmanTable(AC_LUMA_BITS, AC_LUMA_VALUES);
+    private static final HuffmanTable AC_CHROMA = new HuffmanTable(AC_CHROMA_BITS, AC_CHROMA_VALUES);
+
+    /**
+     * AAN快速DCT每一行(列)的缩放系数
+     */
+    private static final float[] AAN_SCALE = {
+            1.0f, 1.387039845f, 1.306562965f, 1.175875602f,
+            1.0f, 0.785694958f, 0.541196100f, 0.275899379f
+    };
+
+    private final RowBandExecutor mExecutor;
+
+    /**
+     * 按行排列的量化表
+     */
+    private final int[] mLumaTable;
+
+    private final int[] mChromaTable;
+
+    /**
+     * 量化表与DCT缩放合并之后的乘数,按行排列
+     */
+    private final float[] mLumaDivisors;
+
+    private final float[] mChromaDivisors;
+
+    /**
+     * 复用的条带编码状态
+     */
+    private final ConcurrentLinkedQueue<StripWriter> mWriters = new ConcurrentLinkedQueue<>();
+
+    /**
+     * 使用按照质量缩放之后的标准量化表
+     *
+     * @param quality  压缩质量,取值范围为[1, 100]
+     * @param executor 并行编码条带的执行器;为空时在调用线程中串行编码
+     */
+    public JpegEncoder(int quality, RowBandExecutor executor) {
+        this(scaleTable(STD_LUMA_TABLE, quality), scaleTable(STD_CHROMA_TABLE, quality), executor);
+    }
+
+    /**
+     * 使用自定义的量化表
+     *
+     * @param lumaTable   亮度量化表,按行排列的64个值,取值范围为[1, 255]
+     * @param chromaTable 色度量化表,按行排列的64个值,取值范围为[1, 255]
+     * @param executor    并行编码条带的执行器;为空时在调用线程中串行编码
+     * @throws IllegalArgumentException 量化表不合法
+     */
+    public JpegEncoder(int[] lumaTable, int[] chromaTable, RowBandExecutor executor) {
+        mLumaTable = checkTable(lumaTable);
+        mChromaTable = checkTable(chromaTable);
+        mLumaDivisors = toDivisors(mLumaTable);
+        mChromaDivisors = toDivisors(mChromaTable);
+        mExecutor = executor;
+    }
+
+    /**
+     * 按照IJG的规则将标准量化表缩放到指定的质量
+     *
+     * @param quality 取值范围为[1, 100],超出范围会被截断
+     * @return 按行排列的量化表
+     */
+    public static int[] scaleTable(int[] table, int quality) {
+        quality = quality < 1 ? 1 : (quality > 100 ? 100 : quality);
+        int scale = quality < 50 ? 5000 / quality : 200 - quality * 2;
+        int[] scaled = new int[64];
+        for (int i = 0; i < 64; i++) {
+            int value = (table[i] * scale + 50) / 100;
+            scaled[i] = value < 1 ? 1 : (value > 255 ? 255 : value);
+        }
+        return scaled;
+    }
+
+    public static int[] getStandardLumaTable() {
+        return STD_LUMA_TABLE.clone();
+    }
+
+    public static int[] getStandardChromaTable() {
+        return STD_CHROMA_TABLE.clone();
+    }
+
+    private static int[] checkTable(int[] table) {
+        if (table == null
+                || table.length != 64) {
+            throw new IllegalArgumentException("the quantization table must have 64 entries...");
+        }
+        for (int value : table) {
+            if (value < 1
+                    || value > 255) {
+                throw new IllegalArgumentException("the quantization value " + value + " is out of [1, 255]...");
+            }
+        }
+        return table.clone();
+    }
+
+    private static float[] toDivisors(int[] table) {
+        float[] divisors = new float[64];
+        for (int row = 0; row < 8; row++) {
+            for (int col = 0; col < 8; col++) {
+                divisors[row * 8 + col] = 1.0f / (table[row * 8 + col] * AAN_SCALE[row] * AAN_SCALE[col] * 8.0f);
+            }
+        }
+        return divisors;
+    }
+
+    /**
+     * 编码帧句柄中的数据;支持{@link YuvFormats}中紧凑排列的帧以及带有行跨度的NV21视图
+     *
+     * @throws IllegalArgumentException 不支持的帧格式
+     * @throws IllegalStateException    该帧已经被释放
+     */
+    @Override
+    public void encode(Frame frame, OutputStream out) throws IOException {
+        int width = frame.getWidth();
+        int height = frame.getHeight();
+        int format = frame.getFormat();
+        if (frame.isCompact()
+                && YuvFormats.isSupported(format)) {
+            encode(frame.getData(), format, width, height, out);
+        } else if (format == YuvFormats.NV21) {
+            int uvOffset = frame.getUVOffset();
+            encode(frame.getData(), frame.getYOffset(), frame.getStride(),
+                    uvOffset + 1, uvOffset, 2, frame.getStride(), width, height, out);
+        } else {
+            throw new IllegalArgumentException("unsupported frame: " + frame);
+        }
+    }
+
+    /**
+     * 编码紧凑排列的YUV420数据
+     *
+     * @param format {@link YuvFormats}中的格式
+     */
+    public void encode(byte[] data, int format, int width, int height, OutputStream out) throws IOException {
+        if (!YuvFormats.isSupported(format)) {
+            throw new IllegalArgumentException("unsupported yuv format: " + format);
+        }
+        encode(data, 0, width,
+                YuvFormats.getUOffset(format, width, height), YuvFormats.getVOffset(format, width, height),
+                YuvFormats.getChromaPixelStride(format), YuvFormats.getChromaRowStride(format, width),
+                width, height, out);
+    }
+
+    /**
+     * 编码任意排列的YUV420数据;色度平面的尺寸为亮度平面的一半(向上取整)
+     *
+     * @param yOffset           第一个亮度数据的位置
+     * @param yRowStride        亮度每行的字节数
+     * @param uOffset           第一个U(Cb)数据的位置
+     * @param vOffset           第一个V(Cr)数据的位置
+     * @param chromaPixelStride 相邻两个U(或者V)数据之间的字节数
+     * @param chromaRowStride   色度每行的字节数
+     * @param width             图像宽度,取值范围为[1, 65535]
+     * @param height            图像高度,取值范围为[1, 65535]
+     * @param out               输出流,不会被关闭
+     */
+    public void encode(final byte[] data, final int yOffset, final int yRowStride, final int uOffset, final int vOffset,
+                       final int chromaPixelStride, final int chromaRowStride,
+                       final int width, final int height, OutputStream out) throws IOException {
+        if (data == null
+                || width <= 0
+                || height <= 0
+                || width > 0xFFFF
+                || height > 0xFFFF) {
+            throw new IllegalArgumentException("invalid image: " + width + "x" + height);
+        }
+        final int mcuCols = (width + 15) / 16;
+        int mcuRows = (height + 15) / 16;
+        int stripCount = mExecutor == null ? 1 : mExecutor.getBandCount(width, height, 16);
+        int rowsPerStrip = (mcuRows + stripCount - 1) / stripCount;
+        rowsPerStrip = Math.min(rowsPerStrip, MAX_RESTART_INTERVAL / mcuCols);
+        stripCount = (mcuRows + rowsPerStrip - 1) / rowsPerStrip;
+        final int stripMcuRows = rowsPerStrip;
+        final StripWriter[] strips = new StripWriter[stripCount];
+        for (int i = 0; i < stripCount; i++) {
+            StripWriter writer = mWriters.poll();
+            strips[i] = writer == null ? new StripWriter() : writer;
+        }
+        try {
+            RowBandExecutor.RowKernel kernel = new RowBandExecutor.RowKernel() {
+                @Override
+                public void run(int startRow, int endRow) {
+                    int stripHeight = stripMcuRows * 16;
+                    for (int strip = startRow / stripHeight; strip * stripHeight < endRow; strip++) {
+                        int startMcuRow = strip * stripMcuRows;
+                        int endMcuRow = Math.min((height + 15) / 16, startMcuRow + stripMcuRows);
+                        encodeStrip(strips[strip], data, yOffset, yRowStride, uOffset, vOffset,
+                                chromaPixelStride, chromaRowStride, width, height, mcuCols, startMcuRow, endMcuRow);
+                    }
+                }
+            };
+            if (stripCount > 1
+                    && mExecutor != null) {
+                mExecutor.execute(width, height, stripMcuRows * 16, kernel);
+            } else {
+                kernel.run(0, height);
+            }
+
+            writeHeaders(out, width, height, stripCount > 1 ? stripMcuRows * mcuCols : 0);
+            for (int i = 0; i < stripCount; i++) {
+                out.write(strips[i].mData, 0, strips[i].mSize);
+                if (i < stripCount - 1) {
+                    out.write(0xFF);
+                    out.write(0xD0 + (i & 7));
+                }
+            }
+            out.write(0xFF);
+            out.write(0xD9);
+        } finally {
+            for (StripWriter strip : strips) {
+                mWriters.offer(strip);
+            }
+        }
+    }
+
+    /**
+     * 编码[startMcuRow, endMcuRow)之间的MCU行;每个MCU为16x16,包含4个亮度块与Cb、Cr各一个块
+     */
+    private void encodeStrip(StripWriter writer, byte[] data, int yOffset, int yRowStride, int uOffset, int vOffset,
+                             int chromaPixelStride, int chromaRowStride, int width, int height,
+                             int mcuCols, int startMcuRow, int endMcuRow) {
+        writer.reset();
+        int chromaWidth = (width + 1) / 2;
+        int chromaHeight = (height + 1) / 2;
+        float[] block = writer.mBlock;
+        for (int mcuRow = startMcuRow; mcuRow < endMcuRow; mcuRow++) {
+            int y0 = mcuRow * 16;
+            for (int mcuCol = 0; mcuCol < mcuCols; mcuCol++) {
+                int x0 = mcuCol * 16;
+                for (int i = 0; i < 4; i++) {
+                    loadBlock(data, yOffset, yRowStride, 1, x0 + (i & 1) * 8, y0 + (i >> 1) * 8, width, height, block);
+                    writer.mDcY = encodeBlock(writer, block, mLumaDivisors, writer.mDcY, DC_LUMA, AC_LUMA);
+                }
+                loadBlock(data, uOffset, chromaRowStride, chromaPixelStride, x0 / 2, y0 / 2, chromaWidth, chromaHeight, block);
+                writer.mDcCb = encodeBlock(writer, block, mChromaDivisors, writer.mDcCb, DC_CHROMA, AC_CHROMA);
+                loadBlock(data, vOffset, chromaRowStride, chromaPixelStride, x0 / 2, y0 / 2, chromaWidth, chromaHeight, block);
+                writer.mDcCr = encodeBlock(writer, block, mChromaDivisors, writer.mDcCr, DC_CHROMA, AC_CHROMA);
+            }
+        }
+        writer.flush();
+    }
+
+    /**
+     * 读取一个8x8块并减去128;超出平面的部分重复边缘的像素
+     */
+    private static void loadBlock(byte[] data, int offset, int rowStride, int pixelStride,
+                                  int x0, int y0, int planeWidth, int planeHeight, float[] block) {
+        if (x0 + 8 <= planeWidth
+                && y0 + 8 <= planeHeight) {
+            for (int row = 0; row < 8; row++) {
+                int pos = offset + (y0 + row) * rowStride + x0 * pixelStride;
+                for (int col = 0; col < 8; col++) {
+                    block[row * 8 + col] = (data[pos] & 0xFF) - 128;
+                    pos += pixelStride;
+                }
+            }
+            return;
+        }
+        for (int row = 0; row < 8; row++) {
+            int rowPos = offset + Math.min(y0 + row, planeHeight - 1) * rowStride;
+            for (int col = 0; col < 8; col++) {
+                block[row * 8 + col] = (data[rowPos + Math.min(x0 + col, planeWidth - 1) * pixelStride] & 0xFF) - 128;
+            }
+        }
+    }
+
+    /**
+     * 变换、量化并熵编码一个块
+     *
+     * @return 该块的DC值,作为下一个块的预测值
+     */
+    private static int encodeBlock(StripWriter writer, float[] block, float[] divisors, int previousDc,
+                                   HuffmanTable dcTable, HuffmanTable acTable) {
+        forwardDct(block);
+        int[] coefficients = writer.mCoefficients;
+        for (int k = 0; k < 64; k++) {
+            int index = ZIGZAG[k];
+            // 加上偏移之后截断,等价于四舍五入且不需要处理负数
+            coefficients[k] = (int) (block[index] * divisors[index] + 16384.5f) - 16384;
+        }
+
+        int dc = coefficients[0];
+        int diff = dc - previousDc;
+        int category = bitLength(diff);
+        writer.writeBits(dcTable.codes[category], dcTable.sizes[category]);
+        if (category > 0) {
+            writer.writeBits(diff < 0 ? diff - 1 : diff, category);
+        }
+
+        int run = 0;
+        for (int k = 1; k < 64; k++) {
+            int value = coefficients[k];
+            if (value == 0) {
+                run++;
+                continue;
+            }
+            while (run > 15) {
+                // ZRL:16个连续的0
+                writer.writeBits(acTable.codes[0xF0], acTable.sizes[0xF0]);
+                run -= 16;
+            }
+            category = bitLength(value);
+            int symbol = (run << 4) | category;
+            writer.writeBits(acTable.codes[symbol], acTable.sizes[symbol]);
+            writer.writeBits(value < 0 ? value - 1 : value, category);
+            run = 0;
+        }
+        if (run > 0) {
+            // EOB
+            writer.writeBits(acTable.codes[0], acTable.sizes[0]);
+        }
+        return dc;
+    }
+
+    /**
+     * 绝对值的二进制位数,即JPEG中的幅值类别
+     */
+    private static int bitLength(int value) {
+        return 32 - Integer.numberOfLeadingZeros(value < 0 ? -value : value);
+    }
+
+    /**
+     * AAN浮点快速DCT,结果需要乘以{@link #AAN_SCALE}与1/8,这一步合并在量化中
+     */
+    static void forwardDct(float[] block) {
+        for (int pass = 0; pass < 2; pass++) {
+            // 第一遍处理行,第二遍处理列
+            int step = pass == 0 ? 1 : 8;
+            int next = pass == 0 ? 8 : 1;
+            for (int i = 0; i < 8; i++) {
+                int p = i * next;
+                float d0 = block[p];
+                float d1 = block[p + step];
+                float d2 = block[p + step * 2];
+                float d3 = block[p + step * 3];
+                float d4 = block[p + step * 4];
+                float d5 = block[p + step * 5];
+                float d6 = block[p + step * 6];
+                float d7 = block[p + step * 7];
+
+                float tmp0 = d0 + d7;
+                float tmp7 = d0 - d7;
+                float tmp1 = d1 + d6;
+                float tmp6 = d1 - d6;
+                float tmp2 = d2 + d5;
+                float tmp5 = d2 - d5;
+                float tmp3 = d3 + d4;
+                float tmp4 = d3 - d4;
+
+                // 偶数部分
+                float tmp10 = tmp0 + tmp3;
+                float tmp13 = tmp0 - tmp3;
+                float tmp11 = tmp1 + tmp2;
+                float tmp12 = tmp1 - tmp2;
+                block[p] = tmp10 + tmp11;
+                block[p + step * 4] = tmp10 - tmp11;
+                float z1 = (tmp12 + tmp13) * 0.707106781f;
+                block[p + step * 2] = tmp13 + z1;
+                block[p + step * 6] = tmp13 - z1;
+
+                // 奇数部分
+                tmp10 = tmp4 + tmp5;
+                tmp11 = tmp5 + tmp6;
+                tmp12 = tmp6 + tmp7;
+                float z5 = (tmp10 - tmp12) * 0.382683433f;
+                float z2 = 0.541196100f * tmp10 + z5;
+                float z4 = 1.306562965f * tmp12 + z5;
+                float z3 = tmp11 * 0.707106781f;
+                float z11 = tmp7 + z3;
+                float z13 = tmp7 - z3;
+                block[p + step * 5] = z13 + z2;
+                block[p + step * 3] = z13 - z2;
+                block[p + step] = z11 + z4;
+                block[p + step * 7] = z11 - z4;
+            }
+        }
+    }
+
+    /**
+     * 写入SOI、APP0、DQT、SOF0、DHT、DRI与SOS
+     *
+     * @param restartInterval 为0时不写入DRI
+     */
+    private void writeHeaders(OutputStream out, int width, int height, int restartInterval) throws IOException {
+        byte[] header = new byte[1024];
+        int pos = 0;
+        // SOI
+        header[pos++] = (byte) 0xFF;
+        header[pos++] = (byte) 0xD8;
+        // APP0:JFIF 1.01,没有像素密度与缩略图
+        byte[] app0 = {(byte) 0xFF, (byte) 0xE0, 0, 16, 'J', 'F', 'I', 'F', 0, 1, 1, 0, 0, 1, 0, 1, 0, 0};
+        System.arraycopy(app0, 0, header, pos, app0.length);
+        pos += app0.length;
+        // DQT:两个8位精度的量化表,按之字形顺序
+        header[pos++] = (byte) 0xFF;
+        header[pos++] = (byte) 0xDB;
+        pos = putShort(header, pos, 2 + 65 * 2);
+        pos = putTable(header, pos, 0, mLumaTable);
+        pos = putTable(header, pos, 1, mChromaTable);
+        // SOF0:亮度2x2采样,色度1x1采样
+        header[pos++] = (byte) 0xFF;
+        header[pos++] = (byte) 0xC0;
+        pos = putShort(header, pos, 17);
+        header[pos++] = 8;
+        pos = putShort(header, pos, height);
+        pos = putShort(header, pos, width);
+        header[pos++] = 3;
+        byte[] components = {1, 0x22, 0, 2, 0x11, 1, 3, 0x11, 1};
+        System.arraycopy(components, 0, header, pos, components.length);
+        pos += components.length;
+        // DHT
+        pos = DC_LUMA.put(header, pos, 0x00);
+        pos = AC_LUMA.put(header, pos, 0x10);
+        pos = DC_CHROMA.put(header, pos, 0x01);
+        pos = AC_CHROMA.put(header, pos, 0x11);
+        // DRI
+        if (restartInterval > 0) {
+            header[pos++] = (byte) 0xFF;
+            header[pos++] = (byte) 0xDD;
+            pos = putShort(header, pos, 4);
+            pos = putShort(header, pos, restartInterval);
+        }
+        // SOS
+        byte[] sos = {(byte) 0xFF, (byte) 0xDA, 0, 12, 3, 1, 0x00, 2, 0x11, 3, 0x11, 0, 63, 0};
+        System.arraycopy(sos, 0, header, pos, sos.length);
+        pos += sos.length;
+        out.write(header, 0, pos);
+    }
+
+    private static int putShort(byte[] dst, int pos, int value) {
+        dst[pos++] = (byte) (value >> 8);
+        dst[pos++] = (byte) value;
+        return pos;
+    }
+
+    private static int putTable(byte[] dst, int pos, int id, int[] table) {
+        dst[pos++] = (byte) id;
+        for (int k = 0; k < 64; k++) {
+            dst[pos++] = (byte) table[ZIGZAG[k]];
+        }
+        return pos;
+    }
+
+    /**
+     * 由码长分布生成的规范哈夫曼码表
+     */
+    private static final class HuffmanTable {
+        final int[] bits;
+        final int[] values;
+        final int[] codes = new int[256];
+        final int[] sizes = new int[256];
+
+        HuffmanTable(int[] bits, int[] values) {
+            this.bits = bits;
+            this.values = values;
+            int code = 0;
+            int k = 0;
+            for (int length = 1; length <= 16; length++) {
+                for (int i = 0; i < bits[length - 1]; i++) {
+                    codes[values[k]] = code;
+                    sizes[values[k]] = length;
+                    k++;
+                    code++;
+                }
+                code <<= 1;
+            }
+        }
+
+        int put(byte[] dst, int pos, int tableClassAndId) {
+            dst[pos++] = (byte) 0xFF;
+            dst[pos++] = (byte) 0xC4;
+            pos = putShort(dst, pos, 2 + 1 + 16 + values.length);
+            dst[pos++] = (byte) tableClassAndId;
+            for (int count : bits) {
+                dst[pos++] = (byte) count;
+            }
+            for (int value : values) {
+                dst[pos++] = (byte) value;
+            }
+            return pos;
+        }
+    }
+
+    /**
+     * 一个条带的熵编码输出与DC预测值;同一时刻只会被一个线程使用
+     */
+    private static final class StripWriter {
+        byte[] mData = new byte[64 * 1024];
+        int mSize;
+        int mBitBuffer;
+        int mBitCount;
+        int mDcY;
+        int mDcCb;
+        int mDcCr;
+        final float[] mBlock = new float[64];
+        final int[] mCoefficients = new int[64];
+
+        void reset() {
+            mSize = 0;
+            mBitBuffer = 0;
+            mBitCount = 0;
+            mDcY = 0;
+            mDcCb = 0;
+            mDcCr = 0;
+        }
+
+        /**
+         * 写入bits的低length位,length不超过16;0xFF之后需要填充0x00
+         */
+        void writeBits(int bits, int length) {
+            mBitBuffer = (mBitBuffer << length) | (bits & ((1 << length) - 1));
+            mBitCount += length;
+            while (mBitCount >= 8) {
+                int value = (mBitBuffer >> (mBitCount - 8)) & 0xFF;
+                mBitCount -= 8;
+                if (mSize + 2 > mData.length) {
+                    byte[] data = new byte[mData.length * 2];
+                    System.arraycopy(mData, 0, data, 0, mSize);
+                    mData = data;
+                }
+                mData[mSize++] = (byte) value;
+                if (value == 0xFF) {
+                    mData[mSize++] = 0;
+                }
+            }
+        }
+
+        /**
+         * 用1填充最后一个不完整的字节
+         */
+        void flush() {
+            if (mBitCount > 0) {
+                writeBits(0x7F, 8 - mBitCount);
+            }
+        }
+    }
+}
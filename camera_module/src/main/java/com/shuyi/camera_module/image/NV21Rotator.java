@@ -0,0 +1,208 @@
+package com.shuyi.camera_module.image;
+
+import com.shuyi.camera_module.frame.Frame;
+
+/**
+ * NV21的旋转、镜像与裁剪;<br/>
+ * 三种变换合并为一次遍历:按照输出顺序逐行写入,通过源数据上的步长读取,不需要中间缓存;<br/>
+ * 变换的顺序与Camera1的屏幕预览相同:先在裁剪区域内水平镜像,再顺时针旋转;<br/>
+ * 输出为紧凑排列的NV21数据;裁剪区域的宽高与偏移都必须是偶数;
+ */
+public final class NV21Rotator {
+
+    private NV21Rotator() {
+    }
+
+    /**
+     * 是否为支持的旋转角度:0、90、180、270
+     */
+    public static boolean isValidRotation(int rotation) {
+        return rotation == 0
+                || rotation == 90
+                || rotation == 180
+                || rotation == 270;
+    }
+
+    /**
+     * 旋转之后的宽度
+     */
+    public static int getRotatedWidth(int width, int height, int rotation) {
+        return rotation % 180 == 0 ? width : height;
+    }
+
+    /**
+     * 旋转之后的高度
+     */
+    public static int getRotatedHeight(int width, int height, int rotation) {
+        return rotation % 180 == 0 ? height : width;
+    }
+
+    /**
+     * 变换紧凑排列的NV21数据中的一个区域
+     *
+     * @param src      NV21数据
+     * @param width    源数据的宽度
+     * @param height   源数据的高度
+     * @param left     裁剪区域的横向偏移,必须是偶数
+     * @param top      裁剪区域的纵向偏移,必须是偶数
+     * @param clipW    裁剪区域的宽度,必须是偶数
+     * @param clipH    裁剪区域的高度,必须是偶数
+     * @param rotation 顺时针旋转的角度
+     * @param mirror   旋转之前是否水平镜像
+     * @param dst      输出数组,长度不能小于clipW * clipH * 3 / 2
+     * @return 是否变换成功
+     */
+    public static boolean rotate(byte[] src, int width, int height, int left, int top, int clipW, int clipH,
+                                 int rotation, boolean mirror, byte[] dst) {
+        if (left < 0
+                || top < 0
+                || left + clipW > width
+                || top + clipH > height
+                || (left & 1) != 0
+                || (top & 1) != 0) {
+            return false;
+        }
+        return rotate(src, top * width + left, width * height + top / 2 * width + left, width,
+                clipW, clipH, rotation, mirror, dst);
+    }
+
+    /**
+     * 变换帧中的数据;帧可以是{@link Frame#isCompact()}为false的视图,此时裁剪与旋转在同一次遍历中完成
+     *
+     * @param frame    调用期间调用者需要持有该帧的引用
+     * @param rotation 顺时针旋转的角度
+     * @param mirror   旋转之前是否水平镜像
+     * @param dst      输出数组,长度不能小于{@link Frame#getCompactSize()}
+     * @return 是否变换成功
+     */
+    public static boolean rotate(Frame frame, int rotation, boolean mirror, byte[] dst) {
+        return rotate(frame.getData(), frame.getYOffset(), frame.getUVOffset(), frame.getStride(),
+                frame.getWidth(), frame.getHeight(), rotation, mirror, dst);
+    }
+
+    /**
+     * 变换按照行跨度排列的NV21数据
+     *
+     * @param src      数据
+     * @param yOffset  第一个亮度数据的位置
+     * @param uvOffset 第一个色度数据的位置
+     * @param stride   亮度与色度每行的字节数
+     * @param width    源区域的宽度,必须是偶数
+     * @param height   源区域的高度,必须是偶数
+     * @param rotation 顺时针旋转的角度
+     * @param mirror   旋转之前是否水平镜像
+     * @param dst      输出数组,长度不能小于width * height * 3 / 2
+     * @return 是否变换成功
+     */
+    public static boolean rotate(byte[] src, int yOffset, int uvOffset, int stride, int width, int height,
+                                 int rotation, boolean mirror, byte[] dst) {
+        if (src == null
+                || dst == null
+                || !isValidRotation(rotation)
+                || width <= 0
+                || height <= 0
+                || (width & 1) != 0
+                || (height & 1) != 0
+                || stride < width
+                || yOffset < 0
+                || uvOffset < 0
+                || yOffset + (height - 1) * stride + width > src.length
+                || uvOffset + (height / 2 - 1) * stride + width > src.length
+                || dst.length < width * height * 3 / 2) {
+            return false;
+        }
+        int outW = getRotatedWidth(width, height, rotation);
+        int outH = getRotatedHeight(width, height, rotation);
+        transformPlane(src, yOffset, stride, width, height, 1, rotation, mirror, dst, 0, outW, outH);
+        transformPlane(src, uvOffset, stride, width / 2, height / 2, 2, rotation, mirror, dst, width * height, outW / 2, outH / 2);
+        return true;
+    }
+
+    /**
+     * 按照输出顺序遍历一个平面;源坐标是输出坐标的线性函数,所以每个输出像素只需要一次加法定位源数据
+     *
+     * @param pixelSize 每个像素的字节数;亮度为1,交错排列的VU为2
+     */
+    private static void transformPlane(byte[] src, int offset, int stride, int width, int height, int pixelSize,
+                                       int rotation, boolean mirror, byte[] dst, int dstOffset, int outW, int outH) {
+        // 源坐标 sx = ax * ox + bx * oy + cx, sy = ay * ox + by * oy + cy
+        int ax;
+        int bx;
+        int cx;
+        int ay;
+        int by;
+        int cy;
+        switch (rotation) {
+            case 90:
+                ax = 0;
+                bx = 1;
+                cx = 0;
+                ay = -1;
+                by = 0;
+                cy = height - 1;
+                break;
+            case 180:
+                ax = -1;
+                bx = 0;
+                cx = width - 1;
+                ay = 0;
+                by = -1;
+                cy = height - 1;
+                break;
+            case 270:
+                ax = 0;
+                bx = -1;
+                cx = width - 1;
+                ay = 1;
+                by = 0;
+                cy = 0;
+                break;
+            case 0:
+            default:
+                ax = 1;
+                bx = 0;
+                cx = 0;
+                ay = 0;
+                by = 1;
+                cy = 0;
+                break;
+        }
+        if (mirror) {
+            ax = -ax;
+            bx = -bx;
+            cx = width - 1 - cx;
+        }
+        int stepX = ax * pixelSize + ay * stride;
+        int stepY = bx * pixelSize + by * stride;
+        int rowStart = offset + cx * pixelSize + cy * stride;
+        int out = dstOffset;
+        if (pixelSize == 1) {
+            if (stepX == 1) {
+                for (int oy = 0; oy < outH; oy++, rowStart += stepY, out += outW) {
+                    System.arraycopy(src, rowStart, dst, out, outW);
+                }
+                return;
+            }
+            for (int oy = 0; oy < outH; oy++, rowStart += stepY) {
+                int index = rowStart;
+                for (int ox = 0; ox < outW; ox++, index += stepX) {
+                    dst[out++] = src[index];
+                }
+            }
+        } else {
+            if (stepX == 2) {
+                for (int oy = 0; oy < outH; oy++, rowStart += stepY, out += outW * 2) {
+                    System.arraycopy(src, rowStart, dst, out, outW * 2);
+                }
+                return;
+            }
+            for (int oy = 0; oy < outH; oy++, rowStart += stepY) {
+                int index = rowStart;
+                for (int ox = 0; ox < outW; ox++, index += stepX) {
+                    dst[out++] = src[index];
+                    dst[out++] = src[index + 1];
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package com.shuyi.camera_module.image;
+
+import com.shuyi.camera_module.frame.Frame;
+
+/**
+ * NV21的缩小;<br/>
+ * 提供2倍、4倍的盒式滤波,以及任意尺寸的双线性插值;所有方法都直接写入调用者提供的数组,不分配任何内存;<br/>
+ * 色度按照JFIF的约定位于2x2亮度块的中心:盒式滤波对色度同样取块内平均,
+ * 双线性插值在亮度与色度平面上分别使用像素中心对齐的坐标映射,缩小之后色度仍然位于亮度块的中心;<br/>
+ * 输入可以是行跨度大于宽度的窗口,输出为紧凑排列的NV21数据;
+ */
+public final class NV21Scaler {
+
+    private static final int FIXED_SHIFT = 16;
+
+    private static final int FIXED_HALF = 1 << (FIXED_SHIFT - 1);
+
+    private NV21Scaler() {
+    }
+
+    /**
+     * 2倍盒式滤波,输出尺寸为width / 2 x height / 2
+     *
+     * @param src      数据
+     * @param yOffset  第一个亮度数据的位置
+     * @param uvOffset 第一个色度数据的位置
+     * @param stride   亮度与色度每行的字节数
+     * @param width    源区域的宽度,必须是4的倍数
+     * @param height   源区域的高度,必须是4的倍数
+     * @param dst      输出数组,长度不能小于width * height * 3 / 8
+     * @return 是否缩小成功
+     */
+    public static boolean box2x(byte[] src, int yOffset, int uvOffset, int stride, int width, int height, byte[] dst) {
+        if (!checkArguments(src, yOffset, uvOffset, stride, width, height, 4, dst, width / 2, height / 2)) {
+            return false;
+        }
+        int outW = width / 2;
+        int outH = height / 2;
+        int out = 0;
+        for (int oy = 0; oy < outH; oy++) {
+            int row0 = yOffset + oy * 2 * stride;
+            int row1 = row0 + stride;
+            for (int ox = 0, x = 0; ox < outW; ox++, x += 2) {
+                int sum = (src[row0 + x] & 0xFF) + (src[row0 + x + 1] & 0xFF)
+                        + (src[row1 + x] & 0xFF) + (src[row1 + x + 1] & 0xFF);
+                dst[out++] = (byte) ((sum + 2) >> 2);
+            }
+        }
+        for (int oy = 0; oy < outH / 2; oy++) {
+            int row0 = uvOffset + oy * 2 * stride;
+            int row1 = row0 + stride;
+            for (int ox = 0, x = 0; ox < outW / 2; ox++, x += 4) {
+                int v = (src[row0 + x] & 0xFF) + (src[row0 + x + 2] & 0xFF)
+                        + (src[row1 + x] & 0xFF) + (src[row1 + x + 2] & 0xFF);
+                int u = (src[row0 + x + 1] & 0xFF) + (src[row0 + x + 3] & 0xFF)
+                        + (src[row1 + x + 1] & 0xFF) + (src[row1 + x + 3] & 0xFF);
+                dst[out++] = (byte) ((v + 2) >> 2);
+                dst[out++] = (byte) ((u + 2) >> 2);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 4倍盒式滤波,输出尺寸为width / 4 x height / 4
+     *
+     * @param width  源区域的宽度,必须是8的倍数
+     * @param height 源区域的高度,必须是8的倍数
+     * @param dst    输出数组,长度不能小于width * height * 3 / 32
+     * @return 是否缩小成功
+     * @see #box2x(byte[], int, int, int, int, int, byte[])
+     */
+    public static boolean box4x(byte[] src, int yOffset, int uvOffset, int stride, int width, int height, byte[] dst) {
+        if (!checkArguments(src, yOffset, uvOffset, stride, width, height, 8, dst, width / 4, height / 4)) {
+            return false;
+        }
+        int outW = width / 4;
+        int outH = height / 4;
+        int out = 0;
+        for (int oy = 0; oy < outH; oy++) {
+            int rowStart = yOffset + oy * 4 * stride;
+            for (int ox = 0, x = 0; ox < outW; ox++, x += 4) {
+                int sum = 0;
+                for (int row = rowStart, end = rowStart + 4 * stride; row < end; row += stride) {
+                    sum += (src[row + x] & 0xFF) + (src[row + x + 1] & 0xFF)
+                            + (src[row + x + 2] & 0xFF) + (src[row + x + 3] & 0xFF);
+                }
+                dst[out++] = (byte) ((sum + 8) >> 4);
+            }
+        }
+        for (int oy = 0; oy < outH / 2; oy++) {
+            int rowStart = uvOffset + oy * 4 * stride;
+            for (int ox = 0, x = 0; ox < outW / 2; ox++, x += 8) {
+                int v = 0;
+                int u = 0;
+                for (int row = rowStart, end = rowStart + 4 * stride; row < end; row += stride) {
+                    v += (src[row + x] & 0xFF) + (src[row + x + 2] & 0xFF)
+                            + (src[row + x + 4] & 0xFF) + (src[row + x + 6] & 0xFF);
+                    u += (src[row + x + 1] & 0xFF) + (src[row + x + 3] & 0xFF)
+                            + (src[row + x + 5] & 0xFF) + (src[row + x + 7] & 0xFF);
+                }
+                dst[out++] = (byte) ((v + 8) >> 4);
+                dst[out++] = (byte) ((u + 8) >> 4);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 双线性插值缩放到任意尺寸;放大同样适用,但是主要用于缩小
+     *
+     * @param src       数据
+     * @param yOffset   第一个亮度数据的位置
+     * @param uvOffset  第一个色度数据的位置
+     * @param stride    亮度与色度每行的字节数
+     * @param width     源区域的宽度,必须是偶数
+     * @param height    源区域的高度,必须是偶数
+     * @param dst       输出数组,长度不能小于dstWidth * dstHeight * 3 / 2
+     * @param dstWidth  输出宽度,必须是偶数
+     * @param dstHeight 输出高度,必须是偶数
+     * @return 是否缩放成功
+     */
+    public static boolean bilinear(byte[] src, int yOffset, int uvOffset, int stride, int width, int height,
+                                   byte[] dst, int dstWidth, int dstHeight) {
+        if (dstWidth <= 0
+                || dstHeight <= 0
+                || (dstWidth & 1) != 0
+                || (dstHeight & 1) != 0
+                || !checkArguments(src, yOffset, uvOffset, stride, width, height, 2, dst, dstWidth, dstHeight)) {
+            return false;
+        }
+        bilinearPlane(src, yOffset, stride, width, height, 1, dst, 0, dstWidth, dstHeight);
+        bilinearPlane(src, uvOffset, stride, width / 2, height / 2, 2, dst, dstWidth * dstHeight, dstWidth / 2, dstHeight / 2);
+        return true;
+    }
+
+    /**
+     * 缩放帧中的数据;宽高恰好为2倍或者4倍且满足对齐要求时使用盒式滤波,否则使用双线性插值
+     *
+     * @param frame     调用期间调用者需要持有该帧的引用;可以是{@link Frame#isCompact()}为false的视图
+     * @param dst       输出数组,长度不能小于dstWidth * dstHeight * 3 / 2
+     * @param dstWidth  输出宽度,必须是偶数
+     * @param dstHeight 输出高度,必须是偶数
+     * @return 是否缩放成功
+     */
+    public static boolean scale(Frame frame, byte[] dst, int dstWidth, int dstHeight) {
+        return scale(frame.getData(), frame.getYOffset(), frame.getUVOffset(), frame.getStride(),
+                frame.getWidth(), frame.getHeight(), dst, dstWidth, dstHeight);
+    }
+
+    /**
+     * 缩放按照行跨度排列的NV21数据;宽高恰好为2倍或者4倍且满足对齐要求时使用盒式滤波,否则使用双线性插值
+     *
+     * @see #bilinear(byte[], int, int, int, int, int, byte[], int, int)
+     */
+    public static boolean scale(byte[] src, int yOffset, int uvOffset, int stride, int width, int height,
+                                byte[] dst, int dstWidth, int dstHeight) {
+        if (dstWidth * 2 == width
+                && dstHeight * 2 == height
+                && width % 4 == 0
+                && height % 4 == 0) {
+            return box2x(src, yOffset, uvOffset, stride, width, height, dst);
+        }
+        if (dstWidth * 4 == width
+                && dstHeight * 4 == height
+                && width % 8 == 0
+                && height % 8 == 0) {
+            return box4x(src, yOffset, uvOffset, stride, width, height, dst);
+        }
+        return bilinear(src, yOffset, uvOffset, stride, width, height, dst, dstWidth, dstHeight);
+    }
+
+    private static boolean checkArguments(byte[] src, int yOffset, int uvOffset, int stride, int width, int height,
+                                          int alignment, byte[] dst, int dstWidth, int dstHeight) {
+        return src != null
+                && dst != null
+                && width > 0
+                && height > 0
+                && width % alignment == 0
+                && height % alignment == 0
+                && stride >= width
+                && yOffset >= 0
+                && uvOffset >= 0
+                && yOffset + (height - 1) * stride + width <= src.length
+                && uvOffset + (height / 2 - 1) * stride + width <= src.length
+                && dst.length >= dstWidth * dstHeight * 3 / 2;
+    }
+
+    /**
+     * 对一个平面做双线性插值;坐标为16.16的定点数,权重取8位;每个像素只需要整数乘加与移位,也不需要预先分配索引表
+     *
+     * @param pixelSize 每个像素的字节数;亮度为1,交错排列的VU为2
+     */
+    private static void bilinearPlane(byte[] src, int offset, int stride, int width, int height, int pixelSize,
+                                      byte[] dst, int dstOffset, int dstWidth, int dstHeight) {
+        int stepX = (int) (((long) width << FIXED_SHIFT) / dstWidth);
+        int stepY = (int) (((long) height << FIXED_SHIFT) / dstHeight);
+        int maxX = width - 1;
+        int maxY = height - 1;
+        int out = dstOffset;
+        // 像素中心对齐: sx = (ox + 0.5) * width / dstWidth - 0.5
+        int fy = (stepY >> 1) - FIXED_HALF;
+        for (int oy = 0; oy < dstHeight; oy++, fy += stepY) {
+            int y0 = fy < 0 ? 0 : fy >> FIXED_SHIFT;
+            int wy = fy < 0 ? 0 : (fy >> 8) & 0xFF;
+            int y1 = y0 < maxY ? y0 + 1 : maxY;
+            int row0 = offset + y0 * stride;
+            int row1 = offset + y1 * stride;
+            int fx = (stepX >> 1) - FIXED_HALF;
+            for (int ox = 0; ox < dstWidth; ox++, fx += stepX) {
+                int x0 = fx < 0 ? 0 : fx >> FIXED_SHIFT;
+                int wx = fx < 0 ? 0 : (fx >> 8) & 0xFF;
+                int x1 = x0 < maxX ? x0 + 1 : maxX;
+                int i00 = row0 + x0 * pixelSize;
+                int i01 = row0 + x1 * pixelSize;
+                int i10 = row1 + x0 * pixelSize;
+                int i11 = row1 + x1 * pixelSize;
+                for (int c = 0; c < pixelSize; c++) {
+                    int p00 = src[i00 + c] & 0xFF;
+                    int p01 = src[i01 + c] & 0xFF;
+                    int p10 = src[i10 + c] & 0xFF;
+                    int p11 = src[i11 + c] & 0xFF;
+                    int top = (p00 << 8) + (p01 - p00) * wx;
+                    int bottom = (p10 << 8) + (p11 - p10) * wx;
+                    dst[out++] = (byte) (((top << 8) + (bottom - top) * wy + FIXED_HALF) >> FIXED_SHIFT);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.shuyi.camera_module.image;
+
+import com.shuyi.camera_module.frame.Frame;
+
+/**
+ * 纯Java实现的NV21到ARGB8888的转换;<br/>
+ * 使用{@link YuvColorSpace}中预先计算好的定点数系数表,每个像素只需要查表、加法与移位;
+ * 结果写入调用者提供的int数组,数组可以在帧之间复用,转换过程不分配任何内存;<br/>
+ * 输出的像素格式与{@link android.graphics.Bitmap#setPixels(int[], int, int, int, int, int, int)}相同,即0xAARRGGBB;<br/>
+ * 宽高必须是偶数;
+ */
+public final class NV21ToArgbConverter {
+
+    private NV21ToArgbConverter() {
+    }
+
+    /**
+     * 转换紧凑排列的NV21数据
+     *
+     * @param src        NV21数据
+     * @param width      宽度
+     * @param height     高度
+     * @param colorSpace 色彩空间
+     * @param dst        输出数组,长度不能小于width * height
+     * @return 是否转换成功
+     */
+    public static boolean convert(byte[] src, int width, int height, YuvColorSpace colorSpace, int[] dst) {
+        return convert(src, 0, width * height, width, width, height, colorSpace, dst, 0, width);
+    }
+
+    /**
+     * 转换帧中的数据;帧可以是{@link Frame#isCompact()}为false的视图
+     *
+     * @param frame      调用期间调用者需要持有该帧的引用
+     * @param colorSpace 色彩空间
+     * @param dst        输出数组,长度不能小于宽乘以高
+     * @return 是否转换成功
+     */
+    public static boolean convert(Frame frame, YuvColorSpace colorSpace, int[] dst) {
+        return convert(frame.getData(), frame.getYOffset(), frame.getUVOffset(), frame.getStride(),
+                frame.getWidth(), frame.getHeight(), colorSpace, dst, 0, frame.getWidth());
+    }
+
+    /**
+     * 转换按照行跨度排列的NV21数据
+     *
+     * @param src        数据
+     * @param yOffset    第一个亮度数据的位置
+     * @param uvOffset   第一个色度数据的位置
+     * @param stride     亮度与色度每行的字节数
+     * @param width      宽度,必须是偶数
+     * @param height     高度,必须是偶数
+     * @param colorSpace 色彩空间
+     * @param dst        输出数组
+     * @param dstOffset  第一个输出像素的位置
+     * @param dstStride  输出每行的像素数
+     * @return 是否转换成功
+     */
+    public static boolean convert(byte[] src, int yOffset, int uvOffset, int stride, int width, int height,
+                                  YuvColorSpace colorSpace, int[] dst, int dstOffset, int dstStride) {
+        return convert(src, yOffset, uvOffset, stride, width, height, colorSpace, dst, dstOffset, dstStride, null);
+    }
+
+    /**
+     * 转换按照行跨度排列的NV21数据;按照2行对齐分带并行执行
+     *
+     * @param executor 为空时在调用线程中串行执行
+     * @see #convert(byte[], int, int, int, int, int, YuvColorSpace, int[], int, int)
+     */
+    public static boolean convert(final byte[] src, final int yOffset, final int uvOffset, final int stride,
+                                  final int width, int height, final YuvColorSpace colorSpace,
+                                  final int[] dst, final int dstOffset, final int dstStride,
+                                  RowBandExecutor executor) {
+        if (src == null
+                || dst == null
+                || colorSpace == null
+                || width <= 0
+                || height <= 0
+                || (width & 1) != 0
+                || (height & 1) != 0
+                || stride < width
+                || dstStride < width
+                || yOffset < 0
+                || uvOffset < 0
+                || dstOffset < 0
+                || yOffset + (height - 1) * stride + width > src.length
+                || uvOffset + (height / 2 - 1) * stride + width > src.length
+                || dstOffset + (height - 1) * dstStride + width > dst.length) {
+            return false;
+        }
+        if (executor == null) {
+            convertRows(src, yOffset, uvOffset, stride, width, colorSpace, dst, dstOffset, dstStride, 0, height);
+            return true;
+        }
+        executor.execute(width, height, 2, new RowBandExecutor.RowKernel() {
+            @Override
+            public void run(int startRow, int endRow) {
+                convertRows(src, yOffset, uvOffset, stride, width, colorSpace, dst, dstOffset, dstStride, startRow, endRow);
+            }
+        });
+        return true;
+    }
+
+    /**
+     * 转换[startRow, endRow)之间的行;startRow必须是偶数
+     */
+    private static void convertRows(byte[] src, int yOffset, int uvOffset, int stride, int width,
+                                    YuvColorSpace colorSpace, int[] dst, int dstOffset, int dstStride,
+                                    int startRow, int endRow) {
+        final int[] yTable = colorSpace.yTable;
+        final int[] rvTable = colorSpace.rvTable;
+        final int[] guTable = colorSpace.guTable;
+        final int[] gvTable = colorSpace.gvTable;
+        final int[] buTable = colorSpace.buTable;
+        for (int row = startRow; row < endRow; row += 2) {
+            int y0 = yOffset + row * stride;
+            int y1 = y0 + stride;
+            int uv = uvOffset + (row >> 1) * stride;
+            int out0 = dstOffset + row * dstStride;
+            int out1 = out0 + dstStride;
+            for (int x = 0; x < width; x += 2) {
+                // NV21的色度数据按照VU的顺序交错排列,每2x2个像素共享一组
+                int v = src[uv + x] & 0xFF;
+                int u = src[uv + x + 1] & 0xFF;
+                int rv = rvTable[v];
+                int guv = guTable[u] + gvTable[v];
+                int bu = buTable[u];
+                dst[out0 + x] = toArgb(yTable[src[y0 + x] & 0xFF], rv, guv, bu);
+                dst[out0 + x + 1] = toArgb(yTable[src[y0 + x + 1] & 0xFF], rv, guv, bu);
+                dst[out1 + x] = toArgb(yTable[src[y1 + x] & 0xFF], rv, guv, bu);
+                dst[out1 + x + 1] = toArgb(yTable[src[y1 + x + 1] & 0xFF], rv, guv, bu);
+            }
+        }
+    }
+
+    private static int toArgb(int y, int rv, int guv, int bu) {
+        int r = (y + rv) >> YuvColorSpace.FIXED_SHIFT;
+        int g = (y - guv) >> YuvColorSpace.FIXED_SHIFT;
+        int b = (y + bu) >> YuvColorSpace.FIXED_SHIFT;
+        if (((r | g | b) & ~0xFF) != 0) {
+            r = clamp(r);
+            g = clamp(g);
+            b = clamp(b);
+        }
+        return 0xFF000000 | (r << 16) | (g << 8) | b;
+    }
+
+    private static int clamp(int value) {
+        return value < 0 ? 0 : (value > 255 ? 255 : value);
+    }
+}
@@ -0,0 +1,149 @@
+package com.shuyi.camera_module.image;
+
+import android.graphics.Bitmap;
+
+/**
+ * 将RGB888或者8位灰度数据转换为ARGB8888像素,并写入Bitmap;<br/>
+ * 对象内部持有可以复用的像素数组,尺寸不变时连续转换不会分配内存;
+ * 传入可修改的Bitmap时通过{@link Bitmap#setPixels(int[], int, int, int, int, int, int)}直接写入,不再创建新的Bitmap;<br/>
+ * 每个像素只做移位与按位或,不需要分支,也不调用{@link android.graphics.Color#rgb(int, int, int)};<br/>
+ * 该类不是线程安全的,每个使用线程持有自己的对象;
+ */
+public class RgbBitmapConverter {
+
+    private final RowBandExecutor mExecutor;
+
+    private int[] mPixels;
+
+    public RgbBitmapConverter() {
+        this(null);
+    }
+
+    /**
+     * @param executor 用于分带并行转换;为空时在调用线程中串行执行
+     */
+    public RgbBitmapConverter(RowBandExecutor executor) {
+        mExecutor = executor;
+    }
+
+    /**
+     * 将RGB888数据转换为ARGB8888像素
+     *
+     * @param rgbData 每个像素依次为R、G、B三个字节,长度必须为width * height * 3
+     * @return 内部的像素数组,下一次转换之前有效;参数错误时为空
+     */
+    public int[] convertRgb(final byte[] rgbData, final int width, int height) {
+        if (rgbData == null
+                || width <= 0
+                || height <= 0
+                || rgbData.length != width * height * 3) {
+            return null;
+        }
+        final int[] pixels = obtainPixels(width * height);
+        if (mExecutor == null) {
+            rgbToArgb(rgbData, pixels, 0, width * height);
+        } else {
+            mExecutor.execute(width, height, 1, new RowBandExecutor.RowKernel() {
+                @Override
+                public void run(int startRow, int endRow) {
+                    rgbToArgb(rgbData, pixels, startRow * width, endRow * width);
+                }
+            });
+        }
+        return pixels;
+    }
+
+    /**
+     * 将8位灰度数据转换为ARGB8888像素
+     *
+     * @param grayData 每个像素一个字节,长度必须为width * height
+     * @return 内部的像素数组,下一次转换之前有效;参数错误时为空
+     */
+    public int[] convertGray(final byte[] grayData, final int width, int height) {
+        if (grayData == null
+                || width <= 0
+                || height <= 0
+                || grayData.length != width * height) {
+            return null;
+        }
+        final int[] pixels = obtainPixels(width * height);
+        if (mExecutor == null) {
+            grayToArgb(grayData, pixels, 0, width * height);
+        } else {
+            mExecutor.execute(width, height, 1, new RowBandExecutor.RowKernel() {
+                @Override
+                public void run(int startRow, int endRow) {
+                    grayToArgb(grayData, pixels, startRow * width, endRow * width);
+                }
+            });
+        }
+        return pixels;
+    }
+
+    /**
+     * 将RGB888数据写入Bitmap
+     *
+     * @param reuse 尺寸相同、可修改的ARGB8888 Bitmap会被直接写入;否则创建新的Bitmap
+     * @return 写入的Bitmap;参数错误时为空
+     */
+    public Bitmap rgbToBitmap(byte[] rgbData, int width, int height, Bitmap reuse) {
+        return toBitmap(convertRgb(rgbData, width, height), width, height, reuse);
+    }
+
+    /**
+     * 将8位灰度数据写入Bitmap
+     *
+     * @param reuse 尺寸相同、可修改的ARGB8888 Bitmap会被直接写入;否则创建新的Bitmap
+     * @return 写入的Bitmap;参数错误时为空
+     */
+    public Bitmap grayToBitmap(byte[] grayData, int width, int height, Bitmap reuse) {
+        return toBitmap(convertGray(grayData, width, height), width, height, reuse);
+    }
+
+    private Bitmap toBitmap(int[] pixels, int width, int height, Bitmap reuse) {
+        if (pixels == null) {
+            return null;
+        }
+        Bitmap bitmap = reuse;
+        if (bitmap == null
+                || bitmap.isRecycled()
+                || !bitmap.isMutable()
+                || bitmap.getConfig() != Bitmap.Config.ARGB_8888
+                || bitmap.getWidth() != width
+                || bitmap.getHeight() != height) {
+            bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        }
+        bitmap.setPixels(pixels, 0, width, 0, 0, width, height);
+        return bitmap;
+    }
+
+    private int[] obtainPixels(int size) {
+        if (mPixels == null
+                || mPixels.length != size) {
+            mPixels = new int[size];
+        }
+        return mPixels;
+    }
+
+    /**
+     * 转换[start, end)之间的像素
+     */
+    static void rgbToArgb(byte[] rgbData, int[] dst, int start, int end) {
+        for (int i = start, s = start * 3; i < end; i++, s += 3) {
+            dst[i] = 0xFF000000
+                    | ((rgbData[s] & 0xFF) << 16)
+                    | ((rgbData[s + 1] & 0xFF) << 8)
+                    | (rgbData[s + 2] & 0xFF);
+        }
+    }
+
+    /**
+     * 转换[start, end)之间的像素
+     */
+    static void grayToArgb(byte[] grayData, int[] dst, int start, int end) {
+        for (int i = start; i < end; i++) {
+            // 同一个值复制到R、G、B三个通道
+            dst[i] = 0xFF000000 | ((grayData[i] & 0xFF) * 0x010101);
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package com.shuyi.camera_module.image;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 按行分带并行执行图像处理内核;<br/>
+ * 将一帧按行切分为若干连续的行带,每个行带交给一个线程处理,调用线程自己处理最后一个行带,
+ * 所有行带完成之后才返回;行带的起始行按照指定的行数对齐,例如NV21需要按照2行对齐,保证每组色度只被一个行带处理;<br/>
+ * 像素数小于串行阈值的小图直接在调用线程中执行,避免线程切换的开销超过收益;<br/>
+ * minSdkVersion为19,无法使用ForkJoinPool(API 21),这里使用固定线程数的线程池;
+ * 内核之间没有嵌套与窃取,效果与fork-join相同;<br/>
+ * 该类是线程安全的,多个线程可以同时提交内核;
+ */
+public class RowBandExecutor {
+
+    /**
+     * 默认的串行阈值;像素数小于该值的图像不拆分
+     */
+    public static final int DEFAULT_SERIAL_CUTOFF_PIXELS = 320 * 240;
+
+    /**
+     * 每个行带最少的行数
+     */
+    private static final int MIN_BAND_ROWS = 16;
+
+    private static volatile RowBandExecutor sDefault;
+
+    /**
+     * 图像处理内核;处理[startRow, endRow)之间的行,不同行带之间不能写入相同的位置
+     */
+    public interface RowKernel {
+        void run(int startRow, int endRow);
+    }
+
+    private final int mParallelism;
+
+    private final int mSerialCutoffPixels;
+
+    /**
+     * 并行度为1时为空
+     */
+    private final ThreadPoolExecutor mExecutor;
+
+    private volatile boolean mShutdown;
+
+    /**
+     * 所有设备共享的执行器,并行度为CPU核数
+     */
+    public static RowBandExecutor getDefault() {
+        if (sDefault == null) {
+            synchronized (RowBandExecutor.class) {
+                if (sDefault == null) {
+                    sDefault = new RowBandExecutor(Runtime.getRuntime().availableProcessors(), DEFAULT_SERIAL_CUTOFF_PIXELS);
+                }
+            }
+        }
+        return sDefault;
+    }
+
+    /**
+     * @param parallelism       最多同时处理的行带数量,包括调用线程
+     * @param serialCutoffPixels 串行阈值;像素数小于该值的图像不拆分
+     */
+    public RowBandExecutor(int parallelism, int serialCutoffPixels) {
+        mParallelism = parallelism <= 0 ? 1 : parallelism;
+        mSerialCutoffPixels = serialCutoffPixels < 0 ? 0 : serialCutoffPixels;
+        if (mParallelism > 1) {
+            final AtomicInteger threadIndex = new AtomicInteger();
+            mExecutor = new ThreadPoolExecutor(mParallelism - 1, mParallelism - 1,
+                    30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "camera_kernel_" + threadIndex.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            mExecutor.allowCoreThreadTimeOut(true);
+        } else {
+            mExecutor = null;
+        }
+    }
+
+    /**
+     * 分带执行内核,所有行带完成之后返回;<br/>
+     * 任意一个行带抛出的异常会在调用线程中重新抛出
+     *
+     * @param width     每行的像素数,用于判断是否需要拆分
+     * @param height    总行数
+     * @param alignment 行带起始行的对齐行数,例如NV21为2
+     * @param kernel    图像处理内核
+     */
+    public void execute(int width, int height, int alignment, final RowKernel kernel) {
+        if (height <= 0) {
+            return;
+        }
+        alignment = alignment <= 0 ? 1 : alignment;
+        int bandCount = getBandCount(width, height, alignment);
+        if (bandCount <= 1) {
+            kernel.run(0, height);
+            return;
+        }
+        int units = (height + alignment - 1) / alignment;
+        final CountDownLatch latch = new CountDownLatch(bandCount - 1);
+        final Throwable[] failure = new Throwable[1];
+        int startUnit = 0;
+        for (int band = 0; band < bandCount - 1; band++) {
+            int endUnit = startUnit + (units - startUnit) / (bandCount - band);
+            final int startRow = startUnit * alignment;
+            final int endRow = endUnit * alignment;
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        kernel.run(startRow, endRow);
+                    } catch (Throwable throwable) {
+                        synchronized (failure) {
+                            failure[0] = throwable;
+                        }
+                    } finally {
+                        latch.countDown();
+                    }
+                }
+            });
+            startUnit = endUnit;
+        }
+        // 调用线程处理最后一个行带
+        Throwable callerFailure = null;
+        try {
+            kernel.run(startUnit * alignment, height);
+        } catch (Throwable throwable) {
+            callerFailure = throwable;
+        }
+        boolean interrupted = false;
+        while (true) {
+            try {
+                latch.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (failure) {
+            if (callerFailure == null) {
+                callerFailure = failure[0];
+            }
+        }
+        if (callerFailure instanceof RuntimeException) {
+            throw (RuntimeException) callerFailure;
+        }
+        if (callerFailure instanceof Error) {
+            throw (Error) callerFailure;
+        }
+        if (callerFailure != null) {
+            throw new RuntimeException(callerFailure);
+        }
+    }
+
+    /**
+     * 将要拆分的行带数量
+     */
+    int getBandCount(int width, int height, int alignment) {
+        if (mExecutor == null
+                || mShutdown
+                || (long) width * height < mSerialCutoffPixels) {
+            return 1;
+        }
+        int units = (height + alignment - 1) / alignment;
+        int minUnitsPerBand = (MIN_BAND_ROWS + alignment - 1) / alignment;
+        int bandCount = Math.min(mParallelism, units / minUnitsPerBand);
+        return bandCount < 1 ? 1 : bandCount;
+    }
+
+    public int getParallelism() {
+        return mParallelism;
+    }
+
+    /**
+     * 停止工作线程;之后提交的内核都在调用线程中串行执行;不要对{@link #getDefault()}调用
+     */
+    public void shutdown() {
+        mShutdown = true;
+        if (mExecutor != null) {
+            mExecutor.shutdown();
+        }
+    }
+}
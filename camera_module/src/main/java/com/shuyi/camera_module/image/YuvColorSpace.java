@@ -0,0 +1,101 @@
+package com.shuyi.camera_module.image;
+
+/**
+ * YUV到RGB转换所使用的色彩空间;<br/>
+ * 每种色彩空间在类加载时预先计算好定点数的系数表,转换时每个像素只需要查表与加法;<br/>
+ * Camera1的NV21预览帧遵循JFIF标准,即{@link #BT601_FULL};
+ */
+public enum YuvColorSpace {
+    /**
+     * BT.601,亮度与色度取值范围均为[0, 255]
+     */
+    BT601_FULL(0.299, 0.114, true),
+    /**
+     * BT.601,亮度取值范围为[16, 235],色度取值范围为[16, 240]
+     */
+    BT601_LIMITED(0.299, 0.114, false),
+    /**
+     * BT.709,亮度与色度取值范围均为[0, 255]
+     */
+    BT709_FULL(0.2126, 0.0722, true),
+    /**
+     * BT.709,亮度取值范围为[16, 235],色度取值范围为[16, 240]
+     */
+    BT709_LIMITED(0.2126, 0.0722, false);
+
+    /**
+     * 定点数的小数位数
+     */
+    static final int FIXED_SHIFT = 16;
+
+    final double kr;
+
+    final double kb;
+
+    final boolean fullRange;
+
+    /**
+     * 亮度值对应的定点数,已经加上了四舍五入所需的0.5
+     */
+    final int[] yTable = new int[256];
+
+    /**
+     * V对R的贡献
+     */
+    final int[] rvTable = new int[256];
+
+    /**
+     * U对G的贡献,需要从亮度中减去
+     */
+    final int[] guTable = new int[256];
+
+    /**
+     * V对G的贡献,需要从亮度中减去
+     */
+    final int[] gvTable = new int[256];
+
+    /**
+     * U对B的贡献
+     */
+    final int[] buTable = new int[256];
+
+    YuvColorSpace(double kr, double kb, boolean fullRange) {
+        this.kr = kr;
+        this.kb = kb;
+        this.fullRange = fullRange;
+        double kg = 1 - kr - kb;
+        double yScale = fullRange ? 1 : 255.0 / 219;
+        double yOffset = fullRange ? 0 : 16;
+        double cScale = fullRange ? 1 : 255.0 / 224;
+        double one = 1 << FIXED_SHIFT;
+        for (int i = 0; i < 256; i++) {
+            double c = (i - 128) * cScale;
+            yTable[i] = (int) Math.round((i - yOffset) * yScale * one + one / 2);
+            rvTable[i] = (int) Math.round(2 * (1 - kr) * c * one);
+            guTable[i] = (int) Math.round(2 * kb * (1 - kb) / kg * c * one);
+            gvTable[i] = (int) Math.round(2 * kr * (1 - kr) / kg * c * one);
+            buTable[i] = (int) Math.round(2 * (1 - kb) * c * one);
+        }
+    }
+
+    /**
+     * 亮度系数Kr
+     */
+    public double getKr() {
+        return kr;
+    }
+
+    /**
+     * 亮度系数Kb
+     */
+    public double getKb() {
+        return kb;
+    }
+
+    /**
+     * 是否为全范围
+     */
+    public boolean isFullRange() {
+        return fullRange;
+    }
+}
@@ -0,0 +1,173 @@
+package com.shuyi.camera_module.image;
+
+import java.nio.ByteBuffer;
+
+/**
+ * {@link YuvFormats}中各种格式之间的转换,可以同时裁剪;<br/>
+ * 每个平面只遍历一次:亮度逐行拷贝,色度按照源格式与目标格式的排列方式拷贝,
+ * 两边都是连续排列时直接整行拷贝,交错到平面的拆分以及VU与UV的交换使用{@link ChromaKernels}每次处理8个字节,
+ * 平面到交错逐字节处理;<br/>
+ * 所有方法都写入调用者提供的数组,除了色度内核使用的数组视图之外不分配内存;
+ */
+public final class YuvConverter {
+
+    private YuvConverter() {
+    }
+
+    /**
+     * 转换格式
+     *
+     * @param src       源数据,紧凑排列
+     * @param srcFormat 源格式
+     * @param width     宽度,必须是偶数
+     * @param height    高度,必须是偶数
+     * @param dst       输出数组,长度不能小于{@link YuvFormats#getFrameSize(int, int)}
+     * @param dstFormat 目标格式
+     * @return 是否转换成功
+     */
+    public static boolean convert(byte[] src, int srcFormat, int width, int height, byte[] dst, int dstFormat) {
+        return convert(src, srcFormat, width, height, 0, 0, width, height, dst, dstFormat);
+    }
+
+    /**
+     * 裁剪并转换格式
+     *
+     * @param src       源数据,紧凑排列
+     * @param srcFormat 源格式
+     * @param width     源宽度,必须是偶数
+     * @param height    源高度,必须是偶数
+     * @param left      裁剪区域的横向偏移,必须是偶数
+     * @param top       裁剪区域的纵向偏移,必须是偶数
+     * @param clipW     裁剪区域的宽度,必须是偶数
+     * @param clipH     裁剪区域的高度,必须是偶数
+     * @param dst       输出数组,紧凑排列,长度不能小于{@link YuvFormats#getFrameSize(int, int)}
+     * @param dstFormat 目标格式
+     * @return 是否转换成功
+     */
+    public static boolean convert(byte[] src, int srcFormat, int width, int height,
+                                  int left, int top, int clipW, int clipH,
+                                  byte[] dst, int dstFormat) {
+        if (src == null
+                || dst == null
+                || !YuvFormats.isSupported(srcFormat)
+                || !YuvFormats.isSupported(dstFormat)
+                || width <= 0
+                || height <= 0
+                || clipW <= 0
+                || clipH <= 0
+                || ((width | height | left | top | clipW | clipH) & 1) != 0
+                || left < 0
+                || top < 0
+                || left + clipW > width
+                || top + clipH > height
+                || src.length < YuvFormats.getFrameSize(width, height)
+                || dst.length < YuvFormats.getFrameSize(clipW, clipH)) {
+            return false;
+        }
+        copyPlane(src, top * width + left, 1, width,
+                dst, 0, 1, clipW, clipW, clipH);
+
+        int srcPixelStride = YuvFormats.getChromaPixelStride(srcFormat);
+        int srcRowStride = YuvFormats.getChromaRowStride(srcFormat, width);
+        int srcOffset = top / 2 * srcRowStride + left / 2 * srcPixelStride;
+        int dstPixelStride = YuvFormats.getChromaPixelStride(dstFormat);
+        int dstRowStride = YuvFormats.getChromaRowStride(dstFormat, clipW);
+        int chromaW = clipW / 2;
+        int chromaH = clipH / 2;
+        int srcU = YuvFormats.getUOffset(srcFormat, width, height) + srcOffset;
+        int srcV = YuvFormats.getVOffset(srcFormat, width, height) + srcOffset;
+        int dstU = YuvFormats.getUOffset(dstFormat, clipW, clipH);
+        int dstV = YuvFormats.getVOffset(dstFormat, clipW, clipH);
+        copyChroma(src, srcU, srcV, srcPixelStride, srcRowStride,
+                dst, dstU, dstV, dstPixelStride, dstRowStride, chromaW, chromaH);
+        return true;
+    }
+
+    /**
+     * 按照两边的排列方式拷贝U、V两个平面;<br/>
+     * 相同的交错排列整行拷贝;交错与平面之间的转换、以及VU与UV之间的交换使用{@link ChromaKernels}逐行处理,
+     * 数组的视图每个平面只创建一次;平面到交错使用逐字节的实现,见{@link ChromaKernels};
+     * 其余情况逐个平面拷贝
+     *
+     * @param pixelStride 交错排列为2,平面排列为1
+     * @param width       每行的色度像素数
+     * @param height      色度行数
+     */
+    static void copyChroma(byte[] src, int srcU, int srcV, int srcPixelStride, int srcRowStride,
+                           byte[] dst, int dstU, int dstV, int dstPixelStride, int dstRowStride,
+                           int width, int height) {
+        if (srcPixelStride == 2
+                && dstPixelStride == 2) {
+            int srcStart = Math.min(srcU, srcV);
+            int dstStart = Math.min(dstU, dstV);
+            if ((srcU < srcV) == (dstU < dstV)) {
+                // 相同的交错排列,整行拷贝
+                copyPlane(src, srcStart, 1, srcRowStride, dst, dstStart, 1, dstRowStride, width * 2, height);
+                return;
+            }
+            ByteBuffer in = ChromaKernels.view(src);
+            ByteBuffer out = src == dst ? in : ChromaKernels.view(dst);
+            for (int row = 0; row < height; row++) {
+                ChromaKernels.swapPairs(in, srcStart + row * srcRowStride, out, dstStart + row * dstRowStride, width);
+            }
+            return;
+        }
+        if (srcPixelStride == 2
+                && dstPixelStride == 1) {
+            int srcStart = Math.min(srcU, srcV);
+            int dstFirst = srcV < srcU ? dstV : dstU;
+            int dstSecond = srcV < srcU ? dstU : dstV;
+            ByteBuffer in = ChromaKernels.view(src);
+            ByteBuffer out = ChromaKernels.view(dst);
+            for (int row = 0; row < height; row++) {
+                ChromaKernels.deinterleave(in, srcStart + row * srcRowStride,
+                        out, dstFirst + row * dstRowStride, out, dstSecond + row * dstRowStride, width);
+            }
+            return;
+        }
+        if (srcPixelStride == 1
+                && dstPixelStride == 2) {
+            int dstStart = Math.min(dstU, dstV);
+            int srcFirst = dstV < dstU ? srcV : srcU;
+            int srcSecond = dstV < dstU ? srcU : srcV;
+            for (int row = 0; row < height; row++) {
+                ChromaKernels.interleaveScalar(src, srcFirst + row * srcRowStride, src, srcSecond + row * srcRowStride,
+                        dst, dstStart + row * dstRowStride, width);
+            }
+            return;
+        }
+        copyPlane(src, srcU, srcPixelStride, srcRowStride, dst, dstU, dstPixelStride, dstRowStride, width, height);
+        copyPlane(src, srcV, srcPixelStride, srcRowStride, dst, dstV, dstPixelStride, dstRowStride, width, height);
+    }
+
+    /**
+     * 按照像素间隔与行跨度拷贝一个平面;两边的像素都是连续排列时整行拷贝
+     *
+     * @param width  每行的像素数
+     * @param height 行数
+     */
+    static void copyPlane(byte[] src, int srcOffset, int srcPixelStride, int srcRowStride,
+                          byte[] dst, int dstOffset, int dstPixelStride, int dstRowStride,
+                          int width, int height) {
+        if (srcPixelStride == 1
+                && dstPixelStride == 1) {
+            for (int row = 0; row < height; row++) {
+                System.arraycopy(src, srcOffset, dst, dstOffset, width);
+                srcOffset += srcRowStride;
+                dstOffset += dstRowStride;
+            }
+            return;
+        }
+        for (int row = 0; row < height; row++) {
+            int s = srcOffset;
+            int d = dstOffset;
+            for (int x = 0; x < width; x++) {
+                dst[d] = src[s];
+                s += srcPixelStride;
+                d += dstPixelStride;
+            }
+            srcOffset += srcRowStride;
+            dstOffset += dstRowStride;
+        }
+    }
+}
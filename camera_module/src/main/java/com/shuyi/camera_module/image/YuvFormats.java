@@ -0,0 +1,130 @@
+package com.shuyi.camera_module.image;
+
+import android.graphics.ImageFormat;
+
+/**
+ * 支持的YUV420格式及其内存布局;<br/>
+ * 所有格式的亮度平面都在最前面,宽高必须是偶数,每行没有额外的对齐字节:
+ * <ul>
+ * <li>
+ * {@link #NV21}:亮度之后是VU交错排列的色度平面;
+ * </li>
+ * <li>
+ * {@link #NV12}:亮度之后是UV交错排列的色度平面;
+ * </li>
+ * <li>
+ * {@link #I420}:亮度之后依次是U平面与V平面;
+ * </li>
+ * <li>
+ * {@link #YV12}:亮度之后依次是V平面与U平面;
+ * 注意Camera1输出的YV12每行会对齐到16字节,这里使用的是紧凑排列的布局;
+ * </li>
+ * </ul>
+ * {@link ImageFormat}中没有NV12与I420,使用对应的FourCC作为格式值;
+ */
+public final class YuvFormats {
+
+    public static final int NV21 = ImageFormat.NV21;
+
+    public static final int YV12 = ImageFormat.YV12;
+
+    /**
+     * FourCC 'NV12'
+     */
+    public static final int NV12 = 0x3231564E;
+
+    /**
+     * FourCC 'I420'
+     */
+    public static final int I420 = 0x30323449;
+
+    private YuvFormats() {
+    }
+
+    public static boolean isSupported(int format) {
+        return format == NV21
+                || format == NV12
+                || format == I420
+                || format == YV12;
+    }
+
+    /**
+     * 色度是否为交错排列
+     */
+    public static boolean isSemiPlanar(int format) {
+        return format == NV21
+                || format == NV12;
+    }
+
+    /**
+     * 一帧数据的字节数
+     */
+    public static int getFrameSize(int width, int height) {
+        return width * height * 3 / 2;
+    }
+
+    /**
+     * 紧凑排列时U的第一个数据相对于帧起始位置的偏移
+     */
+    public static int getUOffset(int format, int width, int height) {
+        int ySize = width * height;
+        switch (format) {
+            case NV21:
+                return ySize + 1;
+            case NV12:
+            case I420:
+                return ySize;
+            case YV12:
+                return ySize + ySize / 4;
+            default:
+                throw new IllegalArgumentException("unsupported yuv format: " + format);
+        }
+    }
+
+    /**
+     * 紧凑排列时V的第一个数据相对于帧起始位置的偏移
+     */
+    public static int getVOffset(int format, int width, int height) {
+        int ySize = width * height;
+        switch (format) {
+            case NV21:
+            case YV12:
+                return ySize;
+            case NV12:
+                return ySize + 1;
+            case I420:
+                return ySize + ySize / 4;
+            default:
+                throw new IllegalArgumentException("unsupported yuv format: " + format);
+        }
+    }
+
+    /**
+     * 相邻两个U(或者V)数据之间的字节数
+     */
+    public static int getChromaPixelStride(int format) {
+        return isSemiPlanar(format) ? 2 : 1;
+    }
+
+    /**
+     * 紧凑排列时色度每行的字节数
+     */
+    public static int getChromaRowStride(int format, int width) {
+        return isSemiPlanar(format) ? width : width / 2;
+    }
+
+    public static String getName(int format) {
+        switch (format) {
+            case NV21:
+                return "NV21";
+            case NV12:
+                return "NV12";
+            case I420:
+                return "I420";
+            case YV12:
+                return "YV12";
+            default:
+                return "0x" + Integer.toHexString(format);
+        }
+    }
+}
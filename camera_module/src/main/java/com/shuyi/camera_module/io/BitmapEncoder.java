@@ -0,0 +1,36 @@
+package com.shuyi.camera_module.io;
+
+import android.graphics.Bitmap;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * 通过{@link Bitmap#compress(Bitmap.CompressFormat, int, OutputStream)}编码Bitmap;
+ * 配合{@link ImageWriter}使用
+ */
+public class BitmapEncoder implements ImageWriter.Encoder<Bitmap> {
+
+    private final Bitmap.CompressFormat mFormat;
+
+    private final int mQuality;
+
+    /**
+     * @param format  默认为{@link Bitmap.CompressFormat#PNG}
+     * @param quality 压缩质量,取值范围为[0, 100];PNG会忽略该值
+     */
+    public BitmapEncoder(Bitmap.CompressFormat format, int quality) {
+        mFormat = format == null ? Bitmap.CompressFormat.PNG : format;
+        mQuality = quality < 0 ? 0 : (quality > 100 ? 100 : quality);
+    }
+
+    @Override
+    public void encode(Bitmap source, OutputStream out) throws IOException {
+        if (source.isRecycled()) {
+            throw new IOException("the bitmap has been recycled...");
+        }
+        if (!source.compress(mFormat, mQuality, out)) {
+            throw new IOException("failed to compress the bitmap...");
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package com.shuyi.camera_module.io;
+
+import android.util.Log;
+
+import com.shuyi.camera_module.camera.CameraData;
+import com.shuyi.camera_module.camera.IPreviewCallback;
+import com.shuyi.camera_module.camera.SubscriberOptions;
+import com.shuyi.camera_module.common.Utils;
+import com.shuyi.camera_module.frame.Frame;
+import com.shuyi.camera_module.image.YuvFormats;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 将预览帧原样写入环形的录制文件,用于复现现场问题;文件格式见{@link FrameRecording};<br/>
+ * 文件在构造时按照容量一次性分配并写满0,之后整个文件都通过内存映射写入:
+ * 每一帧只有一次从相机缓存到映射内存的拷贝,没有系统调用,也没有编码;超过容量之后覆盖最早的帧;<br/>
+ * 作为{@link IPreviewCallback}通过BaseCamera#subscribe(IPreviewCallback, SubscriberOptions)订阅,
+ * 在该使用者独立的分发线程中写入,不会阻塞相机线程;写入跟不上时由{@link SubscriberOptions}的丢帧策略处理;<br/>
+ * 尺寸或者格式与文件不一致的帧会被丢弃;
+ */
+public class FrameRecorder implements IPreviewCallback, Closeable {
+    private static final String TAG = "FrameRecorder";
+
+    /**
+     * 预分配文件时每次写入的字节数
+     */
+    private static final int ZERO_CHUNK_SIZE = 1024 * 1024;
+
+    private final RandomAccessFile mFile;
+
+    private final MappedByteBuffer mHeader;
+
+    private final MappedByteBuffer[] mRecords;
+
+    private final int mWidth;
+    private final int mHeight;
+    private final int mFormat;
+    private final int mFrameSize;
+    private final int mCapacity;
+
+    private long mFrameNumber;
+
+    private volatile long mDroppedCount;
+
+    private boolean mClosed;
+
+    /**
+     * 创建并预分配录制文件;已经存在的文件会被覆盖
+     *
+     * @param file     录制文件
+     * @param width    帧宽度
+     * @param height   帧高度
+     * @param format   {@link YuvFormats}中的格式
+     * @param capacity 文件中最多保留的帧数
+     * @throws IOException 创建或者映射文件失败,例如存储空间不足
+     */
+    public FrameRecorder(File file, int width, int height, int format, int capacity) throws IOException {
+        if (file == null
+                || width <= 0
+                || height <= 0
+                || !YuvFormats.isSupported(format)
+                || capacity <= 0) {
+            throw new IllegalArgumentException("invalid recording: " + width + "x" + height
+                    + ", format=" + format + ", capacity=" + capacity);
+        }
+        mWidth = width;
+        mHeight = height;
+        mFormat = format;
+        mFrameSize = YuvFormats.getFrameSize(width, height);
+        mCapacity = capacity;
+        int recordSize = FrameRecording.getRecordSize(mFrameSize);
+        long recordsOffset = FrameRecording.getRecordsOffset(capacity);
+        long fileSize = FrameRecording.getFileSize(mFrameSize, capacity);
+
+        mFile = new RandomAccessFile(file, "rw");
+        boolean result = false;
+        try {
+            FileChannel channel = mFile.getChannel();
+            preallocate(channel, fileSize);
+            mHeader = channel.map(FileChannel.MapMode.READ_WRITE, 0, recordsOffset);
+            mHeader.order(ByteOrder.LITTLE_ENDIAN);
+            mRecords = new MappedByteBuffer[capacity];
+            for (int slot = 0; slot < capacity; slot++) {
+                mRecords[slot] = channel.map(FileChannel.MapMode.READ_WRITE,
+                        recordsOffset + (long) slot * recordSize, recordSize);
+                mRecords[slot].order(ByteOrder.LITTLE_ENDIAN);
+            }
+            for (int slot = 0; slot < capacity; slot++) {
+                mHeader.putLong(FrameRecording.HEADER_SIZE + slot * FrameRecording.INDEX_ENTRY_SIZE, -1);
+                mRecords[slot].putLong(FrameRecording.RECORD_OFFSET_FRAME_NUMBER, -1);
+            }
+            mHeader.putInt(FrameRecording.OFFSET_VERSION, FrameRecording.VERSION);
+            mHeader.putInt(FrameRecording.OFFSET_WIDTH, width);
+            mHeader.putInt(FrameRecording.OFFSET_HEIGHT, height);
+            mHeader.putInt(FrameRecording.OFFSET_FORMAT, format);
+            mHeader.putInt(FrameRecording.OFFSET_FRAME_SIZE, mFrameSize);
+            mHeader.putInt(FrameRecording.OFFSET_RECORD_SIZE, recordSize);
+            mHeader.putInt(FrameRecording.OFFSET_CAPACITY, capacity);
+            mHeader.putLong(FrameRecording.OFFSET_COMMITTED_COUNT, 0);
+            // 魔数最后写入,文件头完整之后才会被识别为录制文件
+            mHeader.putInt(FrameRecording.OFFSET_MAGIC, FrameRecording.MAGIC);
+            result = true;
+        } finally {
+            if (!result) {
+                Utils.closeSafe(mFile);
+            }
+        }
+    }
+
+    /**
+     * 写满0,确保磁盘空间在录制之前已经分配;
+     * 稀疏文件在映射写入时如果存储空间不足,进程会直接崩溃(SIGBUS)
+     */
+    private static void preallocate(FileChannel channel, long fileSize) throws IOException {
+        channel.truncate(0);
+        ByteBuffer zeros = ByteBuffer.allocateDirect(ZERO_CHUNK_SIZE);
+        long position = 0;
+        while (position < fileSize) {
+            zeros.clear();
+            zeros.limit((int) Math.min(ZERO_CHUNK_SIZE, fileSize - position));
+            while (zeros.hasRemaining()) {
+                position += channel.write(zeros, position);
+            }
+        }
+    }
+
+    @Override
+    public void onPreviewCallback(CameraData cameraData) {
+        if (cameraData.frame == null) {
+            return;
+        }
+        record(cameraData.frame, cameraData.sequence, cameraData.rotation, cameraData.mirror);
+    }
+
+    /**
+     * 写入一帧;支持与文件格式相同的紧凑帧以及带有行跨度的NV21视图
+     *
+     * @param frame    尺寸与格式需要与文件一致
+     * @param sequence 相机帧序号
+     * @param rotation 该帧顺时针旋转该角度之后与屏幕预览一致
+     * @param mirror   旋转之前是否需要水平镜像
+     * @return 是否写入;尺寸或者格式不一致以及已经关闭时返回false
+     */
+    public synchronized boolean record(Frame frame, long sequence, int rotation, boolean mirror) {
+        if (mClosed
+                || frame.getWidth() != mWidth
+                || frame.getHeight() != mHeight
+                || frame.getFormat() != mFormat
+                || !(frame.isCompact() || mFormat == YuvFormats.NV21)) {
+            if (mDroppedCount++ == 0) {
+                Log.e(TAG, "the frame " + frame + " does not match the recording, dropped...");
+            }
+            return false;
+        }
+        long frameNumber = mFrameNumber;
+        int slot = (int) (frameNumber % mCapacity);
+        int indexEntry = FrameRecording.HEADER_SIZE + slot * FrameRecording.INDEX_ENTRY_SIZE;
+        ByteBuffer record = mRecords[slot];
+        // 先使旧的记录失效,读取者不会把写了一半的数据当作旧的帧
+        mHeader.putLong(indexEntry, -1);
+        record.putLong(FrameRecording.RECORD_OFFSET_FRAME_NUMBER, -1);
+
+        byte[] data = frame.getData();
+        record.position(FrameRecording.RECORD_HEADER_SIZE);
+        if (frame.isCompact()) {
+            record.put(data, 0, mFrameSize);
+        } else {
+            int stride = frame.getStride();
+            int srcPos = frame.getYOffset();
+            for (int row = 0; row < mHeight; row++) {
+                record.put(data, srcPos, mWidth);
+                srcPos += stride;
+            }
+            srcPos = frame.getUVOffset();
+            for (int row = 0; row < mHeight / 2; row++) {
+                record.put(data, srcPos, mWidth);
+                srcPos += stride;
+            }
+        }
+
+        long timestampNs = frame.getTimestampNs();
+        record.putLong(FrameRecording.RECORD_OFFSET_TIMESTAMP, timestampNs);
+        record.putLong(FrameRecording.RECORD_OFFSET_SEQUENCE, sequence);
+        record.putInt(FrameRecording.RECORD_OFFSET_ROTATION, rotation);
+        record.putInt(FrameRecording.RECORD_OFFSET_MIRROR, mirror ? 1 : 0);
+        record.putLong(FrameRecording.RECORD_OFFSET_FRAME_NUMBER, frameNumber);
+        mHeader.putLong(indexEntry + 8, timestampNs);
+        mHeader.putLong(indexEntry, frameNumber);
+        if (frameNumber == 0) {
+            mHeader.putInt(FrameRecording.OFFSET_ROTATION, rotation);
+            mHeader.putInt(FrameRecording.OFFSET_MIRROR, mirror ? 1 : 0);
+        }
+        mFrameNumber = frameNumber + 1;
+        mHeader.putLong(FrameRecording.OFFSET_COMMITTED_COUNT, mFrameNumber);
+        return true;
+    }
+
+    /**
+     * 已经写入的帧数,包括已经被覆盖的帧
+     */
+    public synchronized long getRecordedCount() {
+        return mFrameNumber;
+    }
+
+    /**
+     * 因为尺寸、格式不一致或者已经关闭而被丢弃的帧数
+     */
+    public long getDroppedCount() {
+        return mDroppedCount;
+    }
+
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    /**
+     * 将映射的内存写回文件并关闭;之后的帧都会被丢弃;映射的内存在被回收之后才会释放
+     */
+    @Override
+    public synchronized void close() {
+        if (mClosed) {
+            return;
+        }
+        mClosed = true;
+        try {
+            for (MappedByteBuffer record : mRecords) {
+                record.force();
+            }
+            mHeader.force();
+        } catch (Throwable throwable) {
+            Log.e(TAG, "failed to flush the recording...", throwable);
+        }
+        Utils.closeSafe(mFile);
+    }
+}
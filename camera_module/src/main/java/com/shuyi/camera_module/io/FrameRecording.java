@@ -0,0 +1,365 @@
+package com.shuyi.camera_module.io;
+
+import com.shuyi.camera_module.common.Utils;
+import com.shuyi.camera_module.frame.Frame;
+import com.shuyi.camera_module.image.YuvFormats;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 原始帧录制文件的读取者,按照帧号随机访问;<br/>
+ * 文件由{@link FrameRecorder}写入,所有的数值都是小端序,布局如下:
+ * <ul>
+ * <li>
+ * 文件头,{@link #HEADER_SIZE}字节:魔数、版本、宽高、格式、第一帧的旋转角度与镜像、每帧的字节数、每条记录的字节数、
+ * 环形缓冲的容量以及已经提交的帧数;
+ * </li>
+ * <li>
+ * 索引,每个槽位{@link #INDEX_ENTRY_SIZE}字节:帧号与时间戳;按照时间查找时只需要读取索引,不需要读取帧数据;
+ * </li>
+ * <li>
+ * 固定大小的帧记录,按照页大小对齐:{@link #RECORD_HEADER_SIZE}字节的记录头(帧号、时间戳、相机帧序号、旋转角度与镜像),
+ * 之后是紧凑排列的帧数据;
+ * </li>
+ * </ul>
+ * 帧号为n的帧保存在第n % capacity个槽位中,文件中只保留最近的capacity帧;<br/>
+ * 写入者每次覆盖槽位之前先将索引中的帧号置为-1,写完帧数据与记录头之后再更新索引与已经提交的帧数,
+ * 读取者通过帧号校验记录,不会读到写了一半的帧;录制过程中也可以读取;<br/>
+ * 该类不是线程安全的;
+ */
+public class FrameRecording implements Closeable {
+
+    /**
+     * 'BCRF'
+     */
+    static final int MAGIC = 0x46524342;
+
+    static final int VERSION = 1;
+
+    static final int HEADER_SIZE = 4096;
+
+    static final int RECORD_HEADER_SIZE = 32;
+
+    static final int INDEX_ENTRY_SIZE = 16;
+
+    static final int PAGE_SIZE = 4096;
+
+    static final int OFFSET_MAGIC = 0;
+    static final int OFFSET_VERSION = 4;
+    static final int OFFSET_WIDTH = 8;
+    static final int OFFSET_HEIGHT = 12;
+    static final int OFFSET_FORMAT = 16;
+    static final int OFFSET_ROTATION = 20;
+    static final int OFFSET_MIRROR = 24;
+    static final int OFFSET_FRAME_SIZE = 28;
+    static final int OFFSET_RECORD_SIZE = 32;
+    static final int OFFSET_CAPACITY = 36;
+    static final int OFFSET_COMMITTED_COUNT = 40;
+
+    static final int RECORD_OFFSET_FRAME_NUMBER = 0;
+    static final int RECORD_OFFSET_TIMESTAMP = 8;
+    static final int RECORD_OFFSET_SEQUENCE = 16;
+    static final int RECORD_OFFSET_ROTATION = 24;
+    static final int RECORD_OFFSET_MIRROR = 28;
+
+    private final RandomAccessFile mFile;
+
+    private final FileChannel mChannel;
+
+    /**
+     * 文件头与索引的映射
+     */
+    private final MappedByteBuffer mHeader;
+
+    private final MappedByteBuffer[] mRecords;
+
+    private final int mWidth;
+    private final int mHeight;
+    private final int mFormat;
+    private final int mFrameSize;
+    private final int mRecordSize;
+    private final int mCapacity;
+
+    /**
+     * 最近一次{@link #readFrame(long, byte[])}读取的记录头
+     */
+    private long mLastTimestampNs;
+    private long mLastSequence;
+    private int mLastRotation;
+    private boolean mLastMirror;
+
+    /**
+     * 打开录制文件
+     *
+     * @throws IOException 文件不存在或者不是录制文件
+     */
+    public static FrameRecording open(File file) throws IOException {
+        return new FrameRecording(file);
+    }
+
+    private FrameRecording(File file) throws IOException {
+        mFile = new RandomAccessFile(file, "r");
+        boolean result = false;
+        try {
+            mChannel = mFile.getChannel();
+            if (mChannel.size() < HEADER_SIZE) {
+                throw new IOException("the file is too small to be a recording: " + file);
+            }
+            ByteBuffer header = mChannel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            if (header.getInt(OFFSET_MAGIC) != MAGIC
+                    || header.getInt(OFFSET_VERSION) != VERSION) {
+                throw new IOException("not a recording file or unsupported version: " + file);
+            }
+            mWidth = header.getInt(OFFSET_WIDTH);
+            mHeight = header.getInt(OFFSET_HEIGHT);
+            mFormat = header.getInt(OFFSET_FORMAT);
+            mFrameSize = header.getInt(OFFSET_FRAME_SIZE);
+            mRecordSize = header.getInt(OFFSET_RECORD_SIZE);
+            mCapacity = header.getInt(OFFSET_CAPACITY);
+            if (mCapacity <= 0
+                    || mRecordSize != getRecordSize(mFrameSize)
+                    || mChannel.size() < getFileSize(mFrameSize, mCapacity)) {
+                throw new IOException("the recording file is corrupted: " + file);
+            }
+            mHeader = mChannel.map(FileChannel.MapMode.READ_ONLY, 0, getRecordsOffset(mCapacity));
+            mHeader.order(ByteOrder.LITTLE_ENDIAN);
+            mRecords = new MappedByteBuffer[mCapacity];
+            result = true;
+        } finally {
+            if (!result) {
+                Utils.closeSafe(mFile);
+            }
+        }
+    }
+
+    /**
+     * 每条记录的字节数,按照页大小对齐
+     */
+    static int getRecordSize(int frameSize) {
+        return (RECORD_HEADER_SIZE + frameSize + PAGE_SIZE - 1) / PAGE_SIZE * PAGE_SIZE;
+    }
+
+    /**
+     * 第一条记录在文件中的位置;文件头之后是按照页大小对齐的索引
+     */
+    static long getRecordsOffset(int capacity) {
+        long indexSize = (long) capacity * INDEX_ENTRY_SIZE;
+        return HEADER_SIZE + (indexSize + PAGE_SIZE - 1) / PAGE_SIZE * PAGE_SIZE;
+    }
+
+    static long getFileSize(int frameSize, int capacity) {
+        return getRecordsOffset(capacity) + (long) getRecordSize(frameSize) * capacity;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * {@link YuvFormats}中的格式
+     */
+    public int getFormat() {
+        return mFormat;
+    }
+
+    /**
+     * 每帧紧凑排列的字节数
+     */
+    public int getFrameSize() {
+        return mFrameSize;
+    }
+
+    /**
+     * 第一帧的旋转角度;每一帧的旋转角度通过{@link #getLastRotation()}获取
+     */
+    public int getRotation() {
+        return mHeader.getInt(OFFSET_ROTATION);
+    }
+
+    public boolean isMirror() {
+        return mHeader.getInt(OFFSET_MIRROR) != 0;
+    }
+
+    /**
+     * 文件中最多保留的帧数
+     */
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    /**
+     * 已经提交的帧总数,包括已经被覆盖的帧;录制过程中会增长
+     */
+    public long getCommittedCount() {
+        return mHeader.getLong(OFFSET_COMMITTED_COUNT);
+    }
+
+    /**
+     * 文件中最早一帧的帧号
+     */
+    public long getFirstFrameNumber() {
+        return Math.max(0, getCommittedCount() - mCapacity);
+    }
+
+    /**
+     * 文件中可以读取的帧数
+     */
+    public int getFrameCount() {
+        return (int) (getCommittedCount() - getFirstFrameNumber());
+    }
+
+    /**
+     * 从索引中读取帧的时间戳
+     *
+     * @return 该帧已经被覆盖或者还没有写入时返回-1
+     */
+    public long getTimestampNs(long frameNumber) {
+        if (!isAvailable(frameNumber)) {
+            return -1;
+        }
+        int entry = HEADER_SIZE + getSlot(frameNumber) * INDEX_ENTRY_SIZE;
+        if (mHeader.getLong(entry) != frameNumber) {
+            return -1;
+        }
+        return mHeader.getLong(entry + 8);
+    }
+
+    /**
+     * 通过索引二分查找时间戳不早于timestampNs的第一帧
+     *
+     * @return 帧号;所有帧都早于timestampNs时返回-1
+     */
+    public long findFrame(long timestampNs) {
+        long low = getFirstFrameNumber();
+        long high = getCommittedCount() - 1;
+        long found = -1;
+        while (low <= high) {
+            long middle = (low + high) >>> 1;
+            long middleTimestampNs = getTimestampNs(middle);
+            if (middleTimestampNs < 0) {
+                // 正在被覆盖的最早一帧,从下一帧开始查找
+                low = middle + 1;
+            } else if (middleTimestampNs >= timestampNs) {
+                found = middle;
+                high = middle - 1;
+            } else {
+                low = middle + 1;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * 读取一帧紧凑排列的数据;记录头可以通过{@link #getLastTimestampNs()}等方法获取
+     *
+     * @param dst 长度不能小于{@link #getFrameSize()}
+     * @return 该帧已经被覆盖或者还没有写入时返回false
+     * @throws IOException 映射文件失败
+     */
+    public boolean readFrame(long frameNumber, byte[] dst) throws IOException {
+        if (dst == null
+                || dst.length < mFrameSize
+                || !isAvailable(frameNumber)) {
+            return false;
+        }
+        ByteBuffer record = getRecord(getSlot(frameNumber));
+        if (record.getLong(RECORD_OFFSET_FRAME_NUMBER) != frameNumber) {
+            return false;
+        }
+        long timestampNs = record.getLong(RECORD_OFFSET_TIMESTAMP);
+        long sequence = record.getLong(RECORD_OFFSET_SEQUENCE);
+        int rotation = record.getInt(RECORD_OFFSET_ROTATION);
+        boolean mirror = record.getInt(RECORD_OFFSET_MIRROR) != 0;
+        ByteBuffer payload = record.duplicate();
+        payload.position(RECORD_HEADER_SIZE);
+        payload.get(dst, 0, mFrameSize);
+        // 读取期间该槽位被覆盖时帧号会改变
+        if (record.getLong(RECORD_OFFSET_FRAME_NUMBER) != frameNumber
+                || !isAvailable(frameNumber)) {
+            return false;
+        }
+        mLastTimestampNs = timestampNs;
+        mLastSequence = sequence;
+        mLastRotation = rotation;
+        mLastMirror = mirror;
+        return true;
+    }
+
+    /**
+     * 读取一帧到新的帧句柄
+     *
+     * @return 该帧已经被覆盖或者还没有写入时为空
+     * @throws IOException 映射文件失败
+     */
+    public Frame readFrame(long frameNumber) throws IOException {
+        byte[] data = new byte[mFrameSize];
+        if (!readFrame(frameNumber, data)) {
+            return null;
+        }
+        return new Frame(data, mLastSequence, mLastTimestampNs, mWidth, mHeight, mWidth, mFormat, null);
+    }
+
+    /**
+     * 最近一次读取的帧的时间戳
+     */
+    public long getLastTimestampNs() {
+        return mLastTimestampNs;
+    }
+
+    /**
+     * 最近一次读取的帧的相机帧序号
+     */
+    public long getLastSequence() {
+        return mLastSequence;
+    }
+
+    public int getLastRotation() {
+        return mLastRotation;
+    }
+
+    public boolean isLastMirror() {
+        return mLastMirror;
+    }
+
+    private boolean isAvailable(long frameNumber) {
+        return frameNumber >= getFirstFrameNumber()
+                && frameNumber < getCommittedCount();
+    }
+
+    private int getSlot(long frameNumber) {
+        return (int) (frameNumber % mCapacity);
+    }
+
+    /**
+     * 按需映射槽位,只映射访问过的记录
+     */
+    private ByteBuffer getRecord(int slot) throws IOException {
+        MappedByteBuffer record = mRecords[slot];
+        if (record == null) {
+            record = mChannel.map(FileChannel.MapMode.READ_ONLY,
+                    getRecordsOffset(mCapacity) + (long) slot * mRecordSize, mRecordSize);
+            record.order(ByteOrder.LITTLE_ENDIAN);
+            mRecords[slot] = record;
+        }
+        return record;
+    }
+
+    /**
+     * 关闭文件;映射的内存在被回收之后才会释放
+     */
+    @Override
+    public void close() {
+        Utils.closeSafe(mFile);
+    }
+}
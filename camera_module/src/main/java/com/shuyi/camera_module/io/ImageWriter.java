@@ -0,0 +1,426 @@
+package com.shuyi.camera_module.io;
+
+import android.util.Log;
+
+import com.shuyi.camera_module.common.Callback;
+import com.shuyi.camera_module.common.Result;
+import com.shuyi.camera_module.common.ResultCode;
+import com.shuyi.camera_module.common.Utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 异步的图片编码与写入管线;<br/>
+ * 提交的图片进入有界队列,由少量的编码线程编码到线程私有的内存缓存中,
+ * 再通过{@link FileChannel}一次写入同目录下的临时文件,按照{@link FsyncPolicy}落盘之后重命名为目标文件;
+ * 读取者要么看到旧的文件,要么看到完整的新文件;<br/>
+ * 队列满时新的图片会被直接拒绝,提交的线程不会因为编码或者文件IO而阻塞;<br/>
+ * 完成之后在编码线程中通过{@link Callback}回调{@link WriteInfo};
+ * 该类是线程安全的,多个线程可以同时提交图片;
+ */
+public class ImageWriter {
+    private static final String TAG = "ImageWriter";
+
+    public static final int DEFAULT_ENCODER_THREADS = 2;
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 4;
+
+    private static final int INITIAL_BUFFER_SIZE = 256 * 1024;
+
+    private static final AtomicInteger sTempFileIndex = new AtomicInteger();
+
+    private static volatile ImageWriter sDefault;
+
+    /**
+     * 写入文件之后的落盘策略
+     */
+    public enum FsyncPolicy {
+        /**
+         * 不主动落盘,由系统决定写回的时机;掉电时可能丢失最近写入的图片
+         */
+        NONE,
+        /**
+         * 重命名之前将文件内容落盘({@link FileChannel#force(boolean)}参数为false);
+         * 掉电之后不会出现只有部分内容的目标文件
+         */
+        DATA,
+        /**
+         * 重命名之前将文件内容与元数据一起落盘;开销最大
+         */
+        ALL
+    }
+
+    /**
+     * 图片编码器;将source编码之后写入out,不需要关闭out;<br/>
+     * 会在多个编码线程中同时调用,实现需要是线程安全的
+     *
+     * @param <T> 图片的类型
+     */
+    public interface Encoder<T> {
+        void encode(T source, OutputStream out) throws IOException;
+    }
+
+    /**
+     * 管线的配置
+     */
+    public static class Options {
+        int encoderThreads = DEFAULT_ENCODER_THREADS;
+        int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+        FsyncPolicy fsyncPolicy = FsyncPolicy.DATA;
+
+        /**
+         * 设置编码线程的数量;默认为{@link #DEFAULT_ENCODER_THREADS}
+         *
+         * @return
+         */
+        public Options setEncoderThreads(int encoderThreads) {
+            this.encoderThreads = encoderThreads <= 0 ? DEFAULT_ENCODER_THREADS : encoderThreads;
+            return this;
+        }
+
+        /**
+         * 设置最多等待编码的图片数量,不包括正在编码的图片;默认为{@link #DEFAULT_QUEUE_CAPACITY}
+         *
+         * @return
+         */
+        public Options setQueueCapacity(int queueCapacity) {
+            this.queueCapacity = queueCapacity <= 0 ? DEFAULT_QUEUE_CAPACITY : queueCapacity;
+            return this;
+        }
+
+        /**
+         * 设置落盘策略;默认为{@link FsyncPolicy#DATA}
+         *
+         * @return
+         */
+        public Options setFsyncPolicy(FsyncPolicy fsyncPolicy) {
+            if (fsyncPolicy != null) {
+                this.fsyncPolicy = fsyncPolicy;
+            }
+            return this;
+        }
+    }
+
+    /**
+     * 一次写入的结果与耗时;所有的时间都来源于{@link System#nanoTime()},单位纳秒
+     */
+    public static class WriteInfo {
+        /**
+         * 目标文件
+         */
+        public final File file;
+
+        /**
+         * 写入的字节数;失败时为0
+         */
+        public final long bytes;
+
+        /**
+         * 从提交到开始编码的排队时间
+         */
+        public final long queueLatencyNs;
+
+        /**
+         * 编码的耗时
+         */
+        public final long encodeNs;
+
+        /**
+         * 写入、落盘与重命名的耗时
+         */
+        public final long writeNs;
+
+        WriteInfo(File file, long bytes, long queueLatencyNs, long encodeNs, long writeNs) {
+            this.file = file;
+            this.bytes = bytes;
+            this.queueLatencyNs = queueLatencyNs;
+            this.encodeNs = encodeNs;
+            this.writeNs = writeNs;
+        }
+
+        @Override
+        public String toString() {
+            return "WriteInfo[" + file + ", " + bytes + " bytes, queue " + queueLatencyNs / 1000
+                    + "us, encode " + encodeNs / 1000 + "us, write " + writeNs / 1000 + "us]";
+        }
+    }
+
+    /**
+     * 可以直接访问内部数组的输出流,避免编码结果的再次拷贝;<br/>
+     * 可以通过{@link #reset()}重复使用,配合{@link #writeAtomically(ByteBuffer, File, FsyncPolicy)}写入文件
+     */
+    public static class EncodeBuffer extends ByteArrayOutputStream {
+        public EncodeBuffer() {
+            super(INITIAL_BUFFER_SIZE);
+        }
+
+        /**
+         * 编码结果的视图,不拷贝;下一次写入或者{@link #reset()}之前有效
+         */
+        public ByteBuffer asByteBuffer() {
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+    }
+
+    private final FsyncPolicy mFsyncPolicy;
+
+    private final ThreadPoolExecutor mExecutor;
+
+    /**
+     * 每个编码线程复用的编码缓存
+     */
+    private final ThreadLocal<EncodeBuffer> mBuffers = new ThreadLocal<EncodeBuffer>() {
+        @Override
+        protected EncodeBuffer initialValue() {
+            return new EncodeBuffer();
+        }
+    };
+
+    private final AtomicLong mSubmittedCount = new AtomicLong();
+    private final AtomicLong mRejectedCount = new AtomicLong();
+    private final AtomicLong mWrittenCount = new AtomicLong();
+    private final AtomicLong mFailedCount = new AtomicLong();
+    private final AtomicLong mWrittenBytes = new AtomicLong();
+    private final AtomicLong mTotalQueueLatencyNs = new AtomicLong();
+    private final AtomicLong mMaxQueueLatencyNs = new AtomicLong();
+
+    /**
+     * 所有模块共享的写入管线,使用默认的配置
+     */
+    public static ImageWriter getDefault() {
+        if (sDefault == null) {
+            synchronized (ImageWriter.class) {
+                if (sDefault == null) {
+                    sDefault = new ImageWriter(new Options());
+                }
+            }
+        }
+        return sDefault;
+    }
+
+    public ImageWriter(Options options) {
+        if (options == null) {
+            options = new Options();
+        }
+        mFsyncPolicy = options.fsyncPolicy;
+        final AtomicInteger threadIndex = new AtomicInteger();
+        mExecutor = new ThreadPoolExecutor(options.encoderThreads, options.encoderThreads,
+                30, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(options.queueCapacity), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "camera_image_writer_" + threadIndex.incrementAndGet());
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * 提交一张图片;该方法不会阻塞;<br/>
+     * 在回调之前调用者不能修改或者回收source;
+     * 被拒绝时会在调用线程中回调{@link ResultCode#IMAGE_WRITER_REJECTED}
+     *
+     * @param source   需要编码的图片
+     * @param encoder  图片编码器
+     * @param file     目标文件;已经存在时会被替换,所在的目录不存在时会被创建
+     * @param callback 完成之后在编码线程中回调,可以为空
+     * @return 队列已满或者已经关闭时返回false
+     */
+    public <T> boolean submit(final T source, final Encoder<? super T> encoder, final File file,
+                              final Callback<WriteInfo> callback) {
+        if (source == null
+                || encoder == null
+                || file == null) {
+            Result.callbackResult(false, ResultCode.FAILURE_INTERNAL, callback);
+            return false;
+        }
+        final long submitTimeNs = System.nanoTime();
+        try {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    process(source, encoder, file, submitTimeNs, callback);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            mRejectedCount.incrementAndGet();
+            Result.callbackResult(false, ResultCode.IMAGE_WRITER_REJECTED,
+                    new WriteInfo(file, 0, 0, 0, 0), callback);
+            return false;
+        }
+        mSubmittedCount.incrementAndGet();
+        return true;
+    }
+
+    private <T> void process(T source, Encoder<? super T> encoder, File file, long submitTimeNs,
+                             Callback<WriteInfo> callback) {
+        long startTimeNs = System.nanoTime();
+        long queueLatencyNs = startTimeNs - submitTimeNs;
+        mTotalQueueLatencyNs.addAndGet(queueLatencyNs);
+        long max;
+        while ((max = mMaxQueueLatencyNs.get()) < queueLatencyNs
+                && !mMaxQueueLatencyNs.compareAndSet(max, queueLatencyNs)) {
+            // 其他线程更新了最大值,重新比较
+        }
+
+        EncodeBuffer buffer = mBuffers.get();
+        buffer.reset();
+        try {
+            encoder.encode(source, buffer);
+        } catch (Throwable throwable) {
+            Log.e(TAG, String.format("failed to encode image for file[%s]", file.getAbsolutePath()), throwable);
+            mFailedCount.incrementAndGet();
+            Result.callbackResult(false, ResultCode.IMAGE_ENCODE_ERROR,
+                    new WriteInfo(file, 0, queueLatencyNs, System.nanoTime() - startTimeNs, 0), callback);
+            return;
+        }
+        long encodeDoneTimeNs = System.nanoTime();
+        long bytes = buffer.size();
+        try {
+            writeAtomically(buffer.asByteBuffer(), file, mFsyncPolicy);
+        } catch (Throwable throwable) {
+            Log.e(TAG, String.format("failed to write image to file[%s]", file.getAbsolutePath()), throwable);
+            mFailedCount.incrementAndGet();
+            Result.callbackResult(false, ResultCode.IMAGE_WRITE_ERROR,
+                    new WriteInfo(file, 0, queueLatencyNs, encodeDoneTimeNs - startTimeNs,
+                            System.nanoTime() - encodeDoneTimeNs), callback);
+            return;
+        }
+        mWrittenCount.incrementAndGet();
+        mWrittenBytes.addAndGet(bytes);
+        Result.callbackResult(true, ResultCode.SUCCESS,
+                new WriteInfo(file, bytes, queueLatencyNs, encodeDoneTimeNs - startTimeNs,
+                        System.nanoTime() - encodeDoneTimeNs), callback);
+    }
+
+    /**
+     * 将data写入同目录下的临时文件,按照fsyncPolicy落盘之后重命名为file;
+     * 失败时删除临时文件,不影响已经存在的file;<br/>
+     * minSdkVersion为19,无法使用Files.move(API 26),这里使用{@link File#renameTo(File)},
+     * 同一个文件系统中的重命名是原子的
+     *
+     * @throws IOException 写入或者重命名失败
+     */
+    public static void writeAtomically(ByteBuffer data, File file, FsyncPolicy fsyncPolicy) throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null
+                && !parent.isDirectory()
+                && !parent.mkdirs()) {
+            throw new IOException("failed to create the directory " + parent.getAbsolutePath() + "...");
+        }
+        File tmpFile = new File(parent, "." + file.getName() + "." + sTempFileIndex.incrementAndGet() + ".tmp");
+        FileOutputStream outputStream = null;
+        boolean result = false;
+        try {
+            outputStream = new FileOutputStream(tmpFile);
+            FileChannel channel = outputStream.getChannel();
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
+            if (fsyncPolicy == FsyncPolicy.DATA) {
+                channel.force(false);
+            } else if (fsyncPolicy == FsyncPolicy.ALL) {
+                channel.force(true);
+            }
+            outputStream.close();
+            outputStream = null;
+            if (!tmpFile.renameTo(file)) {
+                throw new IOException("failed to rename " + tmpFile.getAbsolutePath() + " to " + file.getAbsolutePath() + "...");
+            }
+            result = true;
+        } finally {
+            Utils.closeSafe(outputStream);
+            if (!result) {
+                tmpFile.delete();
+            }
+        }
+    }
+
+    /**
+     * 不再接受新的图片;已经提交的图片会继续写入
+     */
+    public void shutdown() {
+        mExecutor.shutdown();
+    }
+
+    /**
+     * 等待已经提交的图片全部完成;需要先调用{@link #shutdown()}
+     *
+     * @return 超时返回false
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return mExecutor.awaitTermination(timeout, unit);
+    }
+
+    /**
+     * 正在编码与等待编码的图片数量
+     */
+    public int getPendingCount() {
+        return mExecutor.getQueue().size() + mExecutor.getActiveCount();
+    }
+
+    /**
+     * 被接受的图片总数
+     */
+    public long getSubmittedCount() {
+        return mSubmittedCount.get();
+    }
+
+    /**
+     * 因为队列已满或者已经关闭而被拒绝的图片数量
+     */
+    public long getRejectedCount() {
+        return mRejectedCount.get();
+    }
+
+    /**
+     * 成功写入文件的图片数量
+     */
+    public long getWrittenCount() {
+        return mWrittenCount.get();
+    }
+
+    /**
+     * 编码或者写入失败的图片数量
+     */
+    public long getFailedCount() {
+        return mFailedCount.get();
+    }
+
+    /**
+     * 成功写入的总字节数
+     */
+    public long getWrittenBytes() {
+        return mWrittenBytes.get();
+    }
+
+    /**
+     * 已经开始编码的图片的平均排队时间,单位纳秒
+     */
+    public long getAverageQueueLatencyNs() {
+        long started = mWrittenCount.get() + mFailedCount.get();
+        return started <= 0 ? 0 : mTotalQueueLatencyNs.get() / started;
+    }
+
+    /**
+     * 最大的排队时间,单位纳秒
+     */
+    public long getMaxQueueLatencyNs() {
+        return mMaxQueueLatencyNs.get();
+    }
+}
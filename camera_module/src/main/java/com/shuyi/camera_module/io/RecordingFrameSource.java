@@ -0,0 +1,231 @@
+package com.shuyi.camera_module.io;
+
+import android.util.Log;
+
+import com.shuyi.camera_module.camera.FramePipeline;
+import com.shuyi.camera_module.camera.FrameSource;
+import com.shuyi.camera_module.image.YuvFormats;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 回放{@link FrameRecorder}录制的NV21文件,作为{@link FramePipeline}的帧来源;<br/>
+ * 回放的帧经过与相机预览完全相同的裁剪、格式转换与分发,不需要相机就可以在单元测试中复现现场问题,或者测量处理流程的性能;<br/>
+ * 两种速度:
+ * <ul>
+ * <li>按照录制时的时间间隔回放;处理跟不上、没有空闲缓存时丢弃该帧,与相机的行为相同;</li>
+ * <li>以最快的速度回放;等待空闲的缓存,不丢帧,用于测量吞吐量;</li>
+ * </ul>
+ * 回放的帧使用到达处理流程时的时间戳与序号,录制时的时间戳只用于控制回放的间隔;
+ */
+public class RecordingFrameSource implements FrameSource {
+    private static final String TAG = "RecordingFrameSource";
+
+    /**
+     * 等待时每次检查是否停止的间隔;不中断回放线程,中断会关闭正在映射文件的FileChannel
+     */
+    private static final long WAIT_SLICE_NS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final FrameRecording mRecording;
+
+    private final LinkedBlockingQueue<byte[]> mFreeBuffers = new LinkedBlockingQueue<>();
+
+    /**
+     * 本次运行结束时计数;每次开始时重新创建
+     */
+    private volatile CountDownLatch mCompletion = new CountDownLatch(1);
+
+    private volatile boolean mRealtime = true;
+
+    private volatile int mLoopCount = 1;
+
+    private volatile long mDeliveredCount;
+
+    private volatile long mDroppedCount;
+
+    private Thread mThread;
+
+    private volatile boolean mStopped;
+
+    /**
+     * @param recording 格式为NV21的录制文件;回放结束之后不会关闭
+     */
+    public RecordingFrameSource(FrameRecording recording) {
+        if (recording == null
+                || recording.getFormat() != YuvFormats.NV21) {
+            throw new IllegalArgumentException("only the NV21 recording can be replayed");
+        }
+        mRecording = recording;
+    }
+
+    /**
+     * 是否按照录制时的时间间隔回放;默认为true;为false时以最快的速度回放
+     */
+    public RecordingFrameSource setRealtime(boolean realtime) {
+        mRealtime = realtime;
+        return this;
+    }
+
+    /**
+     * 回放的次数;默认为1
+     */
+    public RecordingFrameSource setLoopCount(int loopCount) {
+        if (loopCount > 0) {
+            mLoopCount = loopCount;
+        }
+        return this;
+    }
+
+    @Override
+    public int getWidth() {
+        return mRecording.getWidth();
+    }
+
+    @Override
+    public int getHeight() {
+        return mRecording.getHeight();
+    }
+
+    @Override
+    public int getRotation() {
+        return mRecording.getRotation();
+    }
+
+    @Override
+    public boolean isMirror() {
+        return mRecording.isMirror();
+    }
+
+    @Override
+    public void addBuffer(byte[] buffer) {
+        if (buffer != null
+                && buffer.length >= mRecording.getFrameSize()) {
+            mFreeBuffers.offer(buffer);
+        }
+    }
+
+    @Override
+    public synchronized void start(final FramePipeline pipeline) {
+        if (mThread != null) {
+            return;
+        }
+        // 停止之后可以重新开始;统计数据只记录本次运行
+        mStopped = false;
+        mDeliveredCount = 0;
+        mDroppedCount = 0;
+        final CountDownLatch completion = new CountDownLatch(1);
+        mCompletion = completion;
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    replay(pipeline);
+                } catch (Throwable throwable) {
+                    Log.e(TAG, "failed to replay the recording...", throwable);
+                } finally {
+                    completion.countDown();
+                }
+            }
+        }, "camera_replay");
+        mThread.start();
+    }
+
+    private void replay(FramePipeline pipeline) throws Exception {
+        long firstFrameNumber = mRecording.getFirstFrameNumber();
+        long endFrameNumber = mRecording.getCommittedCount();
+        for (int loop = 0; loop < mLoopCount && !mStopped; loop++) {
+            long startNs = System.nanoTime();
+            long firstTimestampNs = -1;
+            for (long frameNumber = firstFrameNumber; frameNumber < endFrameNumber && !mStopped; frameNumber++) {
+                boolean realtime = mRealtime;
+                if (realtime) {
+                    long timestampNs = mRecording.getTimestampNs(frameNumber);
+                    if (timestampNs < 0) {
+                        continue;
+                    }
+                    if (firstTimestampNs < 0) {
+                        firstTimestampNs = timestampNs;
+                    }
+                    long delayNs;
+                    while ((delayNs = startNs + (timestampNs - firstTimestampNs) - System.nanoTime()) > 0
+                            && !mStopped) {
+                        TimeUnit.NANOSECONDS.sleep(Math.min(delayNs, WAIT_SLICE_NS));
+                    }
+                }
+                byte[] buffer = realtime ? mFreeBuffers.poll() : takeBuffer();
+                if (mStopped) {
+                    break;
+                }
+                if (buffer == null) {
+                    // 处理流程还持有所有的缓存,与相机一样丢弃该帧
+                    mDroppedCount++;
+                    continue;
+                }
+                if (!mRecording.readFrame(frameNumber, buffer)) {
+                    mFreeBuffers.offer(buffer);
+                    continue;
+                }
+                pipeline.onFrame(buffer);
+                mDeliveredCount++;
+            }
+        }
+    }
+
+    /**
+     * 等待空闲的缓存;停止时返回空
+     */
+    private byte[] takeBuffer() throws InterruptedException {
+        byte[] buffer = null;
+        while (buffer == null
+                && !mStopped) {
+            buffer = mFreeBuffers.poll(WAIT_SLICE_NS, TimeUnit.NANOSECONDS);
+        }
+        return buffer;
+    }
+
+    /**
+     * 等待回放结束
+     *
+     * @return 超时之前回放结束时返回true
+     */
+    public boolean awaitCompletion(long timeout, TimeUnit unit) throws InterruptedException {
+        // 等待的是最近一次开始的运行,需要在开始之后调用
+        return mCompletion.await(timeout, unit);
+    }
+
+    /**
+     * 已经交给处理流程的帧数
+     */
+    public long getDeliveredCount() {
+        return mDeliveredCount;
+    }
+
+    /**
+     * 按照录制时间回放时,因为没有空闲缓存而丢弃的帧数
+     */
+    public long getDroppedCount() {
+        return mDroppedCount;
+    }
+
+    /**
+     * 停止输出帧并等待线程结束;之后可以再次调用{@link #start(FramePipeline)}重新开始;<br/>
+     * 持有的空闲缓存会被清空,重新开始时由{@link FramePipeline}再次提供
+     */
+    @Override
+    public synchronized void stop() {
+        Thread thread = mThread;
+        mStopped = true;
+        mThread = null;
+        if (thread != null
+                && thread != Thread.currentThread()) {
+            try {
+                thread.join();
+            } catch (InterruptedException exception) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        mFreeBuffers.clear();
+    }
+}
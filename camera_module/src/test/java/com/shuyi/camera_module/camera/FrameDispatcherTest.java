@@ -0,0 +1,379 @@
+package com.shuyi.camera_module.camera;
+
+import com.shuyi.camera_module.frame.Frame;
+import com.shuyi.camera_module.image.NV21Rotator;
+import com.shuyi.camera_module.image.NV21Scaler;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class FrameDispatcherTest {
+
+    /**
+     * 第一次回调会阻塞,直到{@link #unblock()}被调用
+     */
+    private static class BlockingCallback implements IPreviewCallback {
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch gate = new CountDownLatch(1);
+        final List<Long> sequences = new ArrayList<>();
+
+        @Override
+        public void onPreviewCallback(CameraData cameraData) {
+            entered.countDown();
+            try {
+                gate.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                // ignore
+            }
+            synchronized (sequences) {
+                sequences.add(cameraData.frame.getSequence());
+            }
+        }
+
+        void unblock() {
+            gate.countDown();
+        }
+    }
+
+    private static CameraData newCameraData(long sequence, final AtomicInteger recycled) {
+        return newCameraData(sequence, 0, recycled);
+    }
+
+    private static CameraData newCameraData(long sequence, long timestampNs, final AtomicInteger recycled) {
+        CameraData cameraData = new CameraData();
+        cameraData.frame = new Frame(new byte[6], sequence, timestampNs, 2, 2, 2, 17, new Frame.Recycler() {
+            @Override
+            public void recycle(byte[] buffer) {
+                recycled.incrementAndGet();
+            }
+        });
+        cameraData.frameBuffer = cameraData.frame.getData();
+        cameraData.sequence = sequence;
+        cameraData.arrivalTimeNs = timestampNs;
+        cameraData.cropDoneTimeNs = timestampNs;
+        return cameraData;
+    }
+
+    private static void dispatchAndRelease(FrameDispatcher dispatcher, CameraData cameraData) {
+        dispatcher.dispatch(cameraData);
+        cameraData.frame.release();
+    }
+
+    @Test
+    public void dropOldest_keepsLatestFrame() throws InterruptedException {
+        BlockingCallback callback = new BlockingCallback();
+        AtomicInteger recycled = new AtomicInteger();
+        FrameDispatcher dispatcher = new FrameDispatcher(callback, new SubscriberOptions()
+                .setQueueCapacity(1)
+                .setOverflowPolicy(FrameDispatcher.OverflowPolicy.DROP_OLDEST)
+                .setMaxBlockMs(0));
+        dispatchAndRelease(dispatcher, newCameraData(0, recycled));
+        assertTrue(callback.entered.await(5, TimeUnit.SECONDS));
+        for (int i = 1; i <= 5; i++) {
+            dispatchAndRelease(dispatcher, newCameraData(i, recycled));
+        }
+        assertEquals(4, dispatcher.getDroppedCount());
+        assertEquals(1, dispatcher.getQueueDepth());
+
+        callback.unblock();
+        waitForDelivered(dispatcher, 2);
+        assertEquals(Long.valueOf(5), callback.sequences.get(1));
+        assertEquals(6, recycled.get());
+        dispatcher.shutdown();
+    }
+
+    @Test
+    public void dropNewest_keepsQueuedFrame() throws InterruptedException {
+        BlockingCallback callback = new BlockingCallback();
+        AtomicInteger recycled = new AtomicInteger();
+        FrameDispatcher dispatcher = new FrameDispatcher(callback, new SubscriberOptions()
+                .setQueueCapacity(1)
+                .setOverflowPolicy(FrameDispatcher.OverflowPolicy.DROP_NEWEST)
+                .setMaxBlockMs(0));
+        dispatchAndRelease(dispatcher, newCameraData(0, recycled));
+        assertTrue(callback.entered.await(5, TimeUnit.SECONDS));
+        dispatchAndRelease(dispatcher, newCameraData(1, recycled));
+        dispatchAndRelease(dispatcher, newCameraData(2, recycled));
+
+        callback.unblock();
+        waitForDelivered(dispatcher, 2);
+        assertEquals(Long.valueOf(1), callback.sequences.get(1));
+        assertEquals(1, dispatcher.getDroppedCount());
+        dispatcher.shutdown();
+    }
+
+    @Test
+    public void block_waitsAtMostMaxBlockTime() throws InterruptedException {
+        BlockingCallback callback = new BlockingCallback();
+        AtomicInteger recycled = new AtomicInteger();
+        FrameDispatcher dispatcher = new FrameDispatcher(callback, new SubscriberOptions()
+                .setQueueCapacity(1)
+                .setOverflowPolicy(FrameDispatcher.OverflowPolicy.BLOCK)
+                .setMaxBlockMs(20));
+        dispatchAndRelease(dispatcher, newCameraData(0, recycled));
+        assertTrue(callback.entered.await(5, TimeUnit.SECONDS));
+        dispatchAndRelease(dispatcher, newCameraData(1, recycled));
+
+        long startNs = System.nanoTime();
+        assertFalse(dispatcher.dispatch(newCameraData(2, recycled)));
+        long elapsedMs = (System.nanoTime() - startNs) / 1000000L;
+        assertTrue("blocked for " + elapsedMs + "ms", elapsedMs >= 15 && elapsedMs < 1000);
+        assertEquals(1, dispatcher.getBlockedCount());
+        assertEquals(1, dispatcher.getDroppedCount());
+
+        callback.unblock();
+        dispatcher.shutdown();
+    }
+
+    @Test
+    public void setAcceptingFalse_wakesBlockedProducer() throws InterruptedException {
+        BlockingCallback callback = new BlockingCallback();
+        AtomicInteger recycled = new AtomicInteger();
+        final FrameDispatcher dispatcher = new FrameDispatcher(callback, new SubscriberOptions()
+                .setQueueCapacity(1)
+                .setOverflowPolicy(FrameDispatcher.OverflowPolicy.BLOCK)
+                .setMaxBlockMs(10000));
+        dispatchAndRelease(dispatcher, newCameraData(0, recycled));
+        assertTrue(callback.entered.await(5, TimeUnit.SECONDS));
+        dispatchAndRelease(dispatcher, newCameraData(1, recycled));
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    // ignore
+                }
+                dispatcher.setAccepting(false);
+            }
+        }).start();
+        long startNs = System.nanoTime();
+        assertFalse(dispatcher.dispatch(newCameraData(2, recycled)));
+        assertTrue((System.nanoTime() - startNs) / 1000000L < 5000);
+
+        dispatcher.shutdown();
+        callback.unblock();
+    }
+
+    @Test
+    public void targetFps_decimatesEvenly() throws InterruptedException {
+        final AtomicInteger delivered = new AtomicInteger();
+        AtomicInteger recycled = new AtomicInteger();
+        FrameDispatcher dispatcher = new FrameDispatcher(new IPreviewCallback() {
+            @Override
+            public void onPreviewCallback(CameraData cameraData) {
+                delivered.incrementAndGet();
+            }
+        }, new SubscriberOptions().setTargetFps(10).setQueueCapacity(64));
+
+        // 30fps的相机,带有少量抖动
+        long frameIntervalNs = 1000000000L / 30;
+        for (int i = 0; i < 90; i++) {
+            long jitterNs = (i % 2 == 0 ? 1 : -1) * 2000000L;
+            dispatchAndRelease(dispatcher, newCameraData(i, i * frameIntervalNs + jitterNs, recycled));
+        }
+        waitForDelivered(dispatcher, dispatcher.getDispatchedCount());
+        assertEquals(30, dispatcher.getDispatchedCount());
+        assertEquals(60, dispatcher.getDecimatedCount());
+        assertEquals(90, recycled.get());
+        dispatcher.shutdown();
+    }
+
+    @Test
+    public void latencyTracker_doesNotCountDecimatedFramesAsDrops() throws InterruptedException {
+        AtomicInteger recycled = new AtomicInteger();
+        FrameDispatcher dispatcher = new FrameDispatcher(new IPreviewCallback() {
+            @Override
+            public void onPreviewCallback(CameraData cameraData) {
+            }
+        }, new SubscriberOptions().setTargetFps(10).setQueueCapacity(64));
+
+        long frameIntervalNs = 1000000000L / 30;
+        for (int i = 0; i < 90; i++) {
+            dispatchAndRelease(dispatcher, newCameraData(i, i * frameIntervalNs, recycled));
+        }
+        waitForDelivered(dispatcher, dispatcher.getDispatchedCount());
+        LatencyTracker tracker = dispatcher.getLatencyTracker();
+        assertEquals(60, dispatcher.getDecimatedCount());
+        assertEquals(30, tracker.getFrameCount());
+        // 被期望帧率跳过的三分之二的帧不是丢帧
+        assertEquals(0, tracker.getDroppedCount());
+        dispatcher.shutdown();
+    }
+
+    @Test
+    public void subscribers_shareOneFrame() throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(2);
+        final byte[][] seen = new byte[2][];
+        final AtomicInteger index = new AtomicInteger();
+        IPreviewCallback callback = new IPreviewCallback() {
+            @Override
+            public void onPreviewCallback(CameraData cameraData) {
+                seen[index.getAndIncrement()] = cameraData.frameBuffer;
+                latch.countDown();
+            }
+        };
+        AtomicInteger recycled = new AtomicInteger();
+        FrameDispatcher first = new FrameDispatcher(callback, new SubscriberOptions());
+        FrameDispatcher second = new FrameDispatcher(callback, new SubscriberOptions());
+        CameraData cameraData = newCameraData(0, recycled);
+        first.dispatch(cameraData);
+        second.dispatch(cameraData);
+        cameraData.frame.release();
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertSame(seen[0], seen[1]);
+        waitForDelivered(first, 1);
+        waitForDelivered(second, 1);
+        assertEquals(1, recycled.get());
+        first.shutdown();
+        second.shutdown();
+    }
+
+    private static void waitForDelivered(FrameDispatcher dispatcher, long count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (dispatcher.getDeliveredCount() < count
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(count, dispatcher.getDeliveredCount());
+    }
+
+    @Test
+    public void latencyTracker_recordsDeliveredFramesAndGaps() throws InterruptedException {
+        BlockingCallback callback = new BlockingCallback();
+        AtomicInteger recycled = new AtomicInteger();
+        FrameDispatcher dispatcher = new FrameDispatcher(callback, new SubscriberOptions()
+                .setQueueCapacity(1)
+                .setOverflowPolicy(FrameDispatcher.OverflowPolicy.DROP_OLDEST));
+        long now = System.nanoTime();
+        dispatchAndRelease(dispatcher, newCameraData(0, now, recycled));
+        assertTrue(callback.entered.await(5, TimeUnit.SECONDS));
+        for (int i = 1; i <= 5; i++) {
+            dispatchAndRelease(dispatcher, newCameraData(i, now, recycled));
+        }
+        callback.unblock();
+        waitForDelivered(dispatcher, 2);
+        LatencyTracker tracker = dispatcher.getLatencyTracker();
+        assertEquals(2, tracker.getFrameCount());
+        // 序号1到4被丢弃
+        assertEquals(4, tracker.getDroppedCount());
+        assertTrue(tracker.getPercentileNs(LatencyTracker.Stage.TOTAL, 100) >= 0);
+        dispatcher.shutdown();
+    }
+
+    @Test
+    public void upright_rotatesBeforeCallback() throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final List<CameraData> received = new ArrayList<>();
+        FrameDispatcher dispatcher = new FrameDispatcher(new IPreviewCallback() {
+            @Override
+            public void onPreviewCallback(CameraData cameraData) {
+                received.add(cameraData);
+                latch.countDown();
+            }
+        }, new SubscriberOptions().setUpright(true));
+        assertFalse(dispatcher.needsCompactFrame());
+
+        CameraData cameraData = new CameraData();
+        byte[] data = {0, 1, 2, 3, 4, 5, 6, 7, 10, 11, 20, 21};
+        cameraData.frame = new Frame(data, 0, 0, 4, 2, 4, 17, null);
+        cameraData.frameBuffer = data;
+        cameraData.rotation = 90;
+        dispatchAndRelease(dispatcher, cameraData);
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+
+        CameraData upright = received.get(0);
+        assertEquals(0, upright.rotation);
+        assertEquals(2, upright.frame.getWidth());
+        assertEquals(4, upright.frame.getHeight());
+        assertArrayEquals(new byte[]{4, 0, 5, 1, 6, 2, 7, 3, 10, 11, 20, 21}, upright.frameBuffer);
+        waitForDelivered(dispatcher, 1);
+        assertTrue(upright.frame.isReleased());
+        assertTrue(cameraData.frame.isReleased());
+        dispatcher.shutdown();
+    }
+
+    @Test
+    public void outputSize_cropsToAspectAndScales() throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final List<CameraData> received = new ArrayList<>();
+        FrameDispatcher dispatcher = new FrameDispatcher(new IPreviewCallback() {
+            @Override
+            public void onPreviewCallback(CameraData cameraData) {
+                received.add(cameraData);
+                latch.countDown();
+            }
+        }, new SubscriberOptions().setOutputSize(8, 8));
+        assertFalse(dispatcher.needsCompactFrame());
+
+        // 32x16的帧,居中裁剪为16x16,再缩小为8x8
+        byte[] data = new byte[32 * 16 * 3 / 2];
+        for (int y = 0; y < 16; y++) {
+            for (int x = 0; x < 32; x++) {
+                data[y * 32 + x] = (byte) (x < 8 || x >= 24 ? 0 : 200);
+            }
+        }
+        CameraData cameraData = new CameraData();
+        cameraData.frame = new Frame(data, 0, 0, 32, 16, 32, 17, null);
+        cameraData.frameBuffer = data;
+        dispatchAndRelease(dispatcher, cameraData);
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+
+        CameraData scaled = received.get(0);
+        assertEquals(8, scaled.frame.getWidth());
+        assertEquals(8, scaled.frame.getHeight());
+        assertEquals(8 * 8 * 3 / 2, scaled.frameBuffer.length);
+        for (int i = 0; i < 64; i++) {
+            assertEquals(200, scaled.frameBuffer[i] & 0xFF);
+        }
+        dispatcher.shutdown();
+    }
+
+    @Test
+    public void uprightAndOutputSize_singlePassMatchesRotateThenBox() throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final List<CameraData> received = new ArrayList<>();
+        FrameDispatcher dispatcher = new FrameDispatcher(new IPreviewCallback() {
+            @Override
+            public void onPreviewCallback(CameraData cameraData) {
+                received.add(cameraData);
+                latch.countDown();
+            }
+        }, new SubscriberOptions().setUpright(true).setOutputSize(8, 16));
+
+        int width = 32;
+        int height = 16;
+        byte[] data = new byte[width * height * 3 / 2];
+        new Random(1).nextBytes(data);
+        // 旋转之后为16x32,恰好是输出尺寸的2倍
+        byte[] rotated = new byte[data.length];
+        assertTrue(NV21Rotator.rotate(data, 0, width * height, width, width, height, 270, true, rotated));
+        byte[] expected = new byte[8 * 16 * 3 / 2];
+        assertTrue(NV21Scaler.box2x(rotated, 0, width * height, height, height, width, expected));
+
+        CameraData cameraData = new CameraData();
+        cameraData.frame = new Frame(data, 0, 0, width, height, width, 17, null);
+        cameraData.frameBuffer = data;
+        cameraData.rotation = 270;
+        cameraData.mirror = true;
+        dispatchAndRelease(dispatcher, cameraData);
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+
+        CameraData transformed = received.get(0);
+        assertEquals(0, transformed.rotation);
+        assertFalse(transformed.mirror);
+        assertEquals(8, transformed.frame.getWidth());
+        assertEquals(16, transformed.frame.getHeight());
+        assertArrayEquals(expected, transformed.frameBuffer);
+        dispatcher.shutdown();
+    }
+}
@@ -0,0 +1,256 @@
+package com.shuyi.camera_module.camera;
+
+import com.shuyi.camera_module.frame.Frame;
+import com.shuyi.camera_module.image.YuvConverter;
+import com.shuyi.camera_module.image.YuvFormats;
+import com.shuyi.camera_module.io.FrameRecorder;
+import com.shuyi.camera_module.io.FrameRecording;
+import com.shuyi.camera_module.io.RecordingFrameSource;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class FramePipelineTest {
+
+    private static final int WIDTH = 64;
+
+    private static final int HEIGHT = 48;
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("replay", ".raw");
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    private static byte[] frameData(int width, int height, int seed) {
+        byte[] data = new byte[YuvFormats.getFrameSize(width, height)];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i * 13 + seed * 7);
+        }
+        return data;
+    }
+
+    private void record(int width, int height, int count, long intervalNs, int rotation, int capacity) throws IOException {
+        FrameRecorder recorder = new FrameRecorder(mFile, width, height, YuvFormats.NV21, capacity);
+        for (int i = 0; i < count; i++) {
+            recorder.record(new Frame(frameData(width, height, i), i, i * intervalNs, width, height, width,
+                    YuvFormats.NV21, null), i, rotation, false);
+        }
+        recorder.close();
+    }
+
+    private static class CollectingCallback implements IPreviewCallback {
+        final List<byte[]> frames = new ArrayList<>();
+        final List<Long> sequences = new ArrayList<>();
+        final CountDownLatch latch;
+        volatile int rotation = -1;
+
+        CollectingCallback(int expected) {
+            latch = new CountDownLatch(expected);
+        }
+
+        @Override
+        public void onPreviewCallback(CameraData cameraData) {
+            byte[] copy = new byte[cameraData.frame.getCompactSize()];
+            cameraData.frame.copyTo(copy);
+            synchronized (this) {
+                frames.add(copy);
+                sequences.add(cameraData.sequence);
+            }
+            rotation = cameraData.rotation;
+            latch.countDown();
+        }
+    }
+
+    @Test
+    public void replay_deliversCroppedFramesLikeTheCamera() throws Exception {
+        record(WIDTH, HEIGHT, 10, 33333333L, 90, 16);
+        FrameRecording recording = FrameRecording.open(mFile);
+        CollectingCallback callback = new CollectingCallback(10);
+        // 旋转90度之后的surface为48x32,旋转之前为32x48;裁剪水平方向中间的32列
+        CameraConfig config = new CameraConfigCreator()
+                .setSurfaceWidth(48)
+                .setSurfaceHeight(32)
+                .addPreviewSubscriber(callback, new SubscriberOptions()
+                        .setOverflowPolicy(FrameDispatcher.OverflowPolicy.BLOCK)
+                        .setMaxBlockMs(5000))
+                .create();
+        FramePipeline pipeline = new FramePipeline();
+        RecordingFrameSource source = new RecordingFrameSource(recording).setRealtime(false);
+        try {
+            assertTrue(pipeline.start(config, source));
+            assertFalse(pipeline.start(config, source));
+            assertTrue(source.awaitCompletion(10, TimeUnit.SECONDS));
+            assertTrue(callback.latch.await(10, TimeUnit.SECONDS));
+        } finally {
+            pipeline.release();
+            recording.close();
+        }
+
+        OpenCameraConfig openCameraConfig = (OpenCameraConfig) config;
+        assertTrue(openCameraConfig.isCropped);
+        assertEquals(32, openCameraConfig.previewWidth);
+        assertEquals(48, openCameraConfig.previewHeight);
+        assertEquals(48, openCameraConfig.surfaceWidth);
+        assertEquals(90, callback.rotation);
+        assertEquals(10, source.getDeliveredCount());
+        assertEquals(0, source.getDroppedCount());
+        for (int i = 0; i < 10; i++) {
+            Frame view = new Frame(frameData(WIDTH, HEIGHT, i), 0, 0, 32, 48, WIDTH, 16, 0, HEIGHT,
+                    YuvFormats.NV21, null);
+            byte[] expected = new byte[view.getCompactSize()];
+            view.copyTo(expected);
+            assertArrayEquals("frame " + i, expected, callback.frames.get(i));
+            assertEquals(i, callback.sequences.get(i).longValue());
+        }
+    }
+
+    @Test
+    public void replay_convertsToTheConfiguredFormat() throws Exception {
+        record(WIDTH, HEIGHT, 3, 1000L, 0, 4);
+        FrameRecording recording = FrameRecording.open(mFile);
+        CollectingCallback callback = new CollectingCallback(3);
+        CameraConfig config = new CameraConfigCreator()
+                .setPreviewFormat(YuvFormats.I420)
+                .addPreviewSubscriber(callback, new SubscriberOptions()
+                        .setOverflowPolicy(FrameDispatcher.OverflowPolicy.BLOCK)
+                        .setMaxBlockMs(5000))
+                .create();
+        FramePipeline pipeline = new FramePipeline();
+        RecordingFrameSource source = new RecordingFrameSource(recording).setRealtime(false);
+        try {
+            assertTrue(pipeline.start(config, source));
+            assertTrue(callback.latch.await(10, TimeUnit.SECONDS));
+        } finally {
+            pipeline.release();
+            recording.close();
+        }
+        for (int i = 0; i < 3; i++) {
+            byte[] expected = new byte[YuvFormats.getFrameSize(WIDTH, HEIGHT)];
+            YuvConverter.convert(frameData(WIDTH, HEIGHT, i), YuvFormats.NV21, WIDTH, HEIGHT, expected, YuvFormats.I420);
+            assertArrayEquals(expected, callback.frames.get(i));
+        }
+    }
+
+    @Test
+    public void realtimeReplay_keepsRecordedPacing() throws Exception {
+        long intervalNs = TimeUnit.MILLISECONDS.toNanos(20);
+        record(WIDTH, HEIGHT, 6, intervalNs, 0, 8);
+        FrameRecording recording = FrameRecording.open(mFile);
+        CollectingCallback callback = new CollectingCallback(6);
+        CameraConfig config = new CameraConfigCreator()
+                .addPreviewSubscriber(callback, null)
+                .create();
+        FramePipeline pipeline = new FramePipeline();
+        RecordingFrameSource source = new RecordingFrameSource(recording);
+        long startNs = System.nanoTime();
+        try {
+            assertTrue(pipeline.start(config, source));
+            assertTrue(source.awaitCompletion(10, TimeUnit.SECONDS));
+        } finally {
+            pipeline.release();
+            recording.close();
+        }
+        long elapsedNs = System.nanoTime() - startNs;
+        assertTrue("elapsed " + elapsedNs, elapsedNs >= 5 * intervalNs);
+        assertEquals(6, source.getDeliveredCount() + source.getDroppedCount());
+    }
+
+    @Test
+    public void replay_restartsAfterStop() throws Exception {
+        record(WIDTH, HEIGHT, 3, 1000L, 0, 4);
+        FrameRecording recording = FrameRecording.open(mFile);
+        CollectingCallback callback = new CollectingCallback(6);
+        CameraConfig config = new CameraConfigCreator()
+                .addPreviewSubscriber(callback, new SubscriberOptions()
+                        .setOverflowPolicy(FrameDispatcher.OverflowPolicy.BLOCK)
+                        .setMaxBlockMs(5000))
+                .create();
+        FramePipeline pipeline = new FramePipeline();
+        RecordingFrameSource source = new RecordingFrameSource(recording).setRealtime(false);
+        try {
+            assertTrue(pipeline.start(config, source));
+            assertTrue(source.awaitCompletion(10, TimeUnit.SECONDS));
+            pipeline.stop();
+            assertTrue(pipeline.start(config, source));
+            assertTrue(source.awaitCompletion(10, TimeUnit.SECONDS));
+            assertTrue(callback.latch.await(10, TimeUnit.SECONDS));
+        } finally {
+            pipeline.release();
+            recording.close();
+        }
+        assertEquals(3, source.getDeliveredCount());
+        assertArrayEquals(callback.frames.get(0), callback.frames.get(3));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void replay_rejectsOtherFormats() throws IOException {
+        new FrameRecorder(mFile, WIDTH, HEIGHT, YuvFormats.I420, 2).close();
+        FrameRecording recording = FrameRecording.open(mFile);
+        try {
+            new RecordingFrameSource(recording);
+        } finally {
+            recording.close();
+        }
+    }
+
+    /**
+     * 以最快速度回放1080p录制文件,测量裁剪与分发的吞吐量
+     */
+    @Test
+    public void benchmark_maxSpeedReplay1080p() throws Exception {
+        int width = 1920;
+        int height = 1080;
+        int capacity = 16;
+        int loops = 8;
+        record(width, height, capacity, 33333333L, 0, capacity);
+        FrameRecording recording = FrameRecording.open(mFile);
+        final long[] checksum = new long[1];
+        CollectingCallback callback = new CollectingCallback(capacity * loops) {
+            @Override
+            public void onPreviewCallback(CameraData cameraData) {
+                checksum[0] += cameraData.frame.getData()[cameraData.frame.getYOffset()];
+                latch.countDown();
+            }
+        };
+        for (CropMode cropMode : new CropMode[]{CropMode.COPY, CropMode.VIEW}) {
+            CameraConfig config = new CameraConfigCreator()
+                    .setSurfaceWidth(1080)
+                    .setSurfaceHeight(1080)
+                    .setCropMode(cropMode)
+                    .addPreviewSubscriber(callback, new SubscriberOptions()
+                            .setOverflowPolicy(FrameDispatcher.OverflowPolicy.BLOCK)
+                            .setMaxBlockMs(5000))
+                    .create();
+            FramePipeline pipeline = new FramePipeline();
+            RecordingFrameSource source = new RecordingFrameSource(recording).setRealtime(false).setLoopCount(loops);
+            long startNs = System.nanoTime();
+            try {
+                assertTrue(pipeline.start(config, source));
+                assertTrue(source.awaitCompletion(60, TimeUnit.SECONDS));
+            } finally {
+                pipeline.release();
+            }
+            double fps = source.getDeliveredCount() * 1e9 / (System.nanoTime() - startNs);
+            System.out.println(String.format("replay 1080p -> 1080x1080 %s: %d frames, %.1f fps",
+                    cropMode, source.getDeliveredCount(), fps));
+        }
+        recording.close();
+    }
+}
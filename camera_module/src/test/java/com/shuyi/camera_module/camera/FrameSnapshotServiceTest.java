@@ -0,0 +1,160 @@
+package com.shuyi.camera_module.camera;
+
+import android.graphics.ImageFormat;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+import static org.junit.Assert.*;
+
+public class FrameSnapshotServiceTest {
+
+    private static final int WIDTH = 64;
+
+    private static final int HEIGHT = 48;
+
+    private File mDir;
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mDir = Files.createTempDirectory("snapshot").toFile();
+        mFile = new File(mDir, "snapshot.jpg");
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = mDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDir.delete();
+    }
+
+    private static byte[] frameData(int width, int height) {
+        byte[] data = new byte[width * height * 3 / 2];
+        for (int i = 0; i < width * height; i++) {
+            data[i] = (byte) (16 + i % width * 200 / width);
+        }
+        for (int i = width * height; i < data.length; i++) {
+            data[i] = (byte) 128;
+        }
+        return data;
+    }
+
+    private static void awaitWritten(FrameSnapshotService service, long count) throws InterruptedException {
+        long deadlineNs = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (service.getWrittenCount() + service.getFailedCount() < count
+                && System.nanoTime() < deadlineNs) {
+            Thread.sleep(5);
+        }
+    }
+
+    @Test
+    public void offer_samplesByInterval() throws InterruptedException {
+        FrameSnapshotService service = new FrameSnapshotService(mFile, WIDTH, HEIGHT, 1000, 4, 80);
+        byte[] data = frameData(WIDTH, HEIGHT);
+        try {
+            assertTrue(service.offer(data, WIDTH, HEIGHT, ImageFormat.NV21, 0));
+            assertFalse(service.offer(data, WIDTH, HEIGHT, ImageFormat.NV21, 500));
+            assertFalse(service.offer(data, WIDTH, HEIGHT, ImageFormat.NV21, 999));
+            assertTrue(service.offer(data, WIDTH, HEIGHT, ImageFormat.NV21, 1000));
+            assertFalse(service.offer(data, WIDTH, HEIGHT, ImageFormat.NV21, 1500));
+            assertTrue(service.offer(data, WIDTH, HEIGHT, ImageFormat.NV21, 2100));
+            awaitWritten(service, 3);
+        } finally {
+            service.stop();
+        }
+        assertEquals(3, service.getSubmittedCount());
+        assertEquals(0, service.getDroppedCount());
+        assertEquals(3, service.getWrittenCount());
+    }
+
+    @Test
+    public void offer_rejectsFramesLargerThanTheSlots() {
+        FrameSnapshotService service = new FrameSnapshotService(mFile, WIDTH, HEIGHT, 0, 2, 80);
+        try {
+            assertFalse(service.offer(frameData(WIDTH * 2, HEIGHT), WIDTH * 2, HEIGHT, ImageFormat.NV21, 0));
+            assertFalse(service.offer(new byte[WIDTH], WIDTH, HEIGHT, ImageFormat.NV21, 0));
+            assertFalse(service.offer(frameData(WIDTH, HEIGHT), WIDTH, HEIGHT, ImageFormat.YV12, 0));
+            // 较小的帧可以放入快照缓存
+            assertTrue(service.offer(frameData(WIDTH / 2, HEIGHT / 2), WIDTH / 2, HEIGHT / 2, ImageFormat.NV21, 0));
+        } finally {
+            service.stop();
+        }
+        assertEquals(1, service.getSubmittedCount());
+    }
+
+    @Test
+    public void offer_dropsWhenAllSlotsAreBusy() throws InterruptedException {
+        int width = 1920;
+        int height = 1080;
+        FrameSnapshotService service = new FrameSnapshotService(mFile, width, height, 0, 1, 80);
+        byte[] data = frameData(width, height);
+        try {
+            // 唯一的快照缓存在写入完成之前不会归还
+            assertTrue(service.offer(data, width, height, ImageFormat.NV21, 0));
+            assertFalse(service.offer(data, width, height, ImageFormat.NV21, 1));
+            assertFalse(service.offer(data, width, height, ImageFormat.NV21, 2));
+            awaitWritten(service, 1);
+            assertTrue(service.offer(data, width, height, ImageFormat.NV21, 3));
+            awaitWritten(service, 2);
+        } finally {
+            service.stop();
+        }
+        assertEquals(2, service.getSubmittedCount());
+        assertEquals(2, service.getDroppedCount());
+        assertEquals(2, service.getWrittenCount());
+    }
+
+    @Test
+    public void write_producesADecodableJpeg() throws Exception {
+        FrameSnapshotService service = new FrameSnapshotService(mFile, WIDTH, HEIGHT, 0, 2, 90);
+        try {
+            assertTrue(service.offer(frameData(WIDTH, HEIGHT), WIDTH, HEIGHT, ImageFormat.NV21, 0));
+            awaitWritten(service, 1);
+        } finally {
+            service.stop();
+        }
+        assertEquals(1, service.getWrittenCount());
+        BufferedImage image = ImageIO.read(mFile);
+        assertNotNull("the snapshot can not be decoded", image);
+        assertEquals(WIDTH, image.getWidth());
+        assertEquals(HEIGHT, image.getHeight());
+        // 水平方向的亮度渐变
+        int left = image.getRGB(2, HEIGHT / 2) & 0xFF;
+        int right = image.getRGB(WIDTH - 3, HEIGHT / 2) & 0xFF;
+        assertTrue(left + " < " + right, left + 100 < right);
+        // 原子写入不会留下临时文件
+        assertEquals(Arrays.asList(mFile.getName()), Arrays.asList(mDir.list()));
+    }
+
+    @Test
+    public void stop_endsTheWorkerAndRejectsNewFrames() throws InterruptedException {
+        int width = 1920;
+        int height = 1080;
+        FrameSnapshotService service = new FrameSnapshotService(mFile, width, height, 0, 2, 80);
+        byte[] data = frameData(width, height);
+        assertTrue(service.offer(data, width, height, ImageFormat.NV21, 0));
+        assertTrue(service.offer(data, width, height, ImageFormat.NV21, 1));
+        service.stop();
+        assertTrue(service.awaitTermination(5000));
+        assertFalse(service.offer(data, width, height, ImageFormat.NV21, 2));
+        // 正在写入的快照被中断或者完成,等待中的快照被丢弃
+        assertTrue(service.getWrittenCount() + service.getFailedCount() <= 1);
+        assertEquals(2, service.getSubmittedCount());
+    }
+}
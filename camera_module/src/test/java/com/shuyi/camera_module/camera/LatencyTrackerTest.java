@@ -0,0 +1,54 @@
+package com.shuyi.camera_module.camera;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LatencyTrackerTest {
+
+    @Test
+    public void percentiles_perStage() {
+        LatencyTracker tracker = new LatencyTracker(100);
+        for (int i = 1; i <= 100; i++) {
+            long arrival = i * 1000000L;
+            // 裁剪耗时i微秒,回调耗时2i微秒
+            tracker.record(i, arrival, arrival + i * 1000L, arrival + i * 1000L,
+                    arrival + i * 1000L, arrival + i * 3000L);
+        }
+        assertEquals(100, tracker.getSampleCount());
+        assertEquals(50000L, tracker.getPercentileNs(LatencyTracker.Stage.CROP, 50));
+        assertEquals(99000L, tracker.getPercentileNs(LatencyTracker.Stage.CROP, 99));
+        assertEquals(1000L, tracker.getPercentileNs(LatencyTracker.Stage.CROP, 0));
+        assertEquals(200000L, tracker.getPercentileNs(LatencyTracker.Stage.CALLBACK, 100));
+        assertEquals(0L, tracker.getPercentileNs(LatencyTracker.Stage.QUEUE, 90));
+        assertEquals(270000L, tracker.getPercentileNs(LatencyTracker.Stage.TOTAL, 90));
+    }
+
+    @Test
+    public void window_keepsMostRecentSamples() {
+        LatencyTracker tracker = new LatencyTracker(4);
+        for (int i = 0; i < 10; i++) {
+            tracker.record(i, 0, i, i, i, i);
+        }
+        assertEquals(4, tracker.getSampleCount());
+        assertEquals(10, tracker.getFrameCount());
+        assertEquals(6L, tracker.getPercentileNs(LatencyTracker.Stage.CROP, 0));
+        assertEquals(9L, tracker.getPercentileNs(LatencyTracker.Stage.CROP, 100));
+    }
+
+    @Test
+    public void sequenceGaps_countAsDrops() {
+        LatencyTracker tracker = new LatencyTracker();
+        assertEquals(-1, tracker.getPercentileNs(LatencyTracker.Stage.TOTAL, 50));
+        long[] sequences = {5, 6, 9, 10, 20};
+        for (long sequence : sequences) {
+            tracker.record(sequence, 0, 0, 0, 0, 0);
+        }
+        assertEquals(2 + 9, tracker.getDroppedCount());
+
+        tracker.reset();
+        tracker.record(100, 0, 0, 0, 0, 0);
+        assertEquals(0, tracker.getDroppedCount());
+        assertEquals(1, tracker.getFrameCount());
+    }
+}
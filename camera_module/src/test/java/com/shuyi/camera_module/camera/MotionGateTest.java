@@ -0,0 +1,117 @@
+package com.shuyi.camera_module.camera;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class MotionGateTest {
+
+    private static final long MS = 1000000L;
+
+    private static byte[] randomLuma(int width, int height, long seed) {
+        byte[] data = new byte[width * height * 3 / 2];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    @Test
+    public void staticSceneIsSkipped() {
+        int width = 320;
+        int height = 240;
+        byte[] data = randomLuma(width, height, 1);
+        MotionGate gate = new MotionGate().setKeyframeIntervalMs(0);
+
+        assertTrue(gate.accept(data, 0, width, width, height, 0));
+        assertEquals(-1, gate.getLastScore(), 0);
+        for (int i = 1; i <= 9; i++) {
+            assertFalse(gate.accept(data, 0, width, width, height, i * 33 * MS));
+            assertEquals(0, gate.getLastScore(), 0);
+        }
+        assertEquals(10, gate.getEvaluatedCount());
+        assertEquals(9, gate.getSkippedCount());
+        assertEquals(0.9, gate.getSkipRate(), 1e-9);
+    }
+
+    @Test
+    public void sceneChangeIsDelivered() {
+        int width = 320;
+        int height = 240;
+        byte[] data = randomLuma(width, height, 1);
+        MotionGate gate = new MotionGate().setThreshold(3);
+        assertTrue(gate.accept(data, 0, width, width, height, 0));
+
+        // 一个占画面四分之一的物体移入
+        byte[] moved = data.clone();
+        for (int y = 0; y < height / 2; y++) {
+            Arrays.fill(moved, y * width, y * width + width / 2, (byte) 255);
+        }
+        assertTrue(gate.accept(moved, 0, width, width, height, 33 * MS));
+        assertTrue(gate.getLastScore() > 3);
+        // 新的帧成为比较基准
+        assertFalse(gate.accept(moved, 0, width, width, height, 66 * MS));
+    }
+
+    @Test
+    public void slowDriftAccumulatesAgainstLastDelivered() {
+        int width = 64;
+        int height = 48;
+        MotionGate gate = new MotionGate().setThreshold(4).setKeyframeIntervalMs(0);
+        byte[] data = new byte[width * height * 3 / 2];
+        Arrays.fill(data, 0, width * height, (byte) 100);
+        assertTrue(gate.accept(data, 0, width, width, height, 0));
+
+        int delivered = 0;
+        for (int i = 1; i <= 8; i++) {
+            Arrays.fill(data, 0, width * height, (byte) (100 + i));
+            if (gate.accept(data, 0, width, width, height, i * MS)) {
+                delivered++;
+                assertEquals(4, gate.getLastScore(), 1e-6);
+            }
+        }
+        // 每帧只变化1,与上一个放行帧相差4时才放行
+        assertEquals(2, delivered);
+    }
+
+    @Test
+    public void keyframeForcedAfterInterval() {
+        int width = 64;
+        int height = 48;
+        byte[] data = randomLuma(width, height, 3);
+        MotionGate gate = new MotionGate().setKeyframeIntervalMs(100);
+        assertTrue(gate.accept(data, 0, width, width, height, 0));
+        assertFalse(gate.accept(data, 0, width, width, height, 50 * MS));
+        assertTrue(gate.accept(data, 0, width, width, height, 100 * MS));
+        assertFalse(gate.accept(data, 0, width, width, height, 150 * MS));
+        assertEquals(1, gate.getKeyframeCount());
+    }
+
+    @Test
+    public void windowIgnoresChangesOutsideIt() {
+        int stride = 128;
+        int height = 96;
+        byte[] data = randomLuma(stride, height, 4);
+        MotionGate gate = new MotionGate().setKeyframeIntervalMs(0);
+        int yOffset = 16 * stride + 32;
+        assertTrue(gate.accept(data, yOffset, stride, 64, 48, 0));
+        // 修改窗口之外的数据
+        Arrays.fill(data, 0, 16 * stride, (byte) 0);
+        assertFalse(gate.accept(data, yOffset, stride, 64, 48, MS));
+        // 修改窗口之内的数据
+        Arrays.fill(data, yOffset, yOffset + 40 * stride, (byte) 0);
+        assertTrue(gate.accept(data, yOffset, stride, 64, 48, 2 * MS));
+    }
+
+    @Test
+    public void resetAndSizeChangeDeliverNextFrame() {
+        byte[] data = randomLuma(64, 48, 5);
+        MotionGate gate = new MotionGate();
+        assertTrue(gate.accept(data, 0, 64, 64, 48, 0));
+        assertFalse(gate.accept(data, 0, 64, 64, 48, MS));
+        gate.reset();
+        assertTrue(gate.accept(data, 0, 64, 64, 48, 2 * MS));
+        assertTrue(gate.accept(data, 0, 32, 32, 48, 3 * MS));
+    }
+}
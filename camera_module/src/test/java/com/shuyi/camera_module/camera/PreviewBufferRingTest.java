@@ -0,0 +1,84 @@
+package com.shuyi.camera_module.camera;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class PreviewBufferRingTest {
+
+    private static class RecordingQueue implements PreviewBufferRing.BufferQueue {
+        final List<byte[]> queued = new ArrayList<>();
+
+        @Override
+        public void queueBuffer(byte[] buffer) {
+            queued.add(buffer);
+        }
+    }
+
+    @Test
+    public void attach_queuesAllBuffers() {
+        PreviewBufferRing ring = new PreviewBufferRing(3, 16);
+        RecordingQueue queue = new RecordingQueue();
+        ring.attach(queue);
+        assertEquals(3, queue.queued.size());
+        assertEquals(3, ring.getQueuedCount());
+        assertEquals(0, ring.getInFlightCount());
+    }
+
+    @Test
+    public void recycle_returnsBufferOnlyOnce() {
+        PreviewBufferRing ring = new PreviewBufferRing(2, 16);
+        RecordingQueue queue = new RecordingQueue();
+        ring.attach(queue);
+        byte[] buffer = queue.queued.get(0);
+
+        assertTrue(ring.onFrameArrived(buffer));
+        assertEquals(1, ring.getInFlightCount());
+        ring.recycle(buffer);
+        ring.recycle(buffer);
+        assertEquals(3, queue.queued.size());
+        assertEquals(2, ring.getQueuedCount());
+        assertEquals(0, ring.getInFlightCount());
+    }
+
+    @Test
+    public void starvation_countedWhenCameraRunsOutOfBuffers() {
+        PreviewBufferRing ring = new PreviewBufferRing(2, 16);
+        RecordingQueue queue = new RecordingQueue();
+        ring.attach(queue);
+        byte[] first = queue.queued.get(0);
+        byte[] second = queue.queued.get(1);
+
+        ring.onFrameArrived(first);
+        assertEquals(0, ring.getStarvationCount());
+        ring.onFrameArrived(second);
+        assertEquals(1, ring.getStarvationCount());
+        assertEquals(2, ring.getArrivedCount());
+    }
+
+    @Test
+    public void foreignBuffer_isIgnored() {
+        PreviewBufferRing ring = new PreviewBufferRing(1, 16);
+        ring.attach(new RecordingQueue());
+        assertFalse(ring.onFrameArrived(new byte[16]));
+    }
+
+    @Test
+    public void detach_keepsInFlightBufferUntilReattached() {
+        PreviewBufferRing ring = new PreviewBufferRing(2, 16);
+        RecordingQueue queue = new RecordingQueue();
+        ring.attach(queue);
+        byte[] buffer = queue.queued.get(0);
+        ring.onFrameArrived(buffer);
+        ring.detach();
+        ring.recycle(buffer);
+        assertEquals(0, ring.getQueuedCount());
+
+        RecordingQueue next = new RecordingQueue();
+        ring.attach(next);
+        assertEquals(2, next.queued.size());
+    }
+}
@@ -0,0 +1,202 @@
+package com.shuyi.camera_module.camera;
+
+import com.shuyi.camera_module.frame.Frame;
+import com.shuyi.camera_module.frame.FramePool;
+import com.shuyi.camera_module.image.FrameTransform;
+import com.shuyi.camera_module.image.NV21Rotator;
+import com.shuyi.camera_module.image.YuvFormats;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class RegionOfInterestTest {
+
+    @Test
+    public void mapToFrame_withoutRotation() {
+        RegionOfInterest region = new RegionOfInterest("box", 0.25f, 0.5f, 0.75f, 1f);
+        assertArrayEquals(new int[]{16, 16, 32, 16}, region.mapToFrame(64, 32, 0, false));
+        // 水平镜像之后左右对调
+        RegionOfInterest left = new RegionOfInterest("left", 0f, 0f, 0.25f, 0.5f);
+        assertArrayEquals(new int[]{48, 0, 16, 16}, left.mapToFrame(64, 32, 0, true));
+    }
+
+    @Test
+    public void mapToFrame_alignsToEvenAndKeepsMinimumSize() {
+        RegionOfInterest region = new RegionOfInterest("dot", 0.51f, 0.51f, 0.52f, 0.52f);
+        int[] rect = region.mapToFrame(100, 100, 0, false);
+        assertEquals(50, rect[0]);
+        assertEquals(50, rect[1]);
+        assertEquals(2, rect[2]);
+        assertEquals(2, rect[3]);
+    }
+
+    /**
+     * 直接在旋转之后的完整画面中裁剪屏幕坐标的区域,与换算之后提取的结果比较
+     */
+    @Test
+    public void uprightRegion_matchesCropOfUprightFrame() {
+        int width = 64;
+        int height = 32;
+        byte[] data = new byte[width * height * 3 / 2];
+        new Random(1).nextBytes(data);
+        Frame frame = new Frame(data, 0, 0, width, height, width, YuvFormats.NV21, null);
+        RegionOfInterest region = new RegionOfInterest("box", 0.25f, 0.125f, 0.75f, 0.5f).setUpright(true);
+        for (int rotation = 0; rotation < 360; rotation += 90) {
+            for (boolean mirror : new boolean[]{false, true}) {
+                int uprightW = NV21Rotator.getRotatedWidth(width, height, rotation);
+                int uprightH = NV21Rotator.getRotatedHeight(width, height, rotation);
+                byte[] upright = new byte[data.length];
+                assertTrue(NV21Rotator.rotate(frame, rotation, mirror, upright));
+                int left = uprightW / 4;
+                int top = uprightH / 8;
+                int regionW = uprightW / 2;
+                int regionH = uprightH * 3 / 8;
+
+                FrameTransform transform = region.newTransform(width, height, rotation, mirror);
+                Frame extracted = transform.apply(frame, new FramePool());
+                assertNotNull(extracted);
+                String message = "rotation=" + rotation + ", mirror=" + mirror;
+                assertEquals(message, regionW, extracted.getWidth());
+                assertEquals(message, regionH, extracted.getHeight());
+                byte[] actual = extracted.getData();
+                for (int y = 0; y < regionH; y++) {
+                    for (int x = 0; x < regionW; x++) {
+                        assertEquals(message, upright[(top + y) * uprightW + left + x], actual[y * regionW + x]);
+                    }
+                }
+                extracted.release();
+            }
+        }
+    }
+
+    @Test
+    public void dispatcher_extractsViewsAndPooledRegions() throws InterruptedException {
+        int width = 32;
+        int height = 16;
+        final byte[] data = new byte[width * height * 3 / 2];
+        for (int i = 0; i < width * height; i++) {
+            data[i] = (byte) i;
+        }
+        final CountDownLatch latch = new CountDownLatch(1);
+        final List<Frame> regions = new ArrayList<>();
+        final List<Object> observed = new ArrayList<>();
+        FrameDispatcher dispatcher = new FrameDispatcher(new IPreviewCallback() {
+            @Override
+            public void onPreviewCallback(CameraData cameraData) {
+                // 区域只在回调期间有效,在回调中记录需要校验的属性
+                Frame view = cameraData.regions[0];
+                Frame gray = cameraData.regions[1];
+                observed.add(cameraData.regions.length);
+                observed.add(view.getData() == data);
+                observed.add(view.getLeft());
+                observed.add(view.getTop());
+                observed.add(view.getWidth());
+                observed.add(view.getHeight());
+                observed.add(view.isCompact());
+                observed.add(gray.getFormat());
+                observed.add(gray.getWidth());
+                observed.add(gray.getHeight());
+                regions.add(view);
+                regions.add(gray);
+                regions.add(cameraData.frame);
+                latch.countDown();
+            }
+        }, new SubscriberOptions()
+                .addRegion(new RegionOfInterest("view", 0.5f, 0f, 1f, 0.5f))
+                .addRegion(new RegionOfInterest("gray", 0f, 0f, 0.5f, 1f).setUpright(true)
+                        .setOutputFormat(FrameTransform.FORMAT_GRAY)));
+        try {
+            assertTrue(dispatcher.needsCompactFrame());
+
+            CameraData cameraData = new CameraData();
+            cameraData.frame = new Frame(data, 0, 0, width, height, width, YuvFormats.NV21, null);
+            cameraData.frameBuffer = data;
+            cameraData.rotation = 90;
+            dispatcher.dispatch(cameraData);
+            cameraData.frame.release();
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+
+            // 顺时针旋转90度之后,屏幕的右上角对应源帧的左上角[0, 16) x [0, 8),直接使用相机缓存
+            assertEquals(Arrays.<Object>asList(2, true, 0, 0, 16, 8, false,
+                    FrameTransform.FORMAT_GRAY, 8, 32), observed);
+
+            long deadline = System.currentTimeMillis() + 5000;
+            while (System.currentTimeMillis() < deadline) {
+                boolean released = true;
+                for (Frame frame : regions) {
+                    released &= frame.isReleased();
+                }
+                if (released) {
+                    break;
+                }
+                Thread.sleep(5);
+            }
+            for (Frame frame : regions) {
+                assertTrue(frame.isReleased());
+            }
+        } finally {
+            dispatcher.shutdown();
+        }
+    }
+
+    @Test
+    public void regionOnlySubscriber_receivesCompactCropInCopyMode() throws InterruptedException {
+        int width = 64;
+        int height = 48;
+        final CountDownLatch latch = new CountDownLatch(1);
+        final List<Object> observed = new ArrayList<>();
+        IPreviewCallback callback = new IPreviewCallback() {
+            @Override
+            public void onPreviewCallback(CameraData cameraData) {
+                observed.add(cameraData.frameBuffer.length);
+                observed.add(cameraData.frame.isCompact());
+                observed.add(cameraData.frameBuffer[0]);
+                observed.add(cameraData.regions.length);
+                latch.countDown();
+            }
+        };
+        OpenCameraConfig config = (OpenCameraConfig) new CameraConfigCreator()
+                .setSurfaceWidth(32)
+                .setSurfaceHeight(48)
+                .setCropMode(CropMode.COPY)
+                .addPreviewSubscriber(callback, new SubscriberOptions()
+                        .addRegion(new RegionOfInterest("center", 0.25f, 0.25f, 0.75f, 0.75f)))
+                .create();
+        config.originPreviewWidth = width;
+        config.originPreviewHeight = height;
+        config.computeCroppedPreviewSize();
+        final List<byte[]> buffers = new ArrayList<>();
+        FramePipeline pipeline = new FramePipeline();
+        try {
+            pipeline.start(config, YuvFormats.NV21, new PreviewBufferRing.BufferQueue() {
+                @Override
+                public void queueBuffer(byte[] buffer) {
+                    synchronized (buffers) {
+                        buffers.add(buffer);
+                    }
+                }
+            });
+            byte[] data;
+            synchronized (buffers) {
+                data = buffers.remove(0);
+            }
+            for (int i = 0; i < data.length; i++) {
+                data[i] = (byte) (i % width);
+            }
+            pipeline.onFrame(data);
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+        } finally {
+            pipeline.release();
+        }
+        // 裁剪水平方向中间的32列,frameBuffer是紧凑的裁剪数据而不是完整的相机缓存
+        assertEquals(Arrays.<Object>asList(32 * 48 * 3 / 2, true, (byte) 16, 1), observed);
+    }
+}
@@ -0,0 +1,201 @@
+package com.shuyi.camera_module.camera;
+
+import com.shuyi.camera_module.image.YuvFormats;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class TestPatternFrameSourceTest {
+
+    private static final int WIDTH = 320;
+
+    private static final int HEIGHT = 240;
+
+    private static class CollectingCallback implements IPreviewCallback {
+        final List<byte[]> frames = new ArrayList<>();
+        final CountDownLatch latch;
+
+        CollectingCallback(int expected) {
+            latch = new CountDownLatch(expected);
+        }
+
+        @Override
+        public void onPreviewCallback(CameraData cameraData) {
+            byte[] copy = new byte[cameraData.frame.getCompactSize()];
+            cameraData.frame.copyTo(copy);
+            synchronized (this) {
+                frames.add(copy);
+            }
+            latch.countDown();
+        }
+    }
+
+    private static List<byte[]> generate(TestPatternFrameSource source, int count) throws InterruptedException {
+        CollectingCallback callback = new CollectingCallback(count);
+        CameraConfig config = new CameraConfigCreator()
+                .addPreviewSubscriber(callback, new SubscriberOptions()
+                        .setOverflowPolicy(FrameDispatcher.OverflowPolicy.BLOCK)
+                        .setMaxBlockMs(5000))
+                .create();
+        FramePipeline pipeline = new FramePipeline();
+        try {
+            assertTrue(pipeline.start(config, source.setFps(0).setFrameLimit(count)));
+            assertTrue(source.awaitCompletion(10, TimeUnit.SECONDS));
+            assertTrue(callback.latch.await(10, TimeUnit.SECONDS));
+        } finally {
+            pipeline.release();
+        }
+        return callback.frames;
+    }
+
+    @Test
+    public void patterns_areDeterministicAndStamped() throws InterruptedException {
+        for (TestPatternFrameSource.Pattern pattern : TestPatternFrameSource.Pattern.values()) {
+            List<byte[]> first = generate(new TestPatternFrameSource(WIDTH, HEIGHT).setPattern(pattern), 6);
+            List<byte[]> second = generate(new TestPatternFrameSource(WIDTH, HEIGHT).setPattern(pattern), 6);
+            for (int i = 0; i < 6; i++) {
+                assertEquals(YuvFormats.getFrameSize(WIDTH, HEIGHT), first.get(i).length);
+                assertArrayEquals(pattern + " frame " + i, first.get(i), second.get(i));
+                assertEquals(i, TestPatternFrameSource.readStamp(first.get(i), WIDTH, HEIGHT));
+            }
+            if (pattern != TestPatternFrameSource.Pattern.COLOR_BARS) {
+                // 标记之外的内容逐帧变化
+                assertFalse(pattern.name(), first.get(1)[WIDTH * HEIGHT - 1] == first.get(2)[WIDTH * HEIGHT - 1]
+                        && first.get(1)[WIDTH * (HEIGHT - 1)] == first.get(2)[WIDTH * (HEIGHT - 1)]);
+            }
+        }
+    }
+
+    @Test
+    public void colorBars_haveStandardValues() throws InterruptedException {
+        byte[] frame = generate(new TestPatternFrameSource(WIDTH, HEIGHT)
+                .setPattern(TestPatternFrameSource.Pattern.COLOR_BARS)
+                .setStampEnabled(false), 1).get(0);
+        int barWidth = WIDTH / 8;
+        int uvOffset = WIDTH * HEIGHT;
+        int row = HEIGHT / 2;
+        // 白、黄、蓝三个彩条的中心
+        assertEquals(180, frame[row * WIDTH + barWidth / 2] & 0xFF);
+        assertEquals(162, frame[row * WIDTH + barWidth + barWidth / 2] & 0xFF);
+        int blue = uvOffset + row / 2 * WIDTH + (barWidth * 6 + barWidth / 2) / 2 * 2;
+        assertEquals(35, frame[row * WIDTH + barWidth * 6 + barWidth / 2] & 0xFF);
+        assertEquals(114, frame[blue] & 0xFF);
+        assertEquals(212, frame[blue + 1] & 0xFF);
+        assertEquals(-1, TestPatternFrameSource.readStamp(frame, 64, 8));
+    }
+
+    @Test
+    public void schedule_reportsDroppedFramesWhenBuffersAreHeld() throws InterruptedException {
+        final CountDownLatch received = new CountDownLatch(1);
+        IPreviewCallback slowCallback = new IPreviewCallback() {
+            @Override
+            public void onPreviewCallback(CameraData cameraData) {
+                received.countDown();
+                try {
+                    Thread.sleep(40);
+                } catch (InterruptedException exception) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        // 不裁剪时帧直接引用回调缓存,使用者处理期间缓存不会归还
+        CameraConfig config = new CameraConfigCreator()
+                .setPreviewBufferCount(2)
+                .addPreviewSubscriber(slowCallback, null)
+                .create();
+        TestPatternFrameSource source = new TestPatternFrameSource(WIDTH, HEIGHT).setFps(200).setFrameLimit(40);
+        FramePipeline pipeline = new FramePipeline();
+        long startNs = System.nanoTime();
+        try {
+            assertTrue(pipeline.start(config, source));
+            assertTrue(source.awaitCompletion(10, TimeUnit.SECONDS));
+            assertTrue(received.await(1, TimeUnit.SECONDS));
+        } finally {
+            pipeline.release();
+        }
+        long elapsedNs = System.nanoTime() - startNs;
+        assertTrue("elapsed " + elapsedNs, elapsedNs >= TimeUnit.MILLISECONDS.toNanos(190));
+        assertEquals(40, source.getDeliveredCount() + source.getDroppedCount());
+        assertTrue(source.getDroppedCount() > 0);
+    }
+
+    @Test
+    public void restart_afterStop_deliversFramesAgain() throws InterruptedException {
+        CollectingCallback callback = new CollectingCallback(8);
+        CameraConfig config = new CameraConfigCreator()
+                .addPreviewSubscriber(callback, new SubscriberOptions()
+                        .setOverflowPolicy(FrameDispatcher.OverflowPolicy.BLOCK)
+                        .setMaxBlockMs(5000))
+                .create();
+        TestPatternFrameSource source = new TestPatternFrameSource(WIDTH, HEIGHT).setFps(0).setFrameLimit(4);
+        FramePipeline pipeline = new FramePipeline();
+        try {
+            assertTrue(pipeline.start(config, source));
+            assertTrue(source.awaitCompletion(10, TimeUnit.SECONDS));
+            pipeline.stop();
+            assertTrue(pipeline.start(config, source));
+            assertTrue(source.awaitCompletion(10, TimeUnit.SECONDS));
+            assertTrue(callback.latch.await(10, TimeUnit.SECONDS));
+        } finally {
+            pipeline.release();
+        }
+        // 统计数据只记录最近一次运行,帧号标记从0重新开始
+        assertEquals(4, source.getDeliveredCount());
+        assertEquals(0, TestPatternFrameSource.readStamp(callback.frames.get(4), WIDTH, HEIGHT));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void oversizedPattern_isRejected() {
+        new TestPatternFrameSource(7680, 4320);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void excessiveFps_isRejected() {
+        new TestPatternFrameSource(WIDTH, HEIGHT).setFps(TestPatternFrameSource.MAX_FPS + 1);
+    }
+
+    /**
+     * 4K与1080p的处理上限:不调度时的吞吐量,以及240帧每秒调度时的丢帧与迟到
+     */
+    @Test
+    public void benchmark_throughputCeiling() throws InterruptedException {
+        int[][] sizes = {{3840, 2160}, {1920, 1080}};
+        for (int[] size : sizes) {
+            for (int fps : new int[]{0, TestPatternFrameSource.MAX_FPS}) {
+                IPreviewCallback callback = new IPreviewCallback() {
+                    @Override
+                    public void onPreviewCallback(CameraData cameraData) {
+                    }
+                };
+                CameraConfig config = new CameraConfigCreator()
+                        .setSurfaceWidth(size[1])
+                        .setSurfaceHeight(size[1])
+                        .addPreviewSubscriber(callback, new SubscriberOptions()
+                                .setOverflowPolicy(FrameDispatcher.OverflowPolicy.DROP_OLDEST))
+                        .create();
+                TestPatternFrameSource source = new TestPatternFrameSource(size[0], size[1])
+                        .setFps(fps)
+                        .setFrameLimit(120);
+                FramePipeline pipeline = new FramePipeline();
+                long startNs = System.nanoTime();
+                try {
+                    assertTrue(pipeline.start(config, source));
+                    assertTrue(source.awaitCompletion(60, TimeUnit.SECONDS));
+                } finally {
+                    pipeline.release();
+                }
+                double seconds = (System.nanoTime() - startNs) / 1e9;
+                System.out.println(String.format("pattern %dx%d @%s: delivered %d (%.1f fps), dropped %d, late %d, max lateness %.2f ms",
+                        size[0], size[1], fps == 0 ? "max" : String.valueOf(fps), source.getDeliveredCount(),
+                        source.getDeliveredCount() / seconds, source.getDroppedCount(), source.getLateCount(),
+                        source.getMaxLatenessNs() / 1e6));
+            }
+        }
+    }
+}
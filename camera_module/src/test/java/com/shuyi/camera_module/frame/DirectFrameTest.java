@@ -0,0 +1,93 @@
+package com.shuyi.camera_module.frame;
+
+import com.shuyi.camera_module.common.Utils;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class DirectFrameTest {
+
+    private static byte[] toArray(ByteBuffer buffer) {
+        byte[] array = new byte[buffer.remaining()];
+        buffer.get(array);
+        return array;
+    }
+
+    private static byte[] randomNV21(int width, int height, long seed) {
+        byte[] data = new byte[width * height * 3 / 2];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    @Test
+    public void copyOf_compactFrame_splitsPlanes() {
+        byte[] src = randomNV21(16, 8, 1);
+        Frame frame = new Frame(src, 3, 50, 16, 8, 16, 17, null);
+        DirectFrame directFrame = DirectFrame.copyOf(frame, new DirectBufferPool());
+
+        ByteBuffer yPlane = directFrame.getYPlane();
+        ByteBuffer uvPlane = directFrame.getUVPlane();
+        assertTrue(yPlane.isDirect());
+        assertEquals(0, yPlane.position());
+        assertEquals(16 * 8, yPlane.remaining());
+        assertEquals(0, uvPlane.position());
+        assertEquals(16 * 8 / 2, uvPlane.remaining());
+
+        byte[] expected = new byte[src.length];
+        System.arraycopy(src, 0, expected, 0, src.length);
+        byte[] actual = new byte[src.length];
+        System.arraycopy(toArray(yPlane), 0, actual, 0, 16 * 8);
+        System.arraycopy(toArray(uvPlane), 0, actual, 16 * 8, 16 * 8 / 2);
+        assertArrayEquals(expected, actual);
+        assertEquals(3, directFrame.getSequence());
+        assertEquals(50, directFrame.getTimestampNs());
+    }
+
+    @Test
+    public void copyOf_view_matchesClipNV21() {
+        int width = 64;
+        int height = 48;
+        byte[] src = randomNV21(width, height, 2);
+        Frame view = new Frame(src, 0, 0, 40, 30, width, 12, 8, height, 17, null);
+        DirectFrame directFrame = DirectFrame.copyOf(view, new DirectBufferPool());
+
+        byte[] expected = Utils.clipNV21(src, width, height, 12, 8, 40, 30);
+        byte[] actual = new byte[expected.length];
+        System.arraycopy(toArray(directFrame.getYPlane()), 0, actual, 0, 40 * 30);
+        System.arraycopy(toArray(directFrame.getUVPlane()), 0, actual, 40 * 30, 40 * 30 / 2);
+        assertArrayEquals(expected, actual);
+    }
+
+    @Test
+    public void release_returnsBufferToPool() {
+        DirectBufferPool pool = new DirectBufferPool();
+        Frame frame = new Frame(new byte[24], 0, 0, 4, 4, 4, 17, null);
+        for (int i = 0; i < 100; i++) {
+            DirectFrame directFrame = DirectFrame.copyOf(frame, pool);
+            directFrame.acquire();
+            directFrame.release();
+            assertFalse(directFrame.isReleased());
+            directFrame.release();
+            assertTrue(directFrame.isReleased());
+        }
+        assertEquals(1, pool.getAllocationCount());
+        assertEquals(100, pool.getObtainCount());
+        assertEquals(100, pool.getRecycleCount());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void getYPlane_afterRelease_throws() {
+        DirectFrame directFrame = DirectFrame.copyOf(new Frame(new byte[6], 0, 0, 2, 2, 2, 17, null), new DirectBufferPool());
+        directFrame.release();
+        directFrame.getYPlane();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void heapBuffer_isRejected() {
+        new DirectFrame(ByteBuffer.allocate(6), 0, 0, 2, 2, 17, null);
+    }
+}
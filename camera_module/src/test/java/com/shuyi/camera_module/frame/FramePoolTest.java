@@ -0,0 +1,73 @@
+package com.shuyi.camera_module.frame;
+
+import com.shuyi.camera_module.common.Utils;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class FramePoolTest {
+
+    @Test
+    public void obtain_reusesRecycledBuffer() {
+        FramePool pool = new FramePool();
+        byte[] first = pool.obtain(100);
+        pool.recycle(first);
+        byte[] second = pool.obtain(100);
+        assertSame(first, second);
+        assertEquals(1, pool.getAllocationCount());
+    }
+
+    @Test
+    public void obtain_keysBuffersBySize() {
+        FramePool pool = new FramePool();
+        pool.recycle(new byte[100]);
+        assertEquals(200, pool.obtain(200).length);
+        assertEquals(1, pool.getAllocationCount());
+    }
+
+    @Test
+    public void clipNV21Into_matchesClipNV21() {
+        int width = 64;
+        int height = 48;
+        byte[] src = new byte[width * height * 3 / 2];
+        new Random(1).nextBytes(src);
+        byte[] expected = Utils.clipNV21(src, width, height, 6, 4, 40, 30);
+        byte[] actual = new byte[Utils.getClippedNV21Size(40, 30)];
+        assertTrue(Utils.clipNV21Into(src, width, height, 6, 4, 40, 30, actual));
+        assertArrayEquals(expected, actual);
+    }
+
+    @Test
+    public void clipNV21Into_rejectsSmallDestination() {
+        byte[] src = new byte[16 * 16 * 3 / 2];
+        assertFalse(Utils.clipNV21Into(src, 16, 16, 0, 0, 8, 8, new byte[10]));
+    }
+
+    @Test
+    public void steadyStateCrop_doesNotAllocate() {
+        int width = 1280;
+        int height = 720;
+        int clipWidth = 960;
+        int clipHeight = 720;
+        byte[] src = new byte[width * height * 3 / 2];
+        FramePool pool = new FramePool();
+        int size = Utils.getClippedNV21Size(clipWidth, clipHeight);
+
+        // 预热
+        for (int i = 0; i < 3; i++) {
+            byte[] dst = pool.obtain(size);
+            Utils.clipNV21Into(src, width, height, 160, 0, clipWidth, clipHeight, dst);
+            pool.recycle(dst);
+        }
+        long allocations = pool.getAllocationCount();
+        for (int i = 0; i < 100; i++) {
+            byte[] dst = pool.obtain(size);
+            assertTrue(Utils.clipNV21Into(src, width, height, 160, 0, clipWidth, clipHeight, dst));
+            pool.recycle(dst);
+        }
+        assertEquals(allocations, pool.getAllocationCount());
+    }
+}
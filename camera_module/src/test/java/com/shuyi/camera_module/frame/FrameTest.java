@@ -0,0 +1,119 @@
+package com.shuyi.camera_module.frame;
+
+import com.shuyi.camera_module.common.Utils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class FrameTest {
+
+    private static class CountingRecycler implements Frame.Recycler {
+        final List<byte[]> recycled = new ArrayList<>();
+
+        @Override
+        public void recycle(byte[] buffer) {
+            recycled.add(buffer);
+        }
+    }
+
+    private static Frame newFrame(Frame.Recycler recycler) {
+        return new Frame(new byte[6], 7, 100, 2, 2, 2, 17, recycler);
+    }
+
+    @Test
+    public void release_recyclesOnlyAfterLastHolder() {
+        CountingRecycler recycler = new CountingRecycler();
+        Frame frame = newFrame(recycler);
+        frame.acquire();
+        frame.acquire();
+        assertEquals(3, frame.getRefCount());
+
+        frame.release();
+        frame.release();
+        assertTrue(recycler.recycled.isEmpty());
+        assertFalse(frame.isReleased());
+
+        frame.release();
+        assertEquals(1, recycler.recycled.size());
+        assertTrue(frame.isReleased());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void acquire_afterReleaseFails() {
+        Frame frame = newFrame(null);
+        frame.release();
+        frame.acquire();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void getData_afterReleaseFails() {
+        Frame frame = newFrame(null);
+        frame.release();
+        frame.getData();
+    }
+
+    @Test
+    public void release_tooManyTimesFailsWithoutRecyclingTwice() {
+        CountingRecycler recycler = new CountingRecycler();
+        Frame frame = newFrame(recycler);
+        frame.release();
+        try {
+            frame.release();
+            fail("expected IllegalStateException");
+        } catch (IllegalStateException expected) {
+            // expected
+        }
+        assertEquals(1, recycler.recycled.size());
+    }
+
+    @Test
+    public void release_fromOtherThreadsRecyclesOnce() throws InterruptedException {
+        final CountingRecycler recycler = new CountingRecycler();
+        final Frame frame = newFrame(recycler);
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            frame.acquire();
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    frame.release();
+                }
+            });
+            threads[i].start();
+        }
+        frame.release();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(1, recycler.recycled.size());
+    }
+
+    @Test
+    public void view_copyToMatchesClipNV21() {
+        int width = 64;
+        int height = 48;
+        byte[] src = new byte[width * height * 3 / 2];
+        new Random(2).nextBytes(src);
+        Frame view = new Frame(src, 0, 0, 40, 30, width, 12, 8, height, 17, null);
+        assertFalse(view.isCompact());
+        assertEquals(8 * width + 12, view.getYOffset());
+        assertEquals(width * height + 4 * width + 12, view.getUVOffset());
+
+        byte[] copied = new byte[view.getCompactSize()];
+        assertTrue(view.copyTo(copied));
+        assertArrayEquals(Utils.clipNV21(src, width, height, 12, 8, 40, 30), copied);
+    }
+
+    @Test
+    public void compactFrame_isCompact() {
+        Frame frame = newFrame(null);
+        assertTrue(frame.isCompact());
+        assertEquals(0, frame.getYOffset());
+        assertEquals(4, frame.getUVOffset());
+    }
+}
@@ -0,0 +1,219 @@
+package com.shuyi.camera_module.image;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ChromaKernelsTest {
+
+    private static byte[] randomBytes(int length, long seed) {
+        byte[] data = new byte[length];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    /**
+     * 覆盖不足一个字、恰好一个字与带有尾部的长度,以及不对齐的偏移
+     */
+    private static final int[] COUNTS = {0, 1, 3, 7, 8, 9, 15, 16, 17, 63, 64, 65, 321};
+
+    private static final int[] OFFSETS = {0, 1, 5};
+
+    @Test
+    public void deinterleave_matchesScalar() {
+        for (int count : COUNTS) {
+            for (int offset : OFFSETS) {
+                byte[] src = randomBytes(count * 2 + offset, count * 31 + offset);
+                byte[] expectedV = new byte[count + offset];
+                byte[] expectedU = new byte[count + offset];
+                byte[] actualV = new byte[count + offset];
+                byte[] actualU = new byte[count + offset];
+                ChromaKernels.deinterleaveScalar(src, offset, expectedV, offset, expectedU, 0, count);
+                ChromaKernels.deinterleave(src, offset, actualV, offset, actualU, 0, count);
+                assertArrayEquals("count=" + count, expectedV, actualV);
+                assertArrayEquals("count=" + count, expectedU, actualU);
+            }
+        }
+    }
+
+    @Test
+    public void deinterleave_intoOnePlanarBuffer() {
+        // I420的U与V平面位于同一个数组
+        byte[] vu = {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17, 18};
+        byte[] dst = new byte[18];
+        ChromaKernels.deinterleave(vu, 0, dst, 9, dst, 0, 9);
+        assertArrayEquals(new byte[]{2, 4, 6, 8, 10, 12, 14, 16, 18, 1, 3, 5, 7, 9, 11, 13, 15, 17}, dst);
+    }
+
+    @Test
+    public void interleave_matchesScalarAndInvertsDeinterleave() {
+        for (int count : COUNTS) {
+            for (int offset : OFFSETS) {
+                byte[] first = randomBytes(count + offset, count * 7 + offset);
+                byte[] second = randomBytes(count + offset, count * 13 + offset);
+                byte[] expected = new byte[count * 2 + offset];
+                byte[] actual = new byte[count * 2 + offset];
+                ChromaKernels.interleaveScalar(first, offset, second, 0, expected, offset, count);
+                ChromaKernels.interleave(first, offset, second, 0, actual, offset, count);
+                assertArrayEquals("count=" + count, expected, actual);
+
+                byte[] restoredFirst = new byte[count + offset];
+                byte[] restoredSecond = new byte[count + offset];
+                ChromaKernels.deinterleave(actual, offset, restoredFirst, offset, restoredSecond, 0, count);
+                for (int i = 0; i < count; i++) {
+                    assertEquals(first[offset + i], restoredFirst[offset + i]);
+                    assertEquals(second[i], restoredSecond[i]);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void swapPairs_matchesScalarAndWorksInPlace() {
+        for (int count : COUNTS) {
+            for (int offset : OFFSETS) {
+                byte[] src = randomBytes(count * 2 + offset, count * 17 + offset);
+                byte[] expected = new byte[src.length];
+                byte[] actual = new byte[src.length];
+                ChromaKernels.swapPairsScalar(src, offset, expected, offset, count);
+                ChromaKernels.swapPairs(src, offset, actual, offset, count);
+                assertArrayEquals("count=" + count, expected, actual);
+
+                byte[] inPlace = src.clone();
+                ChromaKernels.swapPairs(inPlace, offset, inPlace, offset, count);
+                for (int i = 0; i < count * 2; i++) {
+                    assertEquals(expected[offset + i], inPlace[offset + i]);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void average_matchesScalarForAllByteValues() {
+        // 覆盖所有的字节组合
+        byte[] a = new byte[256 * 256];
+        byte[] b = new byte[256 * 256];
+        for (int i = 0; i < a.length; i++) {
+            a[i] = (byte) (i >> 8);
+            b[i] = (byte) i;
+        }
+        byte[] expected = new byte[a.length];
+        byte[] actual = new byte[a.length];
+        ChromaKernels.averageScalar(a, 0, b, 0, expected, 0, a.length);
+        ChromaKernels.average(a, 0, b, 0, actual, 0, a.length);
+        assertArrayEquals(expected, actual);
+        assertEquals((byte) 128, expected[255]);
+        assertEquals((byte) 255, expected[256 * 256 - 1]);
+
+        for (int count : COUNTS) {
+            byte[] x = randomBytes(count + 3, count);
+            byte[] y = randomBytes(count + 1, count + 100);
+            byte[] scalar = new byte[count + 2];
+            ChromaKernels.averageScalar(x, 3, y, 1, scalar, 2, count);
+            ChromaKernels.average(x, 3, y, 1, x, 3, count);
+            for (int i = 0; i < count; i++) {
+                assertEquals(scalar[2 + i], x[3 + i]);
+            }
+        }
+    }
+
+    /**
+     * 1080P一帧的色度平面(960x540对);只打印结果,不做断言
+     */
+    @Test
+    public void benchmark_swarVersusScalar() {
+        int pairs = 960 * 540;
+        byte[] vu = randomBytes(pairs * 2, 1);
+        byte[] v = new byte[pairs];
+        byte[] u = new byte[pairs];
+        byte[] out = new byte[pairs * 2];
+        int iterations = 100;
+        for (int round = 0; round < 2; round++) {
+            long startNs = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                ChromaKernels.deinterleaveScalar(vu, 0, v, 0, u, 0, pairs);
+            }
+            double deinterleaveScalar = (System.nanoTime() - startNs) / 1e6 / iterations;
+            startNs = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                ChromaKernels.deinterleave(vu, 0, v, 0, u, 0, pairs);
+            }
+            double deinterleave = (System.nanoTime() - startNs) / 1e6 / iterations;
+            startNs = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                ChromaKernels.interleaveScalar(v, 0, u, 0, out, 0, pairs);
+            }
+            double interleaveScalar = (System.nanoTime() - startNs) / 1e6 / iterations;
+            startNs = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                ChromaKernels.interleave(v, 0, u, 0, out, 0, pairs);
+            }
+            double interleave = (System.nanoTime() - startNs) / 1e6 / iterations;
+            startNs = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                ChromaKernels.swapPairsScalar(vu, 0, out, 0, pairs);
+            }
+            double swapScalar = (System.nanoTime() - startNs) / 1e6 / iterations;
+            startNs = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                ChromaKernels.swapPairs(vu, 0, out, 0, pairs);
+            }
+            double swap = (System.nanoTime() - startNs) / 1e6 / iterations;
+            startNs = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                ChromaKernels.averageScalar(vu, 0, vu, pairs, out, 0, pairs);
+            }
+            double averageScalar = (System.nanoTime() - startNs) / 1e6 / iterations;
+            startNs = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                ChromaKernels.average(vu, 0, vu, pairs, out, 0, pairs);
+            }
+            double average = (System.nanoTime() - startNs) / 1e6 / iterations;
+            if (round == 1) {
+                System.out.println(String.format("chroma 960x540: deinterleave %.3f/%.3f ms, interleave %.3f/%.3f ms, "
+                                + "swap %.3f/%.3f ms, average %.3f/%.3f ms (scalar/swar)",
+                        deinterleaveScalar, deinterleave, interleaveScalar, interleave,
+                        swapScalar, swap, averageScalar, average));
+            }
+        }
+    }
+
+    /**
+     * 逐行拆分1080P的色度平面:每行创建视图与每个平面创建一次视图;只打印结果,不做断言
+     */
+    @Test
+    public void benchmark_rowViews() {
+        int width = 960;
+        int height = 540;
+        byte[] vu = randomBytes(width * height * 2, 2);
+        byte[] planar = new byte[width * height * 2];
+        int iterations = 100;
+        for (int round = 0; round < 2; round++) {
+            long startNs = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                for (int row = 0; row < height; row++) {
+                    ChromaKernels.deinterleave(vu, row * width * 2, planar, row * width,
+                            planar, width * height + row * width, width);
+                }
+            }
+            double perRow = (System.nanoTime() - startNs) / 1e6 / iterations;
+            startNs = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                ByteBuffer in = ChromaKernels.view(vu);
+                ByteBuffer out = ChromaKernels.view(planar);
+                for (int row = 0; row < height; row++) {
+                    ChromaKernels.deinterleave(in, row * width * 2, out, row * width,
+                            out, width * height + row * width, width);
+                }
+            }
+            double perPlane = (System.nanoTime() - startNs) / 1e6 / iterations;
+            if (round == 1) {
+                System.out.println(String.format("chroma 960x540 by row: deinterleave %.3f/%.3f ms (view per row/per plane)",
+                        perRow, perPlane));
+            }
+        }
+    }
+}
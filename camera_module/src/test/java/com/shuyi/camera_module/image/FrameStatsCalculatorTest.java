@@ -0,0 +1,164 @@
+package com.shuyi.camera_module.image;
+
+import com.shuyi.camera_module.frame.Frame;
+import com.shuyi.camera_module.frame.FrameStats;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class FrameStatsCalculatorTest {
+
+    /**
+     * 左半边亮度为leftLuma,右半边亮度为rightLuma;U、V为常量
+     */
+    private static byte[] splitNV21(int width, int height, int leftLuma, int rightLuma, int u, int v) {
+        byte[] data = new byte[width * height * 3 / 2];
+        for (int y = 0; y < height; y++) {
+            Arrays.fill(data, y * width, y * width + width / 2, (byte) leftLuma);
+            Arrays.fill(data, y * width + width / 2, y * width + width, (byte) rightLuma);
+        }
+        for (int i = width * height; i < data.length; i += 2) {
+            data[i] = (byte) v;
+            data[i + 1] = (byte) u;
+        }
+        return data;
+    }
+
+    @Test
+    public void histogramAndClipRatios() {
+        int width = 64;
+        int height = 32;
+        Frame frame = new Frame(splitNV21(width, height, 0, 255, 128, 128), 0, 0, width, height, width, YuvFormats.NV21, null);
+        FrameStats stats = new FrameStats();
+        assertTrue(new FrameStatsCalculator().setGridStep(1).compute(frame, stats));
+
+        assertEquals(width * height, stats.getSampleCount());
+        assertEquals(width * height / 2, stats.getHistogram()[0]);
+        assertEquals(width * height / 2, stats.getHistogram()[255]);
+        assertEquals(127.5, stats.getMeanLuma(), 1e-9);
+        assertEquals(0, stats.getLumaPercentile(50));
+        assertEquals(255, stats.getLumaPercentile(51));
+        assertEquals(0.5, stats.getDarkClipRatio(), 1e-9);
+        assertEquals(0.5, stats.getBrightClipRatio(), 1e-9);
+        assertEquals(width * height / 4, stats.getChromaSampleCount());
+    }
+
+    @Test
+    public void gridStepSubsamples() {
+        int width = 64;
+        int height = 32;
+        Frame frame = new Frame(splitNV21(width, height, 40, 200, 128, 128), 0, 0, width, height, width, YuvFormats.NV21, null);
+        FrameStats stats = new FrameStats();
+        assertTrue(new FrameStatsCalculator().setGridStep(4).compute(frame, stats));
+
+        assertEquals(width * height / 16, stats.getSampleCount());
+        assertEquals(120, stats.getMeanLuma(), 1e-9);
+        assertEquals(0, stats.getDarkClipRatio(), 1e-9);
+        assertEquals(0, stats.getBrightClipRatio(), 1e-9);
+    }
+
+    @Test
+    public void regionLimitsSampling() {
+        int width = 64;
+        int height = 32;
+        Frame frame = new Frame(splitNV21(width, height, 40, 200, 128, 128), 0, 0, width, height, width, YuvFormats.NV21, null);
+        FrameStats stats = new FrameStats();
+        FrameStatsCalculator calculator = new FrameStatsCalculator().setGridStep(2).addRegion(0.5f, 0, 1, 1);
+        assertTrue(calculator.compute(frame, stats));
+        assertEquals(200, stats.getMeanLuma(), 1e-9);
+        assertEquals(200, stats.getLumaPercentile(0));
+
+        calculator.clearRegions().addRegion(0, 0, 0.25f, 0.5f);
+        assertTrue(calculator.compute(frame, stats));
+        assertEquals(40, stats.getMeanLuma(), 1e-9);
+        assertEquals(16 / 2 * 16 / 2, stats.getSampleCount());
+    }
+
+    @Test
+    public void chromaMeansAndGrayWorldGains() {
+        int width = 32;
+        int height = 16;
+        FrameStats stats = new FrameStats();
+        FrameStatsCalculator calculator = new FrameStatsCalculator().setGridStep(2);
+
+        Frame neutral = new Frame(splitNV21(width, height, 100, 100, 128, 128), 0, 0, width, height, width, YuvFormats.NV21, null);
+        assertTrue(calculator.compute(neutral, stats));
+        assertEquals(1, stats.getRedGain(), 1e-9);
+        assertEquals(1, stats.getBlueGain(), 1e-9);
+
+        // 偏红:V大于128,红色增益小于1
+        Frame reddish = new Frame(splitNV21(width, height, 100, 100, 120, 150), 0, 0, width, height, width, YuvFormats.NV21, null);
+        assertTrue(calculator.compute(reddish, stats));
+        assertEquals(120, stats.getMeanU(), 1e-9);
+        assertEquals(150, stats.getMeanV(), 1e-9);
+        assertTrue(stats.getRedGain() < 1);
+        assertTrue(stats.getBlueGain() > 1);
+    }
+
+    @Test
+    public void planarFormatsMatchNV21() {
+        int width = 32;
+        int height = 16;
+        byte[] nv21 = splitNV21(width, height, 10, 90, 60, 190);
+        FrameStatsCalculator calculator = new FrameStatsCalculator().setGridStep(2);
+        FrameStats expected = new FrameStats();
+        assertTrue(calculator.compute(new Frame(nv21, 0, 0, width, height, width, YuvFormats.NV21, null), expected));
+        for (int format : new int[]{YuvFormats.NV12, YuvFormats.I420, YuvFormats.YV12}) {
+            byte[] converted = new byte[nv21.length];
+            assertTrue(YuvConverter.convert(nv21, YuvFormats.NV21, width, height, converted, format));
+            FrameStats stats = new FrameStats();
+            assertTrue(calculator.compute(new Frame(converted, 0, 0, width, height, width, format, null), stats));
+            assertEquals(YuvFormats.getName(format), expected.getMeanLuma(), stats.getMeanLuma(), 1e-9);
+            assertEquals(YuvFormats.getName(format), expected.getMeanU(), stats.getMeanU(), 1e-9);
+            assertEquals(YuvFormats.getName(format), expected.getMeanV(), stats.getMeanV(), 1e-9);
+        }
+    }
+
+    @Test
+    public void viewMatchesCompactCopy() {
+        int width = 64;
+        int height = 32;
+        byte[] data = new byte[width * height * 3 / 2];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i * 31);
+        }
+        Frame view = new Frame(data, 0, 0, 32, 16, width, 8, 6, height, YuvFormats.NV21, null);
+        byte[] compact = new byte[view.getCompactSize()];
+        assertTrue(view.copyTo(compact));
+
+        FrameStatsCalculator calculator = new FrameStatsCalculator().setGridStep(2);
+        FrameStats expected = new FrameStats();
+        FrameStats actual = new FrameStats();
+        assertTrue(calculator.compute(new Frame(compact, 0, 0, 32, 16, 32, YuvFormats.NV21, null), expected));
+        assertTrue(calculator.compute(view, actual));
+        assertArrayEquals(expected.getHistogram(), actual.getHistogram());
+        assertEquals(expected.getMeanU(), actual.getMeanU(), 1e-9);
+        assertEquals(expected.getMeanV(), actual.getMeanV(), 1e-9);
+    }
+
+    @Test
+    public void statsRecycledWithFrame() {
+        int width = 32;
+        int height = 16;
+        byte[] data = splitNV21(width, height, 50, 50, 128, 128);
+        FrameStatsCalculator calculator = new FrameStatsCalculator();
+        for (int i = 0; i < 10; i++) {
+            Frame frame = new Frame(data, i, 0, width, height, width, YuvFormats.NV21, null);
+            frame.attachStats(calculator.compute(frame));
+            assertEquals(50, frame.getStats().getMeanLuma(), 1e-9);
+            frame.release();
+        }
+        assertEquals(1, calculator.getAllocationCount());
+    }
+
+    @Test
+    public void rejectsUnsupportedFrames() {
+        FrameStatsCalculator calculator = new FrameStatsCalculator();
+        assertNull(calculator.compute(new Frame(new byte[24], 0, 0, 4, 4, 4, 0x11111111, null)));
+        // 平面格式的视图无法定位色度数据
+        assertNull(calculator.compute(new Frame(new byte[96], 0, 0, 4, 4, 8, 2, 2, 8, YuvFormats.I420, null)));
+    }
+}
@@ -0,0 +1,293 @@
+package com.shuyi.camera_module.image;
+
+import com.shuyi.camera_module.common.Utils;
+import com.shuyi.camera_module.frame.Frame;
+import com.shuyi.camera_module.frame.FramePool;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class FrameTransformTest {
+
+    private static byte[] randomNV21(int width, int height, long seed) {
+        byte[] data = new byte[width * height * 3 / 2];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    private static Frame compactFrame(byte[] data, int width, int height) {
+        return new Frame(data, 0, 0, width, height, width, YuvFormats.NV21, null);
+    }
+
+    /**
+     * 朴素的链式处理:裁剪、旋转、缩放各拷贝一次
+     */
+    private static byte[] naiveNV21(byte[] src, int width, int height, int left, int top, int clipW, int clipH,
+                                    int rotation, boolean mirror, int outW, int outH) {
+        byte[] cropped = Utils.clipNV21(src, width, height, left, top, clipW, clipH);
+        byte[] rotated = new byte[clipW * clipH * 3 / 2];
+        assertTrue(NV21Rotator.rotate(cropped, 0, clipW * clipH, clipW, clipW, clipH, rotation, mirror, rotated));
+        int rotatedW = NV21Rotator.getRotatedWidth(clipW, clipH, rotation);
+        int rotatedH = NV21Rotator.getRotatedHeight(clipW, clipH, rotation);
+        if (rotatedW == outW && rotatedH == outH) {
+            return rotated;
+        }
+        byte[] scaled = new byte[outW * outH * 3 / 2];
+        assertTrue(NV21Scaler.bilinear(rotated, 0, rotatedW * rotatedH, rotatedW, rotatedW, rotatedH, scaled, outW, outH));
+        return scaled;
+    }
+
+    private static int maxDifference(byte[] expected, byte[] actual, int length) {
+        int max = 0;
+        for (int i = 0; i < length; i++) {
+            max = Math.max(max, Math.abs((expected[i] & 0xFF) - (actual[i] & 0xFF)));
+        }
+        return max;
+    }
+
+    @Test
+    public void plan_usesSpecializedKernelsForSingleSteps() {
+        Frame frame = compactFrame(new byte[64 * 48 * 3 / 2], 64, 48);
+        assertEquals(FrameTransform.Kernel.COPY, FrameTransform.newBuilder()
+                .setCrop(8, 8, 32, 32).setOutputFormat(YuvFormats.I420).build().plan(frame));
+        assertEquals(FrameTransform.Kernel.GRAY, FrameTransform.newBuilder()
+                .setOutputFormat(FrameTransform.FORMAT_GRAY).build().plan(frame));
+        assertEquals(FrameTransform.Kernel.ARGB, FrameTransform.newBuilder()
+                .setOutputFormat(FrameTransform.FORMAT_ARGB).build().plan(frame));
+        assertEquals(FrameTransform.Kernel.ROTATE, FrameTransform.newBuilder()
+                .setRotation(90).setMirror(true).build().plan(frame));
+        assertEquals(FrameTransform.Kernel.SCALE, FrameTransform.newBuilder()
+                .setOutputSize(32, 24).build().plan(frame));
+        // 旋转后的尺寸与输出尺寸相同,不需要缩放
+        assertEquals(FrameTransform.Kernel.ROTATE, FrameTransform.newBuilder()
+                .setRotation(270).setOutputSize(48, 64).build().plan(frame));
+        assertEquals(FrameTransform.Kernel.REMAP, FrameTransform.newBuilder()
+                .setRotation(90).setOutputSize(24, 32).build().plan(frame));
+        assertEquals(FrameTransform.Kernel.REMAP, FrameTransform.newBuilder()
+                .setRotation(180).setOutputFormat(FrameTransform.FORMAT_ARGB).build().plan(frame));
+    }
+
+    @Test
+    public void cropAndConvert_matchesYuvConverter() {
+        int width = 64;
+        int height = 48;
+        byte[] src = randomNV21(width, height, 1);
+        for (int format : new int[]{YuvFormats.NV21, YuvFormats.NV12, YuvFormats.I420, YuvFormats.YV12}) {
+            FrameTransform transform = FrameTransform.newBuilder()
+                    .setCrop(6, 10, 40, 30).setOutputFormat(format).build();
+            byte[] expected = new byte[40 * 30 * 3 / 2];
+            assertTrue(YuvConverter.convert(src, YuvFormats.NV21, width, height, 6, 10, 40, 30, expected, format));
+            byte[] actual = new byte[transform.getOutputSize(compactFrame(src, width, height))];
+            assertTrue(transform.apply(compactFrame(src, width, height), actual));
+            assertArrayEquals(YuvFormats.getName(format), expected, actual);
+        }
+    }
+
+    @Test
+    public void remapWithoutScaling_matchesRotateThenConvert() {
+        int width = 48;
+        int height = 32;
+        byte[] src = randomNV21(width, height, 2);
+        for (int rotation = 0; rotation < 360; rotation += 90) {
+            for (boolean mirror : new boolean[]{false, true}) {
+                byte[] rotated = naiveNV21(src, width, height, 4, 2, 40, 28, rotation, mirror,
+                        NV21Rotator.getRotatedWidth(40, 28, rotation), NV21Rotator.getRotatedHeight(40, 28, rotation));
+                int outW = NV21Rotator.getRotatedWidth(40, 28, rotation);
+                int outH = NV21Rotator.getRotatedHeight(40, 28, rotation);
+                byte[] expected = new byte[rotated.length];
+                assertTrue(YuvConverter.convert(rotated, YuvFormats.NV21, outW, outH, expected, YuvFormats.I420));
+
+                FrameTransform transform = FrameTransform.newBuilder()
+                        .setCrop(4, 2, 40, 28).setRotation(rotation).setMirror(mirror)
+                        .setOutputFormat(YuvFormats.I420).build();
+                byte[] actual = new byte[expected.length];
+                assertTrue(transform.apply(compactFrame(src, width, height), actual));
+                assertArrayEquals("rotation=" + rotation + ", mirror=" + mirror, expected, actual);
+            }
+        }
+    }
+
+    @Test
+    public void remapWithoutRotation_matchesBilinearScaler() {
+        int width = 64;
+        int height = 48;
+        byte[] src = randomNV21(width, height, 3);
+        byte[] scaled = new byte[36 * 20 * 3 / 2];
+        assertTrue(NV21Scaler.bilinear(src, 0, width * height, width, width, height, scaled, 36, 20));
+        byte[] expected = new byte[scaled.length];
+        assertTrue(YuvConverter.convert(scaled, YuvFormats.NV21, 36, 20, expected, YuvFormats.I420));
+
+        FrameTransform transform = FrameTransform.newBuilder()
+                .setOutputSize(36, 20).setOutputFormat(YuvFormats.I420).build();
+        byte[] actual = new byte[expected.length];
+        assertTrue(transform.apply(compactFrame(src, width, height), actual));
+        assertArrayEquals(expected, actual);
+    }
+
+    @Test
+    public void remapWithRotationAndScaling_closeToNaiveChain() {
+        int width = 96;
+        int height = 64;
+        byte[] src = randomNV21(width, height, 4);
+        for (int rotation = 0; rotation < 360; rotation += 90) {
+            for (boolean mirror : new boolean[]{false, true}) {
+                int outW = rotation % 180 == 0 ? 50 : 30;
+                int outH = rotation % 180 == 0 ? 30 : 50;
+                byte[] expected = naiveNV21(src, width, height, 8, 4, 80, 56, rotation, mirror, outW, outH);
+                FrameTransform transform = FrameTransform.newBuilder()
+                        .setCrop(8, 4, 80, 56).setRotation(rotation).setMirror(mirror)
+                        .setOutputSize(outW, outH).build();
+                byte[] actual = new byte[expected.length];
+                assertTrue(transform.apply(compactFrame(src, width, height), actual));
+                // 反向采样时两个方向上权重的取整方向都可能不同,最多相差2
+                assertTrue("rotation=" + rotation + ", mirror=" + mirror,
+                        maxDifference(expected, actual, expected.length) <= 2);
+            }
+        }
+    }
+
+    @Test
+    public void argbAndGray_matchNaiveChain() {
+        int width = 48;
+        int height = 32;
+        byte[] src = randomNV21(width, height, 5);
+        byte[] rotated = naiveNV21(src, width, height, 0, 0, width, height, 90, true, height, width);
+        int[] expected = new int[width * height];
+        assertTrue(NV21ToArgbConverter.convert(rotated, height, width, YuvColorSpace.BT709_LIMITED, expected));
+
+        Frame frame = compactFrame(src, width, height);
+        FrameTransform argb = FrameTransform.newBuilder().setRotation(90).setMirror(true)
+                .setOutputFormat(FrameTransform.FORMAT_ARGB).setColorSpace(YuvColorSpace.BT709_LIMITED).build();
+        int[] actual = new int[argb.getOutputSize(frame)];
+        assertTrue(argb.apply(frame, actual));
+        assertArrayEquals(expected, actual);
+        assertFalse(argb.apply(frame, new byte[width * height * 4]));
+
+        FrameTransform gray = FrameTransform.newBuilder().setRotation(90).setMirror(true)
+                .setOutputFormat(FrameTransform.FORMAT_GRAY).build();
+        byte[] luma = new byte[gray.getOutputSize(frame)];
+        assertEquals(width * height, luma.length);
+        assertTrue(gray.apply(frame, luma));
+        assertEquals(0, maxDifference(rotated, luma, luma.length));
+    }
+
+    @Test
+    public void viewSource_matchesCompactSource() {
+        int width = 96;
+        int height = 64;
+        byte[] src = randomNV21(width, height, 6);
+        Frame view = new Frame(src, 0, 0, 60, 40, width, 12, 8, height, YuvFormats.NV21, null);
+        byte[] compact = new byte[view.getCompactSize()];
+        assertTrue(view.copyTo(compact));
+        FrameTransform transform = FrameTransform.newBuilder().setCrop(2, 4, 40, 30)
+                .setRotation(270).setOutputSize(20, 26).setOutputFormat(YuvFormats.NV12).build();
+        byte[] expected = new byte[transform.getOutputSize(view)];
+        byte[] actual = new byte[expected.length];
+        assertTrue(transform.apply(compactFrame(compact, 60, 40), expected));
+        assertTrue(transform.apply(view, actual));
+        assertArrayEquals(expected, actual);
+    }
+
+    @Test
+    public void parallelBands_matchSerial() {
+        int width = 640;
+        int height = 480;
+        Frame frame = compactFrame(randomNV21(width, height, 7), width, height);
+        RowBandExecutor executor = new RowBandExecutor(4, 0);
+        FrameTransform.Builder builder = FrameTransform.newBuilder().setRotation(90).setOutputSize(240, 320);
+        byte[] serial = new byte[240 * 320 * 3 / 2];
+        byte[] parallel = new byte[serial.length];
+        assertTrue(builder.build().apply(frame, serial));
+        assertTrue(builder.setExecutor(executor).build().apply(frame, parallel));
+        assertArrayEquals(serial, parallel);
+
+        builder.setOutputFormat(FrameTransform.FORMAT_ARGB);
+        int[] serialArgb = new int[240 * 320];
+        int[] parallelArgb = new int[serialArgb.length];
+        assertTrue(builder.setExecutor(null).build().apply(frame, serialArgb));
+        assertTrue(builder.setExecutor(executor).build().apply(frame, parallelArgb));
+        assertArrayEquals(serialArgb, parallelArgb);
+        executor.shutdown();
+    }
+
+    @Test
+    public void pooledOutput_isRecycledOnRelease() {
+        int width = 64;
+        int height = 48;
+        Frame source = compactFrame(randomNV21(width, height, 8), width, height);
+        FramePool pool = new FramePool();
+        FrameTransform transform = FrameTransform.newBuilder().setRotation(90).setOutputSize(24, 32).build();
+        for (int i = 0; i < 5; i++) {
+            Frame output = transform.apply(source, pool);
+            assertNotNull(output);
+            assertEquals(24, output.getWidth());
+            assertEquals(32, output.getHeight());
+            assertTrue(output.isCompact());
+            output.release();
+        }
+        assertEquals(1, pool.getAllocationCount());
+    }
+
+    @Test
+    public void badArguments_returnFalse() {
+        Frame frame = compactFrame(new byte[64 * 48 * 3 / 2], 64, 48);
+        byte[] dst = new byte[64 * 48 * 3 / 2];
+        assertFalse(FrameTransform.newBuilder().setCrop(40, 0, 32, 32).build().apply(frame, dst));
+        assertFalse(FrameTransform.newBuilder().build().apply(frame, new byte[10]));
+        assertFalse(FrameTransform.newBuilder().build()
+                .apply(new Frame(dst, 0, 0, 64, 48, 64, YuvFormats.I420, null), dst));
+        try {
+            FrameTransform.newBuilder().setRotation(45);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            FrameTransform.newBuilder().setOutputFormat(FrameTransform.FORMAT_ARGB).build().apply(frame, new FramePool());
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    /**
+     * 融合的单次遍历与朴素的链式处理对比;只打印结果,不做断言
+     */
+    @Test
+    public void benchmark_fusedVersusNaiveChain() {
+        int width = 1920;
+        int height = 1080;
+        byte[] src = randomNV21(width, height, 9);
+        Frame frame = compactFrame(src, width, height);
+        int clipW = 1440;
+        int left = (width - clipW) / 2;
+        int outW = 540;
+        int outH = 720;
+        FrameTransform transform = FrameTransform.newBuilder().setCrop(left, 0, clipW, height)
+                .setRotation(90).setOutputSize(outW, outH).setOutputFormat(FrameTransform.FORMAT_ARGB).build();
+        int[] argb = new int[outW * outH];
+        byte[] rotated = new byte[clipW * height * 3 / 2];
+        byte[] scaled = new byte[outW * outH * 3 / 2];
+        int iterations = 20;
+        for (int round = 0; round < 2; round++) {
+            long startNs = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                byte[] cropped = Utils.clipNV21(src, width, height, left, 0, clipW, height);
+                NV21Rotator.rotate(cropped, 0, clipW * height, clipW, clipW, height, 90, false, rotated);
+                NV21Scaler.bilinear(rotated, 0, clipW * height, height, height, clipW, scaled, outW, outH);
+                NV21ToArgbConverter.convert(scaled, outW, outH, YuvColorSpace.BT601_FULL, argb);
+            }
+            double naiveMs = (System.nanoTime() - startNs) / 1e6 / iterations;
+            startNs = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                transform.apply(frame, argb);
+            }
+            double fusedMs = (System.nanoTime() - startNs) / 1e6 / iterations;
+            if (round == 1) {
+                System.out.println(String.format("crop+rotate+scale+argb %dx%d -> %dx%d: naive %.2f ms/frame, fused %.2f ms/frame",
+                        width, height, outW, outH, naiveMs, fusedMs));
+            }
+        }
+    }
+}
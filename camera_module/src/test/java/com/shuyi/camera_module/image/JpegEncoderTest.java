@@ -0,0 +1,225 @@
+package com.shuyi.camera_module.image;
+
+import com.shuyi.camera_module.frame.Frame;
+
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import javax.imageio.ImageIO;
+
+import static org.junit.Assert.*;
+
+public class JpegEncoderTest {
+
+    /**
+     * 平滑的渐变与圆环,色度也是渐变的;解码器的色度上采样方式不同也不会产生大的误差
+     */
+    private static byte[] pattern(int width, int height) {
+        byte[] nv21 = new byte[width * height * 3 / 2];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                double dx = x - width / 2.0;
+                double dy = y - height / 2.0;
+                double ring = 40 * Math.sin(Math.sqrt(dx * dx + dy * dy) / 9.0);
+                nv21[y * width + x] = (byte) clamp(60 + 120 * x / width + ring);
+            }
+        }
+        int uvOffset = width * height;
+        for (int y = 0; y < height / 2; y++) {
+            for (int x = 0; x < width / 2; x++) {
+                nv21[uvOffset + y * width + x * 2] = (byte) clamp(100 + 60 * y * 2 / height);
+                nv21[uvOffset + y * width + x * 2 + 1] = (byte) clamp(160 - 60 * x * 2 / width);
+            }
+        }
+        return nv21;
+    }
+
+    private static int clamp(double value) {
+        return (int) Math.max(0, Math.min(255, Math.round(value)));
+    }
+
+    private static byte[] encode(JpegEncoder encoder, byte[] data, int format, int width, int height) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encoder.encode(data, format, width, height, out);
+        return out.toByteArray();
+    }
+
+    private static BufferedImage decode(byte[] jpeg) throws IOException {
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(jpeg));
+        assertNotNull("the jpeg can not be decoded", image);
+        return image;
+    }
+
+    /**
+     * 使用JFIF的全范围BT.601公式得到参考RGB,与解码结果比较的平均误差
+     */
+    private static double meanError(byte[] nv21, int width, int height, BufferedImage image) {
+        assertEquals(width, image.getWidth());
+        assertEquals(height, image.getHeight());
+        long sum = 0;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int luma = nv21[y * width + x] & 0xFF;
+                int uv = width * height + y / 2 * width + x / 2 * 2;
+                int cr = (nv21[uv] & 0xFF) - 128;
+                int cb = (nv21[uv + 1] & 0xFF) - 128;
+                int r = clamp(luma + 1.402 * cr);
+                int g = clamp(luma - 0.344136 * cb - 0.714136 * cr);
+                int b = clamp(luma + 1.772 * cb);
+                int rgb = image.getRGB(x, y);
+                sum += Math.abs(r - ((rgb >> 16) & 0xFF)) + Math.abs(g - ((rgb >> 8) & 0xFF)) + Math.abs(b - (rgb & 0xFF));
+            }
+        }
+        return sum / (3.0 * width * height);
+    }
+
+    @Test
+    public void encode_decodesWithImageIO() throws IOException {
+        // 宽高都不是16的整数倍,覆盖边缘MCU的填充
+        int width = 202;
+        int height = 118;
+        byte[] nv21 = pattern(width, height);
+        byte[] jpeg = encode(new JpegEncoder(95, null), nv21, YuvFormats.NV21, width, height);
+        assertEquals(0xFF, jpeg[0] & 0xFF);
+        assertEquals(0xD8, jpeg[1] & 0xFF);
+        assertEquals(0xD9, jpeg[jpeg.length - 1] & 0xFF);
+        double error = meanError(nv21, width, height, decode(jpeg));
+        assertTrue("mean error " + error, error < 2.5);
+    }
+
+    @Test
+    public void quality_tradesSizeForError() throws IOException {
+        int width = 320;
+        int height = 240;
+        byte[] nv21 = pattern(width, height);
+        int previousSize = 0;
+        double previousError = Double.MAX_VALUE;
+        for (int quality : new int[]{10, 50, 90, 100}) {
+            byte[] jpeg = encode(new JpegEncoder(quality, null), nv21, YuvFormats.NV21, width, height);
+            double error = meanError(nv21, width, height, decode(jpeg));
+            assertTrue("quality " + quality, jpeg.length > previousSize);
+            assertTrue("quality " + quality, error <= previousError);
+            previousSize = jpeg.length;
+            previousError = error;
+        }
+    }
+
+    @Test
+    public void customTables_areWrittenToFile() throws IOException {
+        int[] flat = new int[64];
+        Arrays.fill(flat, 4);
+        int width = 64;
+        int height = 48;
+        byte[] nv21 = pattern(width, height);
+        byte[] jpeg = encode(new JpegEncoder(flat, flat, null), nv21, YuvFormats.NV21, width, height);
+        // DQT紧跟在SOI(2字节)与APP0(18字节)之后
+        assertEquals(0xDB, jpeg[21] & 0xFF);
+        for (int i = 0; i < 64; i++) {
+            assertEquals(4, jpeg[25 + i]);
+        }
+        assertTrue(meanError(nv21, width, height, decode(jpeg)) < 2);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidTable_isRejected() {
+        new JpegEncoder(new int[64], JpegEncoder.getStandardChromaTable(), null);
+    }
+
+    @Test
+    public void allFormats_produceIdenticalFiles() throws IOException {
+        int width = 96;
+        int height = 64;
+        byte[] nv21 = pattern(width, height);
+        JpegEncoder encoder = new JpegEncoder(80, null);
+        byte[] expected = encode(encoder, nv21, YuvFormats.NV21, width, height);
+        for (int format : new int[]{YuvFormats.NV12, YuvFormats.I420, YuvFormats.YV12}) {
+            byte[] converted = new byte[nv21.length];
+            assertTrue(YuvConverter.convert(nv21, YuvFormats.NV21, width, height, converted, format));
+            assertArrayEquals(YuvFormats.getName(format), expected, encode(encoder, converted, format, width, height));
+        }
+    }
+
+    @Test
+    public void frameView_matchesCompactCrop() throws IOException {
+        int width = 160;
+        int height = 120;
+        byte[] nv21 = pattern(width, height);
+        Frame view = new Frame(nv21, 0, 0, 64, 48, width, 32, 20, height, YuvFormats.NV21, null);
+        byte[] compact = new byte[view.getCompactSize()];
+        assertTrue(view.copyTo(compact));
+        JpegEncoder encoder = new JpegEncoder(80, null);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encoder.encode(view, out);
+        assertArrayEquals(encode(encoder, compact, YuvFormats.NV21, 64, 48), out.toByteArray());
+    }
+
+    @Test
+    public void parallelStrips_useRestartMarkersAndDecodeIdentically() throws IOException {
+        int width = 640;
+        int height = 480;
+        byte[] nv21 = pattern(width, height);
+        RowBandExecutor executor = new RowBandExecutor(4, 0);
+        byte[] parallel = encode(new JpegEncoder(85, executor), nv21, YuvFormats.NV21, width, height);
+        byte[] serial = encode(new JpegEncoder(85, null), nv21, YuvFormats.NV21, width, height);
+        executor.shutdown();
+
+        int restartMarkers = 0;
+        boolean dri = false;
+        for (int i = 0; i < parallel.length - 1; i++) {
+            if ((parallel[i] & 0xFF) == 0xFF) {
+                int marker = parallel[i + 1] & 0xFF;
+                if (marker >= 0xD0 && marker <= 0xD7) {
+                    assertEquals(0xD0 + (restartMarkers & 7), marker);
+                    restartMarkers++;
+                } else if (marker == 0xDD) {
+                    dri = true;
+                }
+            }
+        }
+        assertTrue(dri);
+        assertEquals(3, restartMarkers);
+
+        BufferedImage expected = decode(serial);
+        BufferedImage actual = decode(parallel);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                assertEquals(expected.getRGB(x, y), actual.getRGB(x, y));
+            }
+        }
+    }
+
+    @Test
+    public void benchmark_serialVersusParallelStrips() throws IOException {
+        int width = 1920;
+        int height = 1080;
+        byte[] nv21 = pattern(width, height);
+        RowBandExecutor executor = new RowBandExecutor(Runtime.getRuntime().availableProcessors(), 0);
+        JpegEncoder serial = new JpegEncoder(JpegEncoder.DEFAULT_QUALITY, null);
+        JpegEncoder parallel = new JpegEncoder(JpegEncoder.DEFAULT_QUALITY, executor);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(1 << 20);
+        int iterations = 10;
+        for (int round = 0; round < 2; round++) {
+            long startNs = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                out.reset();
+                serial.encode(nv21, YuvFormats.NV21, width, height, out);
+            }
+            double serialMs = (System.nanoTime() - startNs) / 1e6 / iterations;
+            int size = out.size();
+            startNs = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                out.reset();
+                parallel.encode(nv21, YuvFormats.NV21, width, height, out);
+            }
+            double parallelMs = (System.nanoTime() - startNs) / 1e6 / iterations;
+            System.out.println(String.format("jpeg 1080p q%d: serial %.2f ms/frame, %d strips %.2f ms/frame, %d bytes",
+                    JpegEncoder.DEFAULT_QUALITY, serialMs, executor.getBandCount(width, height, 16), parallelMs, size));
+        }
+        executor.shutdown();
+    }
+}
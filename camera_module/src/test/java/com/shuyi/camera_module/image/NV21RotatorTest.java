@@ -0,0 +1,119 @@
+package com.shuyi.camera_module.image;
+
+import com.shuyi.camera_module.common.Utils;
+import com.shuyi.camera_module.frame.Frame;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class NV21RotatorTest {
+
+    /**
+     * 逐个像素按照定义计算:先水平镜像,再顺时针旋转
+     */
+    private static byte[] reference(byte[] src, int width, int height, int rotation, boolean mirror) {
+        int outW = rotation % 180 == 0 ? width : height;
+        int outH = rotation % 180 == 0 ? height : width;
+        byte[] dst = new byte[width * height * 3 / 2];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int mx = mirror ? width - 1 - x : x;
+                int[] o = rotatePoint(mx, y, width, height, rotation);
+                dst[o[1] * outW + o[0]] = src[y * width + x];
+            }
+        }
+        int cw = width / 2;
+        int ch = height / 2;
+        for (int y = 0; y < ch; y++) {
+            for (int x = 0; x < cw; x++) {
+                int mx = mirror ? cw - 1 - x : x;
+                int[] o = rotatePoint(mx, y, cw, ch, rotation);
+                int dstIndex = width * height + o[1] * outW + o[0] * 2;
+                int srcIndex = width * height + y * width + x * 2;
+                dst[dstIndex] = src[srcIndex];
+                dst[dstIndex + 1] = src[srcIndex + 1];
+            }
+        }
+        assertEquals(outW * outH * 3 / 2, dst.length);
+        return dst;
+    }
+
+    private static int[] rotatePoint(int x, int y, int width, int height, int rotation) {
+        switch (rotation) {
+            case 90:
+                return new int[]{height - 1 - y, x};
+            case 180:
+                return new int[]{width - 1 - x, height - 1 - y};
+            case 270:
+                return new int[]{y, width - 1 - x};
+            default:
+                return new int[]{x, y};
+        }
+    }
+
+    private static byte[] randomNV21(int width, int height, long seed) {
+        byte[] data = new byte[width * height * 3 / 2];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    @Test
+    public void allRotations_matchReference() {
+        int width = 20;
+        int height = 12;
+        byte[] src = randomNV21(width, height, 5);
+        byte[] dst = new byte[src.length];
+        for (int rotation = 0; rotation < 360; rotation += 90) {
+            for (int m = 0; m < 2; m++) {
+                boolean mirror = m == 1;
+                assertTrue(NV21Rotator.rotate(src, width, height, 0, 0, width, height, rotation, mirror, dst));
+                assertArrayEquals("rotation=" + rotation + ", mirror=" + mirror,
+                        reference(src, width, height, rotation, mirror), dst);
+            }
+        }
+    }
+
+    @Test
+    public void fusedCrop_matchesClipThenRotate() {
+        int width = 64;
+        int height = 48;
+        byte[] src = randomNV21(width, height, 6);
+        byte[] clipped = Utils.clipNV21(src, width, height, 10, 6, 40, 30);
+        byte[] dst = new byte[clipped.length];
+        for (int rotation = 0; rotation < 360; rotation += 90) {
+            assertTrue(NV21Rotator.rotate(src, width, height, 10, 6, 40, 30, rotation, true, dst));
+            assertArrayEquals(reference(clipped, 40, 30, rotation, true), dst);
+
+            Frame view = new Frame(src, 0, 0, 40, 30, width, 10, 6, height, 17, null);
+            byte[] fromView = new byte[clipped.length];
+            assertTrue(NV21Rotator.rotate(view, rotation, true, fromView));
+            assertArrayEquals(dst, fromView);
+        }
+    }
+
+    @Test
+    public void rotate90_smallImage() {
+        // 4x2的亮度:
+        // 0 1 2 3
+        // 4 5 6 7
+        byte[] src = {0, 1, 2, 3, 4, 5, 6, 7, 10, 11, 20, 21};
+        byte[] dst = new byte[src.length];
+        assertTrue(NV21Rotator.rotate(src, 4, 2, 0, 0, 4, 2, 90, false, dst));
+        assertArrayEquals(new byte[]{4, 0, 5, 1, 6, 2, 7, 3, 10, 11, 20, 21}, dst);
+        assertEquals(2, NV21Rotator.getRotatedWidth(4, 2, 90));
+        assertEquals(4, NV21Rotator.getRotatedHeight(4, 2, 90));
+    }
+
+    @Test
+    public void badArguments_returnFalse() {
+        byte[] src = new byte[24];
+        byte[] dst = new byte[24];
+        assertFalse(NV21Rotator.rotate(src, 4, 4, 0, 0, 4, 4, 45, false, dst));
+        assertFalse(NV21Rotator.rotate(src, 4, 4, 1, 0, 2, 2, 90, false, dst));
+        assertFalse(NV21Rotator.rotate(src, 4, 4, 2, 2, 4, 4, 90, false, dst));
+        assertFalse(NV21Rotator.rotate(src, 4, 4, 0, 0, 4, 4, 90, false, new byte[23]));
+    }
+}
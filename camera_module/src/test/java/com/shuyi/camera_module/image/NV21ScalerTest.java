@@ -0,0 +1,152 @@
+package com.shuyi.camera_module.image;
+
+import com.shuyi.camera_module.common.Utils;
+import com.shuyi.camera_module.frame.Frame;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class NV21ScalerTest {
+
+    private static byte[] randomNV21(int width, int height, long seed) {
+        byte[] data = new byte[width * height * 3 / 2];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    /**
+     * 按照定义计算factor x factor的块平均
+     */
+    private static byte[] referenceBox(byte[] src, int width, int height, int factor) {
+        int outW = width / factor;
+        int outH = height / factor;
+        byte[] dst = new byte[outW * outH * 3 / 2];
+        int n = factor * factor;
+        for (int oy = 0; oy < outH; oy++) {
+            for (int ox = 0; ox < outW; ox++) {
+                int sum = 0;
+                for (int dy = 0; dy < factor; dy++) {
+                    for (int dx = 0; dx < factor; dx++) {
+                        sum += src[(oy * factor + dy) * width + ox * factor + dx] & 0xFF;
+                    }
+                }
+                dst[oy * outW + ox] = (byte) ((sum + n / 2) / n);
+            }
+        }
+        for (int oy = 0; oy < outH / 2; oy++) {
+            for (int ox = 0; ox < outW / 2; ox++) {
+                for (int c = 0; c < 2; c++) {
+                    int sum = 0;
+                    for (int dy = 0; dy < factor; dy++) {
+                        for (int dx = 0; dx < factor; dx++) {
+                            sum += src[width * height + (oy * factor + dy) * width + (ox * factor + dx) * 2 + c] & 0xFF;
+                        }
+                    }
+                    dst[outW * outH + oy * outW + ox * 2 + c] = (byte) ((sum + n / 2) / n);
+                }
+            }
+        }
+        return dst;
+    }
+
+    private static void assertClose(byte[] expected, byte[] actual, int tolerance) {
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            int diff = Math.abs((expected[i] & 0xFF) - (actual[i] & 0xFF));
+            if (diff > tolerance) {
+                fail("index " + i + ": expected " + (expected[i] & 0xFF) + " but was " + (actual[i] & 0xFF));
+            }
+        }
+    }
+
+    @Test
+    public void box2x_matchesBlockAverage() {
+        byte[] src = randomNV21(32, 24, 7);
+        byte[] dst = new byte[16 * 12 * 3 / 2];
+        assertTrue(NV21Scaler.box2x(src, 0, 32 * 24, 32, 32, 24, dst));
+        assertArrayEquals(referenceBox(src, 32, 24, 2), dst);
+    }
+
+    @Test
+    public void box4x_matchesBlockAverage() {
+        byte[] src = randomNV21(32, 24, 8);
+        byte[] dst = new byte[8 * 6 * 3 / 2];
+        assertTrue(NV21Scaler.box4x(src, 0, 32 * 24, 32, 32, 24, dst));
+        assertArrayEquals(referenceBox(src, 32, 24, 4), dst);
+    }
+
+    @Test
+    public void bilinear_sameSize_isCopy() {
+        byte[] src = randomNV21(20, 10, 9);
+        byte[] dst = new byte[src.length];
+        assertTrue(NV21Scaler.bilinear(src, 0, 200, 20, 20, 10, dst, 20, 10));
+        assertArrayEquals(src, dst);
+    }
+
+    @Test
+    public void bilinear_half_matchesBox2x() {
+        // 像素中心对齐时,缩小一半恰好取2x2块的平均,色度同样如此,说明色度位置没有偏移
+        byte[] src = randomNV21(40, 24, 10);
+        byte[] box = new byte[20 * 12 * 3 / 2];
+        byte[] bilinear = new byte[box.length];
+        assertTrue(NV21Scaler.box2x(src, 0, 40 * 24, 40, 40, 24, box));
+        assertTrue(NV21Scaler.bilinear(src, 0, 40 * 24, 40, 40, 24, bilinear, 20, 12));
+        assertClose(box, bilinear, 1);
+    }
+
+    @Test
+    public void bilinear_preservesLinearGradient() {
+        // 水平方向的线性渐变,缩放之后仍然是按照像素中心采样的线性渐变
+        int width = 64;
+        int height = 4;
+        byte[] src = new byte[width * height * 3 / 2];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                src[y * width + x] = (byte) (x * 2);
+            }
+        }
+        for (int y = 0; y < height / 2; y++) {
+            for (int x = 0; x < width / 2; x++) {
+                src[width * height + y * width + x * 2] = (byte) (x * 4);
+                src[width * height + y * width + x * 2 + 1] = (byte) (128);
+            }
+        }
+        int dstW = 24;
+        byte[] dst = new byte[dstW * 2 * 3 / 2];
+        assertTrue(NV21Scaler.bilinear(src, 0, width * height, width, width, height, dst, dstW, 2));
+        for (int x = 1; x < dstW - 1; x++) {
+            double sx = (x + 0.5) * width / dstW - 0.5;
+            assertEquals(sx * 2, dst[x] & 0xFF, 1.0);
+        }
+        for (int x = 1; x < dstW / 2 - 1; x++) {
+            double sx = (x + 0.5) * (width / 2) / (dstW / 2) - 0.5;
+            assertEquals(sx * 4, dst[dstW * 2 + x * 2] & 0xFF, 1.0);
+            assertEquals(128, dst[dstW * 2 + x * 2 + 1] & 0xFF);
+        }
+    }
+
+    @Test
+    public void scale_frameView_usesWindow() {
+        int width = 64;
+        int height = 48;
+        byte[] src = randomNV21(width, height, 11);
+        Frame view = new Frame(src, 0, 0, 32, 24, width, 8, 12, height, 17, null);
+        byte[] fromView = new byte[16 * 12 * 3 / 2];
+        assertTrue(NV21Scaler.scale(view, fromView, 16, 12));
+        byte[] clipped = Utils.clipNV21(src, width, height, 8, 12, 32, 24);
+        assertArrayEquals(referenceBox(clipped, 32, 24, 2), fromView);
+    }
+
+    @Test
+    public void badArguments_returnFalse() {
+        byte[] src = new byte[24 * 24 * 3 / 2];
+        assertFalse(NV21Scaler.box2x(src, 0, 576, 24, 22, 24, new byte[1000]));
+        assertFalse(NV21Scaler.box4x(src, 0, 576, 24, 20, 24, new byte[1000]));
+        assertFalse(NV21Scaler.box2x(src, 0, 576, 24, 24, 24, new byte[215]));
+        assertFalse(NV21Scaler.bilinear(src, 0, 576, 24, 24, 24, new byte[1000], 9, 8));
+        assertTrue(NV21Scaler.bilinear(src, 0, 576, 24, 24, 24, new byte[1000], 10, 8));
+    }
+}
@@ -0,0 +1,156 @@
+package com.shuyi.camera_module.image;
+
+import com.shuyi.camera_module.frame.Frame;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class NV21ToArgbConverterTest {
+
+    /**
+     * 使用浮点数直接按照公式计算,作为参考实现
+     */
+    private static int referenceArgb(int y, int u, int v, YuvColorSpace colorSpace) {
+        double kr = colorSpace.getKr();
+        double kb = colorSpace.getKb();
+        double kg = 1 - kr - kb;
+        double luma = colorSpace.isFullRange() ? y : (y - 16) * 255.0 / 219;
+        double cb = colorSpace.isFullRange() ? u - 128 : (u - 128) * 255.0 / 224;
+        double cr = colorSpace.isFullRange() ? v - 128 : (v - 128) * 255.0 / 224;
+        int r = clamp(luma + 2 * (1 - kr) * cr);
+        int g = clamp(luma - 2 * kb * (1 - kb) / kg * cb - 2 * kr * (1 - kr) / kg * cr);
+        int b = clamp(luma + 2 * (1 - kb) * cb);
+        return 0xFF000000 | (r << 16) | (g << 8) | b;
+    }
+
+    private static int clamp(double value) {
+        long rounded = Math.round(value);
+        return (int) (rounded < 0 ? 0 : (rounded > 255 ? 255 : rounded));
+    }
+
+    private static void assertClose(int expected, int actual) {
+        for (int shift = 0; shift <= 24; shift += 8) {
+            int e = (expected >> shift) & 0xFF;
+            int a = (actual >> shift) & 0xFF;
+            if (Math.abs(e - a) > 1) {
+                fail(String.format("expected %08x but was %08x", expected, actual));
+            }
+        }
+    }
+
+    private static byte[] randomNV21(int width, int height, long seed) {
+        byte[] data = new byte[width * height * 3 / 2];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    @Test
+    public void allValues_matchFloatReference() {
+        // 每个2x2块对应一组UV,覆盖所有的Y、U、V取值
+        int width = 32;
+        int height = 16;
+        byte[] src = new byte[width * height * 3 / 2];
+        int[] dst = new int[width * height];
+        for (YuvColorSpace colorSpace : YuvColorSpace.values()) {
+            for (int base = 0; base < 256; base += 4) {
+                for (int i = 0; i < width * height; i++) {
+                    src[i] = (byte) (base + i % 4);
+                }
+                for (int i = 0; i < width * height / 2; i += 2) {
+                    src[width * height + i] = (byte) ((i / 2) % 256);
+                    src[width * height + i + 1] = (byte) ((i / 2 + base) % 256);
+                }
+                assertTrue(NV21ToArgbConverter.convert(src, width, height, colorSpace, dst));
+                for (int row = 0; row < height; row++) {
+                    for (int col = 0; col < width; col++) {
+                        int uvIndex = width * height + (row / 2) * width + col / 2 * 2;
+                        int y = src[row * width + col] & 0xFF;
+                        int v = src[uvIndex] & 0xFF;
+                        int u = src[uvIndex + 1] & 0xFF;
+                        assertClose(referenceArgb(y, u, v, colorSpace), dst[row * width + col]);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void knownColors_bt601Full() {
+        byte[] src = new byte[6];
+        int[] dst = new int[4];
+        // 灰色
+        src[0] = src[1] = src[2] = src[3] = (byte) 128;
+        src[4] = src[5] = (byte) 128;
+        assertTrue(NV21ToArgbConverter.convert(src, 2, 2, YuvColorSpace.BT601_FULL, dst));
+        assertEquals(0xFF808080, dst[0]);
+        // 纯红色:Y=76, U=85, V=255
+        src[0] = src[1] = src[2] = src[3] = (byte) 76;
+        src[4] = (byte) 255;
+        src[5] = (byte) 85;
+        assertTrue(NV21ToArgbConverter.convert(src, 2, 2, YuvColorSpace.BT601_FULL, dst));
+        assertClose(0xFFFF0000, dst[3]);
+        // 有限范围的黑与白
+        src[0] = 16;
+        src[1] = (byte) 235;
+        src[4] = src[5] = (byte) 128;
+        assertTrue(NV21ToArgbConverter.convert(src, 2, 2, YuvColorSpace.BT709_LIMITED, dst));
+        assertEquals(0xFF000000, dst[0]);
+        assertEquals(0xFFFFFFFF, dst[1]);
+    }
+
+    @Test
+    public void frameView_matchesCompactConversion() {
+        int width = 64;
+        int height = 48;
+        byte[] src = randomNV21(width, height, 3);
+        int[] full = new int[width * height];
+        assertTrue(NV21ToArgbConverter.convert(src, width, height, YuvColorSpace.BT601_FULL, full));
+
+        Frame view = new Frame(src, 0, 0, 40, 30, width, 12, 8, height, 17, null);
+        int[] cropped = new int[40 * 30];
+        assertTrue(NV21ToArgbConverter.convert(view, YuvColorSpace.BT601_FULL, cropped));
+        for (int row = 0; row < 30; row++) {
+            for (int col = 0; col < 40; col++) {
+                assertEquals(full[(row + 8) * width + col + 12], cropped[row * 40 + col]);
+            }
+        }
+    }
+
+    @Test
+    public void badArguments_returnFalse() {
+        int[] dst = new int[16];
+        assertFalse(NV21ToArgbConverter.convert(new byte[24], 4, 4, YuvColorSpace.BT601_FULL, new int[15]));
+        assertFalse(NV21ToArgbConverter.convert(new byte[23], 4, 4, YuvColorSpace.BT601_FULL, dst));
+        assertFalse(NV21ToArgbConverter.convert(new byte[24], 3, 4, YuvColorSpace.BT601_FULL, dst));
+        assertFalse(NV21ToArgbConverter.convert(null, 4, 4, YuvColorSpace.BT601_FULL, dst));
+        assertTrue(NV21ToArgbConverter.convert(new byte[24], 4, 4, YuvColorSpace.BT601_FULL, dst));
+    }
+
+    /**
+     * 吞吐量;只打印结果,不做断言
+     */
+    @Test
+    public void throughput_720pAnd1080p() {
+        int[][] sizes = {{1280, 720}, {1920, 1080}};
+        for (int[] size : sizes) {
+            int width = size[0];
+            int height = size[1];
+            byte[] src = randomNV21(width, height, 4);
+            int[] dst = new int[width * height];
+            for (int i = 0; i < 20; i++) {
+                NV21ToArgbConverter.convert(src, width, height, YuvColorSpace.BT601_FULL, dst);
+            }
+            int iterations = 50;
+            long startNs = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                NV21ToArgbConverter.convert(src, width, height, YuvColorSpace.BT601_FULL, dst);
+            }
+            double msPerFrame = (System.nanoTime() - startNs) / 1e6 / iterations;
+            System.out.println(String.format("NV21->ARGB %dx%d: %.2f ms/frame, %.1f Mpixel/s",
+                    width, height, msPerFrame, width * height / msPerFrame / 1000));
+        }
+    }
+}
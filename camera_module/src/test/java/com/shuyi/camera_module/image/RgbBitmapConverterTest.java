@@ -0,0 +1,67 @@
+package com.shuyi.camera_module.image;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class RgbBitmapConverterTest {
+
+    @Test
+    public void convertRgb_allByteValuesExact() {
+        int width = 256;
+        int height = 3;
+        byte[] rgb = new byte[width * height * 3];
+        for (int i = 0; i < width * height; i++) {
+            rgb[i * 3] = (byte) i;
+            rgb[i * 3 + 1] = (byte) (255 - i);
+            rgb[i * 3 + 2] = (byte) (i * 7);
+        }
+        int[] pixels = new RgbBitmapConverter().convertRgb(rgb, width, height);
+        for (int i = 0; i < width * height; i++) {
+            int r = i & 0xFF;
+            int g = (255 - i) & 0xFF;
+            int b = (i * 7) & 0xFF;
+            assertEquals(0xFF000000 + r * 65536 + g * 256 + b, pixels[i]);
+        }
+        // 原来的实现对负数字节加255,255会变成254
+        assertEquals(0xFFFF00FF, new RgbBitmapConverter().convertRgb(new byte[]{-1, 0, -1}, 1, 1)[0]);
+    }
+
+    @Test
+    public void convertGray_allByteValuesExact() {
+        byte[] gray = new byte[256];
+        for (int i = 0; i < 256; i++) {
+            gray[i] = (byte) i;
+        }
+        int[] pixels = new RgbBitmapConverter().convertGray(gray, 16, 16);
+        for (int i = 0; i < 256; i++) {
+            assertEquals(0xFF000000 + i * 65536 + i * 256 + i, pixels[i]);
+        }
+    }
+
+    @Test
+    public void pixels_reusedForSameSize() {
+        RgbBitmapConverter converter = new RgbBitmapConverter();
+        int[] first = converter.convertGray(new byte[64], 8, 8);
+        int[] second = converter.convertGray(new byte[64], 8, 8);
+        assertSame(first, second);
+        assertNotSame(first, converter.convertGray(new byte[32], 8, 4));
+        assertNull(converter.convertRgb(new byte[10], 2, 2));
+        assertNull(converter.convertGray(null, 2, 2));
+    }
+
+    @Test
+    public void parallel_matchesSerial() {
+        int width = 640;
+        int height = 480;
+        byte[] rgb = new byte[width * height * 3];
+        new Random(16).nextBytes(rgb);
+        RowBandExecutor executor = new RowBandExecutor(4, 0);
+        int[] serial = new RgbBitmapConverter().convertRgb(rgb, width, height).clone();
+        int[] parallel = new RgbBitmapConverter(executor).convertRgb(rgb, width, height);
+        assertArrayEquals(serial, parallel);
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,131 @@
+package com.shuyi.camera_module.image;
+
+import com.shuyi.camera_module.common.Utils;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class RowBandExecutorTest {
+
+    @Test
+    public void bands_coverEveryRowOnceWithAlignment() {
+        RowBandExecutor executor = new RowBandExecutor(4, 0);
+        final int height = 1078;
+        final int[] visits = new int[height];
+        final AtomicInteger bands = new AtomicInteger();
+        executor.execute(1920, height, 2, new RowBandExecutor.RowKernel() {
+            @Override
+            public void run(int startRow, int endRow) {
+                assertEquals(0, startRow % 2);
+                bands.incrementAndGet();
+                for (int row = startRow; row < endRow; row++) {
+                    synchronized (visits) {
+                        visits[row]++;
+                    }
+                }
+            }
+        });
+        int[] expected = new int[height];
+        Arrays.fill(expected, 1);
+        assertArrayEquals(expected, visits);
+        assertEquals(4, bands.get());
+        executor.shutdown();
+    }
+
+    @Test
+    public void smallImage_runsSeriallyOnCallerThread() {
+        RowBandExecutor executor = new RowBandExecutor(4, RowBandExecutor.DEFAULT_SERIAL_CUTOFF_PIXELS);
+        final Thread caller = Thread.currentThread();
+        final AtomicInteger bands = new AtomicInteger();
+        executor.execute(160, 120, 2, new RowBandExecutor.RowKernel() {
+            @Override
+            public void run(int startRow, int endRow) {
+                assertSame(caller, Thread.currentThread());
+                assertEquals(0, startRow);
+                assertEquals(120, endRow);
+                bands.incrementAndGet();
+            }
+        });
+        assertEquals(1, bands.get());
+        assertEquals(4, executor.getBandCount(1920, 1080, 2));
+        executor.shutdown();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void workerFailure_isRethrown() {
+        RowBandExecutor executor = new RowBandExecutor(2, 0);
+        try {
+            executor.execute(64, 64, 2, new RowBandExecutor.RowKernel() {
+                @Override
+                public void run(int startRow, int endRow) {
+                    if (startRow == 0) {
+                        throw new IllegalStateException("band failed");
+                    }
+                }
+            });
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void parallelKernels_matchSerial() {
+        int width = 1280;
+        int height = 720;
+        byte[] src = new byte[width * height * 3 / 2];
+        new Random(14).nextBytes(src);
+        RowBandExecutor executor = new RowBandExecutor(4, 0);
+
+        int[] serial = new int[width * height];
+        int[] parallel = new int[width * height];
+        assertTrue(NV21ToArgbConverter.convert(src, 0, width * height, width, width, height,
+                YuvColorSpace.BT601_FULL, serial, 0, width));
+        assertTrue(NV21ToArgbConverter.convert(src, 0, width * height, width, width, height,
+                YuvColorSpace.BT601_FULL, parallel, 0, width, executor));
+        assertArrayEquals(serial, parallel);
+
+        byte[] clipped = new byte[Utils.getClippedNV21Size(1000, 600)];
+        assertTrue(Utils.clipNV21Into(src, width, height, 100, 60, 1000, 600, clipped, executor));
+        assertArrayEquals(Utils.clipNV21(src, width, height, 100, 60, 1000, 600), clipped);
+        executor.shutdown();
+    }
+
+    /**
+     * 1080p的NV21转ARGB在1到N个线程下的耗时;只打印结果,不做断言
+     */
+    @Test
+    public void scaling_1080pNV21ToArgb() {
+        int width = 1920;
+        int height = 1080;
+        byte[] src = new byte[width * height * 3 / 2];
+        new Random(15).nextBytes(src);
+        int[] dst = new int[width * height];
+        int maxThreads = Math.max(4, Runtime.getRuntime().availableProcessors());
+        double serialMs = 0;
+        for (int threads = 1; threads <= maxThreads; threads++) {
+            RowBandExecutor executor = new RowBandExecutor(threads, 0);
+            for (int i = 0; i < 10; i++) {
+                NV21ToArgbConverter.convert(src, 0, width * height, width, width, height,
+                        YuvColorSpace.BT601_FULL, dst, 0, width, executor);
+            }
+            int iterations = 20;
+            long startNs = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                NV21ToArgbConverter.convert(src, 0, width * height, width, width, height,
+                        YuvColorSpace.BT601_FULL, dst, 0, width, executor);
+            }
+            double ms = (System.nanoTime() - startNs) / 1e6 / iterations;
+            if (threads == 1) {
+                serialMs = ms;
+            }
+            System.out.println(String.format("NV21->ARGB 1080p, %d thread(s): %.2f ms/frame, speedup %.2fx",
+                    threads, ms, serialMs / ms));
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.shuyi.camera_module.image;
+
+import com.shuyi.camera_module.common.Utils;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class YuvConverterTest {
+
+    private static final int[] FORMATS = {YuvFormats.NV21, YuvFormats.NV12, YuvFormats.I420, YuvFormats.YV12};
+
+    private static byte[] random(int size, long seed) {
+        byte[] data = new byte[size];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    @Test
+    public void allPairs_roundTrip() {
+        int width = 24;
+        int height = 10;
+        int size = YuvFormats.getFrameSize(width, height);
+        for (int from : FORMATS) {
+            byte[] src = random(size, from);
+            for (int to : FORMATS) {
+                byte[] converted = new byte[size];
+                byte[] back = new byte[size];
+                assertTrue(YuvConverter.convert(src, from, width, height, converted, to));
+                assertTrue(YuvConverter.convert(converted, to, width, height, back, from));
+                assertArrayEquals(YuvFormats.getName(from) + " -> " + YuvFormats.getName(to), src, back);
+            }
+        }
+    }
+
+    @Test
+    public void layouts_smallFrame() {
+        // 2x2的帧: Y=1,2,3,4, U=5, V=6
+        byte[] i420 = {1, 2, 3, 4, 5, 6};
+        byte[] dst = new byte[6];
+        assertTrue(YuvConverter.convert(i420, YuvFormats.I420, 2, 2, dst, YuvFormats.NV21));
+        assertArrayEquals(new byte[]{1, 2, 3, 4, 6, 5}, dst);
+        assertTrue(YuvConverter.convert(i420, YuvFormats.I420, 2, 2, dst, YuvFormats.NV12));
+        assertArrayEquals(new byte[]{1, 2, 3, 4, 5, 6}, dst);
+        assertTrue(YuvConverter.convert(i420, YuvFormats.I420, 2, 2, dst, YuvFormats.YV12));
+        assertArrayEquals(new byte[]{1, 2, 3, 4, 6, 5}, dst);
+
+        // 4x2的帧: U=10,11, V=20,21
+        byte[] nv21 = {0, 0, 0, 0, 0, 0, 0, 0, 20, 10, 21, 11};
+        byte[] planar = new byte[12];
+        assertTrue(YuvConverter.convert(nv21, YuvFormats.NV21, 4, 2, planar, YuvFormats.I420));
+        assertArrayEquals(new byte[]{0, 0, 0, 0, 0, 0, 0, 0, 10, 11, 20, 21}, planar);
+    }
+
+    @Test
+    public void fusedCrop_matchesClipThenConvert() {
+        int width = 64;
+        int height = 48;
+        byte[] nv21 = random(YuvFormats.getFrameSize(width, height), 12);
+        byte[] clipped = Utils.clipNV21(nv21, width, height, 10, 6, 40, 30);
+        int size = YuvFormats.getFrameSize(40, 30);
+        for (int to : FORMATS) {
+            byte[] expected = new byte[size];
+            assertTrue(YuvConverter.convert(clipped, YuvFormats.NV21, 40, 30, expected, to));
+            byte[] fused = new byte[size];
+            assertTrue(YuvConverter.convert(nv21, YuvFormats.NV21, width, height, 10, 6, 40, 30, fused, to));
+            assertArrayEquals(YuvFormats.getName(to), expected, fused);
+        }
+    }
+
+    @Test
+    public void planarCrop_roundTrip() {
+        int width = 32;
+        int height = 16;
+        byte[] nv21 = random(YuvFormats.getFrameSize(width, height), 13);
+        byte[] i420 = new byte[nv21.length];
+        assertTrue(YuvConverter.convert(nv21, YuvFormats.NV21, width, height, i420, YuvFormats.I420));
+        byte[] fromPlanar = new byte[YuvFormats.getFrameSize(8, 6)];
+        assertTrue(YuvConverter.convert(i420, YuvFormats.I420, width, height, 4, 2, 8, 6, fromPlanar, YuvFormats.NV21));
+        assertArrayEquals(Utils.clipNV21(nv21, width, height, 4, 2, 8, 6), fromPlanar);
+    }
+
+    @Test
+    public void badArguments_returnFalse() {
+        byte[] src = new byte[24];
+        byte[] dst = new byte[24];
+        assertFalse(YuvConverter.convert(src, YuvFormats.NV21, 4, 4, dst, 0x12345678));
+        assertFalse(YuvConverter.convert(src, YuvFormats.NV21, 4, 4, 1, 0, 2, 2, dst, YuvFormats.I420));
+        assertFalse(YuvConverter.convert(src, YuvFormats.NV21, 4, 4, 2, 2, 4, 2, dst, YuvFormats.I420));
+        assertFalse(YuvConverter.convert(src, YuvFormats.NV21, 4, 4, new byte[23], YuvFormats.I420));
+        assertTrue(YuvFormats.isSupported(YuvFormats.I420));
+        assertFalse(YuvFormats.isSupported(0));
+    }
+}
@@ -0,0 +1,195 @@
+package com.shuyi.camera_module.io;
+
+import com.shuyi.camera_module.frame.Frame;
+import com.shuyi.camera_module.image.YuvFormats;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class FrameRecorderTest {
+
+    private static final int WIDTH = 64;
+
+    private static final int HEIGHT = 48;
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("recording", ".raw");
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    private static byte[] frameData(int seed) {
+        byte[] data = new byte[YuvFormats.getFrameSize(WIDTH, HEIGHT)];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i * 13 + seed * 7);
+        }
+        return data;
+    }
+
+    private static Frame frame(int seed) {
+        return new Frame(frameData(seed), seed, 1000L * seed, WIDTH, HEIGHT, WIDTH, YuvFormats.NV21, null);
+    }
+
+    @Test
+    public void ring_keepsLatestFramesWithRandomAccess() throws IOException {
+        FrameRecorder recorder = new FrameRecorder(mFile, WIDTH, HEIGHT, YuvFormats.NV21, 4);
+        for (int i = 0; i < 6; i++) {
+            assertTrue(recorder.record(frame(i), 100 + i, 90, i % 2 == 1));
+        }
+        recorder.close();
+        assertEquals(6, recorder.getRecordedCount());
+
+        FrameRecording recording = FrameRecording.open(mFile);
+        assertEquals(WIDTH, recording.getWidth());
+        assertEquals(HEIGHT, recording.getHeight());
+        assertEquals(YuvFormats.NV21, recording.getFormat());
+        assertEquals(90, recording.getRotation());
+        assertFalse(recording.isMirror());
+        assertEquals(6, recording.getCommittedCount());
+        assertEquals(2, recording.getFirstFrameNumber());
+        assertEquals(4, recording.getFrameCount());
+
+        byte[] dst = new byte[recording.getFrameSize()];
+        assertFalse(recording.readFrame(1, dst));
+        assertFalse(recording.readFrame(6, dst));
+        // 倒序读取,验证随机访问
+        for (int i = 5; i >= 2; i--) {
+            assertTrue(recording.readFrame(i, dst));
+            assertArrayEquals(frameData(i), dst);
+            assertEquals(1000L * i, recording.getLastTimestampNs());
+            assertEquals(100 + i, recording.getLastSequence());
+            assertEquals(90, recording.getLastRotation());
+            assertEquals(i % 2 == 1, recording.isLastMirror());
+        }
+        Frame frame = recording.readFrame(3);
+        assertEquals(3000L, frame.getTimestampNs());
+        assertEquals(103, frame.getSequence());
+        assertTrue(frame.isCompact());
+        recording.close();
+    }
+
+    @Test
+    public void index_findsFrameByTimestamp() throws IOException {
+        FrameRecorder recorder = new FrameRecorder(mFile, WIDTH, HEIGHT, YuvFormats.NV21, 8);
+        for (int i = 0; i < 13; i++) {
+            recorder.record(frame(i), i, 0, false);
+        }
+        FrameRecording recording = FrameRecording.open(mFile);
+        assertEquals(5, recording.findFrame(0));
+        assertEquals(5, recording.findFrame(5000));
+        assertEquals(8, recording.findFrame(7001));
+        assertEquals(12, recording.findFrame(12000));
+        assertEquals(-1, recording.findFrame(12001));
+        assertEquals(-1, recording.getTimestampNs(4));
+        assertEquals(9000, recording.getTimestampNs(9));
+        recording.close();
+        recorder.close();
+    }
+
+    @Test
+    public void liveRecording_isVisibleToReader() throws IOException {
+        FrameRecorder recorder = new FrameRecorder(mFile, WIDTH, HEIGHT, YuvFormats.NV21, 3);
+        FrameRecording recording = FrameRecording.open(mFile);
+        assertEquals(0, recording.getFrameCount());
+        assertEquals(-1, recording.findFrame(0));
+
+        recorder.record(frame(0), 0, 0, false);
+        assertEquals(1, recording.getFrameCount());
+        byte[] dst = new byte[recording.getFrameSize()];
+        assertTrue(recording.readFrame(0, dst));
+        for (int i = 1; i < 5; i++) {
+            recorder.record(frame(i), i, 0, false);
+        }
+        // 第0帧所在的槽位已经被覆盖
+        assertFalse(recording.readFrame(0, dst));
+        assertTrue(recording.readFrame(4, dst));
+        assertArrayEquals(frameData(4), dst);
+        recording.close();
+        recorder.close();
+    }
+
+    @Test
+    public void viewFrame_isRecordedCompactly() throws IOException {
+        int stride = 160;
+        int bufferHeight = 120;
+        byte[] buffer = new byte[stride * bufferHeight * 3 / 2];
+        for (int i = 0; i < buffer.length; i++) {
+            buffer[i] = (byte) (i * 31);
+        }
+        Frame view = new Frame(buffer, 7, 7000, WIDTH, HEIGHT, stride, 32, 10, bufferHeight, YuvFormats.NV21, null);
+        byte[] expected = new byte[view.getCompactSize()];
+        assertTrue(view.copyTo(expected));
+
+        FrameRecorder recorder = new FrameRecorder(mFile, WIDTH, HEIGHT, YuvFormats.NV21, 2);
+        assertTrue(recorder.record(view, 7, 0, false));
+        assertFalse(recorder.record(new Frame(new byte[32 * 32 * 3 / 2], 8, 0, 32, 32, 32, YuvFormats.NV21, null), 8, 0, false));
+        assertEquals(1, recorder.getDroppedCount());
+        recorder.close();
+        assertFalse(recorder.record(view, 9, 0, false));
+
+        FrameRecording recording = FrameRecording.open(mFile);
+        assertEquals(1, recording.getFrameCount());
+        byte[] dst = new byte[recording.getFrameSize()];
+        assertTrue(recording.readFrame(0, dst));
+        assertArrayEquals(expected, dst);
+        recording.close();
+    }
+
+    @Test(expected = IOException.class)
+    public void open_rejectsOtherFiles() throws IOException {
+        byte[] garbage = new byte[8192];
+        Arrays.fill(garbage, (byte) 1);
+        Files.write(mFile.toPath(), garbage);
+        FrameRecording.open(mFile);
+    }
+
+    /**
+     * 1080p录制的单帧写入耗时;30fps需要远小于33ms
+     */
+    @Test
+    public void benchmark_recording1080p() throws IOException {
+        int width = 1920;
+        int height = 1080;
+        int capacity = 16;
+        byte[] data = new byte[YuvFormats.getFrameSize(width, height)];
+        Arrays.fill(data, (byte) 128);
+        long startNs = System.nanoTime();
+        FrameRecorder recorder = new FrameRecorder(mFile, width, height, YuvFormats.NV21, capacity);
+        double preallocateMs = (System.nanoTime() - startNs) / 1e6;
+        int frames = 90;
+        startNs = System.nanoTime();
+        for (int i = 0; i < frames; i++) {
+            data[0] = (byte) i;
+            assertTrue(recorder.record(new Frame(data, i, i * 33333333L, width, height, width, YuvFormats.NV21, null),
+                    i, 90, false));
+        }
+        double recordMs = (System.nanoTime() - startNs) / 1e6 / frames;
+        recorder.close();
+
+        FrameRecording recording = FrameRecording.open(mFile);
+        byte[] dst = new byte[recording.getFrameSize()];
+        startNs = System.nanoTime();
+        for (long i = recording.getFirstFrameNumber(); i < recording.getCommittedCount(); i++) {
+            assertTrue(recording.readFrame(i, dst));
+            assertEquals((byte) i, dst[0]);
+        }
+        double readMs = (System.nanoTime() - startNs) / 1e6 / capacity;
+        recording.close();
+        System.out.println(String.format("recording 1080p x%d: preallocate %.1f ms, record %.2f ms/frame, read %.2f ms/frame",
+                capacity, preallocateMs, recordMs, readMs));
+    }
+}
@@ -0,0 +1,198 @@
+package com.shuyi.camera_module.io;
+
+import com.shuyi.camera_module.common.Callback;
+import com.shuyi.camera_module.common.Result;
+import com.shuyi.camera_module.common.ResultCode;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ImageWriterTest {
+
+    /**
+     * 直接写出字节数组的编码器
+     */
+    private static final ImageWriter.Encoder<byte[]> RAW = new ImageWriter.Encoder<byte[]>() {
+        @Override
+        public void encode(byte[] source, OutputStream out) throws IOException {
+            out.write(source);
+        }
+    };
+
+    private File mDir;
+
+    @Before
+    public void setUp() throws IOException {
+        mDir = Files.createTempDirectory("image_writer").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = mDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDir.delete();
+    }
+
+    private static class ResultCollector implements Callback<ImageWriter.WriteInfo> {
+        final List<Result<ImageWriter.WriteInfo>> results =
+                Collections.synchronizedList(new ArrayList<Result<ImageWriter.WriteInfo>>());
+        final CountDownLatch latch;
+
+        ResultCollector(int count) {
+            latch = new CountDownLatch(count);
+        }
+
+        @Override
+        public void callback(Result<ImageWriter.WriteInfo> result) {
+            results.add(result);
+            latch.countDown();
+        }
+    }
+
+    @Test
+    public void submit_writesFileAtomicallyAndReportsInfo() throws Exception {
+        ImageWriter writer = new ImageWriter(new ImageWriter.Options().setFsyncPolicy(ImageWriter.FsyncPolicy.ALL));
+        File file = new File(new File(mDir, "sub"), "a.jpg");
+        byte[] content = new byte[300 * 1024];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) (i * 7);
+        }
+        ResultCollector collector = new ResultCollector(1);
+        assertTrue(writer.submit(content, RAW, file, collector));
+        assertTrue(collector.latch.await(5, TimeUnit.SECONDS));
+
+        Result<ImageWriter.WriteInfo> result = collector.results.get(0);
+        assertTrue(result.SUCCESS);
+        assertEquals(ResultCode.SUCCESS, result.CODE);
+        assertEquals(file, result.DATA.file);
+        assertEquals(content.length, result.DATA.bytes);
+        assertArrayEquals(content, Files.readAllBytes(file.toPath()));
+        // 临时文件已经被重命名
+        assertEquals(Arrays.asList("a.jpg"), Arrays.asList(file.getParentFile().list()));
+        assertEquals(1, writer.getWrittenCount());
+        assertEquals(content.length, writer.getWrittenBytes());
+
+        writer.shutdown();
+        assertTrue(writer.awaitTermination(5, TimeUnit.SECONDS));
+        file.delete();
+        file.getParentFile().delete();
+    }
+
+    @Test
+    public void encodeFailure_keepsPreviousFile() throws Exception {
+        ImageWriter writer = new ImageWriter(new ImageWriter.Options());
+        File file = new File(mDir, "b.jpg");
+        Files.write(file.toPath(), new byte[]{1, 2, 3});
+        ResultCollector collector = new ResultCollector(1);
+        writer.submit(new byte[]{9, 9, 9, 9}, new ImageWriter.Encoder<byte[]>() {
+            @Override
+            public void encode(byte[] source, OutputStream out) throws IOException {
+                out.write(source, 0, 2);
+                throw new IOException("broken encoder");
+            }
+        }, file, collector);
+        assertTrue(collector.latch.await(5, TimeUnit.SECONDS));
+
+        Result<ImageWriter.WriteInfo> result = collector.results.get(0);
+        assertFalse(result.SUCCESS);
+        assertEquals(ResultCode.IMAGE_ENCODE_ERROR, result.CODE);
+        assertArrayEquals(new byte[]{1, 2, 3}, Files.readAllBytes(file.toPath()));
+        assertEquals(Arrays.asList("b.jpg"), Arrays.asList(mDir.list()));
+        assertEquals(1, writer.getFailedCount());
+        writer.shutdown();
+    }
+
+    @Test
+    public void fullQueue_rejectsWithoutBlocking() throws Exception {
+        ImageWriter writer = new ImageWriter(new ImageWriter.Options()
+                .setEncoderThreads(1)
+                .setQueueCapacity(1));
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        ImageWriter.Encoder<byte[]> blocking = new ImageWriter.Encoder<byte[]>() {
+            @Override
+            public void encode(byte[] source, OutputStream out) throws IOException {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                out.write(source);
+            }
+        };
+        ResultCollector collector = new ResultCollector(3);
+        assertTrue(writer.submit(new byte[]{1}, blocking, new File(mDir, "1"), collector));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        assertTrue(writer.submit(new byte[]{2}, blocking, new File(mDir, "2"), collector));
+        assertFalse(writer.submit(new byte[]{3}, blocking, new File(mDir, "3"), collector));
+
+        // 被拒绝的图片在调用线程中立即回调
+        assertEquals(1, collector.results.size());
+        assertEquals(ResultCode.IMAGE_WRITER_REJECTED, collector.results.get(0).CODE);
+        assertEquals(1, writer.getRejectedCount());
+        assertEquals(2, writer.getPendingCount());
+
+        release.countDown();
+        writer.shutdown();
+        assertTrue(writer.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(2, writer.getWrittenCount());
+        assertFalse(writer.submit(new byte[]{4}, blocking, new File(mDir, "4"), null));
+        assertEquals(Arrays.asList("1", "2"), sorted(mDir.list()));
+    }
+
+    private static List<String> sorted(String[] names) {
+        List<String> list = new ArrayList<>(Arrays.asList(names));
+        Collections.sort(list);
+        return list;
+    }
+
+    /**
+     * 统计不同落盘策略下的吞吐量与排队时间;提交的线程以固定的间隔提交,模拟连拍
+     */
+    @Test
+    public void benchmark_throughputAndQueueLatency() throws Exception {
+        byte[] image = new byte[400 * 1024];
+        for (int i = 0; i < image.length; i++) {
+            image[i] = (byte) (i * 31);
+        }
+        int count = 120;
+        for (ImageWriter.FsyncPolicy policy : ImageWriter.FsyncPolicy.values()) {
+            ImageWriter writer = new ImageWriter(new ImageWriter.Options()
+                    .setFsyncPolicy(policy)
+                    .setQueueCapacity(count));
+            ResultCollector collector = new ResultCollector(count);
+            long startNs = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                assertTrue(writer.submit(image, RAW, new File(mDir, "burst_" + (i % 8) + ".jpg"), collector));
+            }
+            assertTrue(collector.latch.await(60, TimeUnit.SECONDS));
+            double seconds = (System.nanoTime() - startNs) / 1e9;
+            assertEquals(count, writer.getWrittenCount());
+            System.out.println(String.format("fsync %s: %.1f images/s, %.1f MB/s, queue latency avg %.2f ms, max %.2f ms",
+                    policy, count / seconds, writer.getWrittenBytes() / seconds / 1e6,
+                    writer.getAverageQueueLatencyNs() / 1e6, writer.getMaxQueueLatencyNs() / 1e6));
+            writer.shutdown();
+            assertTrue(writer.awaitTermination(5, TimeUnit.SECONDS));
+        }
+        assertEquals(8, mDir.list().length);
+    }
+}